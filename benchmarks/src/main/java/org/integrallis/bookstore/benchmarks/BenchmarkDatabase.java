@@ -0,0 +1,154 @@
+package org.integrallis.bookstore.benchmarks;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Calendar;
+
+import org.apache.log4j.Logger;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+
+/**
+ * Fills a freshly created BookStore schema with a synthetic catalog.
+ *
+ * For a scale of N books there are N/100 stores (at least 10), one to three
+ * authors per book, every tenth book is an ElectronicBook and each book is
+ * stocked in three stores. Publication dates are spread over 2000-2009.
+ */
+public class BenchmarkDatabase {
+	private static Logger logger = Logger.getLogger(BenchmarkDatabase.class);
+
+	private static final String[] LAST_NAMES = { "Sam-Bodden", "Nusairat",
+			"Ford", "Subramanian", "Davis", "Schutta", "Asleson", "Bloch",
+			"Goetz", "Fowler" };
+
+	private final Configuration configuration;
+	private final int books;
+	private final int stores;
+
+	public BenchmarkDatabase(Configuration configuration, int books) {
+		this.configuration = configuration;
+		this.books = books;
+		this.stores = Math.max(10, books / 100);
+	}
+
+	public int getBooks() {
+		return books;
+	}
+
+	public int getStores() {
+		return stores;
+	}
+
+	/**
+	 * Fills the (empty) schema DatabaseMode created for the configuration
+	 */
+	public void seed() throws SQLException {
+		Connection connection = DriverManager.getConnection(configuration
+				.getProperty(Environment.URL), configuration
+				.getProperty(Environment.USER), configuration
+				.getProperty(Environment.PASS));
+		try {
+			connection.setAutoCommit(false);
+			seed(connection);
+			connection.commit();
+		} finally {
+			connection.close();
+		}
+		logger.info("seeded " + books + " books in " + stores + " stores");
+	}
+
+	private void seed(Connection connection) throws SQLException {
+		PreparedStatement insertStore = connection
+				.prepareStatement("INSERT INTO Store (STORE_ID, NickName, Street1, Street2, City, State, ZipCode, Version) VALUES (?, ?, ?, '', 'Phoenix', 'AZ', '85050', 1)");
+		for (int i = 1; i <= stores; i++) {
+			insertStore.setLong(1, i);
+			insertStore.setString(2, "Store " + i);
+			insertStore.setString(3, i + " N. Tatum Blvd.");
+			insertStore.addBatch();
+		}
+		insertStore.executeBatch();
+		insertStore.close();
+
+		PreparedStatement insertBook = connection
+				.prepareStatement("INSERT INTO Book (BOOK_ID, ISBN, Title, PublishedOn, Price, Version, BOOK_TYPE, URL, FileType) VALUES (?, ?, ?, ?, ?, 1, ?, ?, ?)");
+		PreparedStatement insertAuthor = connection
+				.prepareStatement("INSERT INTO BookAuthors (BOOK_ID, FirstName, LastName) VALUES (?, ?, ?)");
+		PreparedStatement insertInventory = connection
+				.prepareStatement("INSERT INTO Inventory (INVENTORY_ID, BOOK_ID, STORE_ID, Quantity, Version) VALUES (?, ?, ?, ?, 1)");
+
+		long inventoryId = 0;
+		Calendar calendar = Calendar.getInstance();
+		for (int id = 1; id <= books; id++) {
+			calendar.clear();
+			calendar.set(2000 + id % 10, id % 12, 1 + id % 28);
+			insertBook.setLong(1, id);
+			insertBook.setString(2, isbn(id));
+			insertBook.setString(3, "Book Title " + id);
+			insertBook.setDate(4, new Date(calendar.getTimeInMillis()));
+			// 10.00 to 99.99
+			insertBook.setBigDecimal(5, BigDecimal.valueOf(1000 + id % 9000, 2));
+			if (id % 10 == 0) {
+				insertBook.setString(6, "E");
+				insertBook.setString(7, "http://books.example.com/" + id);
+				insertBook.setString(8, "PDF");
+			} else {
+				insertBook.setString(6, "B");
+				insertBook.setNull(7, Types.VARCHAR);
+				insertBook.setNull(8, Types.VARCHAR);
+			}
+			insertBook.addBatch();
+
+			for (int a = 0; a <= id % 3; a++) {
+				insertAuthor.setLong(1, id);
+				insertAuthor.setString(2, "Author" + a);
+				insertAuthor.setString(3, LAST_NAMES[(id + a) % LAST_NAMES.length]);
+				insertAuthor.addBatch();
+			}
+			for (int s = 0; s < 3; s++) {
+				insertInventory.setLong(1, ++inventoryId);
+				insertInventory.setLong(2, id);
+				insertInventory.setLong(3, 1 + (id + s) % stores);
+				insertInventory.setInt(4, 1 + id % 20);
+				insertInventory.addBatch();
+			}
+			if (id % 1000 == 0 || id == books) {
+				// parents first
+				insertBook.executeBatch();
+				insertAuthor.executeBatch();
+				insertInventory.executeBatch();
+			}
+		}
+		insertBook.close();
+		insertAuthor.close();
+		insertInventory.close();
+
+		PreparedStatement insertNextId = connection
+				.prepareStatement("INSERT INTO ID_GENERATOR (SEGMENT_NAME, NEXT_VAL) VALUES (?, ?)");
+		insertNextId.setString(1, "Store");
+		insertNextId.setLong(2, stores + 1);
+		insertNextId.addBatch();
+		insertNextId.setString(1, "Book");
+		insertNextId.setLong(2, books + 1);
+		insertNextId.addBatch();
+		insertNextId.setString(1, "Inventory");
+		insertNextId.setLong(2, inventoryId + 1);
+		insertNextId.addBatch();
+		insertNextId.executeBatch();
+		insertNextId.close();
+	}
+
+	public static String isbn(long id) {
+		String digits = Long.toString(id);
+		StringBuilder isbn = new StringBuilder(10);
+		for (int i = digits.length(); i < 10; i++) {
+			isbn.append('0');
+		}
+		return isbn.append(digits).toString();
+	}
+}
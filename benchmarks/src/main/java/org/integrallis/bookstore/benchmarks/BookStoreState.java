@@ -0,0 +1,63 @@
+package org.integrallis.bookstore.benchmarks;
+
+import org.apache.log4j.Logger;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+import org.integrallis.hibernate.DatabaseMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * One seeded in-memory database and SessionFactory per benchmark trial.
+ */
+@State(Scope.Benchmark)
+public class BookStoreState {
+
+	/*
+	 * JVM options of the benchmark forks: javassist builds the lazy proxies
+	 * only with java.lang opened, which Java 8 ignores
+	 */
+	public static final String IGNORE_UNRECOGNIZED = "-XX:+IgnoreUnrecognizedVMOptions";
+	public static final String OPEN_JAVA_LANG = "--add-opens=java.base/java.lang=ALL-UNNAMED";
+
+	@Param({ "10000" })
+	public int books;
+
+	public BenchmarkDatabase database;
+	public SessionFactory sessionFactory;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		// keep Hibernate's startup chatter out of the benchmark output
+		Logger.getLogger("org.hibernate").setLevel(org.apache.log4j.Level.WARN);
+		Configuration configuration = configure(books);
+		database = new BenchmarkDatabase(configuration, books);
+		database.seed();
+		sessionFactory = configuration.buildSessionFactory();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		sessionFactory.close();
+	}
+
+	/**
+	 * The bookstore's own hibernate.cfg.xml pointed at an empty in-memory
+	 * database, with SQL echoing turned off
+	 */
+	public static Configuration configure(int books) {
+		Configuration configuration = new Configuration().configure()
+				.setProperty(DatabaseMode.MODE, DatabaseMode.MEMORY.name())
+				.setProperty(DatabaseMode.NAME, "benchmark-" + books)
+				.setProperty(DatabaseMode.SCRIPTS, "../db/scripts")
+				.setProperty(DatabaseMode.SEED, "false")
+				.setProperty(Environment.SHOW_SQL, "false");
+		DatabaseMode.configure(configuration);
+		return configuration;
+	}
+}
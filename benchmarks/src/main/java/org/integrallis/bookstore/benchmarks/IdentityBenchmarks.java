@@ -0,0 +1,100 @@
+package org.integrallis.bookstore.benchmarks;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.integrallis.bookstore.domain.Book;
+import org.integrallis.bookstore.domain.Inventory;
+import org.integrallis.bookstore.domain.Money;
+import org.integrallis.bookstore.domain.Store;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The business key equals and hashCode the persistence context and the
+ * entity collections call all the time, on detached copies so no database
+ * is involved. Run through BenchmarkMain (or with -prof gc): gc.alloc.rate.norm
+ * is expected to be about 0 B/op for everything but toString.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { BookStoreState.IGNORE_UNRECOGNIZED,
+		BookStoreState.OPEN_JAVA_LANG })
+@State(Scope.Thread)
+public class IdentityBenchmarks {
+
+	private Book book;
+	private Book sameBook;
+	private Store store;
+	private Store sameStore;
+	private Inventory inventory;
+	private Inventory sameInventory;
+	private Set<Inventory> inventoryRecords;
+
+	@Setup
+	public void setUp() {
+		book = new Book(BenchmarkDatabase.isbn(42), "Book Title 42", null,
+				Money.valueOf(42.0));
+		sameBook = new Book(BenchmarkDatabase.isbn(42), null, null, null);
+		store = new Store("Store 7", "7 N. Tatum Blvd.", "Phoenix", "AZ", "85050");
+		sameStore = new Store("Store 7", null, null, null, null);
+		for (int i = 1; i <= 3; i++) {
+			book.addInventoryRecord(new Store("Store " + i, null, null, null,
+					null), i);
+		}
+		inventory = new Inventory(store, 5);
+		book.addInventoryRecord(inventory);
+		sameInventory = new Inventory(sameStore, 1);
+		sameBook.addInventoryRecord(sameInventory);
+		inventoryRecords = new HashSet<Inventory>(book.getInventoryRecords());
+	}
+
+	@Benchmark
+	public boolean bookEquals() {
+		return book.equals(sameBook);
+	}
+
+	@Benchmark
+	public int bookHashCode() {
+		return book.hashCode();
+	}
+
+	@Benchmark
+	public boolean storeEquals() {
+		return store.equals(sameStore);
+	}
+
+	@Benchmark
+	public boolean inventoryEquals() {
+		return inventory.equals(sameInventory);
+	}
+
+	@Benchmark
+	public int inventoryHashCode() {
+		return inventory.hashCode();
+	}
+
+	/**
+	 * What Book.inventoryRecords does on add and contains
+	 */
+	@Benchmark
+	public boolean inventoryRecordsContains() {
+		return inventoryRecords.contains(sameInventory);
+	}
+
+	@Benchmark
+	public String inventoryToString() {
+		return inventory.toString();
+	}
+}
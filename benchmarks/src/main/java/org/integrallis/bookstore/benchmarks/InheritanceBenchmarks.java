@@ -0,0 +1,132 @@
+package org.integrallis.bookstore.benchmarks;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Catalog listings and ISBN lookups with ElectronicBook mapped to the Book
+ * table through the BOOK_TYPE discriminator (single-table, the shipped
+ * mapping) and as the joined-subclass it used to be (joined, JoinedBook.hbm.xml
+ * over an ElectronicBook table copied from the same catalog).
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { BookStoreState.IGNORE_UNRECOGNIZED,
+		BookStoreState.OPEN_JAVA_LANG })
+public class InheritanceBenchmarks {
+
+	private static final int PAGE_SIZE = 20;
+
+	@State(Scope.Benchmark)
+	public static class Catalog {
+		private static Logger logger = Logger.getLogger(Catalog.class);
+
+		@Param({ "10000" })
+		public int books;
+
+		@Param({ "single-table", "joined" })
+		public String strategy;
+
+		SessionFactory sessionFactory;
+
+		@Setup(Level.Trial)
+		public void setUp() throws Exception {
+			Logger.getLogger("org.hibernate").setLevel(org.apache.log4j.Level.WARN);
+			Configuration configuration = BookStoreState.configure(books);
+			new BenchmarkDatabase(configuration, books).seed();
+			if ("joined".equals(strategy)) {
+				configuration = joined(configuration);
+			}
+			sessionFactory = configuration.buildSessionFactory();
+			logger.info(strategy + " mapping of " + books + " books");
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			sessionFactory.close();
+		}
+
+		/**
+		 * The same settings with the joined-subclass Book mapping, over an
+		 * ElectronicBook table filled from the electronic rows of Book
+		 */
+		private static Configuration joined(Configuration configuration)
+				throws Exception {
+			Connection connection = DriverManager.getConnection(configuration
+					.getProperty(Environment.URL), configuration
+					.getProperty(Environment.USER), configuration
+					.getProperty(Environment.PASS));
+			try {
+				Statement statement = connection.createStatement();
+				statement.execute("CREATE TABLE ElectronicBook (BOOK_ID BIGINT NOT NULL, "
+						+ "URL VARCHAR(120) NOT NULL, FileType VARCHAR(40) NOT NULL, "
+						+ "CONSTRAINT PK_ELECTRONIC_BOOK PRIMARY KEY(BOOK_ID))");
+				statement.execute("INSERT INTO ElectronicBook SELECT BOOK_ID, URL, FileType "
+						+ "FROM Book WHERE BOOK_TYPE = 'E'");
+				statement.close();
+			} finally {
+				connection.close();
+			}
+			return new Configuration().addProperties(configuration.getProperties())
+					.addResource("org/integrallis/bookstore/domain/Store.hbm.xml")
+					.addResource("org/integrallis/bookstore/benchmarks/JoinedBook.hbm.xml")
+					.addResource("org/integrallis/bookstore/domain/Inventory.hbm.xml");
+		}
+	}
+
+	/**
+	 * A page of the catalog in id order from a random book on
+	 */
+	@Benchmark
+	public List<?> catalogPage(Catalog catalog) {
+		Session session = catalog.sessionFactory.openSession();
+		try {
+			return session.createQuery("FROM Book b WHERE b.id > :from ORDER BY b.id")
+					.setLong("from", ThreadLocalRandom.current().nextInt(
+							catalog.books - PAGE_SIZE))
+					.setMaxResults(PAGE_SIZE).list();
+		} finally {
+			session.close();
+		}
+	}
+
+	@Benchmark
+	public Object findByIsbn(Catalog catalog) {
+		Session session = catalog.sessionFactory.openSession();
+		try {
+			return session.getNamedQuery("Book.findByISBN").setString("isbn",
+					BenchmarkDatabase.isbn(randomBookId(catalog))).uniqueResult();
+		} finally {
+			session.close();
+		}
+	}
+
+	private static long randomBookId(Catalog catalog) {
+		return 1 + ThreadLocalRandom.current().nextInt(catalog.books);
+	}
+}
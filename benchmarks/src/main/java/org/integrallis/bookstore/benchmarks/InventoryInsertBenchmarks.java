@@ -0,0 +1,123 @@
+package org.integrallis.bookstore.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.integrallis.bookstore.domain.Book;
+import org.integrallis.bookstore.domain.Inventory;
+import org.integrallis.bookstore.domain.Store;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Inserts Inventory records, one per transaction or a hundred per
+ * transaction (sent as JDBC batches now that ids are not identity columns).
+ * Every
+ * thread stocks books into stores it created itself so the (BOOK_ID,
+ * STORE_ID) unique constraint never fires; the rows are removed after each
+ * iteration.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { BookStoreState.IGNORE_UNRECOGNIZED,
+		BookStoreState.OPEN_JAVA_LANG })
+public class InventoryInsertBenchmarks {
+
+	static final int BATCH = 100;
+
+	@State(Scope.Thread)
+	public static class Stocking {
+		private final List<Long> storeIds = new ArrayList<Long>();
+		private Long storeId;
+		private long nextBookId;
+
+		@Setup(Level.Iteration)
+		public void setUp(BookStoreState state) {
+			storeId = null;
+			nextBookId = state.books + 1;
+		}
+
+		@TearDown(Level.Iteration)
+		public void tearDown(BookStoreState state) {
+			Session session = state.sessionFactory.openSession();
+			try {
+				Transaction tx = session.beginTransaction();
+				for (Long id : storeIds) {
+					session.createQuery("DELETE FROM Inventory i WHERE i.store.id = :id")
+							.setLong("id", id).executeUpdate();
+					session.createQuery("DELETE FROM Store s WHERE s.id = :id")
+							.setLong("id", id).executeUpdate();
+				}
+				tx.commit();
+			} finally {
+				session.close();
+			}
+			storeIds.clear();
+		}
+
+		long nextBookId(Session session, BookStoreState state) {
+			if (nextBookId > state.books) {
+				Store store = new Store("Benchmark Store", "1 Main Street",
+						"Mesa", "AZ", "85201");
+				storeId = (Long) session.save(store);
+				storeIds.add(storeId);
+				nextBookId = 1;
+			}
+			return nextBookId++;
+		}
+	}
+
+	@Benchmark
+	public Object insertInventory(BookStoreState state, Stocking stocking) {
+		Session session = state.sessionFactory.openSession();
+		try {
+			Transaction tx = session.beginTransaction();
+			long bookId = stocking.nextBookId(session, state);
+			Inventory inventory = new Inventory((Store) session.load(
+					Store.class, stocking.storeId), 5);
+			inventory.setBook((Book) session.load(Book.class, bookId));
+			Object id = session.save(inventory);
+			tx.commit();
+			return id;
+		} finally {
+			session.close();
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public Object insertInventoryBatch(BookStoreState state, Stocking stocking) {
+		Session session = state.sessionFactory.openSession();
+		try {
+			Transaction tx = session.beginTransaction();
+			Object id = null;
+			for (int i = 0; i < BATCH; i++) {
+				long bookId = stocking.nextBookId(session, state);
+				Inventory inventory = new Inventory((Store) session.load(
+						Store.class, stocking.storeId), 5);
+				inventory.setBook((Book) session.load(Book.class, bookId));
+				id = session.save(inventory);
+			}
+			tx.commit();
+			return id;
+		} finally {
+			session.close();
+		}
+	}
+}
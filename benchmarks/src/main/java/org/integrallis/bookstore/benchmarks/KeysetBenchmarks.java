@@ -0,0 +1,88 @@
+package org.integrallis.bookstore.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.Session;
+import org.integrallis.bookstore.domain.Book;
+import org.integrallis.bookstore.listing.Listings;
+import org.integrallis.hibernate.paging.Page;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A page from the second half of the catalog by title, reached with a keyset
+ * token and with setFirstResult. The offset page reads and discards every
+ * row before it; the keyset page starts the IX_BOOK_TITLE scan at the token.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { BookStoreState.IGNORE_UNRECOGNIZED,
+		BookStoreState.OPEN_JAVA_LANG })
+public class KeysetBenchmarks {
+
+	private static final int PAGE_SIZE = 20;
+
+	@State(Scope.Benchmark)
+	public static class Tokens {
+		// the token of every page of the title listing, in order
+		List<String> tokens = new ArrayList<String>();
+
+		@Setup(Level.Trial)
+		public void setUp(BookStoreState state) {
+			Session session = state.sessionFactory.openSession();
+			try {
+				Page<Book> page = Listings.BOOKS.first(session, "title", false,
+						PAGE_SIZE);
+				while (page.hasNext()) {
+					tokens.add(page.getNextToken());
+					session.clear();
+					page = Listings.BOOKS.next(session, page.getNextToken(), PAGE_SIZE);
+				}
+			} finally {
+				session.close();
+			}
+		}
+
+		int randomDeepPage() {
+			return tokens.size() / 2
+					+ ThreadLocalRandom.current().nextInt(tokens.size() / 2);
+		}
+	}
+
+	@Benchmark
+	public List<?> keysetDeepPage(BookStoreState state, Tokens tokens) {
+		Session session = state.sessionFactory.openSession();
+		try {
+			return Listings.BOOKS.next(session, tokens.tokens.get(tokens
+					.randomDeepPage()), PAGE_SIZE).getItems();
+		} finally {
+			session.close();
+		}
+	}
+
+	@Benchmark
+	public List<?> offsetDeepPage(BookStoreState state, Tokens tokens) {
+		Session session = state.sessionFactory.openSession();
+		try {
+			return session.createQuery("FROM Book b ORDER BY b.title, b.id")
+					.setFirstResult((tokens.randomDeepPage() + 1) * PAGE_SIZE)
+					.setMaxResults(PAGE_SIZE).list();
+		} finally {
+			session.close();
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package org.integrallis.bookstore.benchmarks;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.Session;
+import org.integrallis.bookstore.listing.BookRows;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Catalog list pages loaded as Book entities and as BookRows: a page of the
+ * catalog by title from one of its first pages, and the books of 2008
+ * through publishedBetweenFilter (a tenth of the catalog). Run through
+ * BenchmarkMain (or with -prof gc) for gc.alloc.rate.norm, the memory each
+ * listing costs.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { BookStoreState.IGNORE_UNRECOGNIZED,
+		BookStoreState.OPEN_JAVA_LANG })
+@State(Scope.Benchmark)
+public class ProjectionBenchmarks {
+
+	private static final int PAGE_SIZE = 50;
+	private static final int PAGES = 10;
+
+	private static final Date START_OF_2008 = date(2008, 0, 1);
+	private static final Date END_OF_2008 = date(2008, 11, 31);
+
+	@Benchmark
+	public List<?> entityPage(BookStoreState state) {
+		Session session = state.sessionFactory.openSession();
+		try {
+			return session.createQuery("FROM Book b ORDER BY b.title, b.id")
+					.setFirstResult(randomFirstResult()).setMaxResults(PAGE_SIZE)
+					.list();
+		} finally {
+			session.close();
+		}
+	}
+
+	@Benchmark
+	public List<?> rowPage(BookStoreState state) {
+		Session session = state.sessionFactory.openSession();
+		try {
+			return BookRows.page(session, "title", false, randomFirstResult(),
+					PAGE_SIZE);
+		} finally {
+			session.close();
+		}
+	}
+
+	@Benchmark
+	public List<?> publishedBetweenEntities(BookStoreState state) {
+		Session session = state.sessionFactory.openSession();
+		try {
+			enablePublishedBetween(session);
+			return session.createQuery("FROM Book").list();
+		} finally {
+			session.close();
+		}
+	}
+
+	@Benchmark
+	public List<?> publishedBetweenRows(BookStoreState state) {
+		Session session = state.sessionFactory.openSession();
+		try {
+			enablePublishedBetween(session);
+			return BookRows.createCriteria(session).list();
+		} finally {
+			session.close();
+		}
+	}
+
+	private static void enablePublishedBetween(Session session) {
+		session.enableFilter("publishedBetweenFilter").setParameter("startDate",
+				START_OF_2008).setParameter("endDate", END_OF_2008);
+	}
+
+	private static int randomFirstResult() {
+		return ThreadLocalRandom.current().nextInt(PAGES) * PAGE_SIZE;
+	}
+
+	private static Date date(int year, int month, int day) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		calendar.set(year, month, day);
+		return calendar.getTime();
+	}
+}
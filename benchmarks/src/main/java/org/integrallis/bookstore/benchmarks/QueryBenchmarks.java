@@ -0,0 +1,156 @@
+package org.integrallis.bookstore.benchmarks;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.Session;
+import org.hibernate.criterion.Restrictions;
+import org.integrallis.bookstore.domain.Book;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Read paths exercised by BookStoreORMTests, each in its own session the way
+ * a request would run them. Throughput gives ops/s, SampleTime gives the
+ * latency percentiles.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { BookStoreState.IGNORE_UNRECOGNIZED,
+		BookStoreState.OPEN_JAVA_LANG })
+@State(Scope.Benchmark)
+public class QueryBenchmarks {
+
+	private static final int PAGE_SIZE = 20;
+
+	private static final Date START_OF_2008 = date(2008, 0, 1);
+	private static final Date END_OF_2008 = date(2008, 11, 31);
+
+	@Benchmark
+	public Object getBook(BookStoreState state) {
+		Session session = state.sessionFactory.openSession();
+		try {
+			return session.get(Book.class, randomBookId(state));
+		} finally {
+			session.close();
+		}
+	}
+
+	@Benchmark
+	public Object findByIsbn(BookStoreState state) {
+		Session session = state.sessionFactory.openSession();
+		try {
+			return session.getNamedQuery("Book.findByISBN")
+					.setString("isbn", BenchmarkDatabase.isbn(randomBookId(state)))
+					.uniqueResult();
+		} finally {
+			session.close();
+		}
+	}
+
+	@Benchmark
+	public List<?> publishedBetweenFilter(BookStoreState state) {
+		Session session = state.sessionFactory.openSession();
+		try {
+			session.enableFilter("publishedBetweenFilter")
+					.setParameter("startDate", START_OF_2008)
+					.setParameter("endDate", END_OF_2008);
+			return session.createQuery("FROM Book").list();
+		} finally {
+			session.close();
+		}
+	}
+
+	@Benchmark
+	public List<?> criteriaBetween(BookStoreState state) {
+		Session session = state.sessionFactory.openSession();
+		try {
+			return session.createCriteria(Book.class).add(
+					Restrictions.between(Book.PROPERTY_PUBLISHED_ON,
+							START_OF_2008, END_OF_2008)).list();
+		} finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * A page from the middle of the catalog, the cost of the skipped rows
+	 * grows with the catalog size
+	 */
+	@Benchmark
+	public List<?> paginatedList(BookStoreState state) {
+		Session session = state.sessionFactory.openSession();
+		try {
+			return session.createQuery("FROM Book ORDER BY id")
+					.setFirstResult(state.books / 2)
+					.setMaxResults(PAGE_SIZE).list();
+		} finally {
+			session.close();
+		}
+	}
+
+	@Benchmark
+	public Object totalValueOfBooksForStore(BookStoreState state) {
+		Session session = state.sessionFactory.openSession();
+		try {
+			return session.getNamedQuery("Store.findTotalValueOfBookForStore")
+					.setInteger("store_id", 1 + ThreadLocalRandom.current()
+							.nextInt(state.database.getStores()))
+					.uniqueResult();
+		} finally {
+			session.close();
+		}
+	}
+
+	@Benchmark
+	public Object priceStatistics(BookStoreState state) {
+		Session session = state.sessionFactory.openSession();
+		try {
+			return session.createQuery(
+					"SELECT min(b.price), max(b.price), avg(b.price) FROM Book b")
+					.uniqueResult();
+		} finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * Books with their stock, a price and a quantity hydrated and snapshot
+	 * per row
+	 */
+	@Benchmark
+	public List<?> stockPage(BookStoreState state) {
+		Session session = state.sessionFactory.openSession();
+		try {
+			return session.createQuery(
+					"FROM Inventory i JOIN FETCH i.book WHERE i.book.id > :from")
+					.setLong("from", randomBookId(state) - 1).setMaxResults(PAGE_SIZE)
+					.list();
+		} finally {
+			session.close();
+		}
+	}
+
+	private static long randomBookId(BookStoreState state) {
+		return 1 + ThreadLocalRandom.current().nextInt(state.books);
+	}
+
+	private static Date date(int year, int month, int day) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		calendar.set(year, month, day);
+		return calendar.getTime();
+	}
+}
@@ -0,0 +1,66 @@
+package org.integrallis.bookstore.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.Session;
+import org.integrallis.bookstore.search.BookSearchIndex;
+import org.integrallis.bookstore.search.SearchResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Searches of the BookSearchIndex over the synthetic catalog: a whole word
+ * matching one title, the prefixes of an author name and of a title number,
+ * and the LIKE '%...%' scan the index replaces. The index searches are
+ * expected to stay below a millisecond.
+ */
+@BenchmarkMode({ Mode.AverageTime, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { BookStoreState.IGNORE_UNRECOGNIZED,
+		BookStoreState.OPEN_JAVA_LANG })
+public class SearchBenchmarks {
+
+	@State(Scope.Benchmark)
+	public static class Index {
+		BookSearchIndex index = new BookSearchIndex();
+
+		@Setup(Level.Trial)
+		public void setUp(BookStoreState state) {
+			index.attach(state.sessionFactory);
+		}
+	}
+
+	@Benchmark
+	public SearchResult wholeWord(Index index) {
+		return index.index.search("4242");
+	}
+
+	@Benchmark
+	public SearchResult prefixes(Index index) {
+		return index.index.search("goe 424");
+	}
+
+	@Benchmark
+	public List<?> likeScan(BookStoreState state) {
+		Session session = state.sessionFactory.openSession();
+		try {
+			return session.createQuery(
+					"SELECT b.id FROM Book b WHERE lower(b.title) LIKE :title")
+					.setString("title", "%4242%").list();
+		} finally {
+			session.close();
+		}
+	}
+}
@@ -3,12 +3,21 @@ CONNECT 'jdbc:derby://localhost:1527/BookStore;create=true' USER 'guest' PASSWOR
 
 DROP TABLE Inventory;
 DROP TABLE BookAuthors;
+-- gone since BOOK_TYPE, dropped for databases built before it
 DROP TABLE ElectronicBook;
 DROP TABLE Book;
 DROP TABLE Store;
+DROP TABLE ID_GENERATOR;
+
+-- next free id per entity table, see PooledTableGenerator
+CREATE TABLE ID_GENERATOR (
+   SEGMENT_NAME	VARCHAR(40) NOT NULL,
+   NEXT_VAL		BIGINT NOT NULL,
+   CONSTRAINT	PK_ID_GENERATOR PRIMARY KEY(SEGMENT_NAME)
+);
 
 CREATE TABLE Store (
-    STORE_ID		BIGINT NOT NULL GENERATED ALWAYS AS IDENTITY (START WITH 1, INCREMENT BY 1),
+    STORE_ID		BIGINT NOT NULL,
     NickName	VARCHAR(40),
     Street1     VARCHAR(40),
     Street2		VARCHAR(40),
@@ -16,17 +25,23 @@ CREATE TABLE Store (
     State		VARCHAR(2),
     ZipCode     VARCHAR(10),
     Version		INTEGER,
-    CONSTRAINT	PK_STORE PRIMARY KEY(STORE_ID)
+    CONSTRAINT	PK_STORE PRIMARY KEY(STORE_ID),
+    CONSTRAINT	UNIQUE_STORE_NICKNAME UNIQUE(NickName)
 );
 
 CREATE TABLE Book (
-   BOOK_ID		BIGINT NOT NULL GENERATED ALWAYS AS IDENTITY (START WITH 1, INCREMENT BY 1),
+   BOOK_ID		BIGINT NOT NULL,
    ISBN			VARCHAR(10) NOT NULL,
    Title		VARCHAR(40),
    PublishedOn	DATE,
    Price		DECIMAL(5,2),
    Version		INTEGER,
-   CONSTRAINT	PK_BOOK PRIMARY KEY(BOOK_ID)
+   -- B for a printed book, E for an electronic one with a URL and FileType
+   BOOK_TYPE	CHAR(1) DEFAULT 'B' NOT NULL,
+   URL			VARCHAR(120),
+   FileType		VARCHAR(40),
+   CONSTRAINT	PK_BOOK PRIMARY KEY(BOOK_ID),
+   CONSTRAINT	UNIQUE_BOOK_ISBN UNIQUE(ISBN)
 );
 
 CREATE TABLE BookAuthors (
@@ -37,16 +52,8 @@ CREATE TABLE BookAuthors (
    CONSTRAINT	FK_BOOK_AUTHORS_FOR_BOOK FOREIGN KEY(BOOK_ID) REFERENCES Book(BOOK_ID)
 );
 
-CREATE TABLE ElectronicBook (
-   BOOK_ID		BIGINT NOT NULL,
-   URL			VARCHAR(120) NOT NULL,
-   FileType		VARCHAR(40) NOT NULL,
-   CONSTRAINT	PK_ELECTRONIC_BOOK PRIMARY KEY(BOOK_ID),
-   CONSTRAINT	FK_ELECTRONIC_BOOK_AND_BOOK FOREIGN KEY(BOOK_ID) REFERENCES Book(BOOK_ID)
-);
-
 CREATE TABLE Inventory (
-   INVENTORY_ID	BIGINT NOT NULL GENERATED ALWAYS AS IDENTITY (START WITH 1, INCREMENT BY 1),
+   INVENTORY_ID	BIGINT NOT NULL,
    BOOK_ID		BIGINT NOT NULL,
    STORE_ID		BIGINT NOT NULL,
    Quantity		INTEGER NOT NULL,
@@ -55,4 +62,10 @@ CREATE TABLE Inventory (
    CONSTRAINT	UNIQUE_BOOK_STORE   UNIQUE(BOOK_ID, STORE_ID),
    CONSTRAINT	FK_INVENTORY_FOR_BOOK FOREIGN KEY(BOOK_ID) REFERENCES Book(BOOK_ID),
    CONSTRAINT	FK_INVENTORY_STORE FOREIGN KEY(STORE_ID) REFERENCES Store(STORE_ID)
-);
\ No newline at end of file
+);
+
+-- keyset pagination seeks on (sort column, id), see KeysetPager
+CREATE INDEX IX_BOOK_TITLE ON Book (Title, BOOK_ID);
+CREATE INDEX IX_BOOK_PRICE ON Book (Price, BOOK_ID);
+CREATE INDEX IX_BOOK_PUBLISHEDON ON Book (PublishedOn, BOOK_ID);
+CREATE INDEX IX_STORE_NICKNAME ON Store (NickName, STORE_ID);
\ No newline at end of file
@@ -0,0 +1,20 @@
+DRIVER 'org.apache.derby.jdbc.ClientDriver';
+CONNECT 'jdbc:derby://localhost:1527/BookStore' USER 'guest' PASSWORD 'password';
+
+-- Folds the ElectronicBook table of a BookStore database created by an older
+-- db_create.sql into Book, for the ElectronicBook subclass now mapped to Book
+-- with the BOOK_TYPE discriminator instead of to a joined table. Run with
+-- mvn exec:java -Psql-exec -Dsql.script=db_migrate_book_discriminator.sql
+
+ALTER TABLE Book ADD COLUMN BOOK_TYPE CHAR(1) DEFAULT 'B' NOT NULL;
+ALTER TABLE Book ADD COLUMN URL VARCHAR(120);
+ALTER TABLE Book ADD COLUMN FileType VARCHAR(40);
+
+UPDATE Book SET BOOK_TYPE = 'E',
+   URL = (SELECT e.URL FROM ElectronicBook e WHERE e.BOOK_ID = Book.BOOK_ID),
+   FileType = (SELECT e.FileType FROM ElectronicBook e WHERE e.BOOK_ID = Book.BOOK_ID)
+   WHERE BOOK_ID IN (SELECT BOOK_ID FROM ElectronicBook);
+
+DROP TABLE ElectronicBook;
+
+COMMIT;
@@ -0,0 +1,10 @@
+DRIVER 'org.apache.derby.jdbc.ClientDriver';
+CONNECT 'jdbc:derby://localhost:1527/BookStore' USER 'guest' PASSWORD 'password';
+
+-- Inventory is versioned now; rows written by older BookImporters have no
+-- Version yet. Run with
+-- mvn exec:java -Psql-exec -Dsql.script=db_migrate_inventory_version.sql
+
+UPDATE Inventory SET Version = 0 WHERE Version IS NULL;
+
+COMMIT;
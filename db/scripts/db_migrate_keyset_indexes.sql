@@ -0,0 +1,13 @@
+DRIVER 'org.apache.derby.jdbc.ClientDriver';
+CONNECT 'jdbc:derby://localhost:1527/BookStore' USER 'guest' PASSWORD 'password';
+
+-- Adds the (sort column, id) indexes KeysetPager seeks on to a BookStore
+-- database created by an older db_create.sql. Run with
+-- mvn exec:java -Psql-exec -Dsql.script=db_migrate_keyset_indexes.sql
+
+CREATE INDEX IX_BOOK_TITLE ON Book (Title, BOOK_ID);
+CREATE INDEX IX_BOOK_PRICE ON Book (Price, BOOK_ID);
+CREATE INDEX IX_BOOK_PUBLISHEDON ON Book (PublishedOn, BOOK_ID);
+CREATE INDEX IX_STORE_NICKNAME ON Store (NickName, STORE_ID);
+
+COMMIT;
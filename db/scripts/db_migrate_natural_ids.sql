@@ -0,0 +1,12 @@
+DRIVER 'org.apache.derby.jdbc.ClientDriver';
+CONNECT 'jdbc:derby://localhost:1527/BookStore' USER 'guest' PASSWORD 'password';
+
+-- Makes Book.ISBN and Store.NickName, the natural ids, unique (and indexed) in
+-- a BookStore database created by an older db_create.sql. Duplicates must be
+-- resolved first. Run with
+-- mvn exec:java -Psql-exec -Dsql.script=db_migrate_natural_ids.sql
+
+ALTER TABLE Book ADD CONSTRAINT UNIQUE_BOOK_ISBN UNIQUE(ISBN);
+ALTER TABLE Store ADD CONSTRAINT UNIQUE_STORE_NICKNAME UNIQUE(NickName);
+
+COMMIT;
@@ -0,0 +1,70 @@
+DRIVER 'org.apache.derby.jdbc.ClientDriver';
+CONNECT 'jdbc:derby://localhost:1527/BookStore' USER 'guest' PASSWORD 'password';
+
+-- Moves a BookStore database created by an older db_create.sql from
+-- GENERATED ALWAYS AS IDENTITY keys to ids assigned by PooledTableGenerator.
+-- Derby cannot drop the identity attribute of a column, so Store, Book and
+-- Inventory are copied into plain BIGINT tables and swapped in, and the
+-- generator table is seeded just above the highest existing id.
+
+ALTER TABLE Inventory DROP CONSTRAINT FK_INVENTORY_FOR_BOOK;
+ALTER TABLE Inventory DROP CONSTRAINT FK_INVENTORY_STORE;
+ALTER TABLE BookAuthors DROP CONSTRAINT FK_BOOK_AUTHORS_FOR_BOOK;
+ALTER TABLE ElectronicBook DROP CONSTRAINT FK_ELECTRONIC_BOOK_AND_BOOK;
+
+CREATE TABLE Store_MIGRATED (
+    STORE_ID		BIGINT NOT NULL,
+    NickName	VARCHAR(40),
+    Street1     VARCHAR(40),
+    Street2		VARCHAR(40),
+    City		VARCHAR(40),
+    State		VARCHAR(2),
+    ZipCode     VARCHAR(10),
+    Version		INTEGER
+);
+INSERT INTO Store_MIGRATED SELECT * FROM Store;
+DROP TABLE Store;
+RENAME TABLE Store_MIGRATED TO Store;
+ALTER TABLE Store ADD CONSTRAINT PK_STORE PRIMARY KEY(STORE_ID);
+
+CREATE TABLE Book_MIGRATED (
+   BOOK_ID		BIGINT NOT NULL,
+   ISBN			VARCHAR(10) NOT NULL,
+   Title		VARCHAR(40),
+   PublishedOn	DATE,
+   Price		DECIMAL(5,2),
+   Version		INTEGER
+);
+INSERT INTO Book_MIGRATED SELECT * FROM Book;
+DROP TABLE Book;
+RENAME TABLE Book_MIGRATED TO Book;
+ALTER TABLE Book ADD CONSTRAINT PK_BOOK PRIMARY KEY(BOOK_ID);
+
+CREATE TABLE Inventory_MIGRATED (
+   INVENTORY_ID	BIGINT NOT NULL,
+   BOOK_ID		BIGINT NOT NULL,
+   STORE_ID		BIGINT NOT NULL,
+   Quantity		INTEGER NOT NULL,
+   Version		INTEGER
+);
+INSERT INTO Inventory_MIGRATED SELECT * FROM Inventory;
+DROP TABLE Inventory;
+RENAME TABLE Inventory_MIGRATED TO Inventory;
+ALTER TABLE Inventory ADD CONSTRAINT PK_INVENTORY PRIMARY KEY(INVENTORY_ID);
+ALTER TABLE Inventory ADD CONSTRAINT UNIQUE_BOOK_STORE UNIQUE(BOOK_ID, STORE_ID);
+
+ALTER TABLE BookAuthors ADD CONSTRAINT FK_BOOK_AUTHORS_FOR_BOOK FOREIGN KEY(BOOK_ID) REFERENCES Book(BOOK_ID);
+ALTER TABLE ElectronicBook ADD CONSTRAINT FK_ELECTRONIC_BOOK_AND_BOOK FOREIGN KEY(BOOK_ID) REFERENCES Book(BOOK_ID);
+ALTER TABLE Inventory ADD CONSTRAINT FK_INVENTORY_FOR_BOOK FOREIGN KEY(BOOK_ID) REFERENCES Book(BOOK_ID);
+ALTER TABLE Inventory ADD CONSTRAINT FK_INVENTORY_STORE FOREIGN KEY(STORE_ID) REFERENCES Store(STORE_ID);
+
+CREATE TABLE ID_GENERATOR (
+   SEGMENT_NAME	VARCHAR(40) NOT NULL,
+   NEXT_VAL		BIGINT NOT NULL,
+   CONSTRAINT	PK_ID_GENERATOR PRIMARY KEY(SEGMENT_NAME)
+);
+INSERT INTO ID_GENERATOR SELECT 'Store', COALESCE(MAX(STORE_ID), 0) + 1 FROM Store;
+INSERT INTO ID_GENERATOR SELECT 'Book', COALESCE(MAX(BOOK_ID), 0) + 1 FROM Book;
+INSERT INTO ID_GENERATOR SELECT 'Inventory', COALESCE(MAX(INVENTORY_ID), 0) + 1 FROM Inventory;
+
+COMMIT;
@@ -0,0 +1 @@
+mvn exec:java -Psql-exec -Dsql.script=db_migrate_pooled_ids.sql
\ No newline at end of file
@@ -0,0 +1,80 @@
+package org.integrallis.bookstore;
+
+import org.apache.log4j.Logger;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.util.PropertiesHelper;
+import org.integrallis.bookstore.search.BookSearchIndex;
+import org.integrallis.bookstore.search.BookSearchListener;
+import org.integrallis.bookstore.valuation.StoreValuation;
+import org.integrallis.bookstore.valuation.StoreValuationListener;
+import org.integrallis.hibernate.HibernateUtil;
+import org.integrallis.hibernate.bootstrap.SessionFactoryExtension;
+
+/**
+ * The bookstore features built on the factory of {@link HibernateUtil},
+ * listed in its hibernate.bootstrap.extensions. Each one is off unless
+ * enabled in the configuration:
+ * <ul>
+ * <li>bookstore.valuation.enabled - inventory value per store, loaded at
+ * startup and kept up to date by a {@link StoreValuationListener}</li>
+ * <li>bookstore.search.enabled - full-text search over titles, authors and
+ * ISBNs, indexed at startup and kept current by a {@link BookSearchListener}</li>
+ * </ul>
+ */
+public class BookstoreBootstrap implements SessionFactoryExtension {
+	private static Logger logger = Logger.getLogger(BookstoreBootstrap.class);
+
+	public static final String VALUATION_ENABLED = "bookstore.valuation.enabled";
+	public static final String SEARCH_ENABLED = "bookstore.search.enabled";
+
+	private StoreValuation storeValuation;
+	private BookSearchIndex bookSearchIndex;
+
+	public void configure(Configuration configuration) {
+		if (PropertiesHelper.getBoolean(VALUATION_ENABLED, configuration
+				.getProperties())) {
+			storeValuation = new StoreValuation();
+			StoreValuationListener.register(configuration, storeValuation);
+			logger.info("store valuation enabled");
+		}
+		if (PropertiesHelper.getBoolean(SEARCH_ENABLED, configuration
+				.getProperties())) {
+			bookSearchIndex = new BookSearchIndex();
+			BookSearchListener.register(configuration, bookSearchIndex);
+			logger.info("book search enabled");
+		}
+	}
+
+	public void attach(SessionFactory sessionFactory) {
+		if (storeValuation != null) {
+			storeValuation.attach(sessionFactory);
+		}
+		if (bookSearchIndex != null) {
+			bookSearchIndex.attach(sessionFactory);
+		}
+	}
+
+	public void close() {
+	}
+
+	/**
+	 * Returns the valuation of HibernateUtil's factory, or null if
+	 * bookstore.valuation.enabled is off
+	 */
+	public static StoreValuation getStoreValuation() {
+		BookstoreBootstrap bootstrap = HibernateUtil
+				.getExtension(BookstoreBootstrap.class);
+		return bootstrap == null ? null : bootstrap.storeValuation;
+	}
+
+	/**
+	 * Returns the search index of HibernateUtil's factory, or null if
+	 * bookstore.search.enabled is off
+	 */
+	public static BookSearchIndex getBookSearchIndex() {
+		BookstoreBootstrap bootstrap = HibernateUtil
+				.getExtension(BookstoreBootstrap.class);
+		return bootstrap == null ? null : bootstrap.bookSearchIndex;
+	}
+}
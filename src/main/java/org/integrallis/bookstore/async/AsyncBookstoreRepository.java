@@ -0,0 +1,477 @@
+package org.integrallis.bookstore.async;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.hibernate.FlushMode;
+import org.hibernate.Hibernate;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.connection.ConnectionProvider;
+import org.hibernate.criterion.Restrictions;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.integrallis.bookstore.domain.Book;
+import org.integrallis.bookstore.domain.Inventory;
+import org.integrallis.bookstore.domain.Store;
+import org.integrallis.bookstore.listing.Listings;
+import org.integrallis.hibernate.connection.PooledConnectionProvider;
+import org.integrallis.hibernate.metrics.LatencyHistogram;
+import org.integrallis.hibernate.naturalid.NaturalIdLookup;
+import org.integrallis.hibernate.paging.Page;
+import org.integrallis.hibernate.retry.UnitOfWork;
+
+/**
+ * Books, stores and inventory behind CompletableFutures, for callers that
+ * must not block on JDBC.
+ * <p>
+ * Calls run on a fixed set of threads, by default as many as the connection
+ * pool has connections, so the queue rather than the pool absorbs bursts.
+ * The queue is bounded: a call that finds it full fails at once with a
+ * RejectedExecutionException. Each call runs in its own session and
+ * transaction, never the thread's current session, and returns detached
+ * entities with what callers need of them initialized.
+ * <p>
+ * A call that does not complete within the timeout fails with a
+ * TimeoutException. Timed out and cancelled calls are skipped if they have
+ * not started, have their running statement cancelled where the driver
+ * supports it, and never commit. Once a call has started to commit it can
+ * no longer time out or be cancelled, it completes with the outcome of the
+ * commit however late that is.
+ */
+public class AsyncBookstoreRepository {
+	private static Logger logger = Logger.getLogger(AsyncBookstoreRepository.class);
+
+	public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+	public static final long DEFAULT_TIMEOUT = 5000;
+
+	private static final int DEFAULT_THREADS = 10;
+
+	private final SessionFactory sessionFactory;
+	private final ThreadPoolExecutor executor;
+	private final ScheduledExecutorService timer;
+	private final long timeout;
+	private NaturalIdLookup naturalIdLookup;
+
+	private final AtomicLong submitted = new AtomicLong();
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong cancelled = new AtomicLong();
+	private final AtomicLong timedOut = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicInteger maxQueueDepth = new AtomicInteger();
+	private final LatencyHistogram queueWait = new LatencyHistogram();
+	private final LatencyHistogram execution = new LatencyHistogram();
+
+	/**
+	 * A thread per pooled connection, a queue of DEFAULT_QUEUE_CAPACITY and
+	 * calls timing out after DEFAULT_TIMEOUT ms
+	 */
+	public AsyncBookstoreRepository(SessionFactory sessionFactory) {
+		this(sessionFactory, poolSize(sessionFactory), DEFAULT_QUEUE_CAPACITY,
+				DEFAULT_TIMEOUT);
+	}
+
+	/**
+	 * @param timeout
+	 *            ms from submission for a call to complete
+	 */
+	public AsyncBookstoreRepository(SessionFactory sessionFactory,
+			int threads, int queueCapacity, long timeout) {
+		this.sessionFactory = sessionFactory;
+		this.timeout = timeout;
+		this.executor = new ThreadPoolExecutor(threads, threads, 0,
+				TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+						queueCapacity), new Daemons("bookstore-async"));
+		this.timer = Executors.newSingleThreadScheduledExecutor(new Daemons(
+				"bookstore-async-timeouts"));
+		logger.info("running bookstore calls on " + threads
+				+ " threads, queueing up to " + queueCapacity);
+	}
+
+	/**
+	 * Looks books up by ISBN through the natural id cache instead of a query
+	 */
+	public void setNaturalIdLookup(NaturalIdLookup naturalIdLookup) {
+		this.naturalIdLookup = naturalIdLookup;
+	}
+
+	/**
+	 * The book with its authors, null if there is none
+	 */
+	public CompletableFuture<Book> findByIsbn(final String isbn) {
+		return read(session -> {
+			Book book = naturalIdLookup != null ? naturalIdLookup.load(session,
+					Book.class, isbn) : (Book) session.createCriteria(Book.class)
+					.add(Restrictions.naturalId().set("isbn", isbn))
+					.uniqueResult();
+			if (book != null) {
+				Hibernate.initialize(book.getAuthors());
+			}
+			return book;
+		});
+	}
+
+	/**
+	 * The store, null if there is none
+	 */
+	public CompletableFuture<Store> findStore(final Long id) {
+		return read(session -> (Store) session.get(Store.class, id));
+	}
+
+	/**
+	 * Adds delta (which may be negative) to the quantity of the book in the
+	 * store. Fails with an IllegalArgumentException if the store does not
+	 * stock the book or has fewer than -delta, and with a
+	 * StaleStateException if the row changed concurrently.
+	 */
+	public CompletableFuture<Inventory> adjustInventory(final Long bookId,
+			final Long storeId, final int delta) {
+		return submit(session -> {
+			Inventory inventory = (Inventory) session.createQuery(
+					"FROM Inventory i WHERE i.book.id = :book AND i.store.id = :store")
+					.setLong("book", bookId).setLong("store", storeId)
+					.uniqueResult();
+			if (inventory == null) {
+				throw new IllegalArgumentException("no inventory of book "
+						+ bookId + " in store " + storeId);
+			}
+			if (inventory.getQuantity() + delta < 0) {
+				throw new IllegalArgumentException("only "
+						+ inventory.getQuantity() + " of book " + bookId
+						+ " in store " + storeId);
+			}
+			inventory.setQuantity(inventory.getQuantity() + delta);
+			return inventory;
+		}, false);
+	}
+
+	/**
+	 * The first page of books ordered by one of {@link Listings#BOOKS}'
+	 * orderings, with their authors
+	 */
+	public CompletableFuture<Page<Book>> listBooks(final String orderBy,
+			final boolean descending, final int size) {
+		return read(session -> withAuthors(Listings.BOOKS.first(session,
+				orderBy, descending, size)));
+	}
+
+	/**
+	 * The page of books after the one the token came with
+	 */
+	public CompletableFuture<Page<Book>> nextBooks(final String token,
+			final int size) {
+		return read(session -> withAuthors(Listings.BOOKS.next(session, token,
+				size)));
+	}
+
+	/**
+	 * Runs the work in a session and transaction of its own, committed
+	 * unless the call was cancelled or timed out meanwhile
+	 */
+	public <T> CompletableFuture<T> submit(UnitOfWork<T> work) {
+		return submit(work, false);
+	}
+
+	/**
+	 * Runs the work in a session of its own that never flushes
+	 */
+	public <T> CompletableFuture<T> read(UnitOfWork<T> work) {
+		return submit(work, true);
+	}
+
+	/**
+	 * Stops taking calls and waits up to the timeout for the queued ones
+	 */
+	public void close() {
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+				logger.warn(executor.getQueue().size()
+						+ " bookstore calls still queued after " + timeout + " ms");
+				executor.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		timer.shutdownNow();
+	}
+
+	/**
+	 * Calls waiting for a thread now
+	 */
+	public int getQueueDepth() {
+		return executor.getQueue().size();
+	}
+
+	public int getMaxQueueDepth() {
+		return maxQueueDepth.get();
+	}
+
+	/**
+	 * Calls running now
+	 */
+	public int getActiveCount() {
+		return executor.getActiveCount();
+	}
+
+	public int getThreadCount() {
+		return executor.getCorePoolSize();
+	}
+
+	public long getSubmittedCount() {
+		return submitted.get();
+	}
+
+	public long getCompletedCount() {
+		return completed.get();
+	}
+
+	public long getFailedCount() {
+		return failed.get();
+	}
+
+	public long getCancelledCount() {
+		return cancelled.get();
+	}
+
+	public long getTimedOutCount() {
+		return timedOut.get();
+	}
+
+	/**
+	 * Calls refused because the queue was full
+	 */
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	/**
+	 * Time from submission until a thread took the call
+	 */
+	public LatencyHistogram.Snapshot getQueueWait() {
+		return queueWait.snapshot();
+	}
+
+	/**
+	 * Time a thread spent on a call
+	 */
+	public LatencyHistogram.Snapshot getExecutionTime() {
+		return execution.snapshot();
+	}
+
+	public String toString() {
+		return "threads=" + getThreadCount() + ", active=" + getActiveCount()
+				+ ", queued=" + getQueueDepth() + ", maxQueued="
+				+ getMaxQueueDepth() + ", submitted=" + getSubmittedCount()
+				+ ", completed=" + getCompletedCount() + ", failed="
+				+ getFailedCount() + ", cancelled=" + getCancelledCount()
+				+ ", timedOut=" + getTimedOutCount() + ", rejected="
+				+ getRejectedCount();
+	}
+
+	private <T> CompletableFuture<T> submit(UnitOfWork<T> work, boolean readOnly) {
+		submitted.incrementAndGet();
+		Outcome<T> future = new Outcome<T>();
+		Call<T> call = new Call<T>(work, readOnly, future);
+		try {
+			executor.execute(call);
+		} catch (RejectedExecutionException e) {
+			rejected.incrementAndGet();
+			future.completeExceptionally(e);
+			return future;
+		}
+		int depth = executor.getQueue().size();
+		for (int max = maxQueueDepth.get(); depth > max; max = maxQueueDepth.get()) {
+			if (maxQueueDepth.compareAndSet(max, depth)) {
+				break;
+			}
+		}
+		final ScheduledFuture<?> expiry = timer.schedule(() -> {
+			timedOut.incrementAndGet();
+			if (future.abandon() && future.completeExceptionally(new TimeoutException(
+					"bookstore call not done after " + timeout + " ms"))) {
+				abort(call);
+			} else {
+				timedOut.decrementAndGet();
+			}
+		}, timeout, TimeUnit.MILLISECONDS);
+		future.whenComplete((result, failure) -> {
+			expiry.cancel(false);
+			if (future.isCancelled()) {
+				cancelled.incrementAndGet();
+				abort(call);
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Frees the queue slot of a call that has not started, cancels the
+	 * statement of one that has
+	 */
+	private void abort(Call<?> call) {
+		if (!executor.remove(call)) {
+			call.abort();
+		}
+	}
+
+	private static Page<Book> withAuthors(Page<Book> page) {
+		for (Book book : page.getItems()) {
+			Hibernate.initialize(book.getAuthors());
+		}
+		return page;
+	}
+
+	private static int poolSize(SessionFactory sessionFactory) {
+		ConnectionProvider provider = ((SessionFactoryImplementor) sessionFactory)
+				.getConnectionProvider();
+		if (provider instanceof PooledConnectionProvider) {
+			return ((PooledConnectionProvider) provider).getStatistics()
+					.getMaxSize();
+		}
+		return DEFAULT_THREADS;
+	}
+
+	/**
+	 * The future of a call, and whether the call may still commit: the worker
+	 * about to commit and a timeout or cancellation race on one state, and
+	 * whichever comes second loses
+	 */
+	private static class Outcome<T> extends CompletableFuture<T> {
+		private static final int RUNNING = 0;
+		private static final int COMMITTING = 1;
+		private static final int ABANDONED = 2;
+
+		private final AtomicInteger state = new AtomicInteger(RUNNING);
+
+		/**
+		 * True if the call will not commit, false if it already is
+		 */
+		boolean abandon() {
+			return state.compareAndSet(RUNNING, ABANDONED)
+					|| state.get() == ABANDONED;
+		}
+
+		/**
+		 * True if the call may commit, false if it timed out or was cancelled
+		 */
+		boolean commit() {
+			return state.compareAndSet(RUNNING, COMMITTING);
+		}
+
+		boolean isAbandoned() {
+			return state.get() == ABANDONED;
+		}
+
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return abandon() && super.cancel(mayInterruptIfRunning);
+		}
+	}
+
+	/**
+	 * One call: its session lives on the thread running it, from start to
+	 * completion
+	 */
+	private class Call<T> implements Runnable {
+		private final UnitOfWork<T> work;
+		private final boolean readOnly;
+		private final Outcome<T> future;
+		private final long submittedAt = System.nanoTime();
+		private volatile Session session;
+
+		Call(UnitOfWork<T> work, boolean readOnly, Outcome<T> future) {
+			this.work = work;
+			this.readOnly = readOnly;
+			this.future = future;
+		}
+
+		public void run() {
+			long started = System.nanoTime();
+			queueWait.record(started - submittedAt);
+			if (future.isAbandoned() || future.isDone()) {
+				// cancelled or timed out while queued
+				return;
+			}
+			Session opened = sessionFactory.openSession();
+			session = opened;
+			Transaction tx = opened.getTransaction();
+			try {
+				if (readOnly) {
+					opened.setFlushMode(FlushMode.MANUAL);
+				}
+				long left = timeout - TimeUnit.NANOSECONDS.toMillis(started - submittedAt);
+				tx.setTimeout((int) Math.max(1, (left + 999) / 1000));
+				tx.begin();
+				T result = work.execute(opened);
+				if (!future.commit()) {
+					tx.rollback();
+					return;
+				}
+				tx.commit();
+				// counted first, callers may look as soon as it completes
+				completed.incrementAndGet();
+				if (!future.complete(result)) {
+					completed.decrementAndGet();
+				}
+			} catch (Throwable e) {
+				if (tx.isActive()) {
+					try {
+						tx.rollback();
+					} catch (HibernateException rollbackFailure) {
+						logger.warn("rollback failed", rollbackFailure);
+					}
+				}
+				failed.incrementAndGet();
+				if (!future.completeExceptionally(e)) {
+					failed.decrementAndGet();
+				}
+			} finally {
+				session = null;
+				opened.close();
+				execution.record(System.nanoTime() - started);
+			}
+		}
+
+		/**
+		 * Cancels the statement running for the call, if the driver can
+		 */
+		void abort() {
+			Session running = session;
+			if (running != null) {
+				try {
+					running.cancelQuery();
+				} catch (HibernateException e) {
+					logger.debug("could not cancel the running statement", e);
+				}
+			}
+		}
+	}
+
+	private static class Daemons implements ThreadFactory {
+		private final String name;
+		private final AtomicInteger count = new AtomicInteger();
+
+		Daemons(String name) {
+			this.name = name;
+		}
+
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -5,16 +5,12 @@ import java.util.Date;
 import java.util.HashSet;
 import java.util.Set;
 
-import org.apache.commons.lang.builder.EqualsBuilder;
-import org.apache.commons.lang.builder.HashCodeBuilder;
-import org.apache.commons.lang.builder.ToStringBuilder;
-
 public class Book implements Serializable {
 	private Long id;
 	private String isbn;
 	private String title;
 	private Date publishedOn;
-	private Double price;
+	private Money price;
 	private int version = -1;
 
 	private Set<String> authors = new HashSet<String>();
@@ -23,7 +19,7 @@ public class Book implements Serializable {
 	public Book() {
 	}
 
-	public Book(String isbn, String title, Date publishedOn, Double price) {
+	public Book(String isbn, String title, Date publishedOn, Money price) {
 		this.isbn = isbn;
 		this.title = title;
 		this.publishedOn = publishedOn;
@@ -62,11 +58,11 @@ public class Book implements Serializable {
 		this.publishedOn = publishedOn;
 	}
 
-	public Double getPrice() {
+	public Money getPrice() {
 		return price;
 	}
 
-	public void setPrice(Double price) {
+	public void setPrice(Money price) {
 		this.price = price;
 	}
 
@@ -106,7 +102,8 @@ public class Book implements Serializable {
 	}
 
 	/*
-	 * Implementation of equals using Business Key Equality
+	 * Implementation of equals using Business Key Equality, without a builder
+	 * since the persistence context and the collections call it constantly
 	 * 
 	 * (non-Javadoc)
 	 * 
@@ -122,18 +119,18 @@ public class Book implements Serializable {
 			return false;
 		final Book book = (Book) object;
 
-		return new EqualsBuilder().append(isbn, book.getIsbn()).isEquals();
+		return isbn == null ? book.getIsbn() == null : isbn.equals(book.getIsbn());
 	}
 
 	/*
+	 * The value HashCodeBuilder(17, 37).append(isbn) gives
+	 * 
 	 * (non-Javadoc)
 	 * 
 	 * @see java.lang.Object#hashCode()
 	 */
 	public int hashCode() {
-		// pick a hard-coded, randomly chosen, non-zero, odd number
-		// ideally different for each class
-		return new HashCodeBuilder(17, 37).append(isbn).toHashCode();
+		return 17 * 37 + (isbn == null ? 0 : isbn.hashCode());
 	}
 
 	/*
@@ -144,9 +141,14 @@ public class Book implements Serializable {
 	 * @see java.lang.Object#toString()
 	 */
 	public String toString() {
-		return new ToStringBuilder(this).append("id", id).append("isbn", isbn)
-				.append("title", title).append("publishedOn", publishedOn)
-				.append("price", price).toString();
+		return appendFields(new StringBuilder(128).append(getClass().getSimpleName())
+				.append('[')).append(']').toString();
+	}
+
+	protected StringBuilder appendFields(StringBuilder buffer) {
+		return buffer.append("id=").append(id).append(",isbn=").append(isbn)
+				.append(",title=").append(title).append(",publishedOn=").append(
+						publishedOn).append(",price=").append(price);
 	}
 
 	private static final long serialVersionUID = 6735585700907591120L;
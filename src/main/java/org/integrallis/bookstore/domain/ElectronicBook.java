@@ -3,8 +3,6 @@ package org.integrallis.bookstore.domain;
 import java.io.Serializable;
 import java.util.Date;
 
-import org.apache.commons.lang.builder.ToStringBuilder;
-
 public class ElectronicBook extends Book implements Serializable {
 
 	private String url;
@@ -14,7 +12,7 @@ public class ElectronicBook extends Book implements Serializable {
 	}
 
 	public ElectronicBook(String isbn, String title, Date publishedOn,
-			Double price, String url, String fileType) {
+			Money price, String url, String fileType) {
 		super(isbn, title, publishedOn, price);
 		this.url = url;
 		this.fileType = fileType;
@@ -36,9 +34,9 @@ public class ElectronicBook extends Book implements Serializable {
 		this.fileType = fileType;
 	}
 
-	public String toString() {
-		return new ToStringBuilder(this).append(super.toString()).append("url",
-				url).append("fileType", fileType).toString();
+	protected StringBuilder appendFields(StringBuilder buffer) {
+		return super.appendFields(buffer).append(",url=").append(url).append(
+				",fileType=").append(fileType);
 	}
 
 	private static final long serialVersionUID = 7806672602051270221L;
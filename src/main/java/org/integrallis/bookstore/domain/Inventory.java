@@ -2,10 +2,6 @@ package org.integrallis.bookstore.domain;
 
 import java.io.Serializable;
 
-import org.apache.commons.lang.builder.EqualsBuilder;
-import org.apache.commons.lang.builder.HashCodeBuilder;
-import org.apache.commons.lang.builder.ToStringBuilder;
-
 public class Inventory implements Serializable {
 	/**
 	 * 
@@ -15,7 +11,8 @@ public class Inventory implements Serializable {
 	private Book book;
 
 	private Store store;
-	private Integer quantity;
+	private int quantity;
+	private int version = -1;
 
 	public Inventory() {
 	}
@@ -42,19 +39,37 @@ public class Inventory implements Serializable {
 		this.book = book;
 	}
 
-	public Integer getQuantity() {
+	public int getVersion() {
+		return version;
+	}
+
+	public int getQuantity() {
 		return quantity;
 	}
 
-	public void setQuantity(Integer quantity) {
+	public void setQuantity(int quantity) {
 		this.quantity = quantity;
 	}
 
+	/*
+	 * The book and store by id only, so that logging an Inventory never loads
+	 * them
+	 */
 	@Override
 	public String toString() {
-		return ToStringBuilder.reflectionToString(this);
+		return new StringBuilder(80).append("Inventory[id=").append(id).append(
+				",book=").append(book == null ? null : book.getId()).append(
+				",store=").append(store == null ? null : store.getId()).append(
+				",quantity=").append(quantity).append(",version=").append(version)
+				.append(']').toString();
 	}
 
+	/*
+	 * The business key is the (book, store) pair, compared without a builder.
+	 * Stores are compared by id when both have one and by nick name
+	 * otherwise, so a store proxy is only initialized to compare it with a
+	 * store not yet saved.
+	 */
 	public boolean equals(Object object) {
 		// short circuits
 		if (object == null)
@@ -65,17 +80,28 @@ public class Inventory implements Serializable {
 			return false;
 		final Inventory inventory = (Inventory) object;
 
-		return new EqualsBuilder()
-			.append(book, inventory.getBook())
-			.append(store, inventory.getStore())
-			.isEquals();
+		return (book == null ? inventory.getBook() == null : book
+				.equals(inventory.getBook()))
+				&& sameStore(store, inventory.getStore());
+	}
+
+	/*
+	 * The book's hash alone: it does not change when the store is saved and
+	 * never touches the store proxy. The records of one book share it, so
+	 * Book.inventoryRecords is a short list to the set.
+	 */
+	public int hashCode() {
+		return 19 * 23 + (book == null ? 0 : book.hashCode());
 	}
 
-	public int hashcode() {
-		return new HashCodeBuilder(19, 23)
-			.append(book)
-			.append(store)
-			.toHashCode();
+	private static boolean sameStore(Store one, Store other) {
+		if (one == null || other == null) {
+			return one == other;
+		}
+		if (one.getId() != null && other.getId() != null) {
+			return one.getId().equals(other.getId());
+		}
+		return one.equals(other);
 	}
 
 	public void setStore(Store store) {
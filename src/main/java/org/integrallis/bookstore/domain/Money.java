@@ -0,0 +1,104 @@
+package org.integrallis.bookstore.domain;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * An amount of dollars kept as a whole number of cents, so that prices add,
+ * multiply and compare exactly. Immutable; mapped by
+ * {@link org.integrallis.bookstore.type.MoneyType}.
+ */
+public final class Money implements Comparable<Money>, Serializable {
+
+	public static final Money ZERO = new Money(0);
+
+	private final long cents;
+
+	private Money(long cents) {
+		this.cents = cents;
+	}
+
+	public static Money ofCents(long cents) {
+		return cents == 0 ? ZERO : new Money(cents);
+	}
+
+	/**
+	 * The amount rounded to the nearest cent
+	 */
+	public static Money valueOf(double amount) {
+		return ofCents(centsOf(amount));
+	}
+
+	/**
+	 * Parses a plain decimal amount such as 32.57, rounding half up to the
+	 * cent
+	 */
+	public static Money parse(String amount) {
+		try {
+			return ofCents(new BigDecimal(amount.trim()).setScale(2,
+					RoundingMode.HALF_UP).unscaledValue().longValue());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("not an amount: " + amount);
+		}
+	}
+
+	/**
+	 * The amount in cents, rounded to the nearest cent; exact for any double
+	 * read from a DECIMAL column with two places
+	 */
+	public static long centsOf(double amount) {
+		return Math.round(amount * 100);
+	}
+
+	public long getCents() {
+		return cents;
+	}
+
+	public double doubleValue() {
+		return cents / 100.0;
+	}
+
+	public BigDecimal toBigDecimal() {
+		return BigDecimal.valueOf(cents, 2);
+	}
+
+	public Money plus(Money other) {
+		return ofCents(cents + other.cents);
+	}
+
+	public Money times(long quantity) {
+		return ofCents(cents * quantity);
+	}
+
+	public int compareTo(Money other) {
+		return cents < other.cents ? -1 : cents == other.cents ? 0 : 1;
+	}
+
+	public boolean equals(Object object) {
+		return object instanceof Money && ((Money) object).cents == cents;
+	}
+
+	public int hashCode() {
+		return (int) (cents ^ (cents >>> 32));
+	}
+
+	/**
+	 * The plain amount with two places, 32.57 or -0.05
+	 */
+	public String toString() {
+		long units = Math.abs(cents);
+		StringBuilder buffer = new StringBuilder(12);
+		if (cents < 0) {
+			buffer.append('-');
+		}
+		buffer.append(units / 100).append('.');
+		long fraction = units % 100;
+		if (fraction < 10) {
+			buffer.append('0');
+		}
+		return buffer.append(fraction).toString();
+	}
+
+	private static final long serialVersionUID = -3386829349851434318L;
+}
@@ -2,10 +2,6 @@ package org.integrallis.bookstore.domain;
 
 import java.io.Serializable;
 
-import org.apache.commons.lang.builder.EqualsBuilder;
-import org.apache.commons.lang.builder.HashCodeBuilder;
-import org.apache.commons.lang.builder.ToStringBuilder;
-
 public class Store implements Serializable {
 	private Long id;
 	private String nickName;
@@ -96,7 +92,8 @@ public class Store implements Serializable {
 	// }
 
 	/*
-	 * Implementation of equals using Business Key Equality
+	 * Implementation of equals using Business Key Equality, without a builder
+	 * since the persistence context and the collections call it constantly
 	 * 
 	 * (non-Javadoc)
 	 * 
@@ -112,19 +109,19 @@ public class Store implements Serializable {
 			return false;
 		final Store store = (Store) object;
 
-		return new EqualsBuilder().append(nickName, store.getNickName())
-				.isEquals();
+		return nickName == null ? store.getNickName() == null : nickName
+				.equals(store.getNickName());
 	}
 
 	/*
+	 * The value HashCodeBuilder(17, 37).append(nickName) gives
+	 * 
 	 * (non-Javadoc)
 	 * 
 	 * @see java.lang.Object#hashCode()
 	 */
 	public int hashCode() {
-		// pick a hard-coded, randomly chosen, non-zero, odd number
-		// ideally different for each class
-		return new HashCodeBuilder(17, 37).append(nickName).toHashCode();
+		return 17 * 37 + (nickName == null ? 0 : nickName.hashCode());
 	}
 
 	/*
@@ -135,13 +132,8 @@ public class Store implements Serializable {
 	 * @see java.lang.Object#toString()
 	 */
 	public String toString() {
-		return new ToStringBuilder(this).append("id", id).append("nickName",
-				nickName)
-		// .append("street1", street1).append("street2", street2)
-				// .append("city", city).append("state",
-				// state).append("zipCode",
-				// zipCode)
-				.toString();
+		return new StringBuilder(64).append("Store[id=").append(id).append(
+				",nickName=").append(nickName).append(']').toString();
 	}
 
 	private static final long serialVersionUID = -8237158199291131908L;
@@ -0,0 +1,118 @@
+package org.integrallis.bookstore.export;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.lang.builder.ToStringBuilder;
+import org.integrallis.bookstore.domain.Book;
+import org.integrallis.bookstore.domain.ElectronicBook;
+import org.integrallis.bookstore.domain.Money;
+
+/**
+ * One book of the catalog as exported: its details, authors ("First Last")
+ * and the quantity held by each store. Entries are built one at a time and
+ * discarded once written.
+ */
+public class CatalogEntry {
+	private final Long id;
+	private final String isbn;
+	private final String title;
+	private final Date publishedOn;
+	private final Money price;
+	private final String url;
+	private final String fileType;
+	private final List<String> authors = new ArrayList<String>();
+	private final List<Stock> stock = new ArrayList<Stock>();
+
+	public CatalogEntry(Book book) {
+		id = book.getId();
+		isbn = book.getIsbn();
+		title = book.getTitle();
+		publishedOn = book.getPublishedOn();
+		price = book.getPrice();
+		if (book instanceof ElectronicBook) {
+			url = ((ElectronicBook) book).getUrl();
+			fileType = ((ElectronicBook) book).getFileType();
+		} else {
+			url = null;
+			fileType = null;
+		}
+	}
+
+	void addAuthor(String firstName, String lastName) {
+		authors.add(firstName == null || firstName.length() == 0 ? lastName
+				: firstName + " " + lastName);
+	}
+
+	void addStock(Long storeId, Integer quantity) {
+		stock.add(new Stock(storeId, quantity));
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	public String getIsbn() {
+		return isbn;
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	public Date getPublishedOn() {
+		return publishedOn;
+	}
+
+	public Money getPrice() {
+		return price;
+	}
+
+	/**
+	 * The download URL of an electronic book, null for a printed one
+	 */
+	public String getUrl() {
+		return url;
+	}
+
+	public String getFileType() {
+		return fileType;
+	}
+
+	public List<String> getAuthors() {
+		return authors;
+	}
+
+	public List<Stock> getStock() {
+		return stock;
+	}
+
+	public String toString() {
+		return new ToStringBuilder(this).append("id", id).append("isbn", isbn)
+				.append("title", title).append("authors", authors).append(
+						"stock", stock).toString();
+	}
+
+	public static class Stock {
+		private final Long storeId;
+		private final Integer quantity;
+
+		public Stock(Long storeId, Integer quantity) {
+			this.storeId = storeId;
+			this.quantity = quantity;
+		}
+
+		public Long getStoreId() {
+			return storeId;
+		}
+
+		public Integer getQuantity() {
+			return quantity;
+		}
+
+		public String toString() {
+			return storeId + "=" + quantity;
+		}
+	}
+}
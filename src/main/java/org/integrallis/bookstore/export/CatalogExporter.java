@@ -0,0 +1,227 @@
+package org.integrallis.bookstore.export;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+import org.apache.log4j.Logger;
+import org.hibernate.CacheMode;
+import org.hibernate.FlushMode;
+import org.hibernate.Hibernate;
+import org.hibernate.HibernateException;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.integrallis.bookstore.domain.Book;
+import org.integrallis.hibernate.HibernateUtil;
+
+/**
+ * Streams the whole catalog to a channel in constant memory. Books, author
+ * rows and inventory rows are read with three forward-only cursors ordered by
+ * book id and merged as they go, instead of touching the lazy authors and
+ * inventoryRecords of every book (one query per book and collection). The
+ * session is cleared every {@link #getFetchSize()} books and the second-level
+ * cache is bypassed, so neither grows with the catalog.
+ */
+public class CatalogExporter {
+	private static Logger logger = Logger.getLogger(CatalogExporter.class);
+
+	public static final int DEFAULT_FETCH_SIZE = 500;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final SessionFactory sessionFactory;
+	private int fetchSize = DEFAULT_FETCH_SIZE;
+	private int bufferSize = ChannelWriter.DEFAULT_BUFFER_SIZE;
+
+	public CatalogExporter(SessionFactory sessionFactory) {
+		this.sessionFactory = sessionFactory;
+	}
+
+	public int getFetchSize() {
+		return fetchSize;
+	}
+
+	/**
+	 * Rows the JDBC driver fetches per round trip, also how many books are
+	 * held by the session before it is cleared
+	 */
+	public void setFetchSize(int fetchSize) {
+		this.fetchSize = fetchSize;
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * Bytes encoded before they are written to the channel
+	 */
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * Exports to a .csv (CSV) or any other (NDJSON) file
+	 */
+	public long exportFile(File file) throws IOException {
+		CatalogFormat format = file.getName().toLowerCase().endsWith(".csv") ? new CsvCatalogFormat()
+				: new NdjsonCatalogFormat();
+		FileChannel channel = new FileOutputStream(file).getChannel();
+		try {
+			return export(format, channel);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Writes every book to the channel, which is left open
+	 *
+	 * @return the number of books written
+	 */
+	public long export(CatalogFormat format, WritableByteChannel channel)
+			throws IOException {
+		long started = System.currentTimeMillis();
+		ChannelWriter out = new ChannelWriter(channel, UTF8, bufferSize);
+		Session session = sessionFactory.openSession();
+		session.setFlushMode(FlushMode.MANUAL);
+		session.setCacheMode(CacheMode.IGNORE);
+		Transaction tx = null;
+		ScrollableResults books = null;
+		ScrollableResults authors = null;
+		ScrollableResults stock = null;
+		try {
+			tx = session.beginTransaction();
+			books = session.createQuery("FROM Book b ORDER BY b.id")
+					.setReadOnly(true).setFetchSize(fetchSize).scroll(
+							ScrollMode.FORWARD_ONLY);
+			authors = session.createSQLQuery(
+					"SELECT BOOK_ID bookId, FIRSTNAME firstName, LASTNAME lastName "
+							+ "FROM BookAuthors ORDER BY BOOK_ID").addScalar(
+					"bookId", Hibernate.LONG).addScalar("firstName",
+					Hibernate.STRING).addScalar("lastName", Hibernate.STRING)
+					.setFetchSize(fetchSize).scroll(ScrollMode.FORWARD_ONLY);
+			stock = session.createQuery(
+					"SELECT i.book.id, i.store.id, i.quantity FROM Inventory i "
+							+ "ORDER BY i.book.id, i.store.id").setFetchSize(
+					fetchSize).scroll(ScrollMode.FORWARD_ONLY);
+			Cursor authorRows = new Cursor(authors);
+			Cursor stockRows = new Cursor(stock);
+
+			format.begin(out);
+			long count = 0;
+			while (books.next()) {
+				CatalogEntry entry = new CatalogEntry((Book) books.get(0));
+				for (Object[] row = authorRows.next(entry.getId()); row != null; row = authorRows
+						.next(entry.getId())) {
+					entry.addAuthor((String) row[1], (String) row[2]);
+				}
+				for (Object[] row = stockRows.next(entry.getId()); row != null; row = stockRows
+						.next(entry.getId())) {
+					entry.addStock((Long) row[1], (Integer) row[2]);
+				}
+				format.write(entry, out);
+				if (++count % fetchSize == 0) {
+					session.clear();
+					if (count % (100L * fetchSize) == 0) {
+						logger.info(count + " books exported");
+					}
+				}
+			}
+			out.flush();
+			tx.commit();
+			logger.info("exported " + count + " books (" + out.getBytesWritten()
+					+ " bytes) in " + (System.currentTimeMillis() - started)
+					+ " ms");
+			return count;
+		} finally {
+			close(books);
+			close(authors);
+			close(stock);
+			if (tx != null && tx.isActive()) {
+				try {
+					tx.rollback();
+				} catch (HibernateException e) {
+					logger.warn("rollback failed", e);
+				}
+			}
+			session.close();
+		}
+	}
+
+	private static void close(ScrollableResults results) {
+		if (results != null) {
+			try {
+				results.close();
+			} catch (HibernateException e) {
+				logger.warn("could not close a cursor", e);
+			}
+		}
+	}
+
+	/**
+	 * Rows of a cursor ordered by the book id in their first column, handed
+	 * out book by book
+	 */
+	private static class Cursor {
+		private final ScrollableResults results;
+		private Object[] row;
+		private boolean exhausted;
+
+		Cursor(ScrollableResults results) {
+			this.results = results;
+		}
+
+		/**
+		 * The next row of the book, null once they are used up
+		 */
+		Object[] next(Long bookId) {
+			while (true) {
+				if (row == null) {
+					if (exhausted || !results.next()) {
+						exhausted = true;
+						return null;
+					}
+					row = results.get();
+				}
+				int order = ((Long) row[0]).compareTo(bookId);
+				if (order > 0) {
+					return null;
+				}
+				Object[] current = row;
+				row = null;
+				if (order == 0) {
+					return current;
+				}
+				// a row of a book that is gone, skip it
+			}
+		}
+	}
+
+	/**
+	 * Exports the catalog of the configured BookStore database to the given
+	 * files
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0) {
+			System.err.println("usage: CatalogExporter catalog.ndjson|catalog.csv ...");
+			return;
+		}
+		try {
+			CatalogExporter exporter = new CatalogExporter(HibernateUtil
+					.getSessionFactory());
+			for (String name : args) {
+				System.out.println(name + ": " + exporter.exportFile(new File(name))
+						+ " books");
+			}
+		} finally {
+			HibernateUtil.closeFactory();
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package org.integrallis.bookstore.export;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * How a {@link CatalogExporter} lays out the catalog. Entries arrive ordered
+ * by book id and nothing is kept between them.
+ */
+public interface CatalogFormat {
+
+	/**
+	 * Written once before the first entry
+	 */
+	void begin(Writer out) throws IOException;
+
+	void write(CatalogEntry entry, Writer out) throws IOException;
+}
@@ -0,0 +1,121 @@
+package org.integrallis.bookstore.export;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * A Writer encoding straight into a direct buffer that is drained to a
+ * channel whenever it fills up, so output needs no more memory than the
+ * buffer whatever its size. A high surrogate ending one write is held until
+ * the next brings its low surrogate, so characters outside the BMP survive
+ * being written a char at a time.
+ */
+public class ChannelWriter extends Writer {
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	private final WritableByteChannel channel;
+	private final CharsetEncoder encoder;
+	private final ByteBuffer buffer;
+	// the unpaired high surrogate the last write ended with
+	private CharBuffer pending;
+	private long bytesWritten;
+
+	public ChannelWriter(WritableByteChannel channel, Charset charset) {
+		this(channel, charset, DEFAULT_BUFFER_SIZE);
+	}
+
+	public ChannelWriter(WritableByteChannel channel, Charset charset,
+			int bufferSize) {
+		this.channel = channel;
+		this.encoder = charset.newEncoder().onMalformedInput(
+				CodingErrorAction.REPLACE).onUnmappableCharacter(
+				CodingErrorAction.REPLACE);
+		// room for at least one encoded character
+		this.buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, 16));
+	}
+
+	public void write(char[] chars, int offset, int length) throws IOException {
+		encode(CharBuffer.wrap(chars, offset, length));
+	}
+
+	public void write(String string, int offset, int length) throws IOException {
+		encode(CharBuffer.wrap(string, offset, offset + length));
+	}
+
+	public void write(int c) throws IOException {
+		encode(CharBuffer.wrap(new char[] { (char) c }));
+	}
+
+	private void encode(CharBuffer chars) throws IOException {
+		if (pending != null) {
+			if (!chars.hasRemaining()) {
+				return;
+			}
+			CharBuffer pair = CharBuffer.wrap(new char[] { pending.get(),
+					chars.get() });
+			pending = null;
+			encode(pair);
+		}
+		encode(chars, false);
+		if (chars.hasRemaining()) {
+			pending = CharBuffer.wrap(new char[] { chars.get() });
+		}
+	}
+
+	private void encode(CharBuffer chars, boolean endOfInput)
+			throws IOException {
+		while (true) {
+			CoderResult result = encoder.encode(chars, buffer, endOfInput);
+			if (result.isOverflow()) {
+				drain();
+			} else if (result.isUnderflow()) {
+				return;
+			} else {
+				result.throwException();
+			}
+		}
+	}
+
+	private void drain() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			bytesWritten += channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Bytes handed to the channel so far
+	 */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	public void flush() throws IOException {
+		drain();
+	}
+
+	/**
+	 * Ends the input, a high surrogate still waiting for its pair is written
+	 * as the replacement, and hands the rest to the channel
+	 */
+	public void close() throws IOException {
+		try {
+			encode(pending != null ? pending : CharBuffer.allocate(0), true);
+			pending = null;
+			while (encoder.flush(buffer).isOverflow()) {
+				drain();
+			}
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package org.integrallis.bookstore.export;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+
+/**
+ * The CSV layout read by
+ * {@link org.integrallis.bookstore.importer.CsvBookRecordSource}: one line
+ * per book and store, the first carrying the book's details and the others
+ * only its ISBN, store and quantity. A book no store holds gets a line
+ * without a store. Not thread safe.
+ */
+public class CsvCatalogFormat implements CatalogFormat {
+
+	private final SimpleDateFormat dates = new SimpleDateFormat("yyyy-MM-dd");
+
+	public void begin(Writer out) throws IOException {
+		out.write("ISBN,TITLE,PUBLISHEDON,PRICE,AUTHORS,URL,FILETYPE,STORE_ID,QUANTITY\n");
+	}
+
+	public void write(CatalogEntry entry, Writer out) throws IOException {
+		field(entry.getIsbn(), out);
+		out.write(',');
+		field(entry.getTitle(), out);
+		out.write(',');
+		if (entry.getPublishedOn() != null) {
+			out.write(dates.format(entry.getPublishedOn()));
+		}
+		out.write(',');
+		if (entry.getPrice() != null) {
+			out.write(entry.getPrice().toString());
+		}
+		out.write(',');
+		StringBuilder authors = new StringBuilder();
+		for (String author : entry.getAuthors()) {
+			if (authors.length() > 0) {
+				authors.append('|');
+			}
+			authors.append(author);
+		}
+		field(authors.toString(), out);
+		out.write(',');
+		field(entry.getUrl(), out);
+		out.write(',');
+		field(entry.getFileType(), out);
+		if (entry.getStock().isEmpty()) {
+			out.write(",,\n");
+			return;
+		}
+		for (int i = 0; i < entry.getStock().size(); i++) {
+			CatalogEntry.Stock stock = entry.getStock().get(i);
+			if (i > 0) {
+				field(entry.getIsbn(), out);
+				out.write(",,,,,,");
+			}
+			out.write(',');
+			out.write(String.valueOf(stock.getStoreId()));
+			out.write(',');
+			out.write(String.valueOf(stock.getQuantity()));
+			out.write('\n');
+		}
+	}
+
+	private static void field(String value, Writer out) throws IOException {
+		if (value == null) {
+			return;
+		}
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0
+				&& value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+			out.write(value);
+			return;
+		}
+		out.write('"');
+		out.write(value.replace("\"", "\"\""));
+		out.write('"');
+	}
+}
@@ -0,0 +1,94 @@
+package org.integrallis.bookstore.export;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+
+/**
+ * Newline delimited JSON, one object per book:
+ *
+ * <pre>
+ * {"id":1,"isbn":"1590595963","title":"Beginning POJOs","publishedOn":"2006-03-24","price":32.57,
+ *  "authors":["Brian Sam-Bodden"],"url":"http://...","fileType":"PDF","stock":[{"storeId":1,"quantity":5}]}
+ * </pre>
+ *
+ * url and fileType are left out for printed books. Not thread safe.
+ */
+public class NdjsonCatalogFormat implements CatalogFormat {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final SimpleDateFormat dates = new SimpleDateFormat("yyyy-MM-dd");
+
+	public void begin(Writer out) {
+	}
+
+	public void write(CatalogEntry entry, Writer out) throws IOException {
+		out.write("{\"id\":");
+		out.write(String.valueOf(entry.getId()));
+		out.write(",\"isbn\":");
+		string(entry.getIsbn(), out);
+		out.write(",\"title\":");
+		string(entry.getTitle(), out);
+		out.write(",\"publishedOn\":");
+		string(entry.getPublishedOn() == null ? null : dates.format(entry
+				.getPublishedOn()), out);
+		out.write(",\"price\":");
+		out.write(entry.getPrice() == null ? "null" : entry.getPrice().toString());
+		out.write(",\"authors\":[");
+		for (int i = 0; i < entry.getAuthors().size(); i++) {
+			if (i > 0) {
+				out.write(',');
+			}
+			string(entry.getAuthors().get(i), out);
+		}
+		out.write(']');
+		if (entry.getUrl() != null || entry.getFileType() != null) {
+			out.write(",\"url\":");
+			string(entry.getUrl(), out);
+			out.write(",\"fileType\":");
+			string(entry.getFileType(), out);
+		}
+		out.write(",\"stock\":[");
+		for (int i = 0; i < entry.getStock().size(); i++) {
+			CatalogEntry.Stock stock = entry.getStock().get(i);
+			if (i > 0) {
+				out.write(',');
+			}
+			out.write("{\"storeId\":");
+			out.write(String.valueOf(stock.getStoreId()));
+			out.write(",\"quantity\":");
+			out.write(String.valueOf(stock.getQuantity()));
+			out.write('}');
+		}
+		out.write("]}\n");
+	}
+
+	private static void string(String value, Writer out) throws IOException {
+		if (value == null) {
+			out.write("null");
+			return;
+		}
+		out.write('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				out.write('\\');
+				out.write(c);
+			} else if (c == '\n') {
+				out.write("\\n");
+			} else if (c == '\r') {
+				out.write("\\r");
+			} else if (c == '\t') {
+				out.write("\\t");
+			} else if (c < 0x20) {
+				out.write("\\u00");
+				out.write(HEX[c >> 4]);
+				out.write(HEX[c & 0xf]);
+			} else {
+				out.write(c);
+			}
+		}
+		out.write('"');
+	}
+}
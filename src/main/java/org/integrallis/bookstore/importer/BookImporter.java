@@ -0,0 +1,541 @@
+package org.integrallis.bookstore.importer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.hibernate.HibernateException;
+import org.hibernate.JDBCException;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.engine.SessionImplementor;
+import org.hibernate.exception.JDBCExceptionHelper;
+import org.hibernate.id.IdentifierGenerator;
+import org.integrallis.bookstore.BookstoreBootstrap;
+import org.integrallis.bookstore.domain.Book;
+import org.integrallis.bookstore.domain.ElectronicBook;
+import org.integrallis.bookstore.domain.Inventory;
+import org.integrallis.bookstore.domain.Money;
+import org.integrallis.bookstore.search.BookSearchIndex;
+import org.integrallis.bookstore.valuation.StoreValuation;
+import org.integrallis.hibernate.HibernateUtil;
+
+/**
+ * Loads distributor feeds of books, authors and per-store quantities without
+ * holding the feed, or the books written so far, in memory.
+ *
+ * A reader thread parses the {@link BookRecordSource} into a bounded queue;
+ * when the database falls behind the reader blocks. The calling thread
+ * validates the records and writes them in chunks, each chunk in one
+ * transaction of a StatelessSession, so nothing accumulates in a first-level
+ * cache and the Book/ElectronicBook inserts and updates go out as JDBC
+ * batches. Records for the same ISBN within a chunk are merged. Books are
+ * matched by ISBN and updated when their details changed, a book's authors
+ * are replaced when the record lists any, and quantities are set per store.
+ * BookAuthors and Inventory rows are written with plain JDBC batches on the
+ * session's connection (a 3.3 StatelessSession cannot resolve an Inventory's
+ * reference to an ElectronicBook), new Inventory rows still taking their ids
+ * from the mapped generator.
+ *
+ * Invalid records are rejected up front. If a chunk fails in the database it
+ * is rolled back and written again one record at a time, so a bad record only
+ * rejects itself. The stateless writes bypass the second-level cache, so the
+ * Book and Inventory regions are evicted when the import ends.
+ */
+public class BookImporter {
+	private static Logger logger = Logger.getLogger(BookImporter.class);
+
+	public static final int DEFAULT_CHUNK_SIZE = 500;
+	public static final int DEFAULT_QUEUE_CAPACITY = 2000;
+
+	private static final BookRecord END = new BookRecord("end of feed");
+	private static final Pattern ISBN = Pattern.compile("\\d{9}[\\dX]");
+
+	private final SessionFactory sessionFactory;
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+	private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+	private StoreValuation storeValuation;
+	private BookSearchIndex searchIndex;
+
+	public BookImporter(SessionFactory sessionFactory) {
+		this.sessionFactory = sessionFactory;
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Records per transaction, best a multiple of hibernate.jdbc.batch_size
+	 */
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	/**
+	 * How many parsed records may wait for the writer
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * The valuation to invalidate after an import, whose stateless writes it
+	 * does not see
+	 */
+	public void setStoreValuation(StoreValuation storeValuation) {
+		this.storeValuation = storeValuation;
+	}
+
+	/**
+	 * The search index to rebuild after an import, for the same reason
+	 */
+	public void setSearchIndex(BookSearchIndex searchIndex) {
+		this.searchIndex = searchIndex;
+	}
+
+	/**
+	 * Imports a .xml (flat XML) or CSV file
+	 */
+	public ImportResult importFile(File file) throws Exception {
+		if (file.getName().toLowerCase().endsWith(".xml")) {
+			return importBooks(new FlatXmlBookRecordSource(new FileInputStream(file)));
+		}
+		return importBooks(new CsvBookRecordSource(new InputStreamReader(
+				new FileInputStream(file), "UTF-8")));
+	}
+
+	public ImportResult importBooks(final BookRecordSource source) throws Exception {
+		final BlockingQueue<BookRecord> queue = new ArrayBlockingQueue<BookRecord>(
+				queueCapacity);
+		final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		Thread reader = new Thread(new Runnable() {
+			public void run() {
+				try {
+					source.read(new BookRecordSource.Handler() {
+						public void record(BookRecord record)
+								throws InterruptedException {
+							queue.put(record);
+						}
+					});
+				} catch (InterruptedException e) {
+					// the writer gave up
+					return;
+				} catch (Exception e) {
+					failure.set(e);
+				}
+				try {
+					queue.put(END);
+				} catch (InterruptedException e) {
+					// the writer gave up
+				}
+			}
+		}, "book-import-reader");
+		reader.setDaemon(true);
+
+		ImportResult result = new ImportResult();
+		long started = System.currentTimeMillis();
+		Set<Long> stores = findStores();
+		List<BookRecord> chunk = new ArrayList<BookRecord>(chunkSize);
+		reader.start();
+		try {
+			for (BookRecord record = queue.take(); record != END; record = queue
+					.take()) {
+				result.read();
+				String error = record.getError() != null ? record.getError()
+						: validate(record, stores);
+				if (error != null) {
+					result.reject(record, error);
+					continue;
+				}
+				chunk.add(record);
+				if (chunk.size() >= chunkSize) {
+					write(chunk, result);
+					chunk.clear();
+					if (result.getRecords() % (10L * chunkSize) < chunkSize) {
+						long elapsed = System.currentTimeMillis() - started;
+						logger.info(result.getRecords() + " records imported, "
+								+ (elapsed == 0 ? 0 : result.getRecords() * 1000
+										/ elapsed) + " records/s");
+					}
+				}
+			}
+			write(chunk, result);
+		} finally {
+			reader.interrupt();
+			evictCaches();
+			if (storeValuation != null) {
+				storeValuation.invalidate();
+			}
+			if (searchIndex != null) {
+				searchIndex.rebuild();
+			}
+			result.setElapsedMillis(System.currentTimeMillis() - started);
+		}
+
+		for (ImportResult.Reject reject : result.getRejects()) {
+			logger.warn("rejected " + reject);
+		}
+		if (failure.get() != null) {
+			logger.error("the feed could not be read to the end, imported so far: "
+					+ result);
+			throw failure.get();
+		}
+		logger.info("import finished: " + result);
+		return result;
+	}
+
+	private String validate(BookRecord record, Set<Long> stores) {
+		if (record.getIsbn() == null && record.getBookId() == null) {
+			return "no ISBN";
+		}
+		if (record.getIsbn() != null && !ISBN.matcher(record.getIsbn()).matches()) {
+			return "ISBN must be 10 digits (the last may be an X): "
+					+ record.getIsbn();
+		}
+		if (record.hasDetails()) {
+			if (record.getTitle() != null && record.getTitle().length() > 40) {
+				return "TITLE is longer than 40 characters";
+			}
+			Money price = record.getPrice();
+			if (price != null
+					&& (price.getCents() < 0 || price.getCents() >= 100000)) {
+				return "PRICE must be between 0 and 999.99: " + price;
+			}
+		}
+		if (record.isElectronic()) {
+			if (record.getUrl() == null || record.getFileType() == null) {
+				return "an electronic book needs both URL and FILETYPE";
+			}
+			if (record.getUrl().length() > 120 || record.getFileType().length() > 40) {
+				return "URL or FILETYPE too long";
+			}
+		}
+		for (BookRecord.Author author : record.getAuthors()) {
+			if (author.getLastName() == null) {
+				return "author without a last name";
+			}
+			if (author.getFirstName().length() > 40
+					|| author.getLastName().length() > 40) {
+				return "author name longer than 40 characters: " + author;
+			}
+		}
+		for (Map.Entry<Long, Integer> stock : record.getInventory().entrySet()) {
+			if (!stores.contains(stock.getKey())) {
+				return "no store with STORE_ID " + stock.getKey();
+			}
+			if (stock.getValue().intValue() < 0) {
+				return "negative QUANTITY for store " + stock.getKey();
+			}
+		}
+		return null;
+	}
+
+	private void write(List<BookRecord> chunk, ImportResult result) {
+		if (chunk.isEmpty()) {
+			return;
+		}
+		Map<String, BookRecord> merged = new LinkedHashMap<String, BookRecord>();
+		for (BookRecord record : chunk) {
+			BookRecord first = merged.get(record.getKey());
+			if (first == null) {
+				merged.put(record.getKey(), record);
+			} else {
+				first.merge(record);
+				result.duplicate();
+			}
+		}
+
+		Collection<BookRecord> records = merged.values();
+		try {
+			result.add(writeChunk(records));
+		} catch (HibernateException e) {
+			logger.warn("writing " + records.size()
+					+ " records failed, retrying them one at a time: " + reason(e));
+			for (BookRecord record : records) {
+				try {
+					result.add(writeChunk(Collections.singleton(record)));
+				} catch (HibernateException single) {
+					result.reject(record, reason(single));
+				}
+			}
+		}
+	}
+
+	private ImportResult writeChunk(Collection<BookRecord> records) {
+		ImportResult written = new ImportResult();
+		StatelessSession session = sessionFactory.openStatelessSession();
+		Transaction tx = null;
+		try {
+			tx = session.beginTransaction();
+			Map<String, Book> existing = findBooks(session, records);
+			Map<BookRecord, Book> books = new LinkedHashMap<BookRecord, Book>();
+			Set<Book> inserted = new HashSet<Book>();
+			List<Book> updated = new ArrayList<Book>();
+			for (BookRecord record : records) {
+				Book book = existing.get(record.getKey());
+				if (book == null) {
+					if (!record.hasDetails()) {
+						written.reject(record, record.getIsbn() != null ? "no book with ISBN "
+								+ record.getIsbn() : "no book with BOOK_ID " + record.getBookId());
+						continue;
+					}
+					book = record.newBook();
+					session.insert(book);
+					inserted.add(book);
+					written.bookInserted();
+				} else if (record.isElectronic() && !(book instanceof ElectronicBook)) {
+					written.reject(record, "already in the catalog as a printed book");
+					continue;
+				} else if (record.applyTo(book)) {
+					updated.add(book);
+				}
+				books.put(record, book);
+			}
+			for (Book book : updated) {
+				session.update(book);
+				written.bookUpdated();
+			}
+			// the BookAuthors and Inventory rows need the Book rows
+			((SessionImplementor) session).getBatcher().executeBatch();
+
+			Connection connection = session.connection();
+			writeAuthors(connection, books, inserted, written);
+			writeInventory(session, connection, books, inserted, written);
+			tx.commit();
+			return written;
+		} catch (SQLException e) {
+			rollback(tx);
+			throw JDBCExceptionHelper.convert(((SessionFactoryImplementor) sessionFactory)
+					.getSQLExceptionConverter(), e, "could not import books");
+		} catch (HibernateException e) {
+			rollback(tx);
+			throw e;
+		} finally {
+			session.close();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, Book> findBooks(StatelessSession session,
+			Collection<BookRecord> records) {
+		List<String> isbns = new ArrayList<String>();
+		List<Long> ids = new ArrayList<Long>();
+		for (BookRecord record : records) {
+			if (record.getIsbn() != null) {
+				isbns.add(record.getIsbn());
+			} else {
+				ids.add(record.getBookId());
+			}
+		}
+		Map<String, Book> books = new HashMap<String, Book>();
+		if (!isbns.isEmpty()) {
+			List<Book> found = session.createQuery(
+					"FROM Book b WHERE b.isbn IN (:isbns) ORDER BY b.id")
+					.setParameterList("isbns", isbns).list();
+			for (Book book : found) {
+				if (!books.containsKey(book.getIsbn())) {
+					books.put(book.getIsbn(), book);
+				}
+			}
+		}
+		if (!ids.isEmpty()) {
+			List<Book> found = session.createQuery(
+					"FROM Book b WHERE b.id IN (:ids)").setParameterList("ids",
+					ids).list();
+			for (Book book : found) {
+				books.put("#" + book.getId(), book);
+			}
+		}
+		return books;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Set<Long> findStores() {
+		StatelessSession session = sessionFactory.openStatelessSession();
+		try {
+			return new HashSet<Long>(session.createQuery("SELECT s.id FROM Store s")
+					.list());
+		} finally {
+			session.close();
+		}
+	}
+
+	private void writeAuthors(Connection connection,
+			Map<BookRecord, Book> books, Set<Book> inserted, ImportResult written)
+			throws SQLException {
+		PreparedStatement delete = connection
+				.prepareStatement("DELETE FROM BookAuthors WHERE BOOK_ID = ?");
+		PreparedStatement insert = connection
+				.prepareStatement("INSERT INTO BookAuthors (BOOK_ID, FirstName, LastName) VALUES (?, ?, ?)");
+		try {
+			int rows = 0;
+			for (Map.Entry<BookRecord, Book> entry : books.entrySet()) {
+				Book book = entry.getValue();
+				if (entry.getKey().getAuthors().isEmpty()) {
+					continue;
+				}
+				if (!inserted.contains(book)) {
+					delete.setLong(1, book.getId().longValue());
+					delete.addBatch();
+				}
+				for (BookRecord.Author author : entry.getKey().getAuthors()) {
+					insert.setLong(1, book.getId().longValue());
+					insert.setString(2, author.getFirstName());
+					insert.setString(3, author.getLastName());
+					insert.addBatch();
+					rows++;
+				}
+			}
+			if (rows > 0) {
+				delete.executeBatch();
+				insert.executeBatch();
+				written.authorRows(rows);
+			}
+		} finally {
+			delete.close();
+			insert.close();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void writeInventory(StatelessSession session, Connection connection,
+			Map<BookRecord, Book> books, Set<Book> inserted, ImportResult written)
+			throws SQLException {
+		// INVENTORY_ID and QUANTITY of the current rows, by BOOK_ID:STORE_ID
+		Map<String, Object[]> current = new HashMap<String, Object[]>();
+		List<Long> bookIds = new ArrayList<Long>();
+		for (Map.Entry<BookRecord, Book> entry : books.entrySet()) {
+			if (!entry.getKey().getInventory().isEmpty()
+					&& !inserted.contains(entry.getValue())) {
+				bookIds.add(entry.getValue().getId());
+			}
+		}
+		if (!bookIds.isEmpty()) {
+			List<Object[]> rows = session.createQuery(
+					"SELECT i.book.id, i.store.id, i.id, i.quantity FROM Inventory i WHERE i.book.id IN (:ids)")
+					.setParameterList("ids", bookIds).list();
+			for (Object[] row : rows) {
+				current.put(row[0] + ":" + row[1], new Object[] { row[2], row[3] });
+			}
+		}
+
+		IdentifierGenerator ids = ((SessionFactoryImplementor) sessionFactory)
+				.getEntityPersister(Inventory.class.getName()).getIdentifierGenerator();
+		PreparedStatement insert = connection
+				.prepareStatement("INSERT INTO Inventory (INVENTORY_ID, BOOK_ID, STORE_ID, Quantity, Version) VALUES (?, ?, ?, ?, 0)");
+		PreparedStatement update = connection
+				.prepareStatement("UPDATE Inventory SET Quantity = ?, Version = Version + 1 WHERE INVENTORY_ID = ?");
+		try {
+			int inserts = 0;
+			int updates = 0;
+			for (Map.Entry<BookRecord, Book> entry : books.entrySet()) {
+				Book book = entry.getValue();
+				for (Map.Entry<Long, Integer> stock : entry.getKey().getInventory()
+						.entrySet()) {
+					Object[] row = current.get(book.getId() + ":" + stock.getKey());
+					if (row == null) {
+						Long id = (Long) ids.generate((SessionImplementor) session, null);
+						insert.setLong(1, id.longValue());
+						insert.setLong(2, book.getId().longValue());
+						insert.setLong(3, stock.getKey().longValue());
+						insert.setInt(4, stock.getValue().intValue());
+						insert.addBatch();
+						inserts++;
+						written.inventoryInserted();
+					} else if (!stock.getValue().equals(row[1])) {
+						update.setInt(1, stock.getValue().intValue());
+						update.setLong(2, ((Long) row[0]).longValue());
+						update.addBatch();
+						updates++;
+						written.inventoryUpdated();
+					}
+				}
+			}
+			if (inserts > 0) {
+				insert.executeBatch();
+			}
+			if (updates > 0) {
+				update.executeBatch();
+			}
+		} finally {
+			insert.close();
+			update.close();
+		}
+	}
+
+	private void evictCaches() {
+		sessionFactory.evict(Book.class);
+		sessionFactory.evict(Inventory.class);
+		sessionFactory.evictCollection(Book.class.getName() + ".authors");
+		sessionFactory.evictCollection(Book.class.getName() + ".inventoryRecords");
+	}
+
+	private static void rollback(Transaction tx) {
+		try {
+			if (tx != null && tx.isActive()) {
+				tx.rollback();
+			}
+		} catch (HibernateException e) {
+			logger.warn("rollback failed", e);
+		}
+	}
+
+	private static String reason(HibernateException e) {
+		if (e instanceof JDBCException
+				&& ((JDBCException) e).getSQLException() != null) {
+			SQLException cause = ((JDBCException) e).getSQLException();
+			// the interesting message of a failed batch is the next exception
+			while (cause.getNextException() != null) {
+				cause = cause.getNextException();
+			}
+			return cause.getMessage();
+		}
+		return e.getMessage();
+	}
+
+	/**
+	 * Imports the given files into the configured BookStore database
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0) {
+			System.err.println("usage: BookImporter feed.csv|feed.xml ...");
+			return;
+		}
+		try {
+			BookImporter importer = new BookImporter(HibernateUtil
+					.getSessionFactory());
+			importer.setStoreValuation(BookstoreBootstrap.getStoreValuation());
+			importer.setSearchIndex(BookstoreBootstrap.getBookSearchIndex());
+			for (String name : args) {
+				ImportResult result = importer.importFile(new File(name));
+				System.out.println(name + ": " + result);
+			}
+		} finally {
+			HibernateUtil.closeFactory();
+		}
+	}
+}
@@ -0,0 +1,246 @@
+package org.integrallis.bookstore.importer;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.builder.EqualsBuilder;
+import org.apache.commons.lang.builder.HashCodeBuilder;
+import org.apache.commons.lang.builder.ToStringBuilder;
+import org.integrallis.bookstore.domain.Book;
+import org.integrallis.bookstore.domain.ElectronicBook;
+import org.integrallis.bookstore.domain.Money;
+
+/**
+ * One book of a distributor feed: its details (when the feed carries them),
+ * authors, electronic edition and per-store quantities. A record without
+ * details only adds authors or stock to a book that must already exist,
+ * found by ISBN or, failing that, by database id.
+ */
+public class BookRecord {
+	private final String position;
+	private String error;
+
+	private Long bookId;
+	private String isbn;
+	private boolean details;
+	private String title;
+	private Date publishedOn;
+	private Money price;
+	private String url;
+	private String fileType;
+	private Set<Author> authors = new LinkedHashSet<Author>();
+	private Map<Long, Integer> inventory = new LinkedHashMap<Long, Integer>();
+
+	public BookRecord(String position) {
+		this.position = position;
+	}
+
+	/**
+	 * A feed entry that could not even be parsed
+	 */
+	public static BookRecord invalid(String position, String error) {
+		BookRecord record = new BookRecord(position);
+		record.error = error;
+		return record;
+	}
+
+	public String getPosition() {
+		return position;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+	public Long getBookId() {
+		return bookId;
+	}
+
+	public void setBookId(Long bookId) {
+		this.bookId = bookId;
+	}
+
+	public String getIsbn() {
+		return isbn;
+	}
+
+	public void setIsbn(String isbn) {
+		this.isbn = isbn;
+	}
+
+	public boolean hasDetails() {
+		return details;
+	}
+
+	public void setDetails(String title, Date publishedOn, Money price) {
+		this.details = true;
+		this.title = title;
+		this.publishedOn = publishedOn;
+		this.price = price;
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	public Date getPublishedOn() {
+		return publishedOn;
+	}
+
+	public Money getPrice() {
+		return price;
+	}
+
+	public boolean isElectronic() {
+		return url != null || fileType != null;
+	}
+
+	public void setElectronic(String url, String fileType) {
+		this.url = url;
+		this.fileType = fileType;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	public String getFileType() {
+		return fileType;
+	}
+
+	public Set<Author> getAuthors() {
+		return authors;
+	}
+
+	public void addAuthor(String firstName, String lastName) {
+		authors.add(new Author(firstName, lastName));
+	}
+
+	public Map<Long, Integer> getInventory() {
+		return inventory;
+	}
+
+	public void setQuantity(Long storeId, Integer quantity) {
+		inventory.put(storeId, quantity);
+	}
+
+	/**
+	 * ISBN, or #id for records that reference a book by database id only
+	 */
+	public String getKey() {
+		if (isbn != null) {
+			return isbn;
+		}
+		return bookId != null ? "#" + bookId : null;
+	}
+
+	/**
+	 * Folds a later record for the same book into this one: details and the
+	 * electronic edition are replaced, authors and quantities accumulate
+	 */
+	public void merge(BookRecord later) {
+		if (later.details) {
+			setDetails(later.title, later.publishedOn, later.price);
+		}
+		if (later.isElectronic()) {
+			setElectronic(later.url, later.fileType);
+		}
+		if (bookId == null) {
+			bookId = later.bookId;
+		}
+		authors.addAll(later.authors);
+		inventory.putAll(later.inventory);
+	}
+
+	public Book newBook() {
+		if (isElectronic()) {
+			return new ElectronicBook(isbn, title, publishedOn, price, url,
+					fileType);
+		}
+		return new Book(isbn, title, publishedOn, price);
+	}
+
+	/**
+	 * Copies the record's details onto an existing book, returning whether
+	 * anything changed
+	 */
+	public boolean applyTo(Book book) {
+		boolean changed = false;
+		if (details) {
+			changed = !new EqualsBuilder().append(title, book.getTitle())
+					.append(publishedOn, book.getPublishedOn()).append(price,
+							book.getPrice()).isEquals();
+			book.setTitle(title);
+			book.setPublishedOn(publishedOn);
+			book.setPrice(price);
+		}
+		if (isElectronic() && book instanceof ElectronicBook) {
+			ElectronicBook electronicBook = (ElectronicBook) book;
+			changed |= !new EqualsBuilder().append(url, electronicBook.getUrl())
+					.append(fileType, electronicBook.getFileType()).isEquals();
+			electronicBook.setUrl(url);
+			electronicBook.setFileType(fileType);
+		}
+		return changed;
+	}
+
+	public String toString() {
+		return new ToStringBuilder(this).append("position", position).append(
+				"isbn", isbn).append("bookId", bookId).append("title", title)
+				.append("error", error).toString();
+	}
+
+	/**
+	 * A row of BookAuthors
+	 */
+	public static class Author {
+		private final String firstName;
+		private final String lastName;
+
+		public Author(String firstName, String lastName) {
+			this.firstName = firstName;
+			this.lastName = lastName;
+		}
+
+		/**
+		 * Splits "First Middle Last" on the last blank
+		 */
+		public static Author parse(String name) {
+			String trimmed = name.trim();
+			int blank = trimmed.lastIndexOf(' ');
+			if (blank < 0) {
+				return new Author("", trimmed);
+			}
+			return new Author(trimmed.substring(0, blank).trim(), trimmed
+					.substring(blank + 1));
+		}
+
+		public String getFirstName() {
+			return firstName;
+		}
+
+		public String getLastName() {
+			return lastName;
+		}
+
+		public boolean equals(Object object) {
+			if (!(object instanceof Author))
+				return false;
+			final Author author = (Author) object;
+			return new EqualsBuilder().append(firstName, author.firstName)
+					.append(lastName, author.lastName).isEquals();
+		}
+
+		public int hashCode() {
+			return new HashCodeBuilder(29, 31).append(firstName).append(
+					lastName).toHashCode();
+		}
+
+		public String toString() {
+			return firstName + " " + lastName;
+		}
+	}
+}
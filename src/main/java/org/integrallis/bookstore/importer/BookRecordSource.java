@@ -0,0 +1,20 @@
+package org.integrallis.bookstore.importer;
+
+/**
+ * A feed that pushes its records, one at a time, to a {@link Handler}. The
+ * handler may block (the import pipeline does when it falls behind), which
+ * is what keeps memory bounded however large the feed is.
+ */
+public interface BookRecordSource {
+
+	void read(Handler handler) throws Exception;
+
+	public interface Handler {
+		/**
+		 * Receives the next record, or an invalid one (see
+		 * {@link BookRecord#invalid(String, String)}) for an entry that could
+		 * not be parsed
+		 */
+		void record(BookRecord record) throws InterruptedException;
+	}
+}
@@ -0,0 +1,167 @@
+package org.integrallis.bookstore.importer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.integrallis.bookstore.domain.Money;
+
+/**
+ * Reads a comma separated feed whose first line names the columns, using the
+ * same names as the flat XML feeds: ISBN, TITLE, PUBLISHEDON (yyyy-MM-dd),
+ * PRICE, AUTHORS ("First Last" separated by '|'), URL, FILETYPE, STORE_ID and
+ * QUANTITY. Only ISBN is required; a line without TITLE leaves the book's
+ * details alone. Several lines for the same ISBN (one per store, say) are
+ * merged by the importer. Fields may be double quoted, with "" for a quote.
+ */
+public class CsvBookRecordSource implements BookRecordSource {
+
+	private final Reader reader;
+
+	public CsvBookRecordSource(Reader reader) {
+		this.reader = reader;
+	}
+
+	public void read(Handler handler) throws IOException, InterruptedException {
+		BufferedReader lines = new BufferedReader(reader);
+		try {
+			String line = lines.readLine();
+			if (line == null) {
+				return;
+			}
+			Map<String, Integer> columns = new HashMap<String, Integer>();
+			List<String> header = split(line);
+			for (int i = 0; i < header.size(); i++) {
+				columns.put(header.get(i).trim().toUpperCase(), Integer.valueOf(i));
+			}
+			if (!columns.containsKey("ISBN")) {
+				throw new IOException("the first line must name the columns, including ISBN");
+			}
+
+			SimpleDateFormat dates = new SimpleDateFormat("yyyy-MM-dd");
+			dates.setLenient(false);
+			int number = 1;
+			while ((line = lines.readLine()) != null) {
+				number++;
+				if (line.trim().length() == 0) {
+					continue;
+				}
+				String position = "line " + number;
+				try {
+					handler.record(parse(position, split(line), columns, dates));
+				} catch (IllegalArgumentException e) {
+					handler.record(BookRecord.invalid(position, e.getMessage()));
+				}
+			}
+		} finally {
+			lines.close();
+		}
+	}
+
+	private BookRecord parse(String position, List<String> fields,
+			Map<String, Integer> columns, SimpleDateFormat dates) {
+		BookRecord record = new BookRecord(position);
+		record.setIsbn(field(fields, columns, "ISBN"));
+		String title = field(fields, columns, "TITLE");
+		if (title != null) {
+			record.setDetails(title, date(field(fields, columns,
+					"PUBLISHEDON"), dates), money(field(fields, columns,
+					"PRICE")));
+		}
+		String url = field(fields, columns, "URL");
+		String fileType = field(fields, columns, "FILETYPE");
+		if (url != null || fileType != null) {
+			record.setElectronic(url, fileType);
+		}
+		String authors = field(fields, columns, "AUTHORS");
+		if (authors != null) {
+			for (String name : authors.split("\\|")) {
+				if (name.trim().length() > 0) {
+					BookRecord.Author author = BookRecord.Author.parse(name);
+					record.addAuthor(author.getFirstName(), author.getLastName());
+				}
+			}
+		}
+		String storeId = field(fields, columns, "STORE_ID");
+		if (storeId != null) {
+			String quantity = field(fields, columns, "QUANTITY");
+			if (quantity == null) {
+				throw new IllegalArgumentException("STORE_ID without QUANTITY");
+			}
+			record.setQuantity(Long.valueOf(integer(storeId)), Integer
+					.valueOf((int) integer(quantity)));
+		}
+		return record;
+	}
+
+	private static String field(List<String> fields, Map<String, Integer> columns,
+			String name) {
+		Integer column = columns.get(name);
+		if (column == null || column.intValue() >= fields.size()) {
+			return null;
+		}
+		String value = fields.get(column.intValue()).trim();
+		return value.length() == 0 ? null : value;
+	}
+
+	static Date date(String value, SimpleDateFormat dates) {
+		if (value == null) {
+			return null;
+		}
+		try {
+			return dates.parse(value);
+		} catch (ParseException e) {
+			throw new IllegalArgumentException("not a yyyy-MM-dd date: " + value);
+		}
+	}
+
+	static Money money(String value) {
+		return value == null ? null : Money.parse(value);
+	}
+
+	static long integer(String value) {
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("not a whole number: " + value);
+		}
+	}
+
+	static List<String> split(String line) {
+		List<String> fields = new ArrayList<String>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (quoted) {
+				if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					field.append('"');
+					i++;
+				} else if (c == '"') {
+					quoted = false;
+				} else {
+					field.append(c);
+				}
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == ',') {
+				fields.add(field.toString());
+				field.setLength(0);
+			} else {
+				field.append(c);
+			}
+		}
+		if (quoted) {
+			throw new IllegalArgumentException("unterminated quoted field");
+		}
+		fields.add(field.toString());
+		return fields;
+	}
+}
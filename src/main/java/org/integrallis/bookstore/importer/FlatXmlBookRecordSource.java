@@ -0,0 +1,193 @@
+package org.integrallis.bookstore.importer;
+
+import java.io.InputStream;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Streams a DbUnit flat XML data set (see lab-2-5-dataset.xml) with SAX. Each
+ * element is a row of BOOK, BOOKAUTHORS, ELECTRONICBOOK or INVENTORY with the
+ * columns as attributes:
+ *
+ * <pre>
+ * &lt;book BOOK_ID="1" ISBN="1590595963" TITLE="Beginning POJOs" PUBLISHEDON="2006-03-24" PRICE="32.57"/&gt;
+ * &lt;bookauthors BOOK_ID="1" FIRSTNAME="Brian" LASTNAME="Sam-Bodden"/&gt;
+ * &lt;electronicbook BOOK_ID="1" URL="http://www.apress.com/..." FILETYPE="PDF"/&gt;
+ * &lt;inventory BOOK_ID="1" STORE_ID="2" QUANTITY="25"/&gt;
+ * </pre>
+ *
+ * BOOK_ID only ties the rows of the feed together; the importer matches
+ * books by ISBN. Consecutive rows for the same BOOK_ID become one record. A
+ * BOOK_ID without a BOOK row earlier in the feed refers to a book already in
+ * the database, which is how the lab 2.5 data set adds inventory. To resolve
+ * later rows the source remembers the ISBN of every BOOK_ID it has seen, so
+ * feeds should keep the rows of a book together.
+ */
+public class FlatXmlBookRecordSource implements BookRecordSource {
+
+	private static final Set<String> TABLES = new HashSet<String>(Arrays
+			.asList("BOOK", "BOOKAUTHORS", "ELECTRONICBOOK", "INVENTORY"));
+
+	private final InputStream input;
+
+	public FlatXmlBookRecordSource(InputStream input) {
+		this.input = input;
+	}
+
+	public void read(Handler handler) throws Exception {
+		try {
+			SAXParserFactory.newInstance().newSAXParser().parse(
+					new InputSource(input), new RowHandler(handler));
+		} catch (SAXException e) {
+			if (e.getException() instanceof InterruptedException) {
+				throw (InterruptedException) e.getException();
+			}
+			throw e;
+		} finally {
+			input.close();
+		}
+	}
+
+	private static class RowHandler extends DefaultHandler {
+		private final Handler handler;
+		private final SimpleDateFormat dates = new SimpleDateFormat("yyyy-MM-dd");
+		private final Map<String, String> isbns = new HashMap<String, String>();
+		private final Set<String> rejectedKeys = new HashSet<String>();
+		private Locator locator;
+		private int depth;
+		private String key;
+		private BookRecord record;
+
+		RowHandler(Handler handler) {
+			this.handler = handler;
+			dates.setLenient(false);
+		}
+
+		public void setDocumentLocator(Locator locator) {
+			this.locator = locator;
+		}
+
+		public void startElement(String uri, String localName, String qName,
+				Attributes attributes) throws SAXException {
+			if (depth++ == 0) {
+				// <dataset>
+				return;
+			}
+			String table = qName.toUpperCase();
+			String position = "line " + locator.getLineNumber();
+			Map<String, String> row = new HashMap<String, String>();
+			for (int i = 0; i < attributes.getLength(); i++) {
+				String value = attributes.getValue(i).trim();
+				if (value.length() > 0) {
+					row.put(attributes.getQName(i).toUpperCase(), value);
+				}
+			}
+			if (!TABLES.contains(table)) {
+				record(BookRecord.invalid(position, "cannot import " + table + " rows"));
+				return;
+			}
+			if (!row.containsKey("BOOK_ID") && !row.containsKey("ISBN")) {
+				record(BookRecord.invalid(position, table + " row needs a BOOK_ID or ISBN"));
+				return;
+			}
+			String rowKey = row.containsKey("BOOK_ID") ? row.get("BOOK_ID")
+					: "ISBN " + row.get("ISBN");
+			try {
+				if (rejectedKeys.contains(rowKey)) {
+					throw new IllegalArgumentException("an earlier row for "
+							+ rowKey + " was rejected");
+				}
+				if (!rowKey.equals(key)) {
+					emit();
+					key = null;
+					record = start(position, table, rowKey, row);
+					key = rowKey;
+				}
+				addRow(table, row);
+			} catch (IllegalArgumentException e) {
+				if (key == null || "BOOK".equals(table)) {
+					// the rest of this book's rows cannot be trusted either
+					rejectedKeys.add(rowKey);
+					key = null;
+					record = null;
+				}
+				record(BookRecord.invalid(position, e.getMessage()));
+			}
+		}
+
+		private BookRecord start(String position, String table, String rowKey,
+				Map<String, String> row) {
+			BookRecord started = new BookRecord(position);
+			if (row.containsKey("ISBN")) {
+				started.setIsbn(row.get("ISBN"));
+			} else if (isbns.containsKey(rowKey)) {
+				started.setIsbn(isbns.get(rowKey));
+			} else if (!"BOOK".equals(table)) {
+				started.setBookId(Long.valueOf(CsvBookRecordSource.integer(rowKey)));
+			}
+			return started;
+		}
+
+		private void addRow(String table, Map<String, String> row) {
+			if ("BOOK".equals(table)) {
+				if (row.get("ISBN") == null) {
+					throw new IllegalArgumentException("BOOK row without ISBN");
+				}
+				record.setIsbn(row.get("ISBN"));
+				record.setDetails(row.get("TITLE"), CsvBookRecordSource.date(row
+						.get("PUBLISHEDON"), dates), CsvBookRecordSource.money(row
+						.get("PRICE")));
+				if (row.containsKey("BOOK_ID")) {
+					isbns.put(row.get("BOOK_ID"), row.get("ISBN"));
+				}
+			} else if ("BOOKAUTHORS".equals(table)) {
+				String firstName = row.get("FIRSTNAME");
+				record.addAuthor(firstName == null ? "" : firstName, row
+						.get("LASTNAME"));
+			} else if ("ELECTRONICBOOK".equals(table)) {
+				record.setElectronic(row.get("URL"), row.get("FILETYPE"));
+			} else {
+				if (row.get("STORE_ID") == null || row.get("QUANTITY") == null) {
+					throw new IllegalArgumentException("INVENTORY row needs STORE_ID and QUANTITY");
+				}
+				record.setQuantity(Long.valueOf(CsvBookRecordSource.integer(row
+						.get("STORE_ID"))), Integer.valueOf((int) CsvBookRecordSource
+						.integer(row.get("QUANTITY"))));
+			}
+		}
+
+		public void endElement(String uri, String localName, String qName)
+				throws SAXException {
+			if (--depth == 0) {
+				emit();
+			}
+		}
+
+		private void emit() throws SAXException {
+			if (record != null) {
+				record(record);
+				record = null;
+			}
+		}
+
+		private void record(BookRecord next) throws SAXException {
+			try {
+				handler.record(next);
+			} catch (InterruptedException e) {
+				throw new SAXException(e);
+			}
+		}
+	}
+}
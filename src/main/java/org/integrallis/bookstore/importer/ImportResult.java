@@ -0,0 +1,176 @@
+package org.integrallis.bookstore.importer;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang.builder.ToStringBuilder;
+
+/**
+ * What a {@link BookImporter} run did. Only the first {@link #MAX_REJECTS}
+ * rejects are kept, the rest are only counted.
+ */
+public class ImportResult implements Serializable {
+	public static final int MAX_REJECTS = 1000;
+
+	private long records;
+	private long duplicates;
+	private long booksInserted;
+	private long booksUpdated;
+	private long authorRows;
+	private long inventoryInserted;
+	private long inventoryUpdated;
+	private long rejected;
+	private List<Reject> rejects = new ArrayList<Reject>();
+	private long elapsedMillis;
+
+	void read() {
+		records++;
+	}
+
+	void duplicate() {
+		duplicates++;
+	}
+
+	void bookInserted() {
+		booksInserted++;
+	}
+
+	void bookUpdated() {
+		booksUpdated++;
+	}
+
+	void authorRows(int rows) {
+		authorRows += rows;
+	}
+
+	void inventoryInserted() {
+		inventoryInserted++;
+	}
+
+	void inventoryUpdated() {
+		inventoryUpdated++;
+	}
+
+	void reject(BookRecord record, String reason) {
+		rejected++;
+		if (rejects.size() < MAX_REJECTS) {
+			rejects.add(new Reject(record.getPosition(), record.getKey(), reason));
+		}
+	}
+
+	/**
+	 * Adds the counts of a chunk once it has been committed
+	 */
+	void add(ImportResult chunk) {
+		booksInserted += chunk.booksInserted;
+		booksUpdated += chunk.booksUpdated;
+		authorRows += chunk.authorRows;
+		inventoryInserted += chunk.inventoryInserted;
+		inventoryUpdated += chunk.inventoryUpdated;
+		for (Reject reject : chunk.rejects) {
+			rejected++;
+			if (rejects.size() < MAX_REJECTS) {
+				rejects.add(reject);
+			}
+		}
+	}
+
+	void setElapsedMillis(long elapsedMillis) {
+		this.elapsedMillis = elapsedMillis;
+	}
+
+	public long getRecords() {
+		return records;
+	}
+
+	public long getDuplicates() {
+		return duplicates;
+	}
+
+	public long getBooksInserted() {
+		return booksInserted;
+	}
+
+	public long getBooksUpdated() {
+		return booksUpdated;
+	}
+
+	public long getAuthorRows() {
+		return authorRows;
+	}
+
+	public long getInventoryInserted() {
+		return inventoryInserted;
+	}
+
+	public long getInventoryUpdated() {
+		return inventoryUpdated;
+	}
+
+	public long getRejected() {
+		return rejected;
+	}
+
+	public List<Reject> getRejects() {
+		return Collections.unmodifiableList(rejects);
+	}
+
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	/**
+	 * Feed records (accepted or not) processed per second
+	 */
+	public double getRecordsPerSecond() {
+		return elapsedMillis == 0 ? 0 : records * 1000.0 / elapsedMillis;
+	}
+
+	public String toString() {
+		return new ToStringBuilder(this).append("records", records).append(
+				"recordsPerSecond", (long) getRecordsPerSecond()).append(
+				"duplicates", duplicates).append("booksInserted", booksInserted)
+				.append("booksUpdated", booksUpdated).append("authorRows",
+						authorRows).append("inventoryInserted", inventoryInserted)
+				.append("inventoryUpdated", inventoryUpdated).append("rejected",
+						rejected).append("elapsedMillis", elapsedMillis).toString();
+	}
+
+	public static class Reject implements Serializable {
+		private final String position;
+		private final String key;
+		private final String reason;
+
+		public Reject(String position, String key, String reason) {
+			this.position = position;
+			this.key = key;
+			this.reason = reason;
+		}
+
+		public String getPosition() {
+			return position;
+		}
+
+		/**
+		 * The ISBN, or #id for records referencing a book by id
+		 */
+		public String getKey() {
+			return key;
+		}
+
+		public String getReason() {
+			return reason;
+		}
+
+		public String toString() {
+			return key == null ? position + ": " + reason : position + " ("
+					+ key + "): " + reason;
+		}
+
+		private static final long serialVersionUID = -4407870744618640395L;
+	}
+
+	private static final long serialVersionUID = 2276503125520843718L;
+}
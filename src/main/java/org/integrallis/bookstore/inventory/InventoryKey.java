@@ -0,0 +1,34 @@
+package org.integrallis.bookstore.inventory;
+
+/**
+ * A (book, store) pair, the row of Inventory the reservations and the
+ * write-behind keep their state for
+ */
+final class InventoryKey {
+	final Long bookId;
+	final Long storeId;
+
+	InventoryKey(Long bookId, Long storeId) {
+		this.bookId = bookId;
+		this.storeId = storeId;
+	}
+
+	public boolean equals(Object object) {
+		if (!(object instanceof InventoryKey)) {
+			return false;
+		}
+		InventoryKey key = (InventoryKey) object;
+		return (bookId == null ? key.bookId == null : bookId.equals(key.bookId))
+				&& (storeId == null ? key.storeId == null : storeId
+						.equals(key.storeId));
+	}
+
+	public int hashCode() {
+		return (17 * 37 + (bookId == null ? 0 : bookId.hashCode())) * 37
+				+ (storeId == null ? 0 : storeId.hashCode());
+	}
+
+	public String toString() {
+		return "book " + bookId + " in store " + storeId;
+	}
+}
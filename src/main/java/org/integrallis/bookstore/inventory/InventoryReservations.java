@@ -0,0 +1,195 @@
+package org.integrallis.bookstore.inventory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.hibernate.HibernateException;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+
+/**
+ * Reserves and releases stock of a book in a store in memory, without a
+ * load-modify-flush round trip per change, and hands the changes to an
+ * {@link InventoryWriteBehind} to write.
+ * <p>
+ * The quantity of a (book, store) pair is read once, under one of a fixed
+ * set of striped locks so that pairs load in parallel but each only once.
+ * From then on it is an atomic counter: a reservation is a compare-and-set
+ * that never takes the quantity below zero, so stock is never oversold.
+ * <p>
+ * While a pair is held here its quantity must only change through the
+ * reservations, {@link #clear()} (after a flush) makes them read it again.
+ * Reservations share a read lock that clear() takes exclusively, so none can
+ * queue a change between its flush and the quantities being forgotten, which
+ * the next read of the row would then miss.
+ */
+public class InventoryReservations {
+
+	private static final int STRIPES = 64;
+
+	private final SessionFactory sessionFactory;
+	private final InventoryWriteBehind writeBehind;
+	private final ConcurrentMap<InventoryKey, Stock> stock = new ConcurrentHashMap<InventoryKey, Stock>();
+	private final Object[] loadLocks = new Object[STRIPES];
+	private final ReadWriteLock clearLock = new ReentrantReadWriteLock();
+
+	private final AtomicLong reservations = new AtomicLong();
+	private final AtomicLong rejections = new AtomicLong();
+
+	public InventoryReservations(SessionFactory sessionFactory,
+			InventoryWriteBehind writeBehind) {
+		this.sessionFactory = sessionFactory;
+		this.writeBehind = writeBehind;
+		for (int i = 0; i < STRIPES; i++) {
+			loadLocks[i] = new Object();
+		}
+	}
+
+	/**
+	 * Takes the quantity from the book's stock in the store, or returns false
+	 * without changing it if there is not that much (or no such inventory)
+	 * 
+	 * @throws HibernateException
+	 *             if the write-behind queue has no room for the change, the
+	 *             stock is then left as it was
+	 */
+	public boolean reserve(Long bookId, Long storeId, int quantity) {
+		if (quantity <= 0) {
+			throw new IllegalArgumentException("quantity must be positive: " + quantity);
+		}
+		clearLock.readLock().lock();
+		try {
+			Stock held = stock(bookId, storeId);
+			while (true) {
+				int available = held.available.get();
+				if (!held.stocked || available < quantity) {
+					rejections.incrementAndGet();
+					return false;
+				}
+				if (held.available.compareAndSet(available, available - quantity)) {
+					break;
+				}
+			}
+			try {
+				writeBehind.add(bookId, storeId, -quantity);
+			} catch (RuntimeException e) {
+				held.available.addAndGet(quantity);
+				throw e;
+			}
+			reservations.incrementAndGet();
+			return true;
+		} finally {
+			clearLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Puts a reserved quantity back
+	 */
+	public void release(Long bookId, Long storeId, int quantity) {
+		if (quantity <= 0) {
+			throw new IllegalArgumentException("quantity must be positive: " + quantity);
+		}
+		clearLock.readLock().lock();
+		try {
+			Stock held = stock(bookId, storeId);
+			if (!held.stocked) {
+				throw new IllegalArgumentException("no inventory of book " + bookId
+						+ " in store " + storeId);
+			}
+			writeBehind.add(bookId, storeId, quantity);
+			held.available.addAndGet(quantity);
+		} finally {
+			clearLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * The quantity left to reserve, 0 if the store does not stock the book
+	 */
+	public int getAvailable(Long bookId, Long storeId) {
+		clearLock.readLock().lock();
+		try {
+			return stock(bookId, storeId).available.get();
+		} finally {
+			clearLock.readLock().unlock();
+		}
+	}
+
+	public long getReservationCount() {
+		return reservations.get();
+	}
+
+	public long getRejectionCount() {
+		return rejections.get();
+	}
+
+	/**
+	 * Writes every change handed to the write-behind queue so far
+	 */
+	public void flush() {
+		writeBehind.flush();
+	}
+
+	/**
+	 * Writes what is pending and forgets every quantity, they are read again
+	 * on next use. Reservations wait until it is done.
+	 */
+	public void clear() {
+		clearLock.writeLock().lock();
+		try {
+			flush();
+			stock.clear();
+		} finally {
+			clearLock.writeLock().unlock();
+		}
+	}
+
+	private Stock stock(Long bookId, Long storeId) {
+		InventoryKey key = new InventoryKey(bookId, storeId);
+		Stock held = stock.get(key);
+		if (held != null) {
+			return held;
+		}
+		synchronized (loadLocks[(key.hashCode() & 0x7fffffff) % STRIPES]) {
+			held = stock.get(key);
+			if (held == null) {
+				held = load(key);
+				stock.put(key, held);
+			}
+			return held;
+		}
+	}
+
+	private Stock load(InventoryKey key) {
+		StatelessSession session = sessionFactory.openStatelessSession();
+		try {
+			Integer quantity = (Integer) session.createQuery(
+					"SELECT i.quantity FROM Inventory i "
+							+ "WHERE i.book.id = :book AND i.store.id = :store")
+					.setLong("book", key.bookId.longValue()).setLong("store",
+							key.storeId.longValue()).uniqueResult();
+			return quantity == null ? new Stock(false, 0) : new Stock(true,
+					quantity.intValue());
+		} finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * A pair's quantity left to reserve
+	 */
+	private static class Stock {
+		private final boolean stocked;
+		private final AtomicInteger available;
+
+		Stock(boolean stocked, int available) {
+			this.stocked = stocked;
+			this.available = new AtomicInteger(available);
+		}
+	}
+}
@@ -0,0 +1,503 @@
+package org.integrallis.bookstore.inventory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+import org.hibernate.HibernateException;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.exception.JDBCExceptionHelper;
+import org.integrallis.bookstore.domain.Inventory;
+import org.integrallis.bookstore.valuation.StoreValuation;
+import org.integrallis.hibernate.metrics.LatencyHistogram;
+
+/**
+ * Buffers changes of the quantity of a book in a store and writes them
+ * behind. Deltas for the same (book, store) are merged in memory, so a busy
+ * row costs one UPDATE Inventory SET Quantity = Quantity + ?, Version =
+ * Version + 1 per flush however many deltas it received. Flushes run on a
+ * background thread every flush interval, or as soon as a batch of rows is
+ * waiting, and write all rows in JDBC batches in one transaction.
+ * <p>
+ * At most maxPending rows wait at a time. When the database falls behind,
+ * callers adding a new row wait for a flush to make room, for at most
+ * maxWait ms. A failed flush keeps its rows (and their room) for the next
+ * one. {@link #close()} writes everything still waiting and only returns
+ * once it is written, or throws after logging what could not be. The flusher
+ * is a daemon thread, so {@link #start()} also registers close() to run when
+ * the JVM shuts down; the factory must still be open by then.
+ */
+public class InventoryWriteBehind {
+	private static Logger logger = Logger.getLogger(InventoryWriteBehind.class);
+
+	public static final int DEFAULT_BATCH_SIZE = 100;
+	public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+	public static final int DEFAULT_MAX_PENDING = 10000;
+	public static final long DEFAULT_MAX_WAIT = 30000;
+
+	private static final int CLOSE_ATTEMPTS = 3;
+	private static final String UPDATE = "UPDATE Inventory SET Quantity = Quantity + ?, Version = Version + 1 WHERE INVENTORY_ID = ?";
+
+	private final SessionFactory sessionFactory;
+	private final int batchSize;
+	private final long flushInterval;
+	private final int maxPending;
+	private final long maxWait;
+
+	private final ConcurrentMap<InventoryKey, Delta> pending = new ConcurrentHashMap<InventoryKey, Delta>();
+	// one permit per row waiting, in memory or failed
+	private final Semaphore room;
+	private final ConcurrentMap<InventoryKey, Long> inventoryIds = new ConcurrentHashMap<InventoryKey, Long>();
+	// rows of failed flushes, only touched by flush
+	private final Map<InventoryKey, Delta> unwritten = new LinkedHashMap<InventoryKey, Delta>();
+	private StoreValuation storeValuation;
+	private Thread flusher;
+	private Thread shutdownHook;
+	private volatile boolean closed;
+	// adds under way, close waits for them
+	private final AtomicInteger adding = new AtomicInteger();
+
+	private final AtomicLong deltasReceived = new AtomicLong();
+	private final AtomicLong deltasWritten = new AtomicLong();
+	private final AtomicLong rowsWritten = new AtomicLong();
+	private final AtomicLong flushes = new AtomicLong();
+	private final AtomicLong failedFlushes = new AtomicLong();
+	private final AtomicLong unknownRows = new AtomicLong();
+	private final LatencyHistogram flushLatency = new LatencyHistogram();
+
+	public InventoryWriteBehind(SessionFactory sessionFactory) {
+		this(sessionFactory, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL,
+				DEFAULT_MAX_PENDING, DEFAULT_MAX_WAIT);
+	}
+
+	/**
+	 * @param batchSize
+	 *            rows per JDBC batch, a flush starts as soon as that many wait
+	 * @param flushInterval
+	 *            ms between flushes of whatever waits
+	 * @param maxPending
+	 *            rows that may wait before adding a new one blocks
+	 * @param maxWait
+	 *            ms to block for room before giving up
+	 */
+	public InventoryWriteBehind(SessionFactory sessionFactory, int batchSize,
+			long flushInterval, int maxPending, long maxWait) {
+		if (batchSize < 1 || maxPending < 1) {
+			throw new IllegalArgumentException("batchSize and maxPending must be positive");
+		}
+		this.sessionFactory = sessionFactory;
+		this.batchSize = batchSize;
+		this.flushInterval = flushInterval;
+		this.maxPending = maxPending;
+		this.maxWait = maxWait;
+		this.room = new Semaphore(maxPending);
+	}
+
+	/**
+	 * The valuation to tell about the quantities written, which its listener
+	 * does not see
+	 */
+	public void setStoreValuation(StoreValuation storeValuation) {
+		this.storeValuation = storeValuation;
+	}
+
+	public synchronized void start() {
+		flusher = new Thread("inventory-write-behind") {
+			public void run() {
+				while (!closed) {
+					LockSupport.parkNanos(TimeUnit.MILLISECONDS
+							.toNanos(flushInterval));
+					if (closed) {
+						break;
+					}
+					try {
+						flush();
+					} catch (RuntimeException e) {
+						logger.error("could not write the inventory changes, will retry", e);
+					}
+				}
+			}
+		};
+		flusher.setDaemon(true);
+		flusher.start();
+		if (shutdownHook == null) {
+			shutdownHook = new Thread("inventory-write-behind-shutdown") {
+				public void run() {
+					close();
+				}
+			};
+			Runtime.getRuntime().addShutdownHook(shutdownHook);
+		}
+	}
+
+	/**
+	 * Adds the delta to the quantity of the book in the store, once written
+	 * 
+	 * @throws HibernateException
+	 *             if no room was made for a new row within maxWait ms
+	 */
+	public void add(Long bookId, Long storeId, int delta) {
+		adding.incrementAndGet();
+		try {
+			if (closed) {
+				throw new IllegalStateException("the write-behind queue is closed");
+			}
+			merge(new InventoryKey(bookId, storeId), delta);
+		} finally {
+			adding.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Writes every row waiting now. A failed flush keeps its rows for the
+	 * next one.
+	 */
+	public synchronized void flush() {
+		for (Map.Entry<InventoryKey, Delta> entry : pending.entrySet()) {
+			Delta taken = entry.getValue();
+			taken.retire();
+			pending.remove(entry.getKey(), taken);
+			Delta failed = unwritten.get(entry.getKey());
+			if (failed == null) {
+				unwritten.put(entry.getKey(), taken);
+			} else {
+				failed.merge(taken);
+				room.release();
+			}
+		}
+		if (unwritten.isEmpty()) {
+			return;
+		}
+		long started = System.nanoTime();
+		try {
+			resolve(unwritten.keySet());
+			List<InventoryKey> rows = new ArrayList<InventoryKey>();
+			for (Map.Entry<InventoryKey, Delta> entry : unwritten.entrySet()) {
+				if (inventoryIds.get(entry.getKey()) != null
+						&& entry.getValue().quantity != 0) {
+					rows.add(entry.getKey());
+				}
+			}
+			long rebuildCount = storeValuation == null ? 0 : storeValuation
+					.getRebuildCount();
+			write(rows);
+			for (Map.Entry<InventoryKey, Delta> entry : unwritten.entrySet()) {
+				InventoryKey key = entry.getKey();
+				Delta written = entry.getValue();
+				Long inventoryId = inventoryIds.get(key);
+				if (inventoryId == null) {
+					unknownRows.incrementAndGet();
+					logger.warn("dropped " + written.quantity + " for " + key
+							+ ", there is no such inventory");
+				} else if (written.quantity != 0) {
+					sessionFactory.evict(Inventory.class, inventoryId);
+					if (storeValuation != null) {
+						storeValuation.stockChanged(key.bookId, key.storeId,
+								written.quantity, rebuildCount);
+					}
+				}
+				deltasWritten.addAndGet(written.count);
+			}
+			rowsWritten.addAndGet(rows.size());
+			room.release(unwritten.size());
+			unwritten.clear();
+			flushes.incrementAndGet();
+		} catch (RuntimeException e) {
+			failedFlushes.incrementAndGet();
+			throw e;
+		} finally {
+			flushLatency.record(System.nanoTime() - started);
+		}
+	}
+
+	/**
+	 * Stops the background flushes and writes what is still waiting. Only
+	 * returns once it is written.
+	 * 
+	 * @throws HibernateException
+	 *             if the last rows could not be written, after logging them
+	 */
+	public void close() {
+		closed = true;
+		Thread stopping;
+		Thread hook;
+		synchronized (this) {
+			stopping = flusher;
+			flusher = null;
+			hook = shutdownHook;
+			shutdownHook = null;
+		}
+		if (hook != null && hook != Thread.currentThread()) {
+			try {
+				Runtime.getRuntime().removeShutdownHook(hook);
+			} catch (IllegalStateException e) {
+				// the JVM is shutting down, the hook finds nothing left to write
+			}
+		}
+		if (stopping != null) {
+			LockSupport.unpark(stopping);
+			try {
+				stopping.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		for (int attempt = 1;; attempt++) {
+			try {
+				flush();
+				// adds that got in before the close, possibly waiting for room
+				while (adding.get() > 0) {
+					Thread.yield();
+					flush();
+				}
+				flush();
+				return;
+			} catch (HibernateException e) {
+				if (attempt == CLOSE_ATTEMPTS) {
+					synchronized (this) {
+						for (Map.Entry<InventoryKey, Delta> entry : unwritten.entrySet()) {
+							logger.error("not written: " + entry.getValue().quantity
+									+ " for " + entry.getKey());
+						}
+					}
+					throw e;
+				}
+				logger.warn("could not write the inventory changes on close, retrying", e);
+				try {
+					Thread.sleep(attempt * 100L);
+				} catch (InterruptedException interrupted) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+	/**
+	 * The close() registered to run on JVM shutdown, null when not started or
+	 * closed
+	 */
+	synchronized Thread getShutdownHook() {
+		return shutdownHook;
+	}
+
+	/**
+	 * Rows waiting to be written
+	 */
+	public int getPendingCount() {
+		return maxPending - room.availablePermits();
+	}
+
+	public long getDeltasReceived() {
+		return deltasReceived.get();
+	}
+
+	public long getRowsWritten() {
+		return rowsWritten.get();
+	}
+
+	/**
+	 * Deltas written per UPDATE, 1 means nothing was merged
+	 */
+	public double getCoalescingRatio() {
+		long rows = rowsWritten.get();
+		return rows == 0 ? 0 : (double) deltasWritten.get() / rows;
+	}
+
+	public long getFlushCount() {
+		return flushes.get();
+	}
+
+	public long getFailedFlushCount() {
+		return failedFlushes.get();
+	}
+
+	/**
+	 * Rows dropped because the store does not stock the book
+	 */
+	public long getUnknownRowCount() {
+		return unknownRows.get();
+	}
+
+	public LatencyHistogram.Snapshot getFlushLatency() {
+		return flushLatency.snapshot();
+	}
+
+	public String toString() {
+		return "deltas=" + getDeltasReceived() + ", rows=" + getRowsWritten()
+				+ ", coalescing=" + getCoalescingRatio() + ", pending="
+				+ getPendingCount() + ", flushes=" + getFlushCount()
+				+ ", failed=" + getFailedFlushCount() + ", latency="
+				+ getFlushLatency();
+	}
+
+	private void merge(InventoryKey key, int delta) {
+		while (true) {
+			Delta waiting = pending.get(key);
+			boolean created = false;
+			if (waiting == null) {
+				waitForRoom();
+				Delta fresh = new Delta();
+				waiting = pending.putIfAbsent(key, fresh);
+				if (waiting == null) {
+					waiting = fresh;
+					created = true;
+				} else {
+					room.release();
+				}
+			}
+			if (waiting.add(delta)) {
+				deltasReceived.incrementAndGet();
+				if (created && pending.size() >= batchSize) {
+					wakeFlusher();
+				}
+				return;
+			}
+			// taken by a flush in the meantime, start a new one
+		}
+	}
+
+	private void waitForRoom() {
+		try {
+			if (room.tryAcquire()) {
+				return;
+			}
+			wakeFlusher();
+			if (!room.tryAcquire(maxWait, TimeUnit.MILLISECONDS)) {
+				throw new HibernateException("no room for inventory changes after "
+						+ maxWait + " ms, " + maxPending + " rows are waiting to be written");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new HibernateException("interrupted while waiting for room", e);
+		}
+	}
+
+	private void wakeFlusher() {
+		Thread waiting = flusher;
+		if (waiting != null) {
+			LockSupport.unpark(waiting);
+		}
+	}
+
+	/**
+	 * Looks up the INVENTORY_ID of the rows not seen before
+	 */
+	@SuppressWarnings("unchecked")
+	private void resolve(Set<InventoryKey> keys) {
+		Set<Long> bookIds = new HashSet<Long>();
+		for (InventoryKey key : keys) {
+			if (!inventoryIds.containsKey(key)) {
+				bookIds.add(key.bookId);
+			}
+		}
+		if (bookIds.isEmpty()) {
+			return;
+		}
+		StatelessSession session = sessionFactory.openStatelessSession();
+		try {
+			List<Object[]> rows = session.createQuery(
+					"SELECT i.book.id, i.store.id, i.id FROM Inventory i WHERE i.book.id IN (:ids)")
+					.setParameterList("ids", bookIds).list();
+			for (Object[] row : rows) {
+				inventoryIds.put(new InventoryKey((Long) row[0], (Long) row[1]),
+						(Long) row[2]);
+			}
+		} finally {
+			session.close();
+		}
+	}
+
+	private void write(List<InventoryKey> rows) {
+		if (rows.isEmpty()) {
+			return;
+		}
+		StatelessSession session = sessionFactory.openStatelessSession();
+		Transaction tx = null;
+		try {
+			tx = session.beginTransaction();
+			Connection connection = session.connection();
+			PreparedStatement update = connection.prepareStatement(UPDATE);
+			try {
+				for (int i = 0; i < rows.size(); i++) {
+					InventoryKey key = rows.get(i);
+					update.setInt(1, unwritten.get(key).quantity);
+					update.setLong(2, inventoryIds.get(key).longValue());
+					update.addBatch();
+					if ((i + 1) % batchSize == 0) {
+						update.executeBatch();
+					}
+				}
+				if (rows.size() % batchSize != 0) {
+					update.executeBatch();
+				}
+			} finally {
+				update.close();
+			}
+			tx.commit();
+		} catch (SQLException e) {
+			rollback(tx);
+			throw JDBCExceptionHelper.convert(((SessionFactoryImplementor) sessionFactory)
+					.getSQLExceptionConverter(), e, "could not write the inventory changes");
+		} catch (HibernateException e) {
+			rollback(tx);
+			throw e;
+		} finally {
+			session.close();
+		}
+	}
+
+	private static void rollback(Transaction tx) {
+		if (tx != null && tx.isActive()) {
+			try {
+				tx.rollback();
+			} catch (HibernateException e) {
+				logger.warn("rollback failed", e);
+			}
+		}
+	}
+
+	/**
+	 * The merged deltas of a row. Once a flush has taken it, it is retired
+	 * and adders start a new one.
+	 */
+	private static class Delta {
+		private int quantity;
+		private int count;
+		private boolean retired;
+
+		synchronized boolean add(int delta) {
+			if (retired) {
+				return false;
+			}
+			quantity += delta;
+			count++;
+			return true;
+		}
+
+		synchronized void retire() {
+			retired = true;
+		}
+
+		synchronized void merge(Delta other) {
+			quantity += other.quantity;
+			count += other.count;
+		}
+	}
+}
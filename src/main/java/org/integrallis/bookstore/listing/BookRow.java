@@ -0,0 +1,85 @@
+package org.integrallis.bookstore.listing;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.List;
+
+import org.hibernate.transform.ResultTransformer;
+import org.integrallis.bookstore.domain.Money;
+
+/**
+ * A line of a catalog listing: the columns a list page shows, read straight
+ * from the query result. Rows are not entities, so the session neither
+ * registers nor snapshots them and they carry no collections. See
+ * {@link BookRows}.
+ */
+public final class BookRow implements Serializable {
+
+	/**
+	 * Turns id, isbn, title, price, publishedOn tuples into rows, whatever
+	 * they are aliased as
+	 */
+	public static final ResultTransformer TRANSFORMER = new ResultTransformer() {
+		public Object transformTuple(Object[] tuple, String[] aliases) {
+			return new BookRow(((Long) tuple[0]).longValue(), (String) tuple[1],
+					(String) tuple[2], (Money) tuple[3], (Date) tuple[4]);
+		}
+
+		@SuppressWarnings("unchecked")
+		public List transformList(List collection) {
+			return collection;
+		}
+	};
+
+	private final long id;
+	private final String isbn;
+	private final String title;
+	private final Money price;
+	private final long publishedOn;
+
+	public BookRow(long id, String isbn, String title, Money price,
+			Date publishedOn) {
+		this.id = id;
+		this.isbn = isbn;
+		this.title = title;
+		this.price = price;
+		this.publishedOn = publishedOn == null ? Long.MIN_VALUE : publishedOn
+				.getTime();
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public String getIsbn() {
+		return isbn;
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	public Money getPrice() {
+		return price;
+	}
+
+	public Date getPublishedOn() {
+		return publishedOn == Long.MIN_VALUE ? null : new Date(publishedOn);
+	}
+
+	public boolean equals(Object object) {
+		return object instanceof BookRow && ((BookRow) object).id == id;
+	}
+
+	public int hashCode() {
+		return (int) (id ^ (id >>> 32));
+	}
+
+	public String toString() {
+		return new StringBuilder(64).append("BookRow[id=").append(id).append(
+				",isbn=").append(isbn).append(",title=").append(title).append(
+				",price=").append(price).append(']').toString();
+	}
+
+	private static final long serialVersionUID = 4113937519460214470L;
+}
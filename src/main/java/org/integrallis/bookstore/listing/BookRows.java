@@ -0,0 +1,138 @@
+package org.integrallis.bookstore.listing;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.hibernate.Criteria;
+import org.hibernate.Session;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Projections;
+import org.hibernate.metadata.ClassMetadata;
+import org.integrallis.bookstore.domain.Book;
+import org.integrallis.hibernate.paging.KeysetPager;
+import org.integrallis.hibernate.paging.Page;
+
+/**
+ * Catalog listings as {@link BookRow}s rather than Book entities: one select
+ * of the five listed columns, no persistence context entries, dirty checking
+ * snapshots or collection wrappers. Filters enabled on the session (such as
+ * publishedBetweenFilter) apply as they do to entity queries.
+ * <p>
+ * Listings page by keyset with {@link #first} and {@link #next}, whose tokens
+ * are those of {@link Listings#BOOKS}; {@link #page} jumps to a page by
+ * number instead, reading every row before it.
+ *
+ * <pre>
+ * session.enableFilter(&quot;publishedBetweenFilter&quot;).setParameter(...);
+ * Page&lt;BookRow&gt; page = BookRows.first(session, &quot;price&quot;, true, 20);
+ * page = BookRows.next(session, page.getNextToken(), 20);
+ * </pre>
+ */
+public final class BookRows {
+
+	public static final Set<String> ORDERINGS = Collections
+			.unmodifiableSet(new HashSet<String>(Arrays.asList("id", "isbn",
+					"title", "price", "publishedOn")));
+
+	private static final String SELECT = "SELECT b.id, b.isbn, b.title, b.price, b.publishedOn FROM Book b";
+
+	private static final KeysetPager<BookRow> PAGER = new KeysetPager<BookRow>(
+			Book.class, "SELECT e.id, e.isbn, e.title, e.price, e.publishedOn",
+			BookRow.TRANSFORMER, ORDERINGS.toArray(new String[0])) {
+		protected Object valueOf(BookRow row, String property,
+				ClassMetadata metadata) {
+			if ("isbn".equals(property)) {
+				return row.getIsbn();
+			} else if ("title".equals(property)) {
+				return row.getTitle();
+			} else if ("price".equals(property)) {
+				return row.getPrice();
+			}
+			return row.getPublishedOn();
+		}
+
+		protected Long idOf(BookRow row, ClassMetadata metadata) {
+			return Long.valueOf(row.getId());
+		}
+	};
+
+	private BookRows() {
+	}
+
+	/**
+	 * The first page of the catalog ordered by one of the {@link #ORDERINGS},
+	 * ties broken by id in the same direction
+	 */
+	public static Page<BookRow> first(Session session, String orderBy,
+			boolean descending, int size) {
+		checkOrdering(orderBy);
+		return PAGER.first(session, orderBy, descending, size);
+	}
+
+	/**
+	 * The page after the one the token came with, from this listing or from
+	 * {@link Listings#BOOKS}
+	 */
+	public static Page<BookRow> next(Session session, String token, int size) {
+		return PAGER.next(session, token, size);
+	}
+
+	/**
+	 * The rows from firstResult on of the catalog ordered by one of the
+	 * {@link #ORDERINGS}, ties broken by id in the same direction. The database
+	 * reads and discards the rows before firstResult, so this is for jumping
+	 * to a page by number; walk a listing with {@link #first} and
+	 * {@link #next}.
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<BookRow> page(Session session, String orderBy,
+			boolean descending, int firstResult, int maxResults) {
+		checkOrdering(orderBy);
+		String direction = descending ? " DESC" : " ASC";
+		StringBuilder hql = new StringBuilder(SELECT).append(" ORDER BY ");
+		if (!"id".equals(orderBy)) {
+			hql.append("b.").append(orderBy).append(direction).append(", ");
+		}
+		hql.append("b.id").append(direction);
+		return session.createQuery(hql.toString()).setFirstResult(firstResult)
+				.setMaxResults(maxResults).setResultTransformer(
+						BookRow.TRANSFORMER).list();
+	}
+
+	/**
+	 * A Book Criteria projected to rows, to be restricted, ordered and paged
+	 * by the caller
+	 */
+	public static Criteria createCriteria(Session session) {
+		return session.createCriteria(Book.class).setProjection(
+				Projections.projectionList().add(Projections.id()).add(
+						Projections.property("isbn")).add(
+						Projections.property("title")).add(
+						Projections.property("price")).add(
+						Projections.property("publishedOn"))).setResultTransformer(
+				BookRow.TRANSFORMER);
+	}
+
+	/**
+	 * Orders a {@link #createCriteria(Session)} Criteria the way
+	 * {@link #page(Session, String, boolean, int, int)} orders its pages
+	 */
+	public static Criteria order(Criteria criteria, String orderBy,
+			boolean descending) {
+		checkOrdering(orderBy);
+		if (!"id".equals(orderBy)) {
+			criteria.addOrder(descending ? Order.desc(orderBy) : Order.asc(orderBy));
+		}
+		return criteria.addOrder(descending ? Order.desc("id") : Order.asc("id"));
+	}
+
+	private static void checkOrdering(String orderBy) {
+		if (!ORDERINGS.contains(orderBy)) {
+			throw new IllegalArgumentException("book rows cannot be ordered by "
+					+ orderBy + ", only by " + ORDERINGS);
+		}
+	}
+}
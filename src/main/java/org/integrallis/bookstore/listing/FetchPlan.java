@@ -0,0 +1,126 @@
+package org.integrallis.bookstore.listing;
+
+import java.util.List;
+
+import org.hibernate.Criteria;
+import org.hibernate.FetchMode;
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
+import org.integrallis.bookstore.domain.Book;
+import org.integrallis.bookstore.domain.Inventory;
+
+/**
+ * What to load along with the entities of a use case. A plan joins the
+ * associations that do not multiply rows and leaves the rest to batch
+ * fetching (hibernate.default_batch_fetch_size), so no plan produces a
+ * cartesian product or a select per entity:
+ *
+ * <pre>
+ * FetchPlan plan = FetchPlan.forName(&quot;book-detail&quot;);
+ * List&lt;Book&gt; books = plan.list(plan.createCriteria(session).add(Restrictions.idEq(id)));
+ * </pre>
+ */
+public enum FetchPlan {
+
+	/**
+	 * Books with their authors: one select for the books, one per batch of
+	 * authors collections
+	 */
+	CATALOG_LIST("catalog-list", Book.class) {
+		void prepare(Criteria criteria) {
+		}
+
+		void initialize(Object result) {
+			Hibernate.initialize(((Book) result).getAuthors());
+		}
+	},
+
+	/**
+	 * Books with their authors, inventory and the stores holding it: the
+	 * inventory and stores are joined, the authors batch fetched. Meant for a
+	 * few books; with setMaxResults the rows are paged in memory.
+	 */
+	BOOK_DETAIL("book-detail", Book.class) {
+		void prepare(Criteria criteria) {
+			criteria.setFetchMode("inventoryRecords", FetchMode.JOIN)
+					.setFetchMode("inventoryRecords.store", FetchMode.JOIN)
+					.setResultTransformer(Criteria.DISTINCT_ROOT_ENTITY);
+		}
+
+		void initialize(Object result) {
+			Hibernate.initialize(((Book) result).getAuthors());
+		}
+	},
+
+	/**
+	 * Inventory with its book and store in a single select
+	 */
+	INVENTORY_REPORT("inventory-report", Inventory.class) {
+		void prepare(Criteria criteria) {
+			criteria.setFetchMode("book", FetchMode.JOIN).setFetchMode("store",
+					FetchMode.JOIN);
+		}
+
+		void initialize(Object result) {
+		}
+	};
+
+	private final String name;
+	private final Class<?> rootClass;
+
+	private FetchPlan(String name, Class<?> rootClass) {
+		this.name = name;
+		this.rootClass = rootClass;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * The entity the plan lists
+	 */
+	public Class<?> getRootClass() {
+		return rootClass;
+	}
+
+	public static FetchPlan forName(String name) {
+		for (FetchPlan plan : values()) {
+			if (plan.name.equals(name)) {
+				return plan;
+			}
+		}
+		throw new IllegalArgumentException("no fetch plan named " + name);
+	}
+
+	/**
+	 * A Criteria for the root entity set up with the plan's joins, to be
+	 * restricted by the caller and run with {@link #list(Criteria)}
+	 */
+	public Criteria createCriteria(Session session) {
+		Criteria criteria = session.createCriteria(rootClass);
+		prepare(criteria);
+		return criteria;
+	}
+
+	/**
+	 * Runs a Criteria from {@link #createCriteria(Session)} and loads what
+	 * the plan batch fetches, so the results can be used detached
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> List<T> list(Criteria criteria) {
+		List<T> results = criteria.list();
+		for (T result : results) {
+			initialize(result);
+		}
+		return results;
+	}
+
+	public String toString() {
+		return name;
+	}
+
+	abstract void prepare(Criteria criteria);
+
+	abstract void initialize(Object result);
+}
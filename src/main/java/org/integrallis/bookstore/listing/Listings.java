@@ -0,0 +1,21 @@
+package org.integrallis.bookstore.listing;
+
+import org.integrallis.bookstore.domain.Book;
+import org.integrallis.bookstore.domain.Store;
+import org.integrallis.hibernate.paging.KeysetPager;
+
+/**
+ * The pagers for Book and Store listings. Each ordering is backed by an
+ * index on (column, id) created by db_create.sql.
+ */
+public final class Listings {
+
+	public static final KeysetPager<Book> BOOKS = new KeysetPager<Book>(
+			Book.class, "id", "title", "price", "publishedOn");
+
+	public static final KeysetPager<Store> STORES = new KeysetPager<Store>(
+			Store.class, "id", "nickName");
+
+	private Listings() {
+	}
+}
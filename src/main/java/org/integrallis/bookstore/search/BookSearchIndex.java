@@ -0,0 +1,381 @@
+package org.integrallis.bookstore.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.log4j.Logger;
+import org.hibernate.Hibernate;
+import org.hibernate.HibernateException;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+
+/**
+ * An in-memory inverted index over the title, author last names and ISBN of
+ * every book, replacing LIKE '%...%' scans. Text is split into lower case
+ * words; a query matches the books having, for every query word, a word
+ * starting with it. Books are ranked by how well they match: a word of the
+ * ISBN counts more than one of the title, which counts more than an author,
+ * and a whole word counts twice as much as a prefix.
+ * <p>
+ * The index is built by {@link #attach} with a forward-only scan of the books
+ * and their authors, and kept current by a {@link BookSearchListener}. Writes
+ * that bypass the session (BookImporter) need a {@link #rebuild}.
+ */
+public class BookSearchIndex {
+	private static Logger logger = Logger.getLogger(BookSearchIndex.class);
+
+	static final int ISBN_WEIGHT = 4;
+	static final int TITLE_WEIGHT = 3;
+	static final int AUTHOR_WEIGHT = 2;
+	private static final int FETCH_SIZE = 500;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	// word -> book id -> weight of the best field the word is in
+	private TreeMap<String, Map<Long, Integer>> postings = new TreeMap<String, Map<Long, Integer>>();
+	// book id -> what is indexed for it, to take it out again
+	private Map<Long, Document> documents = new HashMap<Long, Document>();
+	// changes made while a rebuild scans, null otherwise
+	private List<Change> journal;
+	private SessionFactory sessionFactory;
+
+	public void attach(SessionFactory sessionFactory) {
+		this.sessionFactory = sessionFactory;
+		rebuild();
+	}
+
+	/**
+	 * Indexes every book again, searches keep using the old index meanwhile.
+	 * Books indexed or removed during the scan are journaled and replayed on
+	 * the new index before it replaces the old one.
+	 */
+	public synchronized void rebuild() {
+		long started = System.currentTimeMillis();
+		TreeMap<String, Map<Long, Integer>> builtPostings = new TreeMap<String, Map<Long, Integer>>();
+		Map<Long, Document> builtDocuments = new HashMap<Long, Document>();
+		lock.writeLock().lock();
+		try {
+			journal = new ArrayList<Change>();
+		} finally {
+			lock.writeLock().unlock();
+		}
+		try {
+			scan(builtPostings, builtDocuments);
+			lock.writeLock().lock();
+			try {
+				for (Change change : journal) {
+					change.apply(builtPostings, builtDocuments);
+				}
+				postings = builtPostings;
+				documents = builtDocuments;
+			} finally {
+				lock.writeLock().unlock();
+			}
+		} finally {
+			lock.writeLock().lock();
+			try {
+				journal = null;
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+		logger.info("indexed " + builtDocuments.size() + " books ("
+				+ builtPostings.size() + " words) in "
+				+ (System.currentTimeMillis() - started) + " ms");
+	}
+
+	/**
+	 * Indexes the books and their authors as stored into the given postings
+	 * and documents
+	 */
+	void scan(TreeMap<String, Map<Long, Integer>> builtPostings,
+			Map<Long, Document> builtDocuments) {
+		StatelessSession session = sessionFactory.openStatelessSession();
+		ScrollableResults rows = null;
+		try {
+			rows = session.createQuery("SELECT b.id, b.isbn, b.title FROM Book b")
+					.setFetchSize(FETCH_SIZE).scroll(ScrollMode.FORWARD_ONLY);
+			while (rows.next()) {
+				Document document = new Document(rows.getString(1), rows
+						.getString(2));
+				builtDocuments.put(rows.getLong(0), document);
+				add(builtPostings, rows.getLong(0), document);
+			}
+			rows.close();
+			rows = session.createSQLQuery(
+					"SELECT BOOK_ID bookId, LASTNAME lastName FROM BookAuthors")
+					.addScalar("bookId", Hibernate.LONG).addScalar("lastName",
+							Hibernate.STRING).setFetchSize(FETCH_SIZE).scroll(
+							ScrollMode.FORWARD_ONLY);
+			while (rows.next()) {
+				Document document = builtDocuments.get(rows.getLong(0));
+				if (document != null) {
+					document.authors.add(rows.getString(1));
+					add(builtPostings, rows.getLong(0), rows.getString(1),
+							AUTHOR_WEIGHT);
+				}
+			}
+		} finally {
+			if (rows != null) {
+				try {
+					rows.close();
+				} catch (HibernateException e) {
+					logger.warn("could not close the scan", e);
+				}
+			}
+			session.close();
+		}
+	}
+
+	/**
+	 * The ids of the books matching every word of the query, best match first
+	 */
+	public SearchResult search(String query) {
+		List<String> tokens = tokenize(query);
+		if (tokens.isEmpty()) {
+			return new SearchResult(query, new long[0]);
+		}
+		Map<Long, Integer> scores = null;
+		lock.readLock().lock();
+		try {
+			for (String token : tokens) {
+				Map<Long, Integer> matches = new HashMap<Long, Integer>();
+				SortedMap<String, Map<Long, Integer>> prefixed = postings.subMap(
+						token, token + Character.MAX_VALUE);
+				for (Map.Entry<String, Map<Long, Integer>> word : prefixed
+						.entrySet()) {
+					int factor = word.getKey().length() == token.length() ? 2 : 1;
+					for (Map.Entry<Long, Integer> posting : word.getValue()
+							.entrySet()) {
+						int score = posting.getValue().intValue() * factor;
+						Integer best = matches.get(posting.getKey());
+						if (best == null || best.intValue() < score) {
+							matches.put(posting.getKey(), Integer.valueOf(score));
+						}
+					}
+				}
+				scores = scores == null ? matches : intersect(scores, matches);
+				if (scores.isEmpty()) {
+					break;
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return new SearchResult(query, rank(scores));
+	}
+
+	/**
+	 * Indexes the book, replacing what was indexed for it before. With null
+	 * authors the authors indexed before are kept.
+	 */
+	public void index(Long id, String isbn, String title,
+			Collection<String> authors) {
+		changed(new Change(id, isbn, title, authors));
+	}
+
+	public void remove(Long id) {
+		changed(new Change(id));
+	}
+
+	private void changed(Change change) {
+		lock.writeLock().lock();
+		try {
+			change.apply(postings, documents);
+			if (journal != null) {
+				journal.add(change);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Books indexed
+	 */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return documents.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Lower case words of letters and digits
+	 */
+	static List<String> tokenize(String text) {
+		List<String> tokens = new ArrayList<String>();
+		if (text == null) {
+			return tokens;
+		}
+		String lower = text.toLowerCase(Locale.ENGLISH);
+		int start = -1;
+		for (int i = 0; i <= lower.length(); i++) {
+			boolean wordChar = i < lower.length()
+					&& Character.isLetterOrDigit(lower.charAt(i));
+			if (wordChar && start < 0) {
+				start = i;
+			} else if (!wordChar && start >= 0) {
+				tokens.add(lower.substring(start, i));
+				start = -1;
+			}
+		}
+		return tokens;
+	}
+
+	private static void add(TreeMap<String, Map<Long, Integer>> postings,
+			Long id, Document document) {
+		add(postings, id, document.isbn, ISBN_WEIGHT);
+		add(postings, id, document.title, TITLE_WEIGHT);
+		for (String author : document.authors) {
+			add(postings, id, author, AUTHOR_WEIGHT);
+		}
+	}
+
+	private static void add(TreeMap<String, Map<Long, Integer>> postings,
+			Long id, String text, int weight) {
+		for (String token : tokenize(text)) {
+			Map<Long, Integer> books = postings.get(token);
+			if (books == null) {
+				books = new HashMap<Long, Integer>(4);
+				postings.put(token, books);
+			}
+			Integer indexed = books.get(id);
+			if (indexed == null || indexed.intValue() < weight) {
+				books.put(id, Integer.valueOf(weight));
+			}
+		}
+	}
+
+	private static Document remove(
+			TreeMap<String, Map<Long, Integer>> postings,
+			Map<Long, Document> documents, Long id) {
+		Document document = documents.remove(id);
+		if (document == null) {
+			return null;
+		}
+		Set<String> tokens = new HashSet<String>(tokenize(document.isbn));
+		tokens.addAll(tokenize(document.title));
+		for (String author : document.authors) {
+			tokens.addAll(tokenize(author));
+		}
+		for (String token : tokens) {
+			Map<Long, Integer> books = postings.get(token);
+			if (books != null) {
+				books.remove(id);
+				if (books.isEmpty()) {
+					postings.remove(token);
+				}
+			}
+		}
+		return document;
+	}
+
+	private static Map<Long, Integer> intersect(Map<Long, Integer> scores,
+			Map<Long, Integer> matches) {
+		Map<Long, Integer> both = new HashMap<Long, Integer>();
+		for (Map.Entry<Long, Integer> score : scores.entrySet()) {
+			Integer match = matches.get(score.getKey());
+			if (match != null) {
+				both.put(score.getKey(), Integer.valueOf(score.getValue()
+						.intValue()
+						+ match.intValue()));
+			}
+		}
+		return both;
+	}
+
+	/**
+	 * Highest score first, then lowest id
+	 */
+	private static long[] rank(final Map<Long, Integer> scores) {
+		Long[] ids = scores.keySet().toArray(new Long[scores.size()]);
+		Arrays.sort(ids, new Comparator<Long>() {
+			public int compare(Long one, Long other) {
+				int byScore = scores.get(other).compareTo(scores.get(one));
+				return byScore != 0 ? byScore : one.compareTo(other);
+			}
+		});
+		long[] ranked = new long[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			ranked[i] = ids[i].longValue();
+		}
+		return ranked;
+	}
+
+	/**
+	 * A book indexed with its text, or removed
+	 */
+	private static class Change {
+		private final Long id;
+		private final boolean removed;
+		private final String isbn;
+		private final String title;
+		private final Collection<String> authors;
+
+		Change(Long id) {
+			this.id = id;
+			this.removed = true;
+			this.isbn = null;
+			this.title = null;
+			this.authors = null;
+		}
+
+		Change(Long id, String isbn, String title, Collection<String> authors) {
+			this.id = id;
+			this.removed = false;
+			this.isbn = isbn;
+			this.title = title;
+			this.authors = authors == null ? null : new ArrayList<String>(authors);
+		}
+
+		/**
+		 * Replaces what was indexed for the book. With null authors the
+		 * authors indexed before are kept.
+		 */
+		void apply(TreeMap<String, Map<Long, Integer>> postings,
+				Map<Long, Document> documents) {
+			Document indexed = remove(postings, documents, id);
+			if (removed) {
+				return;
+			}
+			Document document = new Document(isbn, title);
+			if (authors != null) {
+				document.authors.addAll(authors);
+			} else if (indexed != null) {
+				document.authors.addAll(indexed.authors);
+			}
+			documents.put(id, document);
+			add(postings, id, document);
+		}
+	}
+
+	/**
+	 * The text indexed for a book
+	 */
+	static class Document {
+		private final String isbn;
+		private final String title;
+		private final List<String> authors = new ArrayList<String>(2);
+
+		Document(String isbn, String title) {
+			this.isbn = isbn;
+			this.title = title;
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package org.integrallis.bookstore.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import org.hibernate.Hibernate;
+import org.hibernate.Transaction;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.event.EventListeners;
+import org.hibernate.event.EventSource;
+import org.hibernate.event.PostDeleteEvent;
+import org.hibernate.event.PostDeleteEventListener;
+import org.hibernate.event.PostInsertEvent;
+import org.hibernate.event.PostInsertEventListener;
+import org.hibernate.event.PostUpdateEvent;
+import org.hibernate.event.PostUpdateEventListener;
+import org.integrallis.bookstore.domain.Book;
+import org.integrallis.hibernate.event.Listeners;
+
+/**
+ * Keeps a {@link BookSearchIndex} current with the books flushed by a
+ * session. A change of a book's authors increments its version, so it shows
+ * up as an update of the book. The changes are held until the transaction
+ * commits.
+ */
+public class BookSearchListener implements PostInsertEventListener,
+		PostUpdateEventListener, PostDeleteEventListener {
+
+	private final BookSearchIndex index;
+	private final Map<Transaction, List<Change>> pending = new ConcurrentHashMap<Transaction, List<Change>>();
+
+	public BookSearchListener(BookSearchIndex index) {
+		this.index = index;
+	}
+
+	/**
+	 * Adds a listener for the index to the post insert, update and delete
+	 * listeners of the configuration
+	 */
+	public static void register(Configuration configuration,
+			BookSearchIndex index) {
+		BookSearchListener listener = new BookSearchListener(index);
+		EventListeners listeners = configuration.getEventListeners();
+		listeners.setPostInsertEventListeners(Listeners.append(listeners
+				.getPostInsertEventListeners(), listener,
+				new PostInsertEventListener[0]));
+		listeners.setPostUpdateEventListeners(Listeners.append(listeners
+				.getPostUpdateEventListeners(), listener,
+				new PostUpdateEventListener[0]));
+		listeners.setPostDeleteEventListeners(Listeners.append(listeners
+				.getPostDeleteEventListeners(), listener,
+				new PostDeleteEventListener[0]));
+	}
+
+	public void onPostInsert(PostInsertEvent event) {
+		if (event.getEntity() instanceof Book) {
+			changed(event.getSession(), new Change((Long) event.getId(),
+					(Book) event.getEntity()));
+		}
+	}
+
+	public void onPostUpdate(PostUpdateEvent event) {
+		if (event.getEntity() instanceof Book) {
+			changed(event.getSession(), new Change((Long) event.getId(),
+					(Book) event.getEntity()));
+		}
+	}
+
+	public void onPostDelete(PostDeleteEvent event) {
+		if (event.getEntity() instanceof Book) {
+			changed(event.getSession(), new Change((Long) event.getId(), null));
+		}
+	}
+
+	/**
+	 * Holds the change until the session's transaction commits, or applies it
+	 * right away outside of one
+	 */
+	private void changed(EventSource session, Change change) {
+		final Transaction transaction = session.getTransaction();
+		if (!transaction.isActive()) {
+			change.apply(index);
+			return;
+		}
+		List<Change> changes = pending.get(transaction);
+		if (changes == null) {
+			changes = new ArrayList<Change>();
+			pending.put(transaction, changes);
+			transaction.registerSynchronization(new Synchronization() {
+				public void beforeCompletion() {
+				}
+
+				public void afterCompletion(int status) {
+					List<Change> completed = pending.remove(transaction);
+					if (completed != null && status == Status.STATUS_COMMITTED) {
+						for (Change change : completed) {
+							change.apply(index);
+						}
+					}
+				}
+			});
+		}
+		changes.add(change);
+	}
+
+	/**
+	 * A book's text as flushed, or its removal
+	 */
+	private static class Change {
+		private final Long id;
+		private final boolean removed;
+		private final String isbn;
+		private final String title;
+		private final List<String> authors;
+
+		Change(Long id, Book book) {
+			this.id = id;
+			this.removed = book == null;
+			this.isbn = removed ? null : book.getIsbn();
+			this.title = removed ? null : book.getTitle();
+			// authors that were never loaded did not change
+			this.authors = removed || book.getAuthors() == null
+					|| !Hibernate.isInitialized(book.getAuthors()) ? null
+					: new ArrayList<String>(book.getAuthors());
+		}
+
+		void apply(BookSearchIndex index) {
+			if (removed) {
+				index.remove(id);
+			} else {
+				index.index(id, isbn, title, authors);
+			}
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package org.integrallis.bookstore.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.builder.ToStringBuilder;
+import org.hibernate.Session;
+import org.hibernate.criterion.Restrictions;
+import org.integrallis.bookstore.domain.Book;
+import org.integrallis.bookstore.listing.FetchPlan;
+
+/**
+ * The ranked ids of the books matching a query. Only the page being shown is
+ * loaded, with the catalog-list {@link FetchPlan}.
+ */
+public class SearchResult {
+	private final String query;
+	private final long[] ids;
+
+	SearchResult(String query, long[] ids) {
+		this.query = query;
+		this.ids = ids;
+	}
+
+	public String getQuery() {
+		return query;
+	}
+
+	public int getTotal() {
+		return ids.length;
+	}
+
+	/**
+	 * The ids of a page of the result, best match first
+	 */
+	public List<Long> getIds(int offset, int size) {
+		List<Long> page = new ArrayList<Long>();
+		for (int i = Math.max(offset, 0); i < ids.length && page.size() < size; i++) {
+			page.add(Long.valueOf(ids[i]));
+		}
+		return page;
+	}
+
+	/**
+	 * Loads a page of the result in one select (plus one for the authors), in
+	 * ranked order. Books deleted since the search are left out.
+	 */
+	public List<Book> page(Session session, int offset, int size) {
+		List<Long> pageIds = getIds(offset, size);
+		if (pageIds.isEmpty()) {
+			return Collections.emptyList();
+		}
+		FetchPlan plan = FetchPlan.CATALOG_LIST;
+		List<Book> books = plan.list(plan.createCriteria(session).add(
+				Restrictions.in("id", pageIds)));
+		Map<Long, Book> byId = new HashMap<Long, Book>();
+		for (Book book : books) {
+			byId.put(book.getId(), book);
+		}
+		List<Book> ranked = new ArrayList<Book>(books.size());
+		for (Long id : pageIds) {
+			Book book = byId.get(id);
+			if (book != null) {
+				ranked.add(book);
+			}
+		}
+		return ranked;
+	}
+
+	public String toString() {
+		return new ToStringBuilder(this).append("query", query).append("total",
+				ids.length).toString();
+	}
+}
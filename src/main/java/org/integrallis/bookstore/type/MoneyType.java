@@ -0,0 +1,90 @@
+package org.integrallis.bookstore.type;
+
+import java.io.Serializable;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+import org.hibernate.HibernateException;
+import org.hibernate.usertype.EnhancedUserType;
+import org.integrallis.bookstore.domain.Money;
+
+/**
+ * Maps a DECIMAL column with two places to {@link Money}. The column is read
+ * as a double and rounded to the cent, which is exact for such a column and
+ * skips the BigDecimal (and Double) per value; only writes build a
+ * BigDecimal, so the driver stores the cents without a binary fraction.
+ * Money is immutable, so values are shared rather than copied. Its string
+ * form is the plain amount, which is how a page token holds a price.
+ */
+public class MoneyType implements EnhancedUserType {
+
+	private static final int[] SQL_TYPES = { Types.DECIMAL };
+
+	public int[] sqlTypes() {
+		return SQL_TYPES;
+	}
+
+	@SuppressWarnings("unchecked")
+	public Class returnedClass() {
+		return Money.class;
+	}
+
+	public boolean equals(Object x, Object y) throws HibernateException {
+		return x == null ? y == null : x.equals(y);
+	}
+
+	public int hashCode(Object x) throws HibernateException {
+		return x.hashCode();
+	}
+
+	public Object nullSafeGet(ResultSet rs, String[] names, Object owner)
+			throws HibernateException, SQLException {
+		double amount = rs.getDouble(names[0]);
+		return rs.wasNull() ? null : Money.ofCents(Money.centsOf(amount));
+	}
+
+	public void nullSafeSet(PreparedStatement st, Object value, int index)
+			throws HibernateException, SQLException {
+		if (value == null) {
+			st.setNull(index, Types.DECIMAL);
+		} else {
+			st.setBigDecimal(index, ((Money) value).toBigDecimal());
+		}
+	}
+
+	public Object deepCopy(Object value) throws HibernateException {
+		return value;
+	}
+
+	public boolean isMutable() {
+		return false;
+	}
+
+	public Serializable disassemble(Object value) throws HibernateException {
+		return (Serializable) value;
+	}
+
+	public Object assemble(Serializable cached, Object owner)
+			throws HibernateException {
+		return cached;
+	}
+
+	public Object replace(Object original, Object target, Object owner)
+			throws HibernateException {
+		return original;
+	}
+
+	public String objectToSQLString(Object value) {
+		return ((Money) value).toBigDecimal().toPlainString();
+	}
+
+	public String toXMLString(Object value) {
+		return value.toString();
+	}
+
+	public Object fromXMLString(String xmlValue) {
+		return Money.parse(xmlValue);
+	}
+}
@@ -0,0 +1,234 @@
+package org.integrallis.bookstore.valuation;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+import org.hibernate.Hibernate;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.integrallis.bookstore.domain.Money;
+import org.integrallis.bookstore.type.MoneyType;
+
+/**
+ * The value of every store's inventory, SUM(quantity * price) as computed by
+ * the Store.findTotalValueOfBookForStore query, kept in memory and answered
+ * without touching the database.
+ *
+ * The values are maintained by a {@link StoreValuationListener} from the
+ * Inventory inserts, updates and deletes and the Book price changes flushed
+ * through Hibernate sessions. Changes are applied when their transaction
+ * commits and dropped when it rolls back. Amounts are kept in cents.
+ *
+ * Writes that bypass the session events (HQL bulk updates and deletes, SQL,
+ * StatelessSessions) leave the valuation behind until {@link #rebuild()} is
+ * called. Inventory updated from a detached instance carries no old state, in
+ * which case the valuation rebuilds itself on the next read. A price change
+ * racing a stock change of the same book in another transaction can also
+ * make it drift; a periodic rebuild reconciles it.
+ */
+public class StoreValuation {
+	private static Logger logger = Logger.getLogger(StoreValuation.class);
+
+	private final ConcurrentMap<Long, Long> values = new ConcurrentHashMap<Long, Long>();
+	// the price each book's stock is currently valued at
+	private final ConcurrentMap<Long, Long> prices = new ConcurrentHashMap<Long, Long>();
+	private volatile boolean stale = true;
+	private long rebuilds;
+	private SessionFactory sessionFactory;
+
+	/**
+	 * Binds the valuation to the factory its listener is registered with and
+	 * loads it
+	 */
+	public void attach(SessionFactory sessionFactory) {
+		this.sessionFactory = sessionFactory;
+		rebuild();
+	}
+
+	/**
+	 * Total value of a store's inventory, zero for a store without any
+	 */
+	public BigDecimal getValue(Long storeId) {
+		if (stale) {
+			rebuild();
+		}
+		Long cents = values.get(storeId);
+		return BigDecimal.valueOf(cents == null ? 0 : cents.longValue(), 2);
+	}
+
+	/**
+	 * The values of all stores holding inventory
+	 */
+	public Map<Long, BigDecimal> getValues() {
+		if (stale) {
+			rebuild();
+		}
+		Map<Long, BigDecimal> snapshot = new HashMap<Long, BigDecimal>();
+		for (Map.Entry<Long, Long> value : values.entrySet()) {
+			snapshot.put(value.getKey(), BigDecimal.valueOf(value.getValue()
+					.longValue(), 2));
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Recomputes every store's value from the database
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized void rebuild() {
+		if (sessionFactory == null) {
+			throw new IllegalStateException("the valuation is not attached to a SessionFactory");
+		}
+		rebuilds++;
+		long started = System.currentTimeMillis();
+		StatelessSession session = sessionFactory.openStatelessSession();
+		try {
+			List<Object[]> rows = session.createSQLQuery(
+					"SELECT i.STORE_ID storeId, SUM(i.Quantity * b.Price) value "
+							+ "FROM Inventory i, Book b WHERE i.BOOK_ID = b.BOOK_ID "
+							+ "GROUP BY i.STORE_ID").addScalar("storeId",
+					Hibernate.LONG).addScalar("value", Hibernate.custom(MoneyType.class))
+					.list();
+			Map<Long, Long> rebuilt = new HashMap<Long, Long>();
+			for (Object[] row : rows) {
+				rebuilt.put((Long) row[0], Long.valueOf(cents((Money) row[1])));
+			}
+
+			rows = session.createSQLQuery("SELECT BOOK_ID bookId, Price price FROM Book")
+					.addScalar("bookId", Hibernate.LONG).addScalar("price",
+							Hibernate.custom(MoneyType.class)).list();
+			Map<Long, Long> rebuiltPrices = new HashMap<Long, Long>();
+			for (Object[] row : rows) {
+				rebuiltPrices.put((Long) row[0], Long.valueOf(cents((Money) row[1])));
+			}
+
+			values.clear();
+			values.putAll(rebuilt);
+			prices.clear();
+			prices.putAll(rebuiltPrices);
+			stale = false;
+		} finally {
+			session.close();
+		}
+		logger.info("valued " + values.size() + " stores in "
+				+ (System.currentTimeMillis() - started) + " ms");
+	}
+
+	/**
+	 * Makes the next read rebuild the valuation
+	 */
+	public void invalidate() {
+		stale = true;
+	}
+
+	/**
+	 * The number of rebuilds so far, waits for one under way. Read it before
+	 * writing stock without a session and hand it to {@link #stockChanged}.
+	 */
+	public synchronized long getRebuildCount() {
+		return rebuilds;
+	}
+
+	/**
+	 * Values a change of a store's stock of a book written without a session
+	 * (see InventoryWriteBehind) at the price the stock is valued at. If the
+	 * valuation was rebuilt since rebuildCount was read, the rebuild may
+	 * already have seen the change and the valuation is invalidated instead.
+	 */
+	public synchronized void stockChanged(Long bookId, Long storeId,
+			int quantity, long rebuildCount) {
+		Long price = prices.get(bookId);
+		if (price == null || rebuildCount != rebuilds) {
+			invalidate();
+			return;
+		}
+		Changes changes = new Changes();
+		changes.add(storeId, price.longValue() * quantity);
+		apply(changes);
+	}
+
+	/**
+	 * The price a book's stock is currently valued at, null if unknown
+	 */
+	Long getPrice(Long bookId) {
+		return prices.get(bookId);
+	}
+
+	synchronized void apply(Changes changes) {
+		if (changes.isStale()) {
+			stale = true;
+			return;
+		}
+		for (Map.Entry<Long, Long> delta : changes.getValues().entrySet()) {
+			Long value = values.get(delta.getKey());
+			values.put(delta.getKey(), Long.valueOf((value == null ? 0 : value
+					.longValue())
+					+ delta.getValue().longValue()));
+		}
+		prices.putAll(changes.getPrices());
+		for (Long bookId : changes.getDeletedBooks()) {
+			prices.remove(bookId);
+		}
+	}
+
+	static long cents(Money amount) {
+		return amount == null ? 0 : amount.getCents();
+	}
+
+	/**
+	 * What one transaction did to the valuation
+	 */
+	static class Changes {
+		private final Map<Long, Long> values = new HashMap<Long, Long>();
+		private final Map<Long, Long> prices = new HashMap<Long, Long>();
+		private final Set<Long> deletedBooks = new HashSet<Long>();
+		private boolean stale;
+
+		void add(Long storeId, long cents) {
+			Long value = values.get(storeId);
+			values.put(storeId, Long.valueOf((value == null ? 0 : value.longValue())
+					+ cents));
+		}
+
+		Map<Long, Long> getValues() {
+			return values;
+		}
+
+		Long getPrice(Long bookId) {
+			return prices.get(bookId);
+		}
+
+		void setPrice(Long bookId, long cents) {
+			prices.put(bookId, Long.valueOf(cents));
+			deletedBooks.remove(bookId);
+		}
+
+		Map<Long, Long> getPrices() {
+			return prices;
+		}
+
+		void bookDeleted(Long bookId) {
+			prices.remove(bookId);
+			deletedBooks.add(bookId);
+		}
+
+		Set<Long> getDeletedBooks() {
+			return deletedBooks;
+		}
+
+		void markStale() {
+			stale = true;
+		}
+
+		boolean isStale() {
+			return stale;
+		}
+	}
+}
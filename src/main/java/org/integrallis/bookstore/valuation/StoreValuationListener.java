@@ -0,0 +1,257 @@
+package org.integrallis.bookstore.valuation;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import org.apache.log4j.Logger;
+import org.hibernate.Transaction;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.event.EventListeners;
+import org.hibernate.event.EventSource;
+import org.hibernate.event.PostDeleteEvent;
+import org.hibernate.event.PostDeleteEventListener;
+import org.hibernate.event.PostInsertEvent;
+import org.hibernate.event.PostInsertEventListener;
+import org.hibernate.event.PostUpdateEvent;
+import org.hibernate.event.PostUpdateEventListener;
+import org.hibernate.exception.JDBCExceptionHelper;
+import org.hibernate.persister.entity.EntityPersister;
+import org.integrallis.bookstore.domain.Book;
+import org.integrallis.bookstore.domain.Inventory;
+import org.integrallis.bookstore.domain.Money;
+import org.integrallis.bookstore.domain.Store;
+import org.integrallis.hibernate.event.Listeners;
+
+/**
+ * Turns the Inventory and Book changes flushed by a session into changes of
+ * a {@link StoreValuation}. A stock change is valued at the price the book's
+ * stock is currently valued at; a price change revalues the stock of the
+ * book in every store, so the order of the events within a flush does not
+ * matter. The changes are held until the transaction completes.
+ */
+public class StoreValuationListener implements PostInsertEventListener,
+		PostUpdateEventListener, PostDeleteEventListener {
+	private static Logger logger = Logger.getLogger(StoreValuationListener.class);
+
+	private static final String QUANTITIES = "SELECT STORE_ID, SUM(Quantity) FROM Inventory WHERE BOOK_ID = ? GROUP BY STORE_ID";
+	private static final String PRICE = "SELECT Price FROM Book WHERE BOOK_ID = ?";
+
+	private final StoreValuation valuation;
+	private final Map<Transaction, StoreValuation.Changes> pending = new ConcurrentHashMap<Transaction, StoreValuation.Changes>();
+
+	public StoreValuationListener(StoreValuation valuation) {
+		this.valuation = valuation;
+	}
+
+	/**
+	 * Adds a listener for the valuation to the post insert, update and delete
+	 * listeners of the configuration
+	 */
+	public static void register(Configuration configuration,
+			StoreValuation valuation) {
+		StoreValuationListener listener = new StoreValuationListener(valuation);
+		EventListeners listeners = configuration.getEventListeners();
+		listeners.setPostInsertEventListeners(Listeners.append(listeners
+				.getPostInsertEventListeners(), listener,
+				new PostInsertEventListener[0]));
+		listeners.setPostUpdateEventListeners(Listeners.append(listeners
+				.getPostUpdateEventListeners(), listener,
+				new PostUpdateEventListener[0]));
+		listeners.setPostDeleteEventListeners(Listeners.append(listeners
+				.getPostDeleteEventListeners(), listener,
+				new PostDeleteEventListener[0]));
+	}
+
+	public void onPostInsert(PostInsertEvent event) {
+		if (event.getEntity() instanceof Inventory) {
+			StoreValuation.Changes changes = changes(event.getSession());
+			EntityPersister persister = event.getPersister();
+			Object[] state = event.getState();
+			Long bookId = id(state[index(persister, "book")]);
+			changes.add(id(state[index(persister, "store")]), quantity(state[index(persister, "quantity")])
+					* price(event.getSession(), changes, bookId));
+			apply(event.getSession(), changes);
+		}
+	}
+
+	public void onPostUpdate(PostUpdateEvent event) {
+		if (event.getEntity() instanceof Inventory) {
+			StoreValuation.Changes changes = changes(event.getSession());
+			EntityPersister persister = event.getPersister();
+			Object[] state = event.getState();
+			Object[] oldState = event.getOldState();
+			if (oldState == null) {
+				// updated from a detached instance, what it replaced is unknown
+				logger.debug("no old state for inventory " + event.getId() + ", the valuation will be rebuilt");
+				changes.markStale();
+			} else {
+				int book = index(persister, "book");
+				int store = index(persister, "store");
+				int quantity = index(persister, "quantity");
+				Long oldBookId = id(oldState[book]);
+				Long bookId = id(state[book]);
+				changes.add(id(oldState[store]), -quantity(oldState[quantity])
+						* price(event.getSession(), changes, oldBookId));
+				changes.add(id(state[store]), quantity(state[quantity])
+						* price(event.getSession(), changes, bookId));
+			}
+			apply(event.getSession(), changes);
+		} else if (event.getEntity() instanceof Book) {
+			int price = index(event.getPersister(), "price");
+			Object[] oldState = event.getOldState();
+			if (oldState == null || !equal(oldState[price], event.getState()[price])) {
+				StoreValuation.Changes changes = changes(event.getSession());
+				Long bookId = (Long) event.getId();
+				// Money is whole cents, what was written is what the column kept
+				long stored = StoreValuation.cents((Money) event.getState()[price]);
+				Long valuedAt = valuedPrice(changes, bookId);
+				if (valuedAt != null && valuedAt.longValue() != stored) {
+					revalue(event.getSession(), changes, bookId, stored - valuedAt.longValue());
+				}
+				changes.setPrice(bookId, stored);
+				apply(event.getSession(), changes);
+			}
+		}
+	}
+
+	public void onPostDelete(PostDeleteEvent event) {
+		if (event.getEntity() instanceof Inventory) {
+			StoreValuation.Changes changes = changes(event.getSession());
+			EntityPersister persister = event.getPersister();
+			Object[] state = event.getDeletedState();
+			Long bookId = id(state[index(persister, "book")]);
+			changes.add(id(state[index(persister, "store")]), -quantity(state[index(persister, "quantity")])
+					* price(event.getSession(), changes, bookId));
+			apply(event.getSession(), changes);
+		} else if (event.getEntity() instanceof Book) {
+			StoreValuation.Changes changes = changes(event.getSession());
+			changes.bookDeleted((Long) event.getId());
+			apply(event.getSession(), changes);
+		}
+	}
+
+	/**
+	 * The changes of the session's transaction, or changes to apply right
+	 * away outside of one
+	 */
+	private StoreValuation.Changes changes(EventSource session) {
+		final Transaction transaction = session.getTransaction();
+		if (!transaction.isActive()) {
+			return new StoreValuation.Changes();
+		}
+		StoreValuation.Changes changes = pending.get(transaction);
+		if (changes == null) {
+			changes = new StoreValuation.Changes();
+			pending.put(transaction, changes);
+			transaction.registerSynchronization(new Synchronization() {
+				public void beforeCompletion() {
+				}
+
+				public void afterCompletion(int status) {
+					StoreValuation.Changes completed = pending.remove(transaction);
+					if (completed != null && status == Status.STATUS_COMMITTED) {
+						valuation.apply(completed);
+					}
+				}
+			});
+		}
+		return changes;
+	}
+
+	private void apply(EventSource session, StoreValuation.Changes changes) {
+		if (!session.getTransaction().isActive()) {
+			valuation.apply(changes);
+		}
+	}
+
+	/**
+	 * Price in cents the stock of a book is valued at within the transaction,
+	 * the stored price of a book not valued yet
+	 */
+	private long price(EventSource session, StoreValuation.Changes changes,
+			Long bookId) {
+		Long price = valuedPrice(changes, bookId);
+		if (price == null) {
+			price = Long.valueOf(queryPrice(session, bookId));
+			changes.setPrice(bookId, price.longValue());
+		}
+		return price.longValue();
+	}
+
+	private Long valuedPrice(StoreValuation.Changes changes, Long bookId) {
+		Long price = changes.getPrice(bookId);
+		return price == null ? valuation.getPrice(bookId) : price;
+	}
+
+	/**
+	 * Changes the value of every store stocking the book by the quantity it
+	 * holds times the price difference
+	 */
+	private void revalue(EventSource session, StoreValuation.Changes changes,
+			Long bookId, long difference) {
+		try {
+			// the batcher flushes pending inventory statements first
+			PreparedStatement statement = session.getBatcher().prepareStatement(QUANTITIES);
+			try {
+				statement.setLong(1, bookId.longValue());
+				ResultSet rs = statement.executeQuery();
+				while (rs.next()) {
+					changes.add(Long.valueOf(rs.getLong(1)), rs.getLong(2) * difference);
+				}
+				rs.close();
+			} finally {
+				session.getBatcher().closeStatement(statement);
+			}
+		} catch (SQLException e) {
+			throw JDBCExceptionHelper.convert(session.getFactory()
+					.getSQLExceptionConverter(), e,
+					"could not revalue the inventory of book " + bookId, QUANTITIES);
+		}
+	}
+
+	/**
+	 * The stored price of a book, after executing the pending batch
+	 */
+	private long queryPrice(EventSource session, Long bookId) {
+		try {
+			PreparedStatement statement = session.getBatcher().prepareStatement(PRICE);
+			try {
+				statement.setLong(1, bookId.longValue());
+				ResultSet rs = statement.executeQuery();
+				long price = rs.next() ? Money.centsOf(rs.getDouble(1)) : 0;
+				rs.close();
+				return price;
+			} finally {
+				session.getBatcher().closeStatement(statement);
+			}
+		} catch (SQLException e) {
+			throw JDBCExceptionHelper.convert(session.getFactory()
+					.getSQLExceptionConverter(), e, "could not read the price of book " + bookId, PRICE);
+		}
+	}
+
+	private static boolean equal(Object value, Object other) {
+		return value == null ? other == null : value.equals(other);
+	}
+
+	private static int index(EntityPersister persister, String property) {
+		return persister.getEntityMetamodel().getPropertyIndex(property);
+	}
+
+	private static Long id(Object entity) {
+		if (entity instanceof Book) {
+			return ((Book) entity).getId();
+		}
+		return entity == null ? null : ((Store) entity).getId();
+	}
+
+	private static long quantity(Object quantity) {
+		return quantity == null ? 0 : ((Number) quantity).longValue();
+	}
+}
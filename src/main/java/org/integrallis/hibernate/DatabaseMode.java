@@ -0,0 +1,128 @@
+package org.integrallis.hibernate;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.apache.log4j.Logger;
+import org.hibernate.HibernateException;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+
+/**
+ * How the application reaches the BookStore Derby database.
+ * <ul>
+ * <li>NETWORK - through the network server started with start_db_server, using
+ * the URL in hibernate.cfg.xml (the default)</li>
+ * <li>EMBEDDED - Derby runs inside the JVM on the files under
+ * bookstore.db.path (default db/BookStore, the same database the network
+ * server serves)</li>
+ * <li>MEMORY - a throwaway in-memory database named bookstore.db.name, for
+ * tests and benchmarks</li>
+ * </ul>
+ * The mode is read from the bookstore.db.mode system property or, failing
+ * that, the hibernate configuration property of the same name. In the
+ * embedded and in-memory modes the schema is created from
+ * bookstore.db.scripts/db_create.sql if it does not exist yet, and filled from
+ * db_populate.sql when bookstore.db.seed is true.
+ */
+public enum DatabaseMode {
+	NETWORK, EMBEDDED, MEMORY;
+
+	private static Logger logger = Logger.getLogger(DatabaseMode.class);
+
+	public static final String MODE = "bookstore.db.mode";
+	public static final String PATH = "bookstore.db.path";
+	public static final String NAME = "bookstore.db.name";
+	public static final String SCRIPTS = "bookstore.db.scripts";
+	public static final String SEED = "bookstore.db.seed";
+
+	public static final String EMBEDDED_DRIVER = "org.apache.derby.jdbc.EmbeddedDriver";
+
+	/**
+	 * Resolves the mode for the given configuration, points its connection
+	 * settings at the database and makes sure the schema exists
+	 */
+	public static DatabaseMode configure(Configuration configuration) {
+		DatabaseMode mode = valueOf(setting(configuration, MODE, NETWORK.name())
+				.toUpperCase());
+		mode.apply(configuration);
+		return mode;
+	}
+
+	public void apply(Configuration configuration) {
+		if (this == NETWORK) {
+			logger.info("using the Derby network server at "
+					+ configuration.getProperty(Environment.URL));
+			return;
+		}
+		configuration.setProperty(Environment.DRIVER, EMBEDDED_DRIVER);
+		configuration.setProperty(Environment.URL, getUrl(configuration));
+		logger.info("using " + name().toLowerCase() + " Derby database "
+				+ configuration.getProperty(Environment.URL));
+		initialize(configuration);
+	}
+
+	public String getUrl(Configuration configuration) {
+		switch (this) {
+		case EMBEDDED:
+			return "jdbc:derby:" + setting(configuration, PATH, "db/BookStore")
+					+ ";create=true";
+		case MEMORY:
+			return "jdbc:derby:memory:" + setting(configuration, NAME, "BookStore")
+					+ ";create=true";
+		default:
+			return configuration.getProperty(Environment.URL);
+		}
+	}
+
+	private static synchronized void initialize(Configuration configuration) {
+		String user = configuration.getProperty(Environment.USER);
+		File scripts = new File(setting(configuration, SCRIPTS, "db/scripts"));
+		try {
+			Class.forName(EMBEDDED_DRIVER);
+			Connection connection = DriverManager.getConnection(configuration
+					.getProperty(Environment.URL), user, configuration
+					.getProperty(Environment.PASS));
+			try {
+				if (hasSchema(connection, user)) {
+					return;
+				}
+				new SqlScript(new File(scripts, "db_create.sql")).execute(connection);
+				if (Boolean.valueOf(setting(configuration, SEED, "false")).booleanValue()) {
+					new SqlScript(new File(scripts, "db_populate.sql")).execute(connection);
+				}
+				if (!connection.getAutoCommit()) {
+					connection.commit();
+				}
+			} finally {
+				connection.close();
+			}
+		} catch (Exception e) {
+			throw new HibernateException("Could not create the BookStore schema from "
+					+ scripts, e);
+		}
+	}
+
+	private static boolean hasSchema(Connection connection, String user)
+			throws SQLException {
+		ResultSet tables = connection.getMetaData().getTables(null,
+				user == null ? null : user.toUpperCase(), "BOOK", null);
+		try {
+			return tables.next();
+		} finally {
+			tables.close();
+		}
+	}
+
+	private static String setting(Configuration configuration, String name,
+			String defaultValue) {
+		String value = System.getProperty(name);
+		if (value == null) {
+			value = configuration.getProperty(name);
+		}
+		return value == null ? defaultValue : value.trim();
+	}
+}
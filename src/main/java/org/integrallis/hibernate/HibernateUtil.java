@@ -1,8 +1,26 @@
 package org.integrallis.hibernate;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import org.apache.log4j.Logger;
+import org.hibernate.HibernateException;
 import org.hibernate.SessionFactory;
 import org.hibernate.cfg.Configuration;
+import org.hibernate.connection.ConnectionProvider;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.util.ReflectHelper;
+import org.hibernate.util.StringHelper;
+import org.integrallis.hibernate.bootstrap.SessionFactoryExtension;
+import org.integrallis.hibernate.bootstrap.SessionFactoryRegistry;
+import org.integrallis.hibernate.connection.ConnectionPoolStatistics;
+import org.integrallis.hibernate.connection.PooledConnectionProvider;
+import org.integrallis.hibernate.logging.StatementLog;
+import org.integrallis.hibernate.metrics.OrmMetrics;
+import org.integrallis.hibernate.naturalid.NaturalIdLookup;
+import org.integrallis.hibernate.routing.RoutingSessionFactory;
+import org.integrallis.hibernate.warmup.QueryWarmup;
 
 /**
  * Lab 2.0
@@ -11,11 +29,55 @@ public class HibernateUtil {
     private static Logger logger = Logger.getLogger(HibernateUtil.class);
     
     private static final SessionFactory sessionFactory;
+    private static DatabaseMode databaseMode;
+    private static final List<SessionFactoryExtension> extensions = new ArrayList<SessionFactoryExtension>();
+    private static OrmMetrics metrics;
+    private static StatementLog statementLog;
+    private static NaturalIdLookup naturalIdLookup;
+    private static RoutingSessionFactory router;
+    private static QueryWarmup queryWarmup;
 
     static {
         try {
-            // Create the SessionFactory from hibernate.cfg.xml
-            sessionFactory = new Configuration().configure().buildSessionFactory();
+            // Create the SessionFactory from hibernate.cfg.xml, its mappings
+            // bound once and cached, see bookstore.metadata.cache_dir
+            Configuration configuration = SessionFactoryRegistry.configuration(
+                    HibernateUtil.class.getResource("/hibernate.cfg.xml"),
+                    Collections.<Class>emptyList());
+            // network server, embedded or in-memory Derby
+            databaseMode = DatabaseMode.configure(configuration);
+            // application features, see hibernate.bootstrap.extensions
+            for (String name : StringHelper.split(", \t\n", configuration
+                    .getProperties().getProperty(SessionFactoryExtension.EXTENSIONS, ""))) {
+                SessionFactoryExtension extension = extension(name);
+                extension.configure(configuration);
+                extensions.add(extension);
+            }
+            // per-query latency and ORM counters, see hibernate.metrics.enabled
+            metrics = OrmMetrics.configure(configuration);
+            // SQL logged off the request thread, see hibernate.sql_log.mode
+            statementLog = StatementLog.configure(configuration);
+            // Book by ISBN, Store by nick name without JDBC once warm
+            naturalIdLookup = NaturalIdLookup.configure(configuration);
+            sessionFactory = configuration.buildSessionFactory();
+            for (SessionFactoryExtension extension : extensions) {
+                extension.attach(sessionFactory);
+            }
+            naturalIdLookup.attach(sessionFactory);
+            if (metrics != null) {
+                metrics.attach(sessionFactory, configuration);
+            }
+            if (statementLog != null) {
+                statementLog.attach(sessionFactory);
+            }
+            // reads on the replicas in bookstore.db.replicas, if any
+            router = RoutingSessionFactory.configure(configuration, sessionFactory);
+            // query plans and statements ready before the first request,
+            // see hibernate.warmup.enabled
+            queryWarmup = QueryWarmup.configure(configuration);
+            if (queryWarmup != null) {
+                queryWarmup.warmUp(sessionFactory, configuration);
+            }
         } catch (Throwable ex) {
             // Make sure you log the exception, as it might be swallowed
             logger.error("Initial SessionFactory creation failed", ex);
@@ -27,7 +89,88 @@ public class HibernateUtil {
         return sessionFactory;
     }
     
+    public static DatabaseMode getDatabaseMode() {
+        return databaseMode;
+    }
+    
+    /**
+     * Returns the extension of the given type listed in
+     * hibernate.bootstrap.extensions, or null
+     */
+    public static <T extends SessionFactoryExtension> T getExtension(Class<T> type) {
+        for (SessionFactoryExtension extension : extensions) {
+            if (type.isInstance(extension)) {
+                return type.cast(extension);
+            }
+        }
+        return null;
+    }
+    
+    public static NaturalIdLookup getNaturalIdLookup() {
+        return naturalIdLookup;
+    }
+    
+    /**
+     * Returns the router sending read-only work to the replicas and writes to
+     * this factory
+     */
+    public static RoutingSessionFactory getRouter() {
+        return router;
+    }
+    
+    /**
+     * Returns what the warm-up did, or null if hibernate.warmup.enabled is off
+     */
+    public static QueryWarmup getQueryWarmup() {
+        return queryWarmup;
+    }
+    
+    /**
+     * Returns the ORM metrics, or null if hibernate.metrics.enabled is off
+     */
+    public static OrmMetrics getMetrics() {
+        return metrics;
+    }
+    
+    /**
+     * Returns the statement log, or null if hibernate.sql_log.mode is off
+     */
+    public static StatementLog getStatementLog() {
+        return statementLog;
+    }
+    
+    /**
+     * Returns the connection pool statistics, or null if the factory is not
+     * using the {@link PooledConnectionProvider}
+     */
+    public static ConnectionPoolStatistics getConnectionPoolStatistics() {
+        ConnectionProvider provider = ((SessionFactoryImplementor) sessionFactory).getConnectionProvider();
+        if (provider instanceof PooledConnectionProvider) {
+            return ((PooledConnectionProvider) provider).getStatistics();
+        }
+        return null;
+    }
+    
+    private static SessionFactoryExtension extension(String name) {
+        try {
+            return (SessionFactoryExtension) ReflectHelper.classForName(name)
+                    .newInstance();
+        } catch (Exception e) {
+            throw new HibernateException("Could not create the extension " + name, e);
+        }
+    }
+    
     public static void closeFactory() {
+    	for (SessionFactoryExtension extension : extensions) {
+    		extension.close();
+    	}
+    	if (metrics != null) {
+    		metrics.close();
+    	}
+    	if (statementLog != null) {
+    		statementLog.close();
+    	}
+    	router.close();
     	sessionFactory.close();
     }
 }
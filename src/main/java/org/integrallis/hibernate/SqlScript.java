@@ -0,0 +1,85 @@
+package org.integrallis.hibernate;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runs the ij scripts under db/scripts over a plain JDBC connection. The
+ * ij-only DRIVER and CONNECT commands are skipped, COMMIT commits the
+ * connection, "--" comments are dropped, and DROP statements that fail (the
+ * table does not exist yet) are ignored.
+ */
+public class SqlScript {
+	private static Logger logger = Logger.getLogger(SqlScript.class);
+
+	private final File file;
+
+	public SqlScript(File file) {
+		this.file = file;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public List<String> getStatements() throws IOException {
+		StringBuilder content = new StringBuilder();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String trimmed = line.trim();
+				String upper = trimmed.toUpperCase();
+				if (upper.startsWith("DRIVER") || upper.startsWith("CONNECT")
+						|| trimmed.startsWith("--")) {
+					continue;
+				}
+				content.append(line).append('\n');
+			}
+		} finally {
+			reader.close();
+		}
+
+		List<String> statements = new ArrayList<String>();
+		for (String sql : content.toString().split(";")) {
+			if (sql.trim().length() > 0) {
+				statements.add(sql.trim());
+			}
+		}
+		return statements;
+	}
+
+	public void execute(Connection connection) throws IOException,
+			SQLException {
+		logger.info("running " + file);
+		Statement statement = connection.createStatement();
+		try {
+			for (String sql : getStatements()) {
+				if ("COMMIT".equalsIgnoreCase(sql)) {
+					if (!connection.getAutoCommit()) {
+						connection.commit();
+					}
+					continue;
+				}
+				try {
+					statement.execute(sql);
+				} catch (SQLException e) {
+					if (!sql.toUpperCase().startsWith("DROP")) {
+						throw e;
+					}
+				}
+			}
+		} finally {
+			statement.close();
+		}
+	}
+}
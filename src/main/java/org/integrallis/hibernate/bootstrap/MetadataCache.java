@@ -0,0 +1,261 @@
+package org.integrallis.hibernate.bootstrap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.hibernate.HibernateException;
+import org.hibernate.Version;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+
+/**
+ * Keeps the bound mapping metadata of a configuration on disk, so that a cold
+ * start reads one serialized {@link Configuration} instead of parsing and
+ * binding every hbm.xml file.
+ * <p>
+ * The file is named after a SHA-1 of the Hibernate version, the
+ * configuration file, every mapping document it pulls in (its mapping
+ * resources and the hbm.xml of each added class) and the class files of the
+ * classes they map, whose properties binding reads by reflection: changing
+ * any of them gives a new key, and a stale or unreadable file is simply
+ * rebuilt. The cached
+ * configuration holds only what the configuration file says; the global
+ * Hibernate properties (system properties, hibernate.properties) are laid
+ * under it again on every load, as {@link Configuration#configure()} does.
+ * <p>
+ * The cache is on when the bookstore.metadata.cache_dir system property names
+ * its directory. With a handful of mappings a cold start is dominated by
+ * class loading and gains little; the file pays off as the mappings grow and
+ * when many JVMs (forked test runs) start on the same mappings.
+ */
+public class MetadataCache {
+	private static Logger logger = Logger.getLogger(MetadataCache.class);
+
+	public static final String DIRECTORY = "bookstore.metadata.cache_dir";
+
+	private static final Pattern MAPPING_RESOURCE = Pattern
+			.compile("<mapping\\s+resource\\s*=\\s*\"([^\"]+)\"");
+	private static final Pattern MAPPING_PACKAGE = Pattern
+			.compile("<hibernate-mapping[^>]*\\spackage\\s*=\\s*\"([^\"]+)\"");
+	private static final Pattern MAPPED_CLASS = Pattern
+			.compile("<(?:class|subclass|joined-subclass|union-subclass)\\s[^>]*?\\bname\\s*=\\s*\"([^\"]+)\""
+					+ "|<(?:component|composite-element)\\s[^>]*?\\bclass\\s*=\\s*\"([^\"]+)\"");
+
+	private final File directory;
+	private int hits;
+	private int misses;
+
+	public MetadataCache(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * The cache in the directory named by bookstore.metadata.cache_dir, or
+	 * null if it is not set
+	 */
+	public static MetadataCache configure() {
+		String directory = System.getProperty(DIRECTORY);
+		if (directory == null || directory.trim().length() == 0) {
+			return null;
+		}
+		return new MetadataCache(new File(directory.trim()));
+	}
+
+	/**
+	 * Loads the configuration in the file, with the mappings of the classes
+	 * added, from the cache, reading and binding the mappings if it has not
+	 * been seen before
+	 */
+	@SuppressWarnings("unchecked")
+	public Configuration load(URL configFile, Collection<Class> persistentClasses) {
+		long start = System.currentTimeMillis();
+		File file = new File(directory, "metadata-"
+				+ key(configFile, persistentClasses) + ".ser");
+		Configuration configuration = read(file);
+		if (configuration != null) {
+			synchronized (this) {
+				hits++;
+			}
+		} else {
+			synchronized (this) {
+				misses++;
+			}
+			configuration = build(configFile, persistentClasses);
+			write(configuration, file);
+		}
+		Properties properties = Environment.getProperties();
+		properties.putAll(configuration.getProperties());
+		configuration.setProperties(properties);
+		logger.info("metadata of " + configFile + " ready in "
+				+ (System.currentTimeMillis() - start) + " ms"
+				+ (file.exists() ? " (" + file + ")" : ""));
+		return configuration;
+	}
+
+	public synchronized int getHitCount() {
+		return hits;
+	}
+
+	public synchronized int getMissCount() {
+		return misses;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Reads and binds the mappings with nothing but the configuration file's
+	 * properties; the second pass is run here too so what is cached is fully
+	 * bound
+	 */
+	@SuppressWarnings("unchecked")
+	static Configuration build(URL configFile, Collection<Class> persistentClasses) {
+		Configuration configuration = new Configuration();
+		configuration.setProperties(new Properties());
+		configuration.configure(configFile);
+		for (Class clazz : persistentClasses) {
+			configuration.addClass(clazz);
+		}
+		configuration.buildMappings();
+		return configuration;
+	}
+
+	private Configuration read(File file) {
+		if (!file.isFile()) {
+			return null;
+		}
+		try {
+			ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+			try {
+				return (Configuration) in.readObject();
+			} finally {
+				in.close();
+			}
+		} catch (Exception e) {
+			logger.warn("discarding unreadable metadata " + file, e);
+			file.delete();
+			return null;
+		}
+	}
+
+	/**
+	 * Written to a temporary file and renamed, so that a concurrent reader
+	 * (another test JVM) never sees half a file; failing to write only costs
+	 * the next start the binding
+	 */
+	private void write(Configuration configuration, File file) {
+		File temporary = null;
+		try {
+			directory.mkdirs();
+			temporary = File.createTempFile("metadata-", ".tmp", directory);
+			ObjectOutputStream out = new ObjectOutputStream(
+					new BufferedOutputStream(new FileOutputStream(temporary)));
+			try {
+				out.writeObject(configuration);
+			} finally {
+				out.close();
+			}
+			if (!temporary.renameTo(file)) {
+				temporary.delete();
+			}
+		} catch (IOException e) {
+			logger.warn("could not cache the metadata in " + file, e);
+			if (temporary != null) {
+				temporary.delete();
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	static String key(URL configFile, Collection<Class> persistentClasses) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			digest.update(Version.getVersionString().getBytes("UTF-8"));
+			byte[] config = bytes(configFile);
+			digest.update(config);
+			List<String> resources = new ArrayList<String>();
+			Matcher mappings = MAPPING_RESOURCE.matcher(new String(config, "UTF-8"));
+			while (mappings.find()) {
+				resources.add(mappings.group(1));
+			}
+			for (Class clazz : persistentClasses) {
+				resources.add(clazz.getName().replace('.', '/') + ".hbm.xml");
+			}
+			for (String resource : resources) {
+				digest.update(resource.getBytes("UTF-8"));
+				URL url = MetadataCache.class.getClassLoader().getResource(resource);
+				if (url == null) {
+					throw new HibernateException("mapping resource not found: "
+							+ resource);
+				}
+				byte[] mapping = bytes(url);
+				digest.update(mapping);
+				digestMappedClasses(digest, new String(mapping, "UTF-8"));
+			}
+			StringBuilder key = new StringBuilder();
+			for (byte b : digest.digest()) {
+				key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(
+						Character.forDigit(b & 0xf, 16));
+			}
+			return key.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new HibernateException("SHA-1 is not available", e);
+		} catch (IOException e) {
+			throw new HibernateException("could not read the mappings of "
+					+ configFile, e);
+		}
+	}
+
+	private static void digestMappedClasses(MessageDigest digest, String mapping)
+			throws IOException {
+		Matcher packageName = MAPPING_PACKAGE.matcher(mapping);
+		String prefix = packageName.find() ? packageName.group(1) + "." : "";
+		Matcher classes = MAPPED_CLASS.matcher(mapping);
+		while (classes.find()) {
+			String name = classes.group(1) != null ? classes.group(1) : classes
+					.group(2);
+			if (name.indexOf('.') < 0) {
+				name = prefix + name;
+			}
+			URL url = MetadataCache.class.getClassLoader().getResource(
+					name.replace('.', '/') + ".class");
+			if (url != null) {
+				digest.update(bytes(url));
+			}
+		}
+	}
+
+	private static byte[] bytes(URL url) throws IOException {
+		InputStream in = url.openStream();
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			for (int read; (read = in.read(buffer)) > 0;) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+}
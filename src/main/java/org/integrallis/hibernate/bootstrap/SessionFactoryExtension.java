@@ -0,0 +1,24 @@
+package org.integrallis.hibernate.bootstrap;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.Configuration;
+
+/**
+ * Application code plugged into the factory built by HibernateUtil. The
+ * extensions are named in hibernate.bootstrap.extensions (comma separated
+ * class names with a public no-argument constructor), configured before the
+ * factory is built, attached to it once it is and closed with it.
+ */
+public interface SessionFactoryExtension {
+
+	String EXTENSIONS = "hibernate.bootstrap.extensions";
+
+	/**
+	 * Registers listeners and the like, the factory is not built yet
+	 */
+	void configure(Configuration configuration);
+
+	void attach(SessionFactory sessionFactory);
+
+	void close();
+}
@@ -0,0 +1,104 @@
+package org.integrallis.hibernate.bootstrap;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.Configuration;
+import org.integrallis.hibernate.DatabaseMode;
+
+/**
+ * One SessionFactory per configuration file and set of mapped classes for
+ * the life of the JVM: asking again for the same pair returns the factory
+ * already built (or builds a new one if it was closed) instead of binding
+ * the mappings and connecting all over again. The configuration comes from
+ * the {@link MetadataCache} when it is on, and is pointed at the database by
+ * {@link DatabaseMode}.
+ */
+public class SessionFactoryRegistry {
+	private static Logger logger = Logger.getLogger(SessionFactoryRegistry.class);
+
+	private static final Map<String, SessionFactory> factories = new HashMap<String, SessionFactory>();
+	private static final MetadataCache metadataCache = MetadataCache.configure();
+	private static int builds;
+
+	private SessionFactoryRegistry() {
+	}
+
+	@SuppressWarnings("unchecked")
+	public static synchronized SessionFactory getSessionFactory(URL configFile,
+			Collection<Class> persistentClasses) {
+		String key = key(configFile, persistentClasses);
+		SessionFactory factory = factories.get(key);
+		if (factory != null && !factory.isClosed()) {
+			return factory;
+		}
+		long start = System.currentTimeMillis();
+		Configuration configuration = configuration(configFile, persistentClasses);
+		DatabaseMode.configure(configuration);
+		factory = configuration.buildSessionFactory();
+		factories.put(key, factory);
+		builds++;
+		logger.info("built the session factory for " + key + " in "
+				+ (System.currentTimeMillis() - start) + " ms");
+		return factory;
+	}
+
+	/**
+	 * The configuration in the file with the classes mapped, read through the
+	 * metadata cache if it is on
+	 */
+	@SuppressWarnings("unchecked")
+	public static Configuration configuration(URL configFile,
+			Collection<Class> persistentClasses) {
+		if (metadataCache != null) {
+			return metadataCache.load(configFile, persistentClasses);
+		}
+		Configuration configuration = new Configuration().configure(configFile);
+		for (Class clazz : persistentClasses) {
+			configuration.addClass(clazz);
+		}
+		return configuration;
+	}
+
+	/**
+	 * The metadata cache, or null if bookstore.metadata.cache_dir is not set
+	 */
+	public static MetadataCache getMetadataCache() {
+		return metadataCache;
+	}
+
+	/**
+	 * How many factories were built, as opposed to handed out again
+	 */
+	public static synchronized int getBuildCount() {
+		return builds;
+	}
+
+	public static synchronized void closeAll() {
+		for (Iterator<SessionFactory> i = factories.values().iterator(); i.hasNext();) {
+			SessionFactory factory = i.next();
+			if (!factory.isClosed()) {
+				factory.close();
+			}
+			i.remove();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static String key(URL configFile, Collection<Class> persistentClasses) {
+		List<String> names = new ArrayList<String>();
+		for (Class clazz : persistentClasses) {
+			names.add(clazz.getName());
+		}
+		Collections.sort(names);
+		return configFile + " " + names;
+	}
+}
@@ -0,0 +1,165 @@
+package org.integrallis.hibernate.cache;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.lang.builder.ToStringBuilder;
+import org.hibernate.cache.Cache;
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.Timestamper;
+
+/**
+ * A size bounded cache region. Entries are kept in access order and, once the
+ * region is full, a new entry is only admitted if it has been requested more
+ * often than the least recently used entry it would replace (TinyLFU style
+ * admission). This keeps one-off scans from flushing the hot entries.
+ */
+public class BoundedCache implements Cache {
+	private final String regionName;
+	private final int maxEntries;
+	private final FrequencySketch sketch;
+	private final LinkedHashMap<Object, Object> entries;
+
+	private long hitCount;
+	private long missCount;
+	private long putCount;
+	private long evictionCount;
+	private long rejectionCount;
+
+	public BoundedCache(String regionName, int maxEntries) {
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("maxEntries must be positive for region " + regionName);
+		}
+		this.regionName = regionName;
+		this.maxEntries = maxEntries;
+		this.sketch = new FrequencySketch(maxEntries);
+		this.entries = new LinkedHashMap<Object, Object>(16, 0.75f, true);
+	}
+
+	public Object read(Object key) throws CacheException {
+		return get(key);
+	}
+
+	public synchronized Object get(Object key) throws CacheException {
+		sketch.increment(key);
+		Object value = entries.get(key);
+		if (value == null) {
+			missCount++;
+		} else {
+			hitCount++;
+		}
+		return value;
+	}
+
+	public void update(Object key, Object value) throws CacheException {
+		put(key, value);
+	}
+
+	public synchronized void put(Object key, Object value) throws CacheException {
+		if (entries.containsKey(key)) {
+			entries.put(key, value);
+			putCount++;
+			return;
+		}
+		if (entries.size() >= maxEntries) {
+			Object victim = entries.keySet().iterator().next();
+			if (sketch.frequency(key) <= sketch.frequency(victim)) {
+				rejectionCount++;
+				return;
+			}
+			entries.remove(victim);
+			evictionCount++;
+		}
+		entries.put(key, value);
+		putCount++;
+	}
+
+	public synchronized void remove(Object key) throws CacheException {
+		entries.remove(key);
+	}
+
+	public synchronized void clear() throws CacheException {
+		entries.clear();
+	}
+
+	public void destroy() throws CacheException {
+		clear();
+	}
+
+	public void lock(Object key) throws CacheException {
+		// local cache, the concurrency strategies do their own locking
+	}
+
+	public void unlock(Object key) throws CacheException {
+	}
+
+	public long nextTimestamp() {
+		return Timestamper.next();
+	}
+
+	public int getTimeout() {
+		// 60 seconds, in Timestamper units
+		return Timestamper.ONE_MS * 60000;
+	}
+
+	public String getRegionName() {
+		return regionName;
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	public long getSizeInMemory() {
+		return -1;
+	}
+
+	public synchronized long getElementCountInMemory() {
+		return entries.size();
+	}
+
+	public long getElementCountOnDisk() {
+		return 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	public synchronized Map toMap() {
+		return new HashMap<Object, Object>(entries);
+	}
+
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	public synchronized long getPutCount() {
+		return putCount;
+	}
+
+	/**
+	 * Number of entries removed to make room for a more frequently used one
+	 */
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/**
+	 * Number of puts that were refused because the region was full of more
+	 * frequently used entries
+	 */
+	public synchronized long getRejectionCount() {
+		return rejectionCount;
+	}
+
+	public synchronized String toString() {
+		return new ToStringBuilder(this).append("regionName", regionName)
+				.append("size", entries.size()).append("maxEntries", maxEntries)
+				.append("hits", hitCount).append("misses", missCount)
+				.append("puts", putCount).append("evictions", evictionCount)
+				.append("rejections", rejectionCount).toString();
+	}
+}
@@ -0,0 +1,99 @@
+package org.integrallis.hibernate.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+import org.hibernate.cache.Cache;
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.CacheProvider;
+import org.hibernate.cache.Timestamper;
+import org.hibernate.cfg.Environment;
+import org.hibernate.util.PropertiesHelper;
+
+/**
+ * Second-level cache provider building {@link BoundedCache} regions.
+ *
+ * The size of every region defaults to hibernate.cache.bounded.max_entries and
+ * can be set per region with hibernate.cache.bounded.region.[region
+ * name].max_entries, for example
+ * hibernate.cache.bounded.region.org.integrallis.bookstore.domain.Book.max_entries
+ * The region name is taken without the hibernate.cache.region_prefix, so
+ * prefixed factories share the same settings.
+ *
+ * Like EHCache's singleton manager, regions are registered JVM-wide by name so
+ * their statistics can be looked up with {@link #getRegion(String)}. A provider
+ * unregisters the regions it built when its factory is closed.
+ */
+public class BoundedCacheProvider implements CacheProvider {
+	private static Logger logger = Logger.getLogger(BoundedCacheProvider.class);
+
+	public static final String MAX_ENTRIES = "hibernate.cache.bounded.max_entries";
+	public static final String REGION_PREFIX = "hibernate.cache.bounded.region.";
+	public static final String REGION_MAX_ENTRIES_SUFFIX = ".max_entries";
+	public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+	private static final ConcurrentMap<String, BoundedCache> regions = new ConcurrentHashMap<String, BoundedCache>();
+
+	private final Collection<BoundedCache> built = new ArrayList<BoundedCache>();
+
+	public Cache buildCache(String regionName, Properties properties)
+			throws CacheException {
+		int defaultMaxEntries = PropertiesHelper.getInt(MAX_ENTRIES,
+				properties, DEFAULT_MAX_ENTRIES);
+		int maxEntries = PropertiesHelper.getInt(REGION_PREFIX
+				+ unprefixed(regionName, properties)
+				+ REGION_MAX_ENTRIES_SUFFIX, properties, defaultMaxEntries);
+
+		BoundedCache cache = new BoundedCache(regionName, maxEntries);
+		regions.put(regionName, cache);
+		synchronized (built) {
+			built.add(cache);
+		}
+		logger.info("built cache region " + regionName + " holding up to "
+				+ maxEntries + " entries");
+		return cache;
+	}
+
+	public long nextTimestamp() {
+		return Timestamper.next();
+	}
+
+	public void start(Properties properties) throws CacheException {
+		logger.info("starting bounded second-level cache");
+	}
+
+	public void stop() {
+		synchronized (built) {
+			for (BoundedCache cache : built) {
+				logger.info(cache);
+				// a newer factory may have registered the same name since
+				regions.remove(cache.getRegionName(), cache);
+			}
+			built.clear();
+		}
+	}
+
+	public boolean isMinimalPutsEnabledByDefault() {
+		return false;
+	}
+
+	private static String unprefixed(String regionName, Properties properties) {
+		String prefix = properties.getProperty(Environment.CACHE_REGION_PREFIX);
+		if (prefix != null && regionName.startsWith(prefix + ".")) {
+			return regionName.substring(prefix.length() + 1);
+		}
+		return regionName;
+	}
+
+	public static BoundedCache getRegion(String regionName) {
+		return regions.get(regionName);
+	}
+
+	public static Collection<BoundedCache> getRegions() {
+		return new ArrayList<BoundedCache>(regions.values());
+	}
+}
@@ -0,0 +1,73 @@
+package org.integrallis.hibernate.cache;
+
+/**
+ * A small count-min sketch that estimates how often a key has been requested.
+ * Counters saturate at 15 and are halved once the number of recorded accesses
+ * reaches ten times the capacity of the cache, so old popularity fades out.
+ *
+ * Not thread-safe, callers must hold the owning cache's lock.
+ */
+class FrequencySketch {
+	private static final int[] SEEDS = { 0x97cb3127, 0xb7e15163, 0x9e3779b9,
+			0x3c6ef372 };
+	private static final int MAX_COUNT = 15;
+
+	private final byte[] table;
+	private final int mask;
+	private final int sampleSize;
+	private int additions;
+
+	public FrequencySketch(int capacity) {
+		int size = 16;
+		while (size < capacity * 16 && size < (1 << 24)) {
+			size <<= 1;
+		}
+		table = new byte[size];
+		mask = size - 1;
+		sampleSize = Math.max(capacity, 1) * 10;
+	}
+
+	public void increment(Object key) {
+		int hash = spread(key.hashCode());
+		boolean added = false;
+		for (int i = 0; i < SEEDS.length; i++) {
+			int index = indexOf(hash, i);
+			if (table[index] < MAX_COUNT) {
+				table[index]++;
+				added = true;
+			}
+		}
+		if (added && ++additions >= sampleSize) {
+			reset();
+		}
+	}
+
+	public int frequency(Object key) {
+		int hash = spread(key.hashCode());
+		int frequency = MAX_COUNT;
+		for (int i = 0; i < SEEDS.length; i++) {
+			frequency = Math.min(frequency, table[indexOf(hash, i)]);
+		}
+		return frequency;
+	}
+
+	private void reset() {
+		for (int i = 0; i < table.length; i++) {
+			table[i] >>= 1;
+		}
+		additions >>>= 1;
+	}
+
+	private int indexOf(int hash, int i) {
+		int h = (hash + SEEDS[i]) * SEEDS[i];
+		h += h >>> 16;
+		return h & mask;
+	}
+
+	private static int spread(int hash) {
+		hash ^= (hash >>> 17);
+		hash *= 0xed5ad4bb;
+		hash ^= (hash >>> 11);
+		return hash;
+	}
+}
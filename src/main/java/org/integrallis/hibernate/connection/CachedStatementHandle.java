@@ -0,0 +1,89 @@
+package org.integrallis.hibernate.connection;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Wraps a cached prepared statement so that close() hands it back to the
+ * owning {@link PooledConnection} instead of closing it.
+ */
+class CachedStatementHandle implements InvocationHandler {
+	private final PooledConnection owner;
+	private final String key;
+	private final PreparedStatement statement;
+
+	private boolean closed;
+	// set when the borrower changed a setting we cannot put back cheaply
+	private boolean tainted;
+	private boolean limitsChanged;
+
+	CachedStatementHandle(PooledConnection owner, String key,
+			PreparedStatement statement) {
+		this.owner = owner;
+		this.key = key;
+		this.statement = statement;
+	}
+
+	public Object invoke(Object proxy, Method method, Object[] args)
+			throws Throwable {
+		String name = method.getName();
+		if ("close".equals(name) && method.getParameterTypes().length == 0) {
+			close();
+			return null;
+		}
+		if ("isClosed".equals(name)) {
+			return Boolean.valueOf(closed);
+		}
+		if ("equals".equals(name) && args != null && args.length == 1) {
+			return Boolean.valueOf(proxy == args[0]);
+		}
+		if ("hashCode".equals(name) && method.getParameterTypes().length == 0) {
+			return Integer.valueOf(System.identityHashCode(proxy));
+		}
+		if ("toString".equals(name) && method.getParameterTypes().length == 0) {
+			return "cached statement [" + key + "]";
+		}
+		if (closed) {
+			throw new SQLException("statement has been closed");
+		}
+		if ("setMaxRows".equals(name) || "setQueryTimeout".equals(name)
+				|| "setFetchSize".equals(name)) {
+			limitsChanged = true;
+		} else if (isStatementSetting(name)) {
+			tainted = true;
+		}
+		try {
+			return method.invoke(statement, args);
+		} catch (InvocationTargetException e) {
+			throw e.getTargetException();
+		}
+	}
+
+	private void close() throws SQLException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		if (tainted) {
+			statement.close();
+			return;
+		}
+		if (limitsChanged) {
+			statement.setMaxRows(0);
+			statement.setQueryTimeout(0);
+			statement.setFetchSize(0);
+		}
+		owner.returnStatement(key, statement);
+	}
+
+	private static boolean isStatementSetting(String name) {
+		return "setCursorName".equals(name)
+				|| "setEscapeProcessing".equals(name)
+				|| "setFetchDirection".equals(name)
+				|| "setMaxFieldSize".equals(name)
+				|| "setPoolable".equals(name);
+	}
+}
@@ -0,0 +1,174 @@
+package org.integrallis.hibernate.connection;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * The application's view of a pooled connection for the duration of one
+ * borrow. Closing it returns the underlying {@link PooledConnection} to the
+ * pool; any later use of the handle fails instead of touching a connection
+ * that may already belong to another thread.
+ */
+class ConnectionHandle implements InvocationHandler {
+	private static final Class<?>[] CONNECTION_INTERFACES = { Connection.class };
+
+	private final PooledConnectionProvider pool;
+	private final PooledConnection pooledConnection;
+	private final Connection proxy;
+	private final long borrowedAt;
+	private final long borrowedNanos;
+	private final Throwable borrowStack;
+
+	private volatile boolean closed;
+	private volatile boolean reportedAsLeak;
+
+	ConnectionHandle(PooledConnectionProvider pool,
+			PooledConnection pooledConnection, boolean captureStack) {
+		this.pool = pool;
+		this.pooledConnection = pooledConnection;
+		this.borrowedAt = System.currentTimeMillis();
+		this.borrowedNanos = System.nanoTime();
+		this.borrowStack = captureStack ? new Throwable("connection "
+				+ pooledConnection.getId() + " borrowed here") : null;
+		this.proxy = (Connection) Proxy.newProxyInstance(
+				ConnectionHandle.class.getClassLoader(),
+				CONNECTION_INTERFACES, this);
+	}
+
+	Connection getProxy() {
+		return proxy;
+	}
+
+	PooledConnection getPooledConnection() {
+		return pooledConnection;
+	}
+
+	long getBorrowedAt() {
+		return borrowedAt;
+	}
+
+	long getBorrowedNanos() {
+		return borrowedNanos;
+	}
+
+	Throwable getBorrowStack() {
+		return borrowStack;
+	}
+
+	boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Marks the handle closed, returns false if it already was
+	 */
+	synchronized boolean markClosed() {
+		if (closed) {
+			return false;
+		}
+		closed = true;
+		return true;
+	}
+
+	boolean markReportedAsLeak() {
+		if (reportedAsLeak) {
+			return false;
+		}
+		reportedAsLeak = true;
+		return true;
+	}
+
+	public Object invoke(Object proxy, Method method, final Object[] args)
+			throws Throwable {
+		String name = method.getName();
+		if ("close".equals(name)) {
+			pool.release(this);
+			return null;
+		}
+		if ("isClosed".equals(name)) {
+			return Boolean.valueOf(closed);
+		}
+		if ("equals".equals(name) && args != null && args.length == 1) {
+			return Boolean.valueOf(proxy == args[0]);
+		}
+		if ("hashCode".equals(name) && method.getParameterTypes().length == 0) {
+			return Integer.valueOf(System.identityHashCode(proxy));
+		}
+		if ("toString".equals(name) && method.getParameterTypes().length == 0) {
+			return "pooled connection " + pooledConnection.getId();
+		}
+		if (closed) {
+			throw new SQLException("connection has been returned to the pool");
+		}
+
+		final Connection connection = pooledConnection.getConnection();
+		if ("prepareStatement".equals(name)) {
+			PreparedStatement statement;
+			if (isCacheable(method)) {
+				final Method target = method;
+				statement = pooledConnection.prepare(statementKey(args),
+						new PooledConnection.StatementFactory() {
+							public PreparedStatement create() throws SQLException {
+								return (PreparedStatement) invokeOn(connection,
+										target, args);
+							}
+						});
+			} else {
+				statement = (PreparedStatement) invokeOn(connection, method, args);
+			}
+			StatementObserver[] observers = pool.getObservers();
+			return observers.length == 0 ? statement : ObservedStatementHandle
+					.wrap(statement, pooledConnection.getId(), (String) args[0],
+							observers);
+		}
+		return invokeOn(connection, method, args);
+	}
+
+	private static Object invokeOn(Connection connection, Method method,
+			Object[] args) throws SQLException {
+		try {
+			return method.invoke(connection, args);
+		} catch (InvocationTargetException e) {
+			Throwable cause = e.getTargetException();
+			if (cause instanceof SQLException) {
+				throw (SQLException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IllegalStateException(cause);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Only the (String sql, int...) variants are cached, statements prepared
+	 * with column indexes or names are rare and not worth keying on.
+	 */
+	private static boolean isCacheable(Method method) {
+		Class<?>[] types = method.getParameterTypes();
+		for (int i = 1; i < types.length; i++) {
+			if (types[i] != int.class) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static String statementKey(Object[] args) {
+		StringBuilder key = new StringBuilder((String) args[0]);
+		for (int i = 1; i < args.length; i++) {
+			key.append('|').append(args[i]);
+		}
+		return key.toString();
+	}
+}
@@ -0,0 +1,102 @@
+package org.integrallis.hibernate.connection;
+
+import java.io.Serializable;
+
+import org.apache.commons.lang.builder.ToStringBuilder;
+
+/**
+ * Point in time snapshot of a {@link PooledConnectionProvider}
+ */
+public class ConnectionPoolStatistics implements Serializable {
+	private final int active;
+	private final int idle;
+	private final int maxSize;
+	private final int waitingThreads;
+	private final long borrowCount;
+	private final long totalWaitNanos;
+	private final long maxWaitNanos;
+	private final long timeoutCount;
+	private final long leakCount;
+	private final long statementCacheHits;
+	private final long statementCacheMisses;
+
+	public ConnectionPoolStatistics(int active, int idle, int maxSize,
+			int waitingThreads, long borrowCount, long totalWaitNanos,
+			long maxWaitNanos, long timeoutCount, long leakCount,
+			long statementCacheHits, long statementCacheMisses) {
+		this.active = active;
+		this.idle = idle;
+		this.maxSize = maxSize;
+		this.waitingThreads = waitingThreads;
+		this.borrowCount = borrowCount;
+		this.totalWaitNanos = totalWaitNanos;
+		this.maxWaitNanos = maxWaitNanos;
+		this.timeoutCount = timeoutCount;
+		this.leakCount = leakCount;
+		this.statementCacheHits = statementCacheHits;
+		this.statementCacheMisses = statementCacheMisses;
+	}
+
+	public int getActive() {
+		return active;
+	}
+
+	public int getIdle() {
+		return idle;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public int getWaitingThreads() {
+		return waitingThreads;
+	}
+
+	public long getBorrowCount() {
+		return borrowCount;
+	}
+
+	public long getTotalWaitNanos() {
+		return totalWaitNanos;
+	}
+
+	public long getMaxWaitNanos() {
+		return maxWaitNanos;
+	}
+
+	public double getAverageWaitMillis() {
+		return borrowCount == 0 ? 0 : totalWaitNanos / 1000000.0 / borrowCount;
+	}
+
+	public long getTimeoutCount() {
+		return timeoutCount;
+	}
+
+	public long getLeakCount() {
+		return leakCount;
+	}
+
+	public long getStatementCacheHits() {
+		return statementCacheHits;
+	}
+
+	public long getStatementCacheMisses() {
+		return statementCacheMisses;
+	}
+
+	public String toString() {
+		return new ToStringBuilder(this).append("active", active)
+				.append("idle", idle).append("maxSize", maxSize)
+				.append("waitingThreads", waitingThreads)
+				.append("borrowCount", borrowCount)
+				.append("averageWaitMillis", getAverageWaitMillis())
+				.append("maxWaitMillis", maxWaitNanos / 1000000.0)
+				.append("timeouts", timeoutCount).append("leaks", leakCount)
+				.append("statementCacheHits", statementCacheHits)
+				.append("statementCacheMisses", statementCacheMisses)
+				.toString();
+	}
+
+	private static final long serialVersionUID = 4914153120470227263L;
+}
@@ -0,0 +1,166 @@
+package org.integrallis.hibernate.connection;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Arrays;
+
+/**
+ * Times the executions of a prepared statement, keeps its bound parameters
+ * and counts the rows read from its result sets for the
+ * {@link StatementObserver}s of the pool
+ */
+class ObservedStatementHandle implements InvocationHandler {
+	private static final Class<?>[] STATEMENT_INTERFACES = { PreparedStatement.class };
+	private static final Class<?>[] RESULT_SET_INTERFACES = { ResultSet.class };
+
+	private final PreparedStatement statement;
+	private final long connectionId;
+	private final String sql;
+	private final StatementObserver[] observers;
+	private Object[] parameters;
+	private int parameterCount;
+
+	private ObservedStatementHandle(PreparedStatement statement,
+			long connectionId, String sql, StatementObserver[] observers) {
+		this.statement = statement;
+		this.connectionId = connectionId;
+		this.sql = sql;
+		this.observers = observers;
+		for (int i = 0; i < observers.length; i++) {
+			if (observers[i].capturesParameters()) {
+				parameters = new Object[8];
+			}
+		}
+	}
+
+	static PreparedStatement wrap(PreparedStatement statement,
+			long connectionId, String sql, StatementObserver[] observers) {
+		return (PreparedStatement) Proxy.newProxyInstance(
+				ObservedStatementHandle.class.getClassLoader(),
+				STATEMENT_INTERFACES, new ObservedStatementHandle(statement,
+						connectionId, sql, observers));
+	}
+
+	public Object invoke(Object proxy, Method method, Object[] args)
+			throws Throwable {
+		String name = method.getName();
+		if ("equals".equals(name) && args != null && args.length == 1) {
+			return Boolean.valueOf(proxy == args[0]);
+		}
+		if ("hashCode".equals(name) && method.getParameterTypes().length == 0) {
+			return Integer.valueOf(System.identityHashCode(proxy));
+		}
+		if (name.startsWith("execute")) {
+			long start = System.nanoTime();
+			boolean failed = true;
+			try {
+				Object result = method.invoke(statement, args);
+				failed = false;
+				return result instanceof ResultSet ? observe((ResultSet) result)
+						: result;
+			} catch (InvocationTargetException e) {
+				throw e.getTargetException();
+			} finally {
+				long nanos = System.nanoTime() - start;
+				boolean batch = "executeBatch".equals(name);
+				Object[] bound = batch ? null : parameters;
+				int count = batch ? 0 : parameterCount;
+				for (int i = 0; i < observers.length; i++) {
+					observers[i].executed(connectionId, sql, bound, count, nanos,
+							failed);
+				}
+			}
+		}
+		if (parameters != null) {
+			capture(name, args);
+		}
+		try {
+			Object result = method.invoke(statement, args);
+			return "getResultSet".equals(name) && result != null ? observe((ResultSet) result)
+					: result;
+		} catch (InvocationTargetException e) {
+			throw e.getTargetException();
+		}
+	}
+
+	/**
+	 * setXxx(index, value, ...) binds a parameter, setNull binds null; the
+	 * one argument setters (setFetchSize and the like) are not parameters
+	 */
+	private void capture(String name, Object[] args) {
+		if (name.startsWith("set") && args != null && args.length >= 2
+				&& args[0] instanceof Integer) {
+			int index = ((Integer) args[0]).intValue() - 1;
+			if (index < 0) {
+				return;
+			}
+			if (index >= parameters.length) {
+				Object[] grown = new Object[Math.max(index + 1,
+						parameters.length * 2)];
+				System.arraycopy(parameters, 0, grown, 0, parameters.length);
+				parameters = grown;
+			}
+			parameters[index] = "setNull".equals(name) ? null : args[1];
+			parameterCount = Math.max(parameterCount, index + 1);
+		} else if ("clearParameters".equals(name)) {
+			Arrays.fill(parameters, null);
+			parameterCount = 0;
+		}
+	}
+
+	private ResultSet observe(ResultSet resultSet) {
+		return (ResultSet) Proxy.newProxyInstance(
+				ObservedStatementHandle.class.getClassLoader(),
+				RESULT_SET_INTERFACES, new RowCounter(resultSet));
+	}
+
+	private class RowCounter implements InvocationHandler {
+		private final ResultSet resultSet;
+		private long rows;
+		private boolean reported;
+
+		RowCounter(ResultSet resultSet) {
+			this.resultSet = resultSet;
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args)
+				throws Throwable {
+			String name = method.getName();
+			if ("equals".equals(name) && args != null && args.length == 1) {
+				return Boolean.valueOf(proxy == args[0]);
+			}
+			if ("hashCode".equals(name) && method.getParameterTypes().length == 0) {
+				return Integer.valueOf(System.identityHashCode(proxy));
+			}
+			Object result;
+			try {
+				result = method.invoke(resultSet, args);
+			} catch (InvocationTargetException e) {
+				throw e.getTargetException();
+			}
+			if ("next".equals(name)) {
+				if (Boolean.TRUE.equals(result)) {
+					rows++;
+				} else {
+					report();
+				}
+			} else if ("close".equals(name)) {
+				report();
+			}
+			return result;
+		}
+
+		private void report() {
+			if (!reported) {
+				reported = true;
+				for (int i = 0; i < observers.length; i++) {
+					observers[i].rowsRead(sql, rows);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,179 @@
+package org.integrallis.hibernate.connection;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A physical JDBC connection owned by the pool together with its cache of
+ * prepared statements. Only one thread uses a pooled connection at a time (the
+ * one holding its {@link ConnectionHandle}).
+ */
+class PooledConnection {
+	private static Logger logger = Logger.getLogger(PooledConnection.class);
+
+	private static final Class<?>[] STATEMENT_INTERFACES = { PreparedStatement.class };
+
+	private final Connection connection;
+	private final long id;
+	private final int statementCacheSize;
+	private final LinkedHashMap<String, PreparedStatement> statementCache;
+	private final boolean defaultAutoCommit;
+
+	private final AtomicLong statementCacheHits;
+	private final AtomicLong statementCacheMisses;
+
+	private long lastUsed = System.currentTimeMillis();
+
+	PooledConnection(long id, Connection connection, int statementCacheSize,
+			AtomicLong statementCacheHits, AtomicLong statementCacheMisses)
+			throws SQLException {
+		this.id = id;
+		this.connection = connection;
+		this.statementCacheSize = statementCacheSize;
+		this.statementCacheHits = statementCacheHits;
+		this.statementCacheMisses = statementCacheMisses;
+		this.defaultAutoCommit = connection.getAutoCommit();
+		this.statementCache = new LinkedHashMap<String, PreparedStatement>(16,
+				0.75f, true);
+	}
+
+	long getId() {
+		return id;
+	}
+
+	Connection getConnection() {
+		return connection;
+	}
+
+	long getLastUsed() {
+		return lastUsed;
+	}
+
+	/**
+	 * Returns a prepared statement for the given key, reusing an idle cached
+	 * one if there is one. The statement is handed out wrapped so that closing
+	 * it puts it back in the cache.
+	 */
+	PreparedStatement prepare(String key, StatementFactory factory)
+			throws SQLException {
+		if (statementCacheSize <= 0) {
+			return factory.create();
+		}
+		PreparedStatement statement = statementCache.remove(key);
+		if (statement != null) {
+			statementCacheHits.incrementAndGet();
+		} else {
+			statementCacheMisses.incrementAndGet();
+			statement = factory.create();
+		}
+		return (PreparedStatement) Proxy.newProxyInstance(
+				PooledConnection.class.getClassLoader(), STATEMENT_INTERFACES,
+				new CachedStatementHandle(this, key, statement));
+	}
+
+	/**
+	 * Puts a statement the application closed back into the cache, evicting
+	 * the least recently used one when the cache is full.
+	 */
+	void returnStatement(String key, PreparedStatement statement) {
+		try {
+			statement.clearParameters();
+			statement.clearWarnings();
+		} catch (SQLException e) {
+			closeQuietly(statement);
+			return;
+		}
+		PreparedStatement previous = statementCache.put(key, statement);
+		if (previous != null) {
+			// the same SQL was open twice on this connection, keep only one
+			closeQuietly(previous);
+		}
+		if (statementCache.size() > statementCacheSize) {
+			Iterator<Map.Entry<String, PreparedStatement>> eldest = statementCache
+					.entrySet().iterator();
+			closeQuietly(eldest.next().getValue());
+			eldest.remove();
+		}
+	}
+
+	/**
+	 * Undoes whatever the last borrower may have left behind. Returns false
+	 * if the connection is no longer usable.
+	 */
+	boolean reset() {
+		lastUsed = System.currentTimeMillis();
+		try {
+			if (connection.isClosed()) {
+				return false;
+			}
+			if (!connection.getAutoCommit()) {
+				connection.rollback();
+			}
+			if (connection.getAutoCommit() != defaultAutoCommit) {
+				connection.setAutoCommit(defaultAutoCommit);
+			}
+			connection.clearWarnings();
+			return true;
+		} catch (SQLException e) {
+			logger.warn("discarding connection " + id + ": " + e.getMessage());
+			return false;
+		}
+	}
+
+	boolean validate(String validationQuery) {
+		try {
+			if (connection.isClosed()) {
+				return false;
+			}
+			if (validationQuery != null) {
+				Statement statement = connection.createStatement();
+				try {
+					statement.execute(validationQuery);
+				} finally {
+					statement.close();
+				}
+			}
+			return true;
+		} catch (SQLException e) {
+			logger.warn("connection " + id + " failed validation: "
+					+ e.getMessage());
+			return false;
+		}
+	}
+
+	void close() {
+		for (PreparedStatement statement : statementCache.values()) {
+			closeQuietly(statement);
+		}
+		statementCache.clear();
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			logger.warn("could not close connection " + id, e);
+		}
+	}
+
+	private static void closeQuietly(Statement statement) {
+		try {
+			statement.close();
+		} catch (SQLException e) {
+			logger.debug("could not close cached statement", e);
+		}
+	}
+
+	/**
+	 * Creates the physical statement on a cache miss
+	 */
+	interface StatementFactory {
+		PreparedStatement create() throws SQLException;
+	}
+}
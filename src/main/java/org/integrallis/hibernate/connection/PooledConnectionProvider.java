@@ -0,0 +1,340 @@
+package org.integrallis.hibernate.connection;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.hibernate.HibernateException;
+import org.hibernate.cfg.Environment;
+import org.hibernate.connection.ConnectionProvider;
+import org.hibernate.connection.ConnectionProviderFactory;
+import org.hibernate.util.PropertiesHelper;
+import org.hibernate.util.ReflectHelper;
+
+/**
+ * A JDBC connection pool for Hibernate.
+ *
+ * Borrowers queue fairly (first come, first served) for at most
+ * hibernate.pool.max_wait milliseconds. Each physical connection keeps its own
+ * LRU cache of prepared statements, idle connections are validated on borrow
+ * and connections held longer than the leak detection threshold are reported
+ * together with the stack trace of the code that borrowed them.
+ *
+ * Settings (besides the usual hibernate.connection.* ones):
+ * <ul>
+ * <li>hibernate.pool.min_size - connections opened up front (default 1)</li>
+ * <li>hibernate.pool.max_size - upper bound, defaults to
+ * hibernate.connection.pool_size or 10</li>
+ * <li>hibernate.pool.max_wait - ms to wait for a free connection (default 30000)</li>
+ * <li>hibernate.pool.statement_cache_size - statements cached per connection
+ * (default 50, 0 disables)</li>
+ * <li>hibernate.pool.validation_query - SQL run to check a connection</li>
+ * <li>hibernate.pool.validation_interval - only validate connections idle for
+ * longer than this many ms (default 5000)</li>
+ * <li>hibernate.pool.leak_detection_threshold - ms after which a borrowed
+ * connection is reported as leaked (default 0, disabled)</li>
+ * </ul>
+ */
+public class PooledConnectionProvider implements ConnectionProvider {
+	private static Logger logger = Logger.getLogger(PooledConnectionProvider.class);
+
+	public static final String MIN_SIZE = "hibernate.pool.min_size";
+	public static final String MAX_SIZE = "hibernate.pool.max_size";
+	public static final String MAX_WAIT = "hibernate.pool.max_wait";
+	public static final String STATEMENT_CACHE_SIZE = "hibernate.pool.statement_cache_size";
+	public static final String VALIDATION_QUERY = "hibernate.pool.validation_query";
+	public static final String VALIDATION_INTERVAL = "hibernate.pool.validation_interval";
+	public static final String LEAK_DETECTION_THRESHOLD = "hibernate.pool.leak_detection_threshold";
+
+	private static final StatementObserver[] NO_OBSERVERS = {};
+
+	private String url;
+	private Properties connectionProperties;
+	private Integer isolation;
+	private boolean autocommit;
+
+	private int minSize;
+	private int maxSize;
+	private long maxWait;
+	private int statementCacheSize;
+	private String validationQuery;
+	private long validationInterval;
+	private long leakDetectionThreshold;
+
+	private Semaphore permits;
+	// most recently used on top, so a lightly loaded pool reuses warm connections
+	private final LinkedList<PooledConnection> idle = new LinkedList<PooledConnection>();
+	private final Map<ConnectionHandle, Boolean> active = new ConcurrentHashMap<ConnectionHandle, Boolean>();
+	private final AtomicLong connectionIds = new AtomicLong();
+	private Timer leakDetector;
+	private volatile boolean closed;
+	private volatile StatementObserver[] observers = NO_OBSERVERS;
+
+	private final AtomicLong borrowCount = new AtomicLong();
+	private final AtomicLong totalWaitNanos = new AtomicLong();
+	private final AtomicLong maxWaitNanos = new AtomicLong();
+	private final AtomicLong timeoutCount = new AtomicLong();
+	private final AtomicLong leakCount = new AtomicLong();
+	private final AtomicLong statementCacheHits = new AtomicLong();
+	private final AtomicLong statementCacheMisses = new AtomicLong();
+
+	public void configure(Properties properties) throws HibernateException {
+		String driverClass = properties.getProperty(Environment.DRIVER);
+		if (driverClass != null) {
+			try {
+				ReflectHelper.classForName(driverClass);
+			} catch (ClassNotFoundException e) {
+				throw new HibernateException("JDBC Driver class not found: "
+						+ driverClass, e);
+			}
+		}
+		url = properties.getProperty(Environment.URL);
+		if (url == null) {
+			throw new HibernateException("JDBC URL was not specified by property "
+					+ Environment.URL);
+		}
+		connectionProperties = ConnectionProviderFactory
+				.getConnectionProperties(properties);
+		isolation = PropertiesHelper.getInteger(Environment.ISOLATION, properties);
+		autocommit = PropertiesHelper.getBoolean(Environment.AUTOCOMMIT, properties);
+
+		maxSize = PropertiesHelper.getInt(MAX_SIZE, properties, PropertiesHelper
+				.getInt(Environment.POOL_SIZE, properties, 10));
+		minSize = Math.min(PropertiesHelper.getInt(MIN_SIZE, properties, 1), maxSize);
+		maxWait = PropertiesHelper.getInt(MAX_WAIT, properties, 30000);
+		statementCacheSize = PropertiesHelper.getInt(STATEMENT_CACHE_SIZE,
+				properties, 50);
+		validationQuery = PropertiesHelper.getString(VALIDATION_QUERY,
+				properties, null);
+		validationInterval = PropertiesHelper.getInt(VALIDATION_INTERVAL,
+				properties, 5000);
+		leakDetectionThreshold = PropertiesHelper.getInt(
+				LEAK_DETECTION_THRESHOLD, properties, 0);
+		if (maxSize < 1) {
+			throw new HibernateException(MAX_SIZE + " must be at least 1");
+		}
+
+		permits = new Semaphore(maxSize, true);
+		try {
+			for (int i = 0; i < minSize; i++) {
+				idle.addFirst(openConnection());
+			}
+		} catch (SQLException e) {
+			close();
+			throw new HibernateException("Could not open initial connections to "
+					+ url, e);
+		}
+
+		if (leakDetectionThreshold > 0) {
+			leakDetector = new Timer("connection-leak-detector", true);
+			long period = Math.max(leakDetectionThreshold / 2, 100);
+			leakDetector.schedule(new TimerTask() {
+				public void run() {
+					detectLeaks();
+				}
+			}, period, period);
+		}
+		logger.info("connection pool for " + url + ": min " + minSize
+				+ ", max " + maxSize + ", max wait " + maxWait
+				+ "ms, statement cache " + statementCacheSize);
+	}
+
+	public Connection getConnection() throws SQLException {
+		if (closed) {
+			throw new SQLException("connection pool has been closed");
+		}
+		long start = System.nanoTime();
+		try {
+			if (!permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS)) {
+				timeoutCount.incrementAndGet();
+				throw new SQLException("timed out after " + maxWait
+						+ "ms waiting for a connection (" + maxSize
+						+ " in use)");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("interrupted while waiting for a connection");
+		}
+		recordWait(System.nanoTime() - start);
+
+		try {
+			PooledConnection pooledConnection = takeIdleConnection();
+			if (pooledConnection == null) {
+				pooledConnection = openConnection();
+			}
+			ConnectionHandle handle = new ConnectionHandle(this,
+					pooledConnection, leakDetectionThreshold > 0);
+			active.put(handle, Boolean.TRUE);
+			return handle.getProxy();
+		} catch (SQLException e) {
+			permits.release();
+			throw e;
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	public void closeConnection(Connection connection) throws SQLException {
+		connection.close();
+	}
+
+	/**
+	 * Called when a handle handed out by this pool is closed
+	 */
+	void release(ConnectionHandle handle) {
+		if (!handle.markClosed()) {
+			return;
+		}
+		active.remove(handle);
+		StatementObserver[] observers = this.observers;
+		if (observers.length > 0) {
+			long held = System.nanoTime() - handle.getBorrowedNanos();
+			for (int i = 0; i < observers.length; i++) {
+				observers[i].connectionReturned(held);
+			}
+		}
+		PooledConnection pooledConnection = handle.getPooledConnection();
+		try {
+			if (!closed && pooledConnection.reset()) {
+				synchronized (idle) {
+					idle.addFirst(pooledConnection);
+				}
+			} else {
+				pooledConnection.close();
+			}
+		} finally {
+			permits.release();
+		}
+	}
+
+	public void close() throws HibernateException {
+		closed = true;
+		if (leakDetector != null) {
+			leakDetector.cancel();
+		}
+		synchronized (idle) {
+			for (PooledConnection pooledConnection : idle) {
+				pooledConnection.close();
+			}
+			idle.clear();
+		}
+		if (!active.isEmpty()) {
+			logger.warn(active.size()
+					+ " connection(s) still in use while closing the pool");
+		}
+		logger.info("closed connection pool for " + url + ": " + getStatistics());
+	}
+
+	public boolean supportsAggressiveRelease() {
+		return true;
+	}
+
+	public ConnectionPoolStatistics getStatistics() {
+		int idleCount;
+		synchronized (idle) {
+			idleCount = idle.size();
+		}
+		return new ConnectionPoolStatistics(active.size(), idleCount, maxSize,
+				permits.getQueueLength(), borrowCount.get(), totalWaitNanos
+						.get(), maxWaitNanos.get(), timeoutCount.get(),
+				leakCount.get(), statementCacheHits.get(), statementCacheMisses
+						.get());
+	}
+
+	/**
+	 * Starts reporting statements and borrows to the observer. Statements
+	 * prepared before are not observed.
+	 */
+	public synchronized void addObserver(StatementObserver observer) {
+		StatementObserver[] added = new StatementObserver[observers.length + 1];
+		System.arraycopy(observers, 0, added, 0, observers.length);
+		added[observers.length] = observer;
+		observers = added;
+	}
+
+	public synchronized void removeObserver(StatementObserver observer) {
+		List<StatementObserver> remaining = new ArrayList<StatementObserver>(
+				Arrays.asList(observers));
+		remaining.remove(observer);
+		observers = remaining.toArray(NO_OBSERVERS);
+	}
+
+	StatementObserver[] getObservers() {
+		return observers;
+	}
+
+	private PooledConnection takeIdleConnection() {
+		while (true) {
+			PooledConnection pooledConnection;
+			synchronized (idle) {
+				if (idle.isEmpty()) {
+					return null;
+				}
+				pooledConnection = idle.removeFirst();
+			}
+			boolean stale = System.currentTimeMillis()
+					- pooledConnection.getLastUsed() > validationInterval;
+			if (!stale || pooledConnection.validate(validationQuery)) {
+				return pooledConnection;
+			}
+			pooledConnection.close();
+		}
+	}
+
+	private PooledConnection openConnection() throws SQLException {
+		Connection connection = DriverManager.getConnection(url,
+				connectionProperties);
+		if (isolation != null) {
+			connection.setTransactionIsolation(isolation.intValue());
+		}
+		if (connection.getAutoCommit() != autocommit) {
+			connection.setAutoCommit(autocommit);
+		}
+		long id = connectionIds.incrementAndGet();
+		logger.debug("opened connection " + id + " to " + url);
+		return new PooledConnection(id, connection, statementCacheSize,
+				statementCacheHits, statementCacheMisses);
+	}
+
+	private void recordWait(long nanos) {
+		borrowCount.incrementAndGet();
+		totalWaitNanos.addAndGet(nanos);
+		long max = maxWaitNanos.get();
+		while (nanos > max && !maxWaitNanos.compareAndSet(max, nanos)) {
+			max = maxWaitNanos.get();
+		}
+		StatementObserver[] observers = this.observers;
+		for (int i = 0; i < observers.length; i++) {
+			observers[i].connectionBorrowed(nanos);
+		}
+	}
+
+	private void detectLeaks() {
+		long now = System.currentTimeMillis();
+		for (ConnectionHandle handle : active.keySet()) {
+			if (!handle.isClosed()
+					&& now - handle.getBorrowedAt() > leakDetectionThreshold
+					&& handle.markReportedAsLeak()) {
+				leakCount.incrementAndGet();
+				logger.warn("connection " + handle.getPooledConnection().getId()
+						+ " has been in use for "
+						+ (now - handle.getBorrowedAt())
+						+ "ms, it may have been leaked", handle.getBorrowStack());
+			}
+		}
+	}
+}
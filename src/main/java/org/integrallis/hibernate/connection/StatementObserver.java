@@ -0,0 +1,33 @@
+package org.integrallis.hibernate.connection;
+
+/**
+ * Told about the statements run on, and the connections handed out by, a
+ * {@link PooledConnectionProvider}. Called on the application's threads, so
+ * implementations must be thread safe and quick.
+ */
+public interface StatementObserver {
+
+	/**
+	 * Whether {@link #executed} needs the bound parameters; capturing them
+	 * costs a little on every set call
+	 */
+	boolean capturesParameters();
+
+	/**
+	 * A prepared statement was executed (execute, executeQuery, executeUpdate
+	 * or executeBatch). The first parameterCount parameters are those bound
+	 * at index 1, 2, ...; the array is reused and only valid during the call.
+	 * It is null unless an observer captures parameters, and for a batch.
+	 */
+	void executed(long connectionId, String sql, Object[] parameters,
+			int parameterCount, long nanos, boolean failed);
+
+	/**
+	 * A result set of the statement was closed or read to the end
+	 */
+	void rowsRead(String sql, long rows);
+
+	void connectionBorrowed(long waitNanos);
+
+	void connectionReturned(long heldNanos);
+}
@@ -0,0 +1,30 @@
+package org.integrallis.hibernate.event;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Helper for registering event listeners on a Configuration next to the
+ * ones already there:
+ *
+ * <pre>
+ * EventListeners listeners = configuration.getEventListeners();
+ * listeners.setPostUpdateEventListeners(Listeners.append(listeners
+ * 		.getPostUpdateEventListeners(), listener, new PostUpdateEventListener[0]));
+ * </pre>
+ */
+public final class Listeners {
+
+	private Listeners() {
+	}
+
+	/**
+	 * A copy of the listeners with one more at the end
+	 */
+	public static <T> T[] append(T[] listeners, T listener, T[] type) {
+		List<T> appended = new ArrayList<T>(Arrays.asList(listeners));
+		appended.add(listener);
+		return appended.toArray(type);
+	}
+}
@@ -0,0 +1,47 @@
+package org.integrallis.hibernate.id;
+
+import java.util.Properties;
+
+import org.hibernate.MappingException;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.id.PersistentIdentifierGenerator;
+import org.hibernate.id.enhanced.TableGenerator;
+import org.hibernate.type.Type;
+
+/**
+ * Table backed identifier generator that hands out ids in blocks, so inserts
+ * are no longer executed immediately (as they are with identity columns) and
+ * can be JDBC batched.
+ *
+ * All entities share the ID_GENERATOR table (see db/scripts/db_create.sql),
+ * one row per entity table holding the next value to allocate. The pooled
+ * optimizer reserves increment_size ids per round trip (default 50); since
+ * the stored value is always the start of the next free block, ids written
+ * by plain SQL below that value never collide with generated ones. Any of
+ * the enhanced TableGenerator parameters can still be overridden with a
+ * &lt;param&gt; in the mapping.
+ */
+public class PooledTableGenerator extends TableGenerator {
+
+	public static final String TABLE = "ID_GENERATOR";
+	public static final String SEGMENT_COLUMN = "SEGMENT_NAME";
+	public static final String VALUE_COLUMN = "NEXT_VAL";
+	public static final String DEFAULT_INCREMENT = "50";
+
+	public void configure(Type type, Properties params, Dialect dialect)
+			throws MappingException {
+		Properties settings = new Properties();
+		settings.setProperty(TABLE_PARAM, TABLE);
+		settings.setProperty(SEGMENT_COLUMN_PARAM, SEGMENT_COLUMN);
+		settings.setProperty(VALUE_COLUMN_PARAM, VALUE_COLUMN);
+		settings.setProperty(SEGMENT_LENGTH_PARAM, "40");
+		settings.setProperty(INCREMENT_PARAM, DEFAULT_INCREMENT);
+		settings.setProperty(OPT_PARAM, "pooled");
+		String table = params.getProperty(PersistentIdentifierGenerator.TABLE);
+		if (table != null) {
+			settings.setProperty(SEGMENT_VALUE_PARAM, table);
+		}
+		settings.putAll(params);
+		super.configure(type, settings, dialect);
+	}
+}
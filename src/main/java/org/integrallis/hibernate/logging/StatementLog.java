@@ -0,0 +1,328 @@
+package org.integrallis.hibernate.logging;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.hibernate.HibernateException;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.connection.ConnectionProvider;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.util.PropertiesHelper;
+import org.integrallis.hibernate.connection.PooledConnectionProvider;
+import org.integrallis.hibernate.connection.StatementObserver;
+
+/**
+ * Logs the statements run through the {@link PooledConnectionProvider} with
+ * their bound parameters, connection and elapsed time, in place of
+ * hibernate.show_sql. The application's threads only copy the statement into
+ * a slot of a preallocated ring buffer; a background writer formats the
+ * slots and hands them to log4j (category {@value #CATEGORY}). When the
+ * buffer is full statements are dropped and counted, never waited for.
+ *
+ * Settings:
+ * <ul>
+ * <li>hibernate.sql_log.mode - all (every statement at INFO), slow (only
+ * statements slower than the threshold, production) or off (default)</li>
+ * <li>hibernate.sql_log.slow_threshold - ms from which a statement is slow
+ * and logged at WARN (default 100); failed statements are always logged</li>
+ * <li>hibernate.sql_log.buffer_size - statements buffered, rounded up to a
+ * power of two (default 1024)</li>
+ * </ul>
+ */
+public class StatementLog implements StatementObserver {
+	private static Logger logger = Logger.getLogger(StatementLog.class);
+
+	public static final String CATEGORY = "org.integrallis.hibernate.SQL";
+	public static final String MODE = "hibernate.sql_log.mode";
+	public static final String SLOW_THRESHOLD = "hibernate.sql_log.slow_threshold";
+	public static final String BUFFER_SIZE = "hibernate.sql_log.buffer_size";
+
+	/**
+	 * Parameters kept per statement, the rest are counted
+	 */
+	static final int MAX_PARAMETERS = 32;
+	private static final int MAX_VALUE_LENGTH = 100;
+	// how long an idle writer sleeps if no producer wakes it
+	private static final long IDLE_NANOS = 100000000L;
+
+	private static Logger sqlLogger = Logger.getLogger(CATEGORY);
+
+	private final boolean logAll;
+	private final long slowThresholdNanos;
+	private final Record[] ring;
+	private final int mask;
+	// next sequence to hand out to a producer
+	private final AtomicLong claimed = new AtomicLong();
+	// next sequence the writer reads, only written by the writer
+	private volatile long drained;
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong written = new AtomicLong();
+
+	private PooledConnectionProvider provider;
+	private Thread writer;
+	// the writer while it is parked with nothing to write
+	private volatile Thread idleWriter;
+	private volatile boolean closed;
+
+	StatementLog(boolean logAll, long slowThresholdMillis, int bufferSize) {
+		this.logAll = logAll;
+		this.slowThresholdNanos = slowThresholdMillis * 1000000L;
+		int size = Integer.highestOneBit(Math.max(bufferSize, 2) - 1) << 1;
+		this.ring = new Record[size];
+		this.mask = size - 1;
+		for (int i = 0; i < size; i++) {
+			ring[i] = new Record();
+		}
+	}
+
+	/**
+	 * Returns null if hibernate.sql_log.mode is off. {@link #attach} once the
+	 * factory is built.
+	 */
+	public static StatementLog configure(Configuration configuration) {
+		String mode = PropertiesHelper.getString(MODE, configuration
+				.getProperties(), "off");
+		if ("off".equalsIgnoreCase(mode)) {
+			return null;
+		}
+		if (!"all".equalsIgnoreCase(mode) && !"slow".equalsIgnoreCase(mode)) {
+			throw new HibernateException(MODE + " must be all, slow or off, not "
+					+ mode);
+		}
+		return new StatementLog("all".equalsIgnoreCase(mode), PropertiesHelper
+				.getInt(SLOW_THRESHOLD, configuration.getProperties(), 100),
+				PropertiesHelper.getInt(BUFFER_SIZE, configuration
+						.getProperties(), 1024));
+	}
+
+	/**
+	 * Starts the writer and logging the factory's statements
+	 */
+	public synchronized void attach(SessionFactory sessionFactory) {
+		ConnectionProvider connectionProvider = ((SessionFactoryImplementor) sessionFactory)
+				.getConnectionProvider();
+		if (connectionProvider instanceof PooledConnectionProvider) {
+			start();
+			provider = (PooledConnectionProvider) connectionProvider;
+			provider.addObserver(this);
+		} else {
+			logger.warn("statements are not logged, the connection provider is not a PooledConnectionProvider");
+		}
+	}
+
+	synchronized void start() {
+		writer = new Thread("sql-log-writer") {
+			public void run() {
+				drain();
+			}
+		};
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Stops logging, the writer finishes what is in the buffer first
+	 */
+	public synchronized void close() {
+		if (provider != null) {
+			provider.removeObserver(this);
+			provider = null;
+		}
+		closed = true;
+		if (writer != null) {
+			LockSupport.unpark(writer);
+			try {
+				writer.join(5000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			writer = null;
+		}
+	}
+
+	public boolean capturesParameters() {
+		return true;
+	}
+
+	public void executed(long connectionId, String sql, Object[] parameters,
+			int parameterCount, long nanos, boolean failed) {
+		boolean slow = nanos >= slowThresholdNanos;
+		if (!logAll && !slow && !failed) {
+			return;
+		}
+		long sequence;
+		do {
+			sequence = claimed.get();
+			if (sequence - drained >= ring.length) {
+				dropped.incrementAndGet();
+				return;
+			}
+		} while (!claimed.compareAndSet(sequence, sequence + 1));
+		ring[(int) sequence & mask].fill(sequence, connectionId, sql,
+				parameters, parameterCount, nanos, slow, failed);
+		Thread idle = idleWriter;
+		if (idle != null) {
+			LockSupport.unpark(idle);
+		}
+	}
+
+	public void rowsRead(String sql, long rows) {
+	}
+
+	public void connectionBorrowed(long waitNanos) {
+	}
+
+	public void connectionReturned(long heldNanos) {
+	}
+
+	/**
+	 * Statements dropped because the buffer was full
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	public long getWrittenCount() {
+		return written.get();
+	}
+
+	/**
+	 * Statements waiting for the writer
+	 */
+	public long getPendingCount() {
+		return claimed.get() - drained;
+	}
+
+	private void drain() {
+		StringBuilder line = new StringBuilder();
+		SimpleDateFormat time = new SimpleDateFormat("HH:mm:ss,SSS");
+		long reportedDrops = 0;
+		long next = drained;
+		while (true) {
+			Record record = ring[(int) next & mask];
+			if (record.sequence != next) {
+				if (closed) {
+					break;
+				}
+				long drops = dropped.get();
+				if (drops > reportedDrops) {
+					logger.warn((drops - reportedDrops)
+							+ " statements were not logged, the buffer of "
+							+ ring.length + " was full");
+					reportedDrops = drops;
+				}
+				// announce the park before looking again, so a producer
+				// publishing after the look sees the writer and wakes it
+				idleWriter = Thread.currentThread();
+				if (record.sequence != next && !closed) {
+					LockSupport.parkNanos(this, IDLE_NANOS);
+				}
+				idleWriter = null;
+				continue;
+			}
+			try {
+				write(record, line, time);
+			} catch (RuntimeException e) {
+				logger.error("cannot log " + record.sql, e);
+			}
+			record.clear();
+			drained = ++next;
+		}
+	}
+
+	private void write(Record record, StringBuilder line, SimpleDateFormat time) {
+		Level level = record.failed || record.slow ? Level.WARN : Level.INFO;
+		if (!sqlLogger.isEnabledFor(level)) {
+			return;
+		}
+		line.setLength(0);
+		line.append(time.format(new Date(record.timestamp))).append(" conn ")
+				.append(record.connectionId).append(' ').append(
+						record.nanos / 1000 / 1000.0).append(" ms");
+		if (record.failed) {
+			line.append(" FAILED");
+		} else if (record.slow) {
+			line.append(" SLOW");
+		}
+		line.append(": ").append(record.sql);
+		if (record.parameterCount > 0) {
+			line.append(" [");
+			int kept = Math.min(record.parameterCount, MAX_PARAMETERS);
+			for (int i = 0; i < kept; i++) {
+				if (i > 0) {
+					line.append(", ");
+				}
+				render(record.parameters[i], line);
+			}
+			if (record.parameterCount > kept) {
+				line.append(", ... ").append(record.parameterCount - kept)
+						.append(" more");
+			}
+			line.append(']');
+		}
+		sqlLogger.log(level, line.toString());
+		written.incrementAndGet();
+	}
+
+	static void render(Object value, StringBuilder line) {
+		if (value instanceof String) {
+			String text = (String) value;
+			if (text.length() > MAX_VALUE_LENGTH) {
+				text = text.substring(0, MAX_VALUE_LENGTH) + "...";
+			}
+			line.append('\'').append(text.replace("'", "''")).append('\'');
+		} else if (value instanceof byte[]) {
+			line.append('<').append(((byte[]) value).length).append(" bytes>");
+		} else if (value instanceof InputStream || value instanceof Reader) {
+			line.append("<stream>");
+		} else {
+			line.append(value);
+		}
+	}
+
+	/**
+	 * A slot of the ring buffer, published by writing its sequence last
+	 */
+	private static class Record {
+		private volatile long sequence = -1;
+		private long timestamp;
+		private long connectionId;
+		private String sql;
+		private final Object[] parameters = new Object[MAX_PARAMETERS];
+		private int parameterCount;
+		private long nanos;
+		private boolean slow;
+		private boolean failed;
+
+		void fill(long sequence, long connectionId, String sql,
+				Object[] parameters, int parameterCount, long nanos,
+				boolean slow, boolean failed) {
+			this.timestamp = System.currentTimeMillis();
+			this.connectionId = connectionId;
+			this.sql = sql;
+			this.parameterCount = parameters == null ? 0 : parameterCount;
+			if (parameters != null) {
+				System.arraycopy(parameters, 0, this.parameters, 0, Math.min(
+						parameterCount, MAX_PARAMETERS));
+			}
+			this.nanos = nanos;
+			this.slow = slow;
+			this.failed = failed;
+			this.sequence = sequence;
+		}
+
+		void clear() {
+			sql = null;
+			for (int i = 0; i < parameterCount && i < MAX_PARAMETERS; i++) {
+				parameters[i] = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package org.integrallis.hibernate.metrics;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.commons.lang.builder.ToStringBuilder;
+
+/**
+ * A lock-free histogram of durations in nanoseconds. Each power of two is
+ * split into 16 linear buckets, so a percentile is off by at most 1/16 of
+ * its value; durations above 2^41 ns (about 36 minutes) share the last
+ * bucket. Recording is a few atomic increments and allocates nothing.
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int MAX_EXPONENT = 40;
+	private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2)
+			* SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		counts.incrementAndGet(index(nanos));
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+		long max = maxNanos.get();
+		while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+			max = maxNanos.get();
+		}
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * The percentiles of what was recorded so far. Recordings running
+	 * concurrently may or may not be included.
+	 */
+	public Snapshot snapshot() {
+		long[] buckets = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets[i] = counts.get(i);
+			total += buckets[i];
+		}
+		long max = maxNanos.get();
+		return new Snapshot(total, total == 0 ? 0 : totalNanos.get() / total,
+				percentile(buckets, total, 0.5, max), percentile(buckets, total,
+						0.99, max), percentile(buckets, total, 0.999, max), max);
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		count.set(0);
+		totalNanos.set(0);
+		maxNanos.set(0);
+	}
+
+	private static long percentile(long[] buckets, long total,
+			double percentile, long max) {
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(percentile * total);
+		long seen = 0;
+		for (int i = 0; i < buckets.length; i++) {
+			seen += buckets[i];
+			if (seen >= rank) {
+				return Math.min(upperBound(i), max);
+			}
+		}
+		return max;
+	}
+
+	static int index(long nanos) {
+		if (nanos < SUB_BUCKETS) {
+			return (int) nanos;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		if (exponent > MAX_EXPONENT) {
+			return BUCKETS - 1;
+		}
+		int shift = exponent - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) (nanos >>> shift) - SUB_BUCKETS;
+	}
+
+	/**
+	 * The largest duration counted in a bucket
+	 */
+	static long upperBound(int index) {
+		int group = index / SUB_BUCKETS;
+		int sub = index % SUB_BUCKETS;
+		if (group == 0) {
+			return sub;
+		}
+		return ((long) (SUB_BUCKETS + sub + 1) << (group - 1)) - 1;
+	}
+
+	/**
+	 * Percentiles of a {@link LatencyHistogram} at one point in time
+	 */
+	public static class Snapshot implements Serializable {
+		private final long count;
+		private final long meanNanos;
+		private final long p50Nanos;
+		private final long p99Nanos;
+		private final long p999Nanos;
+		private final long maxNanos;
+
+		Snapshot(long count, long meanNanos, long p50Nanos, long p99Nanos,
+				long p999Nanos, long maxNanos) {
+			this.count = count;
+			this.meanNanos = meanNanos;
+			this.p50Nanos = p50Nanos;
+			this.p99Nanos = p99Nanos;
+			this.p999Nanos = p999Nanos;
+			this.maxNanos = maxNanos;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getMeanNanos() {
+			return meanNanos;
+		}
+
+		public long getP50Nanos() {
+			return p50Nanos;
+		}
+
+		public long getP99Nanos() {
+			return p99Nanos;
+		}
+
+		public long getP999Nanos() {
+			return p999Nanos;
+		}
+
+		public long getMaxNanos() {
+			return maxNanos;
+		}
+
+		public String toString() {
+			return new ToStringBuilder(this).append("count", count).append(
+					"meanMillis", millis(meanNanos)).append("p50Millis",
+					millis(p50Nanos)).append("p99Millis", millis(p99Nanos))
+					.append("p999Millis", millis(p999Nanos)).append(
+							"maxMillis", millis(maxNanos)).toString();
+		}
+
+		static double millis(long nanos) {
+			return Math.round(nanos / 1000.0) / 1000.0;
+		}
+
+		private static final long serialVersionUID = -3390424012345968853L;
+	}
+}
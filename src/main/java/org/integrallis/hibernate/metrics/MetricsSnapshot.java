@@ -0,0 +1,163 @@
+package org.integrallis.hibernate.metrics;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Everything {@link OrmMetrics} recorded up to one point in time. Queries
+ * are listed by the total time spent in them, most expensive first.
+ */
+public class MetricsSnapshot implements Serializable {
+	private final Date takenAt = new Date();
+	private final List<QuerySnapshot> queries = new ArrayList<QuerySnapshot>();
+	private final Map<String, Long> entityLoads = new TreeMap<String, Long>();
+	private final Map<String, Long> entityFetches = new TreeMap<String, Long>();
+	private final Map<String, Long> collectionFetches = new TreeMap<String, Long>();
+	private final long flushes;
+	private final LatencyHistogram.Snapshot connectionWait;
+	private final LatencyHistogram.Snapshot connectionHold;
+
+	MetricsSnapshot(long flushes, LatencyHistogram.Snapshot connectionWait,
+			LatencyHistogram.Snapshot connectionHold) {
+		this.flushes = flushes;
+		this.connectionWait = connectionWait;
+		this.connectionHold = connectionHold;
+	}
+
+	void addQuery(QueryMetrics query) {
+		queries.add(new QuerySnapshot(query.getName(), query.getFailures(),
+				query.getRows(), query.getLatency()));
+	}
+
+	void sortQueries() {
+		Collections.sort(queries, new Comparator<QuerySnapshot>() {
+			public int compare(QuerySnapshot one, QuerySnapshot other) {
+				long difference = other.getTotalNanos() - one.getTotalNanos();
+				return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+			}
+		});
+	}
+
+	public Date getTakenAt() {
+		return takenAt;
+	}
+
+	public List<QuerySnapshot> getQueries() {
+		return queries;
+	}
+
+	public QuerySnapshot getQuery(String name) {
+		for (QuerySnapshot query : queries) {
+			if (query.getName().equals(name)) {
+				return query;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Entities materialized from a result set or the second-level cache, by
+	 * entity name
+	 */
+	public Map<String, Long> getEntityLoads() {
+		return entityLoads;
+	}
+
+	/**
+	 * Entities looked up by id (get, load or a proxy being initialized), by
+	 * entity name
+	 */
+	public Map<String, Long> getEntityFetches() {
+		return entityFetches;
+	}
+
+	/**
+	 * Lazy collections initialized, by role
+	 */
+	public Map<String, Long> getCollectionFetches() {
+		return collectionFetches;
+	}
+
+	public long getFlushes() {
+		return flushes;
+	}
+
+	public LatencyHistogram.Snapshot getConnectionWait() {
+		return connectionWait;
+	}
+
+	/**
+	 * How long sessions kept their connections
+	 */
+	public LatencyHistogram.Snapshot getConnectionHold() {
+		return connectionHold;
+	}
+
+	public String toString() {
+		StringBuilder text = new StringBuilder("ORM metrics at ").append(takenAt);
+		for (QuerySnapshot query : queries) {
+			text.append("\n  ").append(query);
+		}
+		text.append("\n  entity loads ").append(entityLoads);
+		text.append("\n  entity fetches ").append(entityFetches);
+		text.append("\n  collection fetches ").append(collectionFetches);
+		text.append("\n  flushes ").append(flushes);
+		text.append("\n  connection wait ").append(connectionWait);
+		text.append("\n  connection hold ").append(connectionHold);
+		return text.toString();
+	}
+
+	public static class QuerySnapshot implements Serializable {
+		private final String name;
+		private final long failures;
+		private final long rows;
+		private final LatencyHistogram.Snapshot latency;
+
+		QuerySnapshot(String name, long failures, long rows,
+				LatencyHistogram.Snapshot latency) {
+			this.name = name;
+			this.failures = failures;
+			this.rows = rows;
+			this.latency = latency;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getCalls() {
+			return latency.getCount();
+		}
+
+		public long getFailures() {
+			return failures;
+		}
+
+		public long getRows() {
+			return rows;
+		}
+
+		public LatencyHistogram.Snapshot getLatency() {
+			return latency;
+		}
+
+		long getTotalNanos() {
+			return latency.getMeanNanos() * latency.getCount();
+		}
+
+		public String toString() {
+			return name + ": calls=" + getCalls() + ", failures=" + failures
+					+ ", rows=" + rows + ", latency=" + latency;
+		}
+
+		private static final long serialVersionUID = 5502347925471326095L;
+	}
+
+	private static final long serialVersionUID = -1520993386950183547L;
+}
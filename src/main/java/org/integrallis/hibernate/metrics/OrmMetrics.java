@@ -0,0 +1,356 @@
+package org.integrallis.hibernate.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.connection.ConnectionProvider;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.util.PropertiesHelper;
+import org.integrallis.hibernate.connection.PooledConnectionProvider;
+import org.integrallis.hibernate.connection.StatementObserver;
+
+/**
+ * Per-query latency histograms and ORM counters, meant to be left on in
+ * production. Statements are timed by the {@link PooledConnectionProvider}
+ * and named after the named query they belong to (see {@link QueryNames});
+ * loads, fetches and flushes are counted by an {@link OrmMetricsListener}.
+ * Hibernate 3.3 tells nobody when a session opens or closes, so how long
+ * sessions last is measured as how long they hold their connection.
+ * <p>
+ * Everything is published under the {@value #JMX_DOMAIN} JMX domain and, if
+ * {@value #DUMP_INTERVAL} is set, logged every so many seconds.
+ */
+public class OrmMetrics implements OrmMetricsMBean, StatementObserver {
+	private static Logger logger = Logger.getLogger(OrmMetrics.class);
+
+	public static final String ENABLED = "hibernate.metrics.enabled";
+	public static final String DUMP_INTERVAL = "hibernate.metrics.dump_interval";
+	public static final String JMX_DOMAIN = "org.integrallis.hibernate";
+
+	/**
+	 * Queries beyond this many distinct names are counted as {@link #OTHER}
+	 */
+	static final int MAX_QUERIES = 500;
+	static final String OTHER = "other";
+	private static final int MAX_CACHED_SQL = 5000;
+
+	private final ConcurrentMap<String, QueryMetrics> queriesBySql = new ConcurrentHashMap<String, QueryMetrics>();
+	private final ConcurrentMap<String, QueryMetrics> queries = new ConcurrentHashMap<String, QueryMetrics>();
+	private final ConcurrentMap<String, AtomicLong> entityLoads = new ConcurrentHashMap<String, AtomicLong>();
+	private final ConcurrentMap<String, AtomicLong> entityFetches = new ConcurrentHashMap<String, AtomicLong>();
+	private final ConcurrentMap<String, AtomicLong> collectionFetches = new ConcurrentHashMap<String, AtomicLong>();
+	private final AtomicLong flushes = new AtomicLong();
+	private final LatencyHistogram connectionWait = new LatencyHistogram();
+	private final LatencyHistogram connectionHold = new LatencyHistogram();
+
+	private final long dumpInterval;
+	private volatile QueryNames names = new QueryNames();
+	private PooledConnectionProvider provider;
+	private MBeanServer mbeanServer;
+	private Timer dumper;
+
+	OrmMetrics(long dumpInterval) {
+		this.dumpInterval = dumpInterval;
+	}
+
+	/**
+	 * Registers the listeners with the configuration, returns null if
+	 * {@value #ENABLED} is not true. {@link #attach} once the factory is built.
+	 */
+	public static OrmMetrics configure(Configuration configuration) {
+		if (!PropertiesHelper.getBoolean(ENABLED, configuration.getProperties())) {
+			return null;
+		}
+		OrmMetrics metrics = new OrmMetrics(PropertiesHelper.getInt(
+				DUMP_INTERVAL, configuration.getProperties(), 0) * 1000L);
+		OrmMetricsListener.register(configuration, metrics);
+		return metrics;
+	}
+
+	/**
+	 * Starts timing the factory's statements, publishes the MBeans and
+	 * schedules the dump
+	 */
+	public synchronized void attach(SessionFactory sessionFactory,
+			Configuration configuration) {
+		SessionFactoryImplementor factory = (SessionFactoryImplementor) sessionFactory;
+		names = new QueryNames(configuration, factory);
+		ConnectionProvider connectionProvider = factory.getConnectionProvider();
+		if (connectionProvider instanceof PooledConnectionProvider) {
+			provider = (PooledConnectionProvider) connectionProvider;
+			provider.addObserver(this);
+		} else {
+			logger.warn("statements are not timed, the connection provider is not a PooledConnectionProvider");
+		}
+		mbeanServer = ManagementFactory.getPlatformMBeanServer();
+		register(this, objectName("type=OrmMetrics"));
+		for (QueryMetrics query : queries.values()) {
+			register(query, queryName(query.getName()));
+		}
+		if (dumpInterval > 0) {
+			dumper = new Timer("orm-metrics", true);
+			dumper.schedule(new TimerTask() {
+				public void run() {
+					logger.info(snapshot());
+				}
+			}, dumpInterval, dumpInterval);
+		}
+	}
+
+	/**
+	 * Stops timing, unpublishes the MBeans and cancels the dump
+	 */
+	public synchronized void close() {
+		if (provider != null) {
+			provider.removeObserver(this);
+			provider = null;
+		}
+		if (dumper != null) {
+			dumper.cancel();
+			dumper = null;
+		}
+		if (mbeanServer != null) {
+			unregister(objectName("type=OrmMetrics"));
+			for (String name : queries.keySet()) {
+				unregister(queryName(name));
+			}
+			mbeanServer = null;
+		}
+	}
+
+	public boolean capturesParameters() {
+		return false;
+	}
+
+	public void executed(long connectionId, String sql, Object[] parameters,
+			int parameterCount, long nanos, boolean failed) {
+		query(sql).executed(nanos, failed);
+	}
+
+	public void rowsRead(String sql, long rows) {
+		query(sql).rowsRead(rows);
+	}
+
+	public void connectionBorrowed(long waitNanos) {
+		connectionWait.record(waitNanos);
+	}
+
+	public void connectionReturned(long heldNanos) {
+		connectionHold.record(heldNanos);
+	}
+
+	void entityLoaded(String entityName) {
+		increment(entityLoads, entityName);
+	}
+
+	void entityFetched(String entityName) {
+		increment(entityFetches, entityName);
+	}
+
+	void collectionFetched(String role) {
+		increment(collectionFetches, role);
+	}
+
+	void flushed() {
+		flushes.incrementAndGet();
+	}
+
+	/**
+	 * The metrics of a named or normalized query, null if it never ran
+	 */
+	public QueryMetrics getQuery(String name) {
+		return queries.get(name);
+	}
+
+	public MetricsSnapshot snapshot() {
+		MetricsSnapshot snapshot = new MetricsSnapshot(flushes.get(),
+				connectionWait.snapshot(), connectionHold.snapshot());
+		for (QueryMetrics query : queries.values()) {
+			if (query.getCalls() > 0) {
+				snapshot.addQuery(query);
+			}
+		}
+		snapshot.sortQueries();
+		copy(entityLoads, snapshot.getEntityLoads());
+		copy(entityFetches, snapshot.getEntityFetches());
+		copy(collectionFetches, snapshot.getCollectionFetches());
+		return snapshot;
+	}
+
+	public String dump() {
+		return snapshot().toString();
+	}
+
+	public void reset() {
+		for (QueryMetrics query : queries.values()) {
+			query.reset();
+		}
+		entityLoads.clear();
+		entityFetches.clear();
+		collectionFetches.clear();
+		flushes.set(0);
+		connectionWait.reset();
+		connectionHold.reset();
+	}
+
+	public long getStatementCount() {
+		long count = 0;
+		for (QueryMetrics query : queries.values()) {
+			count += query.getCalls();
+		}
+		return count;
+	}
+
+	public int getQueryCount() {
+		return queries.size();
+	}
+
+	public long getEntityLoadCount() {
+		return sum(entityLoads);
+	}
+
+	public long getEntityFetchCount() {
+		return sum(entityFetches);
+	}
+
+	public long getCollectionFetchCount() {
+		return sum(collectionFetches);
+	}
+
+	public long getFlushCount() {
+		return flushes.get();
+	}
+
+	public double getConnectionWaitP50Millis() {
+		return LatencyHistogram.Snapshot.millis(connectionWait.snapshot().getP50Nanos());
+	}
+
+	public double getConnectionWaitP99Millis() {
+		return LatencyHistogram.Snapshot.millis(connectionWait.snapshot().getP99Nanos());
+	}
+
+	public double getConnectionWaitMaxMillis() {
+		return LatencyHistogram.Snapshot.millis(connectionWait.snapshot().getMaxNanos());
+	}
+
+	public double getConnectionHoldP50Millis() {
+		return LatencyHistogram.Snapshot.millis(connectionHold.snapshot().getP50Nanos());
+	}
+
+	public double getConnectionHoldP99Millis() {
+		return LatencyHistogram.Snapshot.millis(connectionHold.snapshot().getP99Nanos());
+	}
+
+	public double getConnectionHoldMaxMillis() {
+		return LatencyHistogram.Snapshot.millis(connectionHold.snapshot().getMaxNanos());
+	}
+
+	/**
+	 * Names the SQL once; afterwards a statement costs a map lookup and a few
+	 * atomic increments
+	 */
+	private QueryMetrics query(String sql) {
+		QueryMetrics query = queriesBySql.get(sql);
+		if (query == null) {
+			String name = names.name(sql);
+			query = queries.get(name);
+			if (query == null) {
+				if (queries.size() >= MAX_QUERIES) {
+					name = OTHER;
+				}
+				QueryMetrics created = new QueryMetrics(name);
+				query = queries.putIfAbsent(name, created);
+				if (query == null) {
+					query = created;
+					publish(query);
+				}
+			}
+			if (queriesBySql.size() < MAX_CACHED_SQL) {
+				queriesBySql.put(sql, query);
+			}
+		}
+		return query;
+	}
+
+	private synchronized void publish(QueryMetrics query) {
+		if (mbeanServer != null) {
+			register(query, queryName(query.getName()));
+		}
+	}
+
+	private void register(Object mbean, ObjectName name) {
+		try {
+			if (mbeanServer.isRegistered(name)) {
+				mbeanServer.unregisterMBean(name);
+			}
+			mbeanServer.registerMBean(mbean, name);
+		} catch (JMException e) {
+			logger.warn("cannot register " + name, e);
+		}
+	}
+
+	private void unregister(ObjectName name) {
+		try {
+			if (mbeanServer.isRegistered(name)) {
+				mbeanServer.unregisterMBean(name);
+			}
+		} catch (JMException e) {
+			logger.warn("cannot unregister " + name, e);
+		}
+	}
+
+	static ObjectName queryName(String name) {
+		return objectName("type=Query,name=" + ObjectName.quote(name));
+	}
+
+	static ObjectName objectName(String properties) {
+		try {
+			return new ObjectName(JMX_DOMAIN + ":" + properties);
+		} catch (JMException e) {
+			throw new IllegalArgumentException(properties, e);
+		}
+	}
+
+	private static void increment(ConcurrentMap<String, AtomicLong> counters,
+			String name) {
+		AtomicLong counter = counters.get(name);
+		if (counter == null) {
+			AtomicLong created = new AtomicLong();
+			counter = counters.putIfAbsent(name, created);
+			if (counter == null) {
+				counter = created;
+			}
+		}
+		counter.incrementAndGet();
+	}
+
+	private static long sum(Map<String, AtomicLong> counters) {
+		long sum = 0;
+		for (AtomicLong counter : counters.values()) {
+			sum += counter.get();
+		}
+		return sum;
+	}
+
+	private static void copy(Map<String, AtomicLong> counters,
+			Map<String, Long> snapshot) {
+		for (Iterator<Map.Entry<String, AtomicLong>> entries = counters
+				.entrySet().iterator(); entries.hasNext();) {
+			Map.Entry<String, AtomicLong> entry = entries.next();
+			snapshot.put(entry.getKey(), Long.valueOf(entry.getValue().get()));
+		}
+	}
+}
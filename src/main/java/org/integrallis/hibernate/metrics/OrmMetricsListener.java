@@ -0,0 +1,68 @@
+package org.integrallis.hibernate.metrics;
+
+import org.hibernate.HibernateException;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.event.EventListeners;
+import org.hibernate.event.FlushEvent;
+import org.hibernate.event.FlushEventListener;
+import org.hibernate.event.InitializeCollectionEvent;
+import org.hibernate.event.InitializeCollectionEventListener;
+import org.hibernate.event.LoadEvent;
+import org.hibernate.event.LoadEventListener;
+import org.hibernate.event.PostLoadEvent;
+import org.hibernate.event.PostLoadEventListener;
+import org.integrallis.hibernate.event.Listeners;
+
+/**
+ * Counts entity loads, fetches by id, collection fetches and flushes for
+ * {@link OrmMetrics}. Appended after Hibernate's own listeners, so it only
+ * counts and never changes what they do.
+ */
+class OrmMetricsListener implements PostLoadEventListener, LoadEventListener,
+		InitializeCollectionEventListener, FlushEventListener {
+	private final OrmMetrics metrics;
+
+	private OrmMetricsListener(OrmMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	static void register(Configuration configuration, OrmMetrics metrics) {
+		OrmMetricsListener listener = new OrmMetricsListener(metrics);
+		EventListeners listeners = configuration.getEventListeners();
+		listeners.setPostLoadEventListeners(Listeners.append(listeners
+				.getPostLoadEventListeners(), listener,
+				new PostLoadEventListener[0]));
+		listeners.setLoadEventListeners(Listeners.append(listeners.getLoadEventListeners(),
+				listener, new LoadEventListener[0]));
+		listeners.setInitializeCollectionEventListeners(Listeners.append(listeners
+				.getInitializeCollectionEventListeners(), listener,
+				new InitializeCollectionEventListener[0]));
+		listeners.setFlushEventListeners(Listeners.append(listeners
+				.getFlushEventListeners(), listener, new FlushEventListener[0]));
+	}
+
+	public void onPostLoad(PostLoadEvent event) {
+		metrics.entityLoaded(event.getPersister() != null ? event.getPersister()
+				.getEntityName() : event.getEntity().getClass().getName());
+	}
+
+	public void onLoad(LoadEvent event, LoadType loadType)
+			throws HibernateException {
+		// a LOAD of a lazy class hands out a proxy, counted as an IMMEDIATE_LOAD
+		// once it is initialized
+		if (loadType == GET || loadType == IMMEDIATE_LOAD || loadType == LOAD
+				&& !event.getSession().getFactory().getEntityPersister(
+						event.getEntityClassName()).hasProxy()) {
+			metrics.entityFetched(event.getEntityClassName());
+		}
+	}
+
+	public void onInitializeCollection(InitializeCollectionEvent event)
+			throws HibernateException {
+		metrics.collectionFetched(event.getCollection().getRole());
+	}
+
+	public void onFlush(FlushEvent event) throws HibernateException {
+		metrics.flushed();
+	}
+}
@@ -0,0 +1,39 @@
+package org.integrallis.hibernate.metrics;
+
+/**
+ * JMX view of {@link OrmMetrics}. Each query has its own
+ * {@link QueryMetricsMBean} next to this one.
+ */
+public interface OrmMetricsMBean {
+
+	long getStatementCount();
+
+	int getQueryCount();
+
+	long getEntityLoadCount();
+
+	long getEntityFetchCount();
+
+	long getCollectionFetchCount();
+
+	long getFlushCount();
+
+	double getConnectionWaitP50Millis();
+
+	double getConnectionWaitP99Millis();
+
+	double getConnectionWaitMaxMillis();
+
+	double getConnectionHoldP50Millis();
+
+	double getConnectionHoldP99Millis();
+
+	double getConnectionHoldMaxMillis();
+
+	/**
+	 * The current snapshot as text
+	 */
+	String dump();
+
+	void reset();
+}
@@ -0,0 +1,80 @@
+package org.integrallis.hibernate.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Calls, failures, rows read and execution latency of one named or
+ * normalized query
+ */
+public class QueryMetrics implements QueryMetricsMBean {
+	private final String name;
+	private final AtomicLong failures = new AtomicLong();
+	private final AtomicLong rows = new AtomicLong();
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	QueryMetrics(String name) {
+		this.name = name;
+	}
+
+	void executed(long nanos, boolean failed) {
+		latency.record(nanos);
+		if (failed) {
+			failures.incrementAndGet();
+		}
+	}
+
+	void rowsRead(long count) {
+		rows.addAndGet(count);
+	}
+
+	void reset() {
+		failures.set(0);
+		rows.set(0);
+		latency.reset();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getCalls() {
+		return latency.getCount();
+	}
+
+	public long getFailures() {
+		return failures.get();
+	}
+
+	public long getRows() {
+		return rows.get();
+	}
+
+	public LatencyHistogram.Snapshot getLatency() {
+		return latency.snapshot();
+	}
+
+	public double getMeanMillis() {
+		return LatencyHistogram.Snapshot.millis(getLatency().getMeanNanos());
+	}
+
+	public double getP50Millis() {
+		return LatencyHistogram.Snapshot.millis(getLatency().getP50Nanos());
+	}
+
+	public double getP99Millis() {
+		return LatencyHistogram.Snapshot.millis(getLatency().getP99Nanos());
+	}
+
+	public double getP999Millis() {
+		return LatencyHistogram.Snapshot.millis(getLatency().getP999Nanos());
+	}
+
+	public double getMaxMillis() {
+		return LatencyHistogram.Snapshot.millis(getLatency().getMaxNanos());
+	}
+
+	public String toString() {
+		return name + ": calls=" + getCalls() + ", failures=" + getFailures()
+				+ ", rows=" + getRows() + ", latency=" + getLatency();
+	}
+}
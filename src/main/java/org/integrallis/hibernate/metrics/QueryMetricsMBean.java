@@ -0,0 +1,25 @@
+package org.integrallis.hibernate.metrics;
+
+/**
+ * JMX view of the {@link QueryMetrics} of one query
+ */
+public interface QueryMetricsMBean {
+
+	String getName();
+
+	long getCalls();
+
+	long getFailures();
+
+	long getRows();
+
+	double getMeanMillis();
+
+	double getP50Millis();
+
+	double getP99Millis();
+
+	double getP999Millis();
+
+	double getMaxMillis();
+}
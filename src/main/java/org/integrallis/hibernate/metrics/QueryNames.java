@@ -0,0 +1,82 @@
+package org.integrallis.hibernate.metrics;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.hibernate.HibernateException;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.engine.NamedQueryDefinition;
+import org.hibernate.engine.NamedSQLQueryDefinition;
+import org.hibernate.engine.SessionFactoryImplementor;
+
+/**
+ * Names the SQL seen by the JDBC layer: the SQL of every named query (HQL
+ * or native) is worked out up front and labelled with the query's name.
+ * Anything else is labelled "criteria:" (Criteria queries alias their root
+ * this_) or "sql:" followed by the SQL with its literals and IN lists
+ * collapsed, so that variants of a statement share one label.
+ */
+class QueryNames {
+	private static Logger logger = Logger.getLogger(QueryNames.class);
+
+	private static final int MAX_LABEL_LENGTH = 200;
+	private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+	private static final Pattern PARAMETER = Pattern.compile(":\\w+");
+	private static final Pattern STRING_LITERAL = Pattern.compile("'([^']|'')*'");
+	private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+(\\.\\d+)?\\b");
+	private static final Pattern IN_LIST = Pattern.compile("\\(\\s*\\?(\\s*,\\s*\\?)*\\s*\\)");
+
+	private final Map<String, String> names = new HashMap<String, String>();
+
+	QueryNames() {
+	}
+
+	@SuppressWarnings("unchecked")
+	QueryNames(Configuration configuration, SessionFactoryImplementor factory) {
+		for (Iterator<Map.Entry<String, NamedQueryDefinition>> queries = configuration
+				.getNamedQueries().entrySet().iterator(); queries.hasNext();) {
+			Map.Entry<String, NamedQueryDefinition> query = queries.next();
+			try {
+				String[] sql = factory.getQueryPlanCache().getHQLQueryPlan(
+						query.getValue().getQueryString(), false,
+						Collections.EMPTY_MAP).getSqlStrings();
+				for (int i = 0; i < sql.length; i++) {
+					names.put(normalize(sql[i]), query.getKey());
+				}
+			} catch (HibernateException e) {
+				logger.debug("cannot name the SQL of " + query.getKey(), e);
+			}
+		}
+		for (Iterator<Map.Entry<String, NamedSQLQueryDefinition>> queries = configuration
+				.getNamedSQLQueries().entrySet().iterator(); queries.hasNext();) {
+			Map.Entry<String, NamedSQLQueryDefinition> query = queries.next();
+			names.put(normalize(PARAMETER.matcher(
+					query.getValue().getQueryString()).replaceAll("?")), query
+					.getKey());
+		}
+	}
+
+	String name(String sql) {
+		String normalized = normalize(sql);
+		String name = names.get(normalized);
+		if (name != null) {
+			return name;
+		}
+		String label = STRING_LITERAL.matcher(normalized).replaceAll("?");
+		label = NUMBER_LITERAL.matcher(label).replaceAll("?");
+		label = IN_LIST.matcher(label).replaceAll("(?)");
+		label = (normalized.indexOf(" this_") >= 0 ? "criteria: " : "sql: ")
+				+ label;
+		return label.length() > MAX_LABEL_LENGTH ? label.substring(0,
+				MAX_LABEL_LENGTH)
+				+ "..." : label;
+	}
+
+	static String normalize(String sql) {
+		return WHITESPACE.matcher(sql.trim()).replaceAll(" ").toLowerCase();
+	}
+}
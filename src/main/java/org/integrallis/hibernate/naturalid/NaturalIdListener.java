@@ -0,0 +1,49 @@
+package org.integrallis.hibernate.naturalid;
+
+import org.hibernate.cfg.Configuration;
+import org.hibernate.event.EventListeners;
+import org.hibernate.event.PostDeleteEvent;
+import org.hibernate.event.PostDeleteEventListener;
+import org.hibernate.event.PostUpdateEvent;
+import org.hibernate.event.PostUpdateEventListener;
+import org.integrallis.hibernate.event.Listeners;
+
+/**
+ * Evicts the cached id of an entity whose natural id changed or which was
+ * deleted from its {@link NaturalIdLookup}
+ */
+class NaturalIdListener implements PostUpdateEventListener,
+		PostDeleteEventListener {
+	private final NaturalIdLookup lookup;
+
+	private NaturalIdListener(NaturalIdLookup lookup) {
+		this.lookup = lookup;
+	}
+
+	static void register(Configuration configuration, NaturalIdLookup lookup) {
+		NaturalIdListener listener = new NaturalIdListener(lookup);
+		EventListeners listeners = configuration.getEventListeners();
+		listeners.setPostUpdateEventListeners(Listeners.append(listeners
+				.getPostUpdateEventListeners(), listener,
+				new PostUpdateEventListener[0]));
+		listeners.setPostDeleteEventListeners(Listeners.append(listeners
+				.getPostDeleteEventListeners(), listener,
+				new PostDeleteEventListener[0]));
+	}
+
+	public void onPostUpdate(PostUpdateEvent event) {
+		int index = lookup.naturalIdIndex(event.getPersister());
+		Object[] oldState = event.getOldState();
+		if (index >= 0 && oldState != null) {
+			Object oldNaturalId = oldState[index];
+			if (oldNaturalId != null
+					&& !oldNaturalId.equals(event.getState()[index])) {
+				lookup.evict(event.getPersister(), oldState);
+			}
+		}
+	}
+
+	public void onPostDelete(PostDeleteEvent event) {
+		lookup.evict(event.getPersister(), event.getDeletedState());
+	}
+}
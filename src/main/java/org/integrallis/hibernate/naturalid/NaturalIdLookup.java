@@ -0,0 +1,167 @@
+package org.integrallis.hibernate.naturalid;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.hibernate.EntityMode;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.criterion.Restrictions;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.util.PropertiesHelper;
+import org.integrallis.hibernate.cache.BoundedCache;
+
+/**
+ * Loads entities by their natural id (a single property &lt;natural-id&gt;
+ * such as Book.isbn or Store.nickName) through a natural id to primary key
+ * cache. A warm lookup is a cache hit followed by Session.get, which the
+ * second-level cache or the session answers without JDBC.
+ * <p>
+ * Entries are evicted when the natural id of an entity changes or the entity
+ * is deleted. Changes that bypass the session (bulk HQL, JDBC) are caught on
+ * the next lookup: an entry whose entity is gone or now has another natural id
+ * is dropped and the database queried.
+ * <p>
+ * Each entity keeps at most hibernate.naturalid.max_entries (default 10000)
+ * ids, in a {@link BoundedCache}.
+ */
+public class NaturalIdLookup {
+	public static final String MAX_ENTRIES = "hibernate.naturalid.max_entries";
+
+	private final int maxEntries;
+	// by root entity name, filled by attach
+	private final Map<String, Region> regions = new HashMap<String, Region>();
+	private SessionFactoryImplementor factory;
+
+	NaturalIdLookup(int maxEntries) {
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * Registers the listener that evicts changed natural ids. {@link #attach}
+	 * once the factory is built.
+	 */
+	public static NaturalIdLookup configure(Configuration configuration) {
+		NaturalIdLookup lookup = new NaturalIdLookup(PropertiesHelper.getInt(
+				MAX_ENTRIES, configuration.getProperties(), 10000));
+		NaturalIdListener.register(configuration, lookup);
+		return lookup;
+	}
+
+	@SuppressWarnings("unchecked")
+	public synchronized void attach(SessionFactory sessionFactory) {
+		factory = (SessionFactoryImplementor) sessionFactory;
+		for (String entityName : (Iterable<String>) factory.getAllClassMetadata()
+				.keySet()) {
+			EntityPersister persister = factory.getEntityPersister(entityName);
+			if (entityName.equals(persister.getRootEntityName())
+					&& persister.hasNaturalIdentifier()
+					&& persister.getNaturalIdentifierProperties().length == 1) {
+				regions.put(entityName, new Region(persister, maxEntries));
+			}
+		}
+	}
+
+	/**
+	 * Returns the entity of the class with the natural id, or null if there is
+	 * none
+	 * 
+	 * @throws HibernateException
+	 *             if the class has no single property natural id
+	 */
+	public <T> T load(Session session, Class<T> entityClass, Object naturalId) {
+		Region region = region(entityClass);
+		Serializable id = (Serializable) region.ids.get(naturalId);
+		if (id != null) {
+			Object entity = session.get(region.entityName, id);
+			if (entity != null && naturalId.equals(region.naturalIdOf(entity))) {
+				return entityClass.isInstance(entity) ? entityClass.cast(entity)
+						: null;
+			}
+			region.ids.remove(naturalId);
+		}
+		Object entity = session.createCriteria(region.entityName).add(
+				Restrictions.naturalId().set(region.propertyName, naturalId))
+				.uniqueResult();
+		if (entity == null) {
+			return null;
+		}
+		region.ids.put(naturalId, session.getIdentifier(entity));
+		return entityClass.isInstance(entity) ? entityClass.cast(entity) : null;
+	}
+
+	/**
+	 * Forgets every cached id of the class (and its subclasses)
+	 */
+	public void evictAll(Class<?> entityClass) {
+		region(entityClass).ids.clear();
+	}
+
+	public long getHitCount(Class<?> entityClass) {
+		return region(entityClass).ids.getHitCount();
+	}
+
+	public long getMissCount(Class<?> entityClass) {
+		return region(entityClass).ids.getMissCount();
+	}
+
+	/**
+	 * Called by the listener with the previous natural id of a changed or
+	 * deleted entity
+	 */
+	void evict(EntityPersister persister, Object[] state) {
+		Region region = regions.get(persister.getRootEntityName());
+		if (region != null && state != null) {
+			Object naturalId = state[region.propertyIndex];
+			if (naturalId != null) {
+				region.ids.remove(naturalId);
+			}
+		}
+	}
+
+	/**
+	 * The index of the natural id in the entity's state, -1 if it has none
+	 */
+	int naturalIdIndex(EntityPersister persister) {
+		Region region = regions.get(persister.getRootEntityName());
+		return region == null ? -1 : region.propertyIndex;
+	}
+
+	private Region region(Class<?> entityClass) {
+		if (factory == null) {
+			throw new IllegalStateException("not attached to a session factory");
+		}
+		Region region = regions.get(factory.getEntityPersister(
+				entityClass.getName()).getRootEntityName());
+		if (region == null) {
+			throw new HibernateException(entityClass.getName()
+					+ " has no single property natural-id");
+		}
+		return region;
+	}
+
+	private static class Region {
+		private final String entityName;
+		private final EntityPersister persister;
+		private final int propertyIndex;
+		private final String propertyName;
+		private final BoundedCache ids;
+
+		Region(EntityPersister persister, int maxEntries) {
+			this.entityName = persister.getEntityName();
+			this.persister = persister;
+			this.propertyIndex = persister.getNaturalIdentifierProperties()[0];
+			this.propertyName = persister.getPropertyNames()[propertyIndex];
+			this.ids = new BoundedCache(entityName + "#naturalId", maxEntries);
+		}
+
+		Object naturalIdOf(Object entity) {
+			return persister.getPropertyValue(entity, propertyIndex,
+					EntityMode.POJO);
+		}
+	}
+}
@@ -0,0 +1,341 @@
+package org.integrallis.hibernate.paging;
+
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.hibernate.EntityMode;
+import org.hibernate.HibernateException;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.transform.ResultTransformer;
+import org.hibernate.type.CustomType;
+import org.hibernate.type.Type;
+
+/**
+ * Keyset (seek) pagination: instead of skipping the rows of the earlier
+ * pages with setFirstResult, which the database still reads and discards,
+ * each page starts after the sort key of the last row of the previous one.
+ * With an index on (property, id) every page costs the same however deep it
+ * is.
+ *
+ * Listings are ordered by one of the properties the pager was created with,
+ * ties broken by id in the same direction. The position is handed to the
+ * client as an opaque token. Filters enabled on the session (such as
+ * publishedBetweenFilter) apply to every page. Null values are expected to
+ * sort high, as Derby sorts them. Strings, dates and numbers go into the
+ * token as they are; a property of a custom type goes in as the string form
+ * of its EnhancedUserType.
+ *
+ * A pager can also list rows projected from the entity rather than the
+ * entities, see {@link #KeysetPager(Class, String, ResultTransformer, String...)}.
+ * Its tokens are those of the entity listings, so either pager continues
+ * the other's listing.
+ */
+public class KeysetPager<T> {
+	private static final String ID = "id";
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final Class<?> entityClass;
+	private final String select;
+	private final ResultTransformer transformer;
+	private final Set<String> orderings;
+
+	/**
+	 * @param orderings the properties listings may be ordered by
+	 */
+	public KeysetPager(Class<T> entityClass, String... orderings) {
+		this(entityClass, null, null, orderings);
+	}
+
+	/**
+	 * Lists rows of the entity's columns instead of the entities. Subclasses
+	 * read the sort key from a row with {@link #valueOf} and {@link #idOf}.
+	 * 
+	 * @param select
+	 *            the HQL select clause, over the entity aliased e
+	 * @param transformer
+	 *            turns a selected tuple into a row
+	 */
+	protected KeysetPager(Class<?> entityClass, String select,
+			ResultTransformer transformer, String... orderings) {
+		this.entityClass = entityClass;
+		this.select = select;
+		this.transformer = transformer;
+		this.orderings = new HashSet<String>(Arrays.asList(orderings));
+	}
+
+	public Set<String> getOrderings() {
+		return orderings;
+	}
+
+	/**
+	 * The first page of a listing
+	 */
+	public Page<T> first(Session session, String orderBy, boolean descending,
+			int size) {
+		if (!orderings.contains(orderBy)) {
+			throw new IllegalArgumentException(entityClass.getSimpleName()
+					+ " listings cannot be ordered by " + orderBy + ", only by "
+					+ orderings);
+		}
+		return page(session, new Position(entityClass.getName(), orderBy,
+				descending, null, null), size);
+	}
+
+	/**
+	 * The page after the one the token came with
+	 */
+	public Page<T> next(Session session, String token, int size) {
+		Position after = decode(token, (SessionFactoryImplementor) session
+				.getSessionFactory());
+		if (!after.entityName.equals(entityClass.getName())
+				|| !orderings.contains(after.orderBy)) {
+			throw new IllegalArgumentException("not a " + entityClass.getSimpleName()
+					+ " page token: " + token);
+		}
+		return page(session, after, size);
+	}
+
+	@SuppressWarnings("unchecked")
+	private Page<T> page(Session session, Position after, int size) {
+		if (size < 1) {
+			throw new IllegalArgumentException("pages need at least one item");
+		}
+		ClassMetadata metadata = session.getSessionFactory().getClassMetadata(
+				entityClass);
+		String property = "e." + after.orderBy;
+		String direction = after.descending ? " DESC" : " ASC";
+		StringBuilder orderBy = new StringBuilder(" ORDER BY ");
+		if (!ID.equals(after.orderBy)) {
+			orderBy.append(property).append(direction).append(", ");
+		}
+		orderBy.append("e.id").append(direction);
+
+		// one more tells whether there is a next page
+		List<T> items = new ArrayList<T>();
+		for (String condition : conditions(after, property)) {
+			StringBuilder hql = new StringBuilder();
+			if (select != null) {
+				hql.append(select).append(' ');
+			}
+			hql.append("FROM ").append(entityClass.getName()).append(" e");
+			if (condition.length() > 0) {
+				hql.append(" WHERE ").append(condition);
+			}
+			Query query = session.createQuery(hql.append(orderBy).toString());
+			if (transformer != null) {
+				query.setResultTransformer(transformer);
+			}
+			if (condition.indexOf(":id") >= 0) {
+				query.setLong("id", after.id.longValue());
+			}
+			if (condition.indexOf(":value") >= 0) {
+				query.setParameter("value", after.value, metadata
+						.getPropertyType(after.orderBy));
+			}
+			items.addAll(query.setMaxResults(size + 1 - items.size()).list());
+			if (items.size() > size) {
+				break;
+			}
+		}
+		if (items.size() <= size) {
+			return new Page<T>(items, null);
+		}
+		items = new ArrayList<T>(items.subList(0, size));
+		T last = items.get(size - 1);
+		Object value = ID.equals(after.orderBy) ? null : valueOf(last,
+				after.orderBy, metadata);
+		Long id = idOf(last, metadata);
+		return new Page<T>(items, encode(new Position(after.entityName,
+				after.orderBy, after.descending, value, id), metadata
+				.getPropertyType(after.orderBy), (SessionFactoryImplementor) session
+				.getSessionFactory()));
+	}
+
+	/**
+	 * The value of the property an item is ordered by
+	 */
+	protected Object valueOf(T item, String property, ClassMetadata metadata) {
+		return metadata.getPropertyValue(item, property, EntityMode.POJO);
+	}
+
+	/**
+	 * The id of an item
+	 */
+	protected Long idOf(T item, ClassMetadata metadata) {
+		return (Long) metadata.getIdentifier(item, EntityMode.POJO);
+	}
+
+	/**
+	 * The predicates of the rows after a position, each to be listed in full
+	 * before the next. Every non-null bound is a range on the leading column
+	 * of the (property, id) index, so the scan starts at the position however
+	 * deep it is; the nulls, which sort high, are a segment of their own rather
+	 * than a disjunct that would make the database read the whole index.
+	 */
+	private static List<String> conditions(Position after, String property) {
+		if (after.id == null) {
+			return Collections.singletonList("");
+		}
+		if (ID.equals(after.orderBy)) {
+			return Collections.singletonList(after.descending ? "e.id < :id"
+					: "e.id > :id");
+		}
+		String nulls = property + " IS NULL";
+		if (after.value == null) {
+			// within the nulls, last going up and first going down
+			return after.descending ? Arrays.asList(nulls + " AND e.id < :id",
+					property + " IS NOT NULL") : Collections.singletonList(nulls
+					+ " AND e.id > :id");
+		}
+		if (after.descending) {
+			return Collections.singletonList(property + " <= :value AND ("
+					+ property + " < :value OR e.id < :id)");
+		}
+		return Arrays.asList(property + " >= :value AND (" + property
+				+ " > :value OR e.id > :id)", nulls);
+	}
+
+	private static String encode(Position position, Type type,
+			SessionFactoryImplementor factory) {
+		StringBuilder token = new StringBuilder().append(position.entityName)
+				.append('|').append(position.orderBy).append('|').append(
+						position.descending ? 'd' : 'a').append('|').append(
+						position.id).append('|');
+		Object value = position.value;
+		if (value == null) {
+			token.append('n');
+		} else if (value instanceof String) {
+			token.append('s').append(value);
+		} else if (value instanceof Date) {
+			token.append('t').append(((Date) value).getTime());
+		} else if (value instanceof Double) {
+			token.append('d').append(value);
+		} else if (value instanceof BigDecimal) {
+			token.append('b').append(value);
+		} else if (value instanceof Long) {
+			token.append('l').append(value);
+		} else if (value instanceof Integer) {
+			token.append('i').append(value);
+		} else if (type instanceof CustomType) {
+			String string = ((CustomType) type).toXMLString(value, factory);
+			try {
+				// only an EnhancedUserType reads its string form back
+				((CustomType) type).fromXMLString(string, factory);
+			} catch (ClassCastException e) {
+				throw new HibernateException("cannot page on values of "
+						+ type.getName() + ", it is not an EnhancedUserType");
+			}
+			token.append('x').append(string);
+		} else {
+			throw new HibernateException("cannot page on values of "
+					+ value.getClass());
+		}
+		try {
+			byte[] bytes = token.toString().getBytes("UTF-8");
+			char[] hex = new char[bytes.length * 2];
+			for (int i = 0; i < bytes.length; i++) {
+				hex[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+				hex[2 * i + 1] = HEX[bytes[i] & 0xf];
+			}
+			return new String(hex);
+		} catch (UnsupportedEncodingException e) {
+			throw new HibernateException(e);
+		}
+	}
+
+	private static Position decode(String token,
+			SessionFactoryImplementor factory) {
+		try {
+			if (token == null || token.length() % 2 != 0) {
+				throw new IllegalArgumentException();
+			}
+			byte[] bytes = new byte[token.length() / 2];
+			for (int i = 0; i < bytes.length; i++) {
+				bytes[i] = (byte) Integer.parseInt(token.substring(2 * i, 2 * i + 2), 16);
+			}
+			String[] parts = new String(bytes, "UTF-8").split("\\|", 5);
+			if (parts.length != 5 || parts[4].length() == 0) {
+				throw new IllegalArgumentException();
+			}
+			String value = parts[4].substring(1);
+			Object decoded;
+			switch (parts[4].charAt(0)) {
+			case 'n':
+				decoded = null;
+				break;
+			case 's':
+				decoded = value;
+				break;
+			case 't':
+				decoded = new Date(Long.parseLong(value));
+				break;
+			case 'd':
+				decoded = Double.valueOf(value);
+				break;
+			case 'b':
+				decoded = new BigDecimal(value);
+				break;
+			case 'x':
+				decoded = customValue(factory, parts[0], parts[1], value);
+				break;
+			case 'l':
+				decoded = Long.valueOf(value);
+				break;
+			case 'i':
+				decoded = Integer.valueOf(value);
+				break;
+			default:
+				throw new IllegalArgumentException();
+			}
+			return new Position(parts[0], parts[1], "d".equals(parts[2]), decoded,
+					Long.valueOf(parts[3]));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("not a page token: " + token);
+		} catch (UnsupportedEncodingException e) {
+			throw new HibernateException(e);
+		}
+	}
+
+	private static Object customValue(SessionFactoryImplementor factory,
+			String entityName, String property, String value) {
+		ClassMetadata metadata = factory.getClassMetadata(entityName);
+		if (metadata == null
+				|| !Arrays.asList(metadata.getPropertyNames()).contains(property)
+				|| !(metadata.getPropertyType(property) instanceof CustomType)) {
+			throw new IllegalArgumentException();
+		}
+		return ((CustomType) metadata.getPropertyType(property)).fromXMLString(
+				value, factory);
+	}
+
+	/**
+	 * Where a listing stands: the sort key of the last item seen, or nothing
+	 * before the first page
+	 */
+	private static class Position {
+		final String entityName;
+		final String orderBy;
+		final boolean descending;
+		final Object value;
+		final Long id;
+
+		Position(String entityName, String orderBy, boolean descending,
+				Object value, Long id) {
+			this.entityName = entityName;
+			this.orderBy = orderBy;
+			this.descending = descending;
+			this.value = value;
+			this.id = id;
+		}
+	}
+}
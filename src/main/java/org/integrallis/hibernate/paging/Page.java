@@ -0,0 +1,39 @@
+package org.integrallis.hibernate.paging;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang.builder.ToStringBuilder;
+
+/**
+ * A page of a {@link KeysetPager} listing and the token continuing it
+ */
+public class Page<T> {
+	private final List<T> items;
+	private final String nextToken;
+
+	Page(List<T> items, String nextToken) {
+		this.items = Collections.unmodifiableList(items);
+		this.nextToken = nextToken;
+	}
+
+	public List<T> getItems() {
+		return items;
+	}
+
+	/**
+	 * Opaque token for {@link KeysetPager#next}, null on the last page
+	 */
+	public String getNextToken() {
+		return nextToken;
+	}
+
+	public boolean hasNext() {
+		return nextToken != null;
+	}
+
+	public String toString() {
+		return new ToStringBuilder(this).append("items", items.size()).append(
+				"nextToken", nextToken).toString();
+	}
+}
@@ -0,0 +1,10 @@
+package org.integrallis.hibernate.retry;
+
+/**
+ * A change of one entity, applied again to a freshly loaded copy after a
+ * version conflict, see {@link OptimisticRetryExecutor#update}
+ */
+public interface Mutation<T> {
+
+	void apply(T entity);
+}
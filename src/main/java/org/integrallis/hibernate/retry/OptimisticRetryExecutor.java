@@ -0,0 +1,294 @@
+package org.integrallis.hibernate.retry;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.builder.EqualsBuilder;
+import org.apache.commons.lang.builder.HashCodeBuilder;
+import org.apache.log4j.Logger;
+import org.hibernate.HibernateException;
+import org.hibernate.ObjectNotFoundException;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.StaleObjectStateException;
+import org.hibernate.StaleStateException;
+import org.hibernate.Transaction;
+
+/**
+ * Runs units of work against versioned entities and, when one loses a
+ * version conflict, runs it again in a new session so it sees the winner's
+ * changes. Attempts are bounded and separated by a random backoff of up to
+ * baseBackoff * 2^(attempt - 1) ms (at most maxBackoff), so that writers
+ * colliding on a row do not collide again in lockstep. Once out of attempts
+ * the last conflict is thrown.
+ * <p>
+ * Conflicts are counted per row to find the hot ones. With
+ * hibernate.jdbc.batch_versioned_data a conflict only says that a batch
+ * missed a row, so {@link #update} names the row it was changing while a
+ * conflict of {@link #execute} is counted against an unknown row.
+ */
+public class OptimisticRetryExecutor {
+	private static Logger logger = Logger.getLogger(OptimisticRetryExecutor.class);
+
+	public static final int DEFAULT_MAX_ATTEMPTS = 5;
+	public static final long DEFAULT_BASE_BACKOFF = 10;
+	public static final long DEFAULT_MAX_BACKOFF = 500;
+	public static final String UNKNOWN_ENTITY = "unknown";
+
+	// rows counted one by one, conflicts on further rows are only totalled
+	private static final int MAX_TRACKED_ROWS = 1000;
+
+	private final SessionFactory sessionFactory;
+	private final int maxAttempts;
+	private final long baseBackoff;
+	private final long maxBackoff;
+	private final Random random = new Random();
+
+	private final ConcurrentMap<Row, AtomicLong> rows = new ConcurrentHashMap<Row, AtomicLong>();
+	private final AtomicLong attempts = new AtomicLong();
+	private final AtomicLong conflicts = new AtomicLong();
+	private final AtomicLong untrackedConflicts = new AtomicLong();
+	private final AtomicLong retriedCommits = new AtomicLong();
+	private final AtomicLong exhausted = new AtomicLong();
+
+	public OptimisticRetryExecutor(SessionFactory sessionFactory) {
+		this(sessionFactory, DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_BACKOFF,
+				DEFAULT_MAX_BACKOFF);
+	}
+
+	public OptimisticRetryExecutor(SessionFactory sessionFactory,
+			int maxAttempts, long baseBackoff, long maxBackoff) {
+		if (maxAttempts < 1) {
+			throw new IllegalArgumentException("maxAttempts must be positive: " + maxAttempts);
+		}
+		this.sessionFactory = sessionFactory;
+		this.maxAttempts = maxAttempts;
+		this.baseBackoff = baseBackoff;
+		this.maxBackoff = maxBackoff;
+	}
+
+	/**
+	 * Loads the entity, applies the mutation and commits, again from the
+	 * load on a version conflict
+	 * 
+	 * @return the entity as committed, detached
+	 * @throws ObjectNotFoundException
+	 *             if there is no such entity
+	 * @throws StaleStateException
+	 *             if the last attempt conflicted too
+	 */
+	public <T> T update(final Class<T> entityClass, final Serializable id,
+			final Mutation<T> mutation) {
+		return run(new UnitOfWork<T>() {
+			public T execute(Session session) {
+				T entity = entityClass.cast(session.get(entityClass, id));
+				if (entity == null) {
+					throw new ObjectNotFoundException(id, entityClass.getName());
+				}
+				mutation.apply(entity);
+				return entity;
+			}
+		}, entityClass.getName(), id);
+	}
+
+	/**
+	 * Runs the work in a transaction, again in a new session on a version
+	 * conflict
+	 * 
+	 * @throws StaleStateException
+	 *             if the last attempt conflicted too
+	 */
+	public <T> T execute(UnitOfWork<T> work) {
+		return run(work, null, null);
+	}
+
+	/**
+	 * The rows with the most conflicts, most first
+	 */
+	public List<RowConflicts> getHotRows(int limit) {
+		List<RowConflicts> hot = new ArrayList<RowConflicts>();
+		for (Map.Entry<Row, AtomicLong> row : rows.entrySet()) {
+			hot.add(new RowConflicts(row.getKey().entityName, row.getKey().id,
+					row.getValue().get()));
+		}
+		Collections.sort(hot, new Comparator<RowConflicts>() {
+			public int compare(RowConflicts one, RowConflicts other) {
+				return one.getConflicts() < other.getConflicts() ? 1 : one
+						.getConflicts() > other.getConflicts() ? -1 : 0;
+			}
+		});
+		return hot.size() > limit ? new ArrayList<RowConflicts>(hot.subList(0,
+				limit)) : hot;
+	}
+
+	/**
+	 * Conflicts counted against the row so far
+	 */
+	public long getConflicts(String entityName, Serializable id) {
+		AtomicLong count = rows.get(new Row(entityName, id));
+		return count == null ? 0 : count.get();
+	}
+
+	public long getAttemptCount() {
+		return attempts.get();
+	}
+
+	public long getConflictCount() {
+		return conflicts.get();
+	}
+
+	/**
+	 * Conflicts per attempt
+	 */
+	public double getConflictRate() {
+		long attempted = attempts.get();
+		return attempted == 0 ? 0 : (double) conflicts.get() / attempted;
+	}
+
+	/**
+	 * Work that committed after one or more conflicts
+	 */
+	public long getRetriedCommitCount() {
+		return retriedCommits.get();
+	}
+
+	/**
+	 * Work that ran out of attempts
+	 */
+	public long getExhaustedCount() {
+		return exhausted.get();
+	}
+
+	/**
+	 * Conflicts on rows beyond the ones counted one by one
+	 */
+	public long getUntrackedConflictCount() {
+		return untrackedConflicts.get();
+	}
+
+	public void reset() {
+		rows.clear();
+		attempts.set(0);
+		conflicts.set(0);
+		untrackedConflicts.set(0);
+		retriedCommits.set(0);
+		exhausted.set(0);
+	}
+
+	private <T> T run(UnitOfWork<T> work, String entityName, Serializable id) {
+		for (int attempt = 1;; attempt++) {
+			attempts.incrementAndGet();
+			Session session = sessionFactory.openSession();
+			Transaction tx = null;
+			try {
+				tx = session.beginTransaction();
+				T result = work.execute(session);
+				tx.commit();
+				if (attempt > 1) {
+					retriedCommits.incrementAndGet();
+				}
+				return result;
+			} catch (StaleStateException e) {
+				rollback(tx);
+				conflicted(e, entityName, id);
+				if (attempt == maxAttempts) {
+					exhausted.incrementAndGet();
+					logger.warn("giving up after " + attempt + " conflicting attempts: "
+							+ e.getMessage());
+					throw e;
+				}
+			} catch (RuntimeException e) {
+				rollback(tx);
+				throw e;
+			} finally {
+				session.close();
+			}
+			backoff(attempt);
+		}
+	}
+
+	private void conflicted(StaleStateException e, String entityName,
+			Serializable id) {
+		conflicts.incrementAndGet();
+		Row row;
+		if (e instanceof StaleObjectStateException) {
+			StaleObjectStateException stale = (StaleObjectStateException) e;
+			row = new Row(stale.getEntityName(), stale.getIdentifier());
+		} else if (entityName != null) {
+			row = new Row(entityName, id);
+		} else {
+			row = new Row(UNKNOWN_ENTITY, null);
+		}
+		AtomicLong count = rows.get(row);
+		if (count == null) {
+			if (rows.size() >= MAX_TRACKED_ROWS) {
+				untrackedConflicts.incrementAndGet();
+				return;
+			}
+			AtomicLong created = new AtomicLong();
+			count = rows.putIfAbsent(row, created);
+			if (count == null) {
+				count = created;
+			}
+		}
+		count.incrementAndGet();
+		if (logger.isDebugEnabled()) {
+			logger.debug("version conflict on " + row.entityName + "#" + row.id);
+		}
+	}
+
+	private void backoff(int attempt) {
+		long ceiling = Math.min(maxBackoff, baseBackoff << Math.min(attempt - 1, 20));
+		long sleep = (long) (random.nextDouble() * ceiling);
+		if (sleep > 0) {
+			try {
+				Thread.sleep(sleep);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new HibernateException("interrupted while backing off", e);
+			}
+		}
+	}
+
+	private static void rollback(Transaction tx) {
+		if (tx != null && tx.isActive()) {
+			try {
+				tx.rollback();
+			} catch (HibernateException e) {
+				logger.warn("rollback failed", e);
+			}
+		}
+	}
+
+	private static class Row {
+		private final String entityName;
+		private final Serializable id;
+
+		Row(String entityName, Serializable id) {
+			this.entityName = entityName;
+			this.id = id;
+		}
+
+		public boolean equals(Object object) {
+			if (!(object instanceof Row)) {
+				return false;
+			}
+			Row row = (Row) object;
+			return new EqualsBuilder().append(entityName, row.entityName)
+					.append(id, row.id).isEquals();
+		}
+
+		public int hashCode() {
+			return new HashCodeBuilder(17, 37).append(entityName).append(id)
+					.toHashCode();
+		}
+	}
+}
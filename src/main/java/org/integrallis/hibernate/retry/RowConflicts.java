@@ -0,0 +1,43 @@
+package org.integrallis.hibernate.retry;
+
+import java.io.Serializable;
+
+import org.apache.commons.lang.builder.ToStringBuilder;
+
+/**
+ * The version conflicts counted for one row
+ */
+public class RowConflicts implements Serializable {
+	private final String entityName;
+	private final Serializable id;
+	private final long conflicts;
+
+	RowConflicts(String entityName, Serializable id, long conflicts) {
+		this.entityName = entityName;
+		this.id = id;
+		this.conflicts = conflicts;
+	}
+
+	public String getEntityName() {
+		return entityName;
+	}
+
+	/**
+	 * The row's id, null for the conflicts of work that could not tell which
+	 * row it collided on
+	 */
+	public Serializable getId() {
+		return id;
+	}
+
+	public long getConflicts() {
+		return conflicts;
+	}
+
+	public String toString() {
+		return new ToStringBuilder(this).append("entityName", entityName)
+				.append("id", id).append("conflicts", conflicts).toString();
+	}
+
+	private static final long serialVersionUID = 5127983340569127713L;
+}
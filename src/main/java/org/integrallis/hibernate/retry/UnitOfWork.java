@@ -0,0 +1,13 @@
+package org.integrallis.hibernate.retry;
+
+import org.hibernate.Session;
+
+/**
+ * Work run in a transaction by an {@link OptimisticRetryExecutor}. It may run
+ * more than once, each time in a new session, so it must load what it
+ * changes from the session it is given and not keep state between runs.
+ */
+public interface UnitOfWork<T> {
+
+	T execute(Session session);
+}
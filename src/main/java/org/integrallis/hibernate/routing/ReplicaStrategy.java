@@ -0,0 +1,30 @@
+package org.integrallis.hibernate.routing;
+
+/**
+ * How a {@link RoutingSessionFactory} picks the replica for a read
+ */
+public enum ReplicaStrategy {
+	/**
+	 * Each replica in turn
+	 */
+	ROUND_ROBIN,
+	/**
+	 * The replica running the fewest reads, in turn among equals
+	 */
+	LEAST_BUSY;
+
+	int select(int[] busy, int turn) {
+		int first = turn % busy.length;
+		if (this == ROUND_ROBIN) {
+			return first;
+		}
+		int selected = first;
+		for (int i = 1; i < busy.length; i++) {
+			int candidate = (first + i) % busy.length;
+			if (busy[candidate] < busy[selected]) {
+				selected = candidate;
+			}
+		}
+		return selected;
+	}
+}
@@ -0,0 +1,287 @@
+package org.integrallis.hibernate.routing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.hibernate.FlushMode;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+import org.hibernate.util.PropertiesHelper;
+import org.integrallis.hibernate.DatabaseMode;
+import org.integrallis.hibernate.retry.UnitOfWork;
+
+/**
+ * Sends units of work that write to the primary SessionFactory and read-only
+ * ones to its replicas, picked by a {@link ReplicaStrategy}. Read sessions
+ * never flush.
+ * <p>
+ * A replica may lag behind the primary, so a thread that wrote reads from the
+ * primary for stickyWindow ms after its last write and sees its own changes.
+ * Writes made without the router can pin a thread the same way with
+ * {@link #markWritten()}. Without replicas everything runs on the primary.
+ * <p>
+ * The router does not own the factories given to it, closing them is up to
+ * the caller. Replicas built by {@link #configure} from the JDBC URLs in
+ * bookstore.db.replicas are closed by {@link #close()}.
+ */
+public class RoutingSessionFactory {
+	private static Logger logger = Logger.getLogger(RoutingSessionFactory.class);
+
+	public static final String REPLICAS = "bookstore.db.replicas";
+	public static final String STRATEGY = "bookstore.db.replica_strategy";
+	public static final String STICKY_WINDOW = "bookstore.db.sticky_window";
+
+	public static final long DEFAULT_STICKY_WINDOW = 1000;
+
+	private final SessionFactory primary;
+	private final Replica[] replicas;
+	private final ReplicaStrategy strategy;
+	private final long stickyWindowNanos;
+	private final AtomicInteger turn = new AtomicInteger();
+	private final ThreadLocal<Long> lastWrite = new ThreadLocal<Long>();
+	private boolean ownsReplicas;
+
+	private final AtomicLong writes = new AtomicLong();
+	private final AtomicLong primaryReads = new AtomicLong();
+	private final AtomicLong stickyReads = new AtomicLong();
+
+	public RoutingSessionFactory(SessionFactory primary,
+			List<SessionFactory> replicas, ReplicaStrategy strategy) {
+		this(primary, replicas, strategy, DEFAULT_STICKY_WINDOW);
+	}
+
+	/**
+	 * @param stickyWindow
+	 *            ms a thread reads from the primary after it wrote
+	 */
+	public RoutingSessionFactory(SessionFactory primary,
+			List<SessionFactory> replicas, ReplicaStrategy strategy,
+			long stickyWindow) {
+		this.primary = primary;
+		this.replicas = new Replica[replicas.size()];
+		for (int i = 0; i < this.replicas.length; i++) {
+			this.replicas[i] = new Replica(replicas.get(i));
+		}
+		this.strategy = strategy;
+		this.stickyWindowNanos = TimeUnit.MILLISECONDS.toNanos(stickyWindow);
+		logger.info("routing reads to " + this.replicas.length + " replicas "
+				+ strategy.name().toLowerCase() + ", " + stickyWindow
+				+ " ms on the primary after a write");
+	}
+
+	/**
+	 * Builds a factory for each replica URL listed in bookstore.db.replicas
+	 * (comma separated, none by default) from the primary's configuration,
+	 * with bookstore.db.replica_strategy (round_robin or least_busy) and
+	 * bookstore.db.sticky_window ms. Only the URL, the driver and the cache
+	 * region prefix differ from the primary.
+	 */
+	public static RoutingSessionFactory configure(Configuration configuration,
+			SessionFactory primary) {
+		String urls = configuration.getProperty(REPLICAS);
+		List<SessionFactory> replicas = new ArrayList<SessionFactory>();
+		if (urls != null && urls.trim().length() > 0) {
+			String url = configuration.getProperty(Environment.URL);
+			String driver = configuration.getProperty(Environment.DRIVER);
+			String regionPrefix = configuration
+					.getProperty(Environment.CACHE_REGION_PREFIX);
+			try {
+				String[] replicaUrls = urls.split(",");
+				for (int i = 0; i < replicaUrls.length; i++) {
+					String replicaUrl = replicaUrls[i].trim();
+					configuration.setProperty(Environment.URL, replicaUrl);
+					if (!replicaUrl.startsWith("jdbc:derby://")) {
+						configuration.setProperty(Environment.DRIVER,
+								DatabaseMode.EMBEDDED_DRIVER);
+					} else {
+						restore(configuration, Environment.DRIVER, driver);
+					}
+					// keep the replicas' cache regions apart from the primary's
+					configuration.setProperty(Environment.CACHE_REGION_PREFIX,
+							"replica" + i);
+					replicas.add(configuration.buildSessionFactory());
+				}
+			} finally {
+				restore(configuration, Environment.URL, url);
+				restore(configuration, Environment.DRIVER, driver);
+				restore(configuration, Environment.CACHE_REGION_PREFIX,
+						regionPrefix);
+			}
+		}
+		ReplicaStrategy strategy = ReplicaStrategy.valueOf(configuration
+				.getProperty(STRATEGY) == null ? ReplicaStrategy.ROUND_ROBIN
+				.name() : configuration.getProperty(STRATEGY).trim().toUpperCase());
+		RoutingSessionFactory router = new RoutingSessionFactory(primary,
+				replicas, strategy, PropertiesHelper.getInt(STICKY_WINDOW,
+						configuration.getProperties(),
+						(int) DEFAULT_STICKY_WINDOW));
+		router.ownsReplicas = true;
+		return router;
+	}
+
+	private static void restore(Configuration configuration, String name,
+			String value) {
+		if (value == null) {
+			configuration.getProperties().remove(name);
+		} else {
+			configuration.setProperty(name, value);
+		}
+	}
+
+	/**
+	 * Closes the replicas built by {@link #configure}
+	 */
+	public void close() {
+		if (ownsReplicas) {
+			for (int i = 0; i < replicas.length; i++) {
+				replicas[i].factory.close();
+			}
+		}
+	}
+
+	public SessionFactory getPrimary() {
+		return primary;
+	}
+
+	public ReplicaStrategy getStrategy() {
+		return strategy;
+	}
+
+	/**
+	 * Runs the work in a transaction on the primary, and keeps this thread's
+	 * reads on the primary for the sticky window
+	 */
+	public <T> T write(UnitOfWork<T> work) {
+		writes.incrementAndGet();
+		try {
+			return run(primary, work, false);
+		} finally {
+			markWritten();
+		}
+	}
+
+	/**
+	 * Runs the work in a transaction that never flushes, on a replica unless
+	 * this thread wrote within the sticky window
+	 */
+	public <T> T read(UnitOfWork<T> work) {
+		if (replicas.length == 0) {
+			primaryReads.incrementAndGet();
+			return run(primary, work, true);
+		}
+		if (isSticky()) {
+			primaryReads.incrementAndGet();
+			stickyReads.incrementAndGet();
+			return run(primary, work, true);
+		}
+		Replica replica = select();
+		replica.busy.incrementAndGet();
+		try {
+			replica.reads.incrementAndGet();
+			return run(replica.factory, work, true);
+		} finally {
+			replica.busy.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Keeps this thread's reads on the primary for the sticky window, after a
+	 * write made without the router
+	 */
+	public void markWritten() {
+		lastWrite.set(Long.valueOf(System.nanoTime()));
+	}
+
+	public long getWriteCount() {
+		return writes.get();
+	}
+
+	/**
+	 * Reads run on the primary, sticky ones included
+	 */
+	public long getPrimaryReadCount() {
+		return primaryReads.get();
+	}
+
+	/**
+	 * Reads kept on the primary because their thread had just written
+	 */
+	public long getStickyReadCount() {
+		return stickyReads.get();
+	}
+
+	/**
+	 * Reads run on each replica, in the order they were given
+	 */
+	public long[] getReplicaReadCounts() {
+		long[] counts = new long[replicas.length];
+		for (int i = 0; i < replicas.length; i++) {
+			counts[i] = replicas[i].reads.get();
+		}
+		return counts;
+	}
+
+	private boolean isSticky() {
+		Long wrote = lastWrite.get();
+		if (wrote == null) {
+			return false;
+		}
+		if (System.nanoTime() - wrote.longValue() < stickyWindowNanos) {
+			return true;
+		}
+		lastWrite.remove();
+		return false;
+	}
+
+	private Replica select() {
+		int[] busy = new int[replicas.length];
+		for (int i = 0; i < replicas.length; i++) {
+			busy[i] = replicas[i].busy.get();
+		}
+		return replicas[strategy.select(busy, turn.getAndIncrement() & 0x7fffffff)];
+	}
+
+	private static <T> T run(SessionFactory factory, UnitOfWork<T> work,
+			boolean readOnly) {
+		Session session = factory.openSession();
+		if (readOnly) {
+			session.setFlushMode(FlushMode.MANUAL);
+		}
+		Transaction tx = null;
+		try {
+			tx = session.beginTransaction();
+			T result = work.execute(session);
+			tx.commit();
+			return result;
+		} catch (RuntimeException e) {
+			if (tx != null && tx.isActive()) {
+				try {
+					tx.rollback();
+				} catch (HibernateException rollbackFailure) {
+					logger.warn("rollback failed", rollbackFailure);
+				}
+			}
+			throw e;
+		} finally {
+			session.close();
+		}
+	}
+
+	private static class Replica {
+		private final SessionFactory factory;
+		private final AtomicInteger busy = new AtomicInteger();
+		private final AtomicLong reads = new AtomicLong();
+
+		Replica(SessionFactory factory) {
+			this.factory = factory;
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package org.integrallis.hibernate.type;
+
+import java.io.Serializable;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+import org.hibernate.HibernateException;
+import org.hibernate.usertype.UserType;
+
+/**
+ * Maps an INTEGER column to an int property. Hibernate's own integer type
+ * allocates a new Integer for every value read; this one hands out shared
+ * instances for 0 to {@value #CACHED} - 1, which covers the stock of
+ * practically every inventory record, so loading and dirty checking them
+ * allocates nothing for the quantity.
+ */
+public class QuantityType implements UserType {
+
+	static final int CACHED = 1024;
+
+	private static final int[] SQL_TYPES = { Types.INTEGER };
+	private static final Integer[] VALUES = new Integer[CACHED];
+
+	static {
+		for (int i = 0; i < CACHED; i++) {
+			VALUES[i] = Integer.valueOf(i);
+		}
+	}
+
+	/**
+	 * The value boxed without allocating if it is a common quantity
+	 */
+	public static Integer valueOf(int quantity) {
+		return quantity >= 0 && quantity < CACHED ? VALUES[quantity] : Integer
+				.valueOf(quantity);
+	}
+
+	public int[] sqlTypes() {
+		return SQL_TYPES;
+	}
+
+	@SuppressWarnings("unchecked")
+	public Class returnedClass() {
+		return Integer.class;
+	}
+
+	public boolean equals(Object x, Object y) throws HibernateException {
+		return x == null ? y == null : x.equals(y);
+	}
+
+	public int hashCode(Object x) throws HibernateException {
+		return x.hashCode();
+	}
+
+	public Object nullSafeGet(ResultSet rs, String[] names, Object owner)
+			throws HibernateException, SQLException {
+		int quantity = rs.getInt(names[0]);
+		return rs.wasNull() ? null : valueOf(quantity);
+	}
+
+	public void nullSafeSet(PreparedStatement st, Object value, int index)
+			throws HibernateException, SQLException {
+		if (value == null) {
+			st.setNull(index, Types.INTEGER);
+		} else {
+			st.setInt(index, ((Number) value).intValue());
+		}
+	}
+
+	public Object deepCopy(Object value) throws HibernateException {
+		return value;
+	}
+
+	public boolean isMutable() {
+		return false;
+	}
+
+	public Serializable disassemble(Object value) throws HibernateException {
+		return (Serializable) value;
+	}
+
+	public Object assemble(Serializable cached, Object owner)
+			throws HibernateException {
+		return cached;
+	}
+
+	public Object replace(Object original, Object target, Object owner)
+			throws HibernateException {
+		return original;
+	}
+}
@@ -0,0 +1,77 @@
+package org.integrallis.hibernate.warmup;
+
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hibernate.MappingException;
+import org.hibernate.QueryException;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.engine.query.FilterQueryPlan;
+import org.hibernate.engine.query.HQLQueryPlan;
+import org.hibernate.engine.query.NativeSQLQueryPlan;
+import org.hibernate.engine.query.QueryPlanCache;
+import org.hibernate.engine.query.sql.NativeSQLQuerySpecification;
+
+/**
+ * A QueryPlanCache that counts its hits and misses, which Hibernate's does
+ * not. A plan asked for before counts as a hit; plans the cache dropped
+ * under memory pressure are still counted as hits, so the ratio is an upper
+ * bound. Past MAX_KEYS distinct plans every new one counts as a miss.
+ */
+class CountingQueryPlanCache extends QueryPlanCache {
+	private static final int MAX_KEYS = 10000;
+
+	private final ConcurrentMap<Object, Boolean> seen = new ConcurrentHashMap<Object, Boolean>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	CountingQueryPlanCache(SessionFactoryImplementor factory) {
+		super(factory);
+	}
+
+	@SuppressWarnings("unchecked")
+	public HQLQueryPlan getHQLQueryPlan(String queryString, boolean shallow,
+			Map enabledFilters) throws QueryException, MappingException {
+		count("hql " + shallow + " " + new TreeSet(enabledFilters.keySet()) + " "
+				+ queryString);
+		return super.getHQLQueryPlan(queryString, shallow, enabledFilters);
+	}
+
+	@SuppressWarnings("unchecked")
+	public FilterQueryPlan getFilterQueryPlan(String filterString,
+			String collectionRole, boolean shallow, Map enabledFilters)
+			throws QueryException, MappingException {
+		count("filter " + collectionRole + " " + shallow + " "
+				+ new TreeSet(enabledFilters.keySet()) + " " + filterString);
+		return super.getFilterQueryPlan(filterString, collectionRole, shallow,
+				enabledFilters);
+	}
+
+	public NativeSQLQueryPlan getNativeSQLQueryPlan(
+			NativeSQLQuerySpecification spec) {
+		count(spec);
+		return super.getNativeSQLQueryPlan(spec);
+	}
+
+	long getHits() {
+		return hits.get();
+	}
+
+	long getMisses() {
+		return misses.get();
+	}
+
+	private void count(Object key) {
+		if (seen.containsKey(key)) {
+			hits.incrementAndGet();
+			return;
+		}
+		misses.incrementAndGet();
+		if (seen.size() < MAX_KEYS) {
+			seen.putIfAbsent(key, Boolean.TRUE);
+		}
+	}
+}
@@ -0,0 +1,363 @@
+package org.integrallis.hibernate.warmup;
+
+import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.hibernate.CacheMode;
+import org.hibernate.FlushMode;
+import org.hibernate.HibernateException;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.connection.ConnectionProvider;
+import org.hibernate.engine.NamedQueryDefinition;
+import org.hibernate.engine.NamedSQLQueryDefinition;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.engine.query.HQLQueryPlan;
+import org.hibernate.engine.query.ParameterMetadata;
+import org.hibernate.impl.FilterImpl;
+import org.hibernate.impl.SessionFactoryImpl;
+import org.hibernate.type.Type;
+import org.hibernate.util.PropertiesHelper;
+import org.integrallis.hibernate.connection.PooledConnectionProvider;
+
+/**
+ * Takes the first-call costs off the first requests after a deploy:
+ * <ul>
+ * <li>compiles the plan of every named HQL query and every registered ad-hoc
+ * HQL query, plain and with each filter (such as publishedBetweenFilter)
+ * enabled, into the factory's query plan cache</li>
+ * <li>prepares their SQL, and that of the named SQL queries, on the pooled
+ * connections, filling each connection's statement cache</li>
+ * <li>optionally runs hibernate.warmup.iterations rounds of synthetic load:
+ * a Criteria query per entity and every HQL query with null parameters,
+ * read only and rolled back, so the JIT compiles the load and hydration
+ * paths</li>
+ * </ul>
+ * Opt-in with hibernate.warmup.enabled; ad-hoc HQL is registered with
+ * {@link #addQuery} or listed in hibernate.warmup.queries, separated by
+ * semicolons. Criteria queries have no plans to cache, the synthetic load is
+ * what warms them.
+ * <p>
+ * The factory's plan cache is replaced by one that counts hits and misses,
+ * reported with the time the warm-up took.
+ */
+public class QueryWarmup {
+	private static Logger logger = Logger.getLogger(QueryWarmup.class);
+
+	public static final String ENABLED = "hibernate.warmup.enabled";
+	public static final String QUERIES = "hibernate.warmup.queries";
+	public static final String ITERATIONS = "hibernate.warmup.iterations";
+
+	private static final Pattern PARAMETER = Pattern.compile(":\\w+");
+	private static final int SYNTHETIC_ROWS = 10;
+
+	private final int iterations;
+	private final Set<String> queries = new LinkedHashSet<String>();
+	private CountingQueryPlanCache planCache;
+
+	private long warmupMillis;
+	private int plansCompiled;
+	private int statementsPrepared;
+	private int connectionsWarmed;
+	private int failures;
+
+	public QueryWarmup(int iterations) {
+		this.iterations = iterations;
+	}
+
+	/**
+	 * Returns null if {@value #ENABLED} is not true. {@link #warmUp} once the
+	 * factory is built.
+	 */
+	public static QueryWarmup configure(Configuration configuration) {
+		if (!PropertiesHelper.getBoolean(ENABLED, configuration.getProperties())) {
+			return null;
+		}
+		QueryWarmup warmup = new QueryWarmup(PropertiesHelper.getInt(
+				ITERATIONS, configuration.getProperties(), 0));
+		String queries = configuration.getProperty(QUERIES);
+		if (queries != null) {
+			String[] hql = queries.split(";");
+			for (int i = 0; i < hql.length; i++) {
+				if (hql[i].trim().length() > 0) {
+					warmup.addQuery(hql[i]);
+				}
+			}
+		}
+		return warmup;
+	}
+
+	/**
+	 * Registers HQL the application builds at runtime
+	 */
+	public void addQuery(String hql) {
+		queries.add(hql.trim().replaceAll("\\s+", " "));
+	}
+
+	/**
+	 * Counts the factory's plan cache hits and misses from now on, compiles
+	 * the plans, prepares the statements and runs the synthetic load
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized void warmUp(SessionFactory sessionFactory,
+			Configuration configuration) {
+		long started = System.currentTimeMillis();
+		SessionFactoryImplementor factory = (SessionFactoryImplementor) sessionFactory;
+		countPlans(factory);
+
+		Map<String, String> hqlQueries = new LinkedHashMap<String, String>();
+		for (Iterator<Map.Entry<String, NamedQueryDefinition>> named = configuration
+				.getNamedQueries().entrySet().iterator(); named.hasNext();) {
+			Map.Entry<String, NamedQueryDefinition> query = named.next();
+			hqlQueries.put(query.getKey(), query.getValue().getQueryString());
+		}
+		for (String hql : queries) {
+			hqlQueries.put(hql, hql);
+		}
+		Map<String, String> sqlQueries = new LinkedHashMap<String, String>();
+		for (Iterator<Map.Entry<String, NamedSQLQueryDefinition>> named = configuration
+				.getNamedSQLQueries().entrySet().iterator(); named.hasNext();) {
+			Map.Entry<String, NamedSQLQueryDefinition> query = named.next();
+			sqlQueries.put(query.getKey(), query.getValue().getQueryString());
+		}
+
+		Set<String> statements = new LinkedHashSet<String>();
+		compile(factory, hqlQueries, statements);
+		for (String sql : sqlQueries.values()) {
+			statements.add(PARAMETER.matcher(sql).replaceAll("?"));
+		}
+		prepare(factory, statements);
+		for (int i = 0; i < iterations; i++) {
+			load(factory, hqlQueries, sqlQueries, i == 0);
+		}
+		warmupMillis = System.currentTimeMillis() - started;
+		logger.info("warmed up in " + warmupMillis + " ms: " + plansCompiled
+				+ " query plans, " + statementsPrepared
+				+ " statements prepared on " + connectionsWarmed
+				+ " connections, " + iterations + " rounds of load, "
+				+ failures + " failures");
+	}
+
+	public long getWarmupMillis() {
+		return warmupMillis;
+	}
+
+	public int getPlansCompiled() {
+		return plansCompiled;
+	}
+
+	/**
+	 * Statements prepared, on all connections together
+	 */
+	public int getStatementsPrepared() {
+		return statementsPrepared;
+	}
+
+	public int getConnectionsWarmed() {
+		return connectionsWarmed;
+	}
+
+	/**
+	 * Queries that failed to compile, prepare or run
+	 */
+	public int getFailures() {
+		return failures;
+	}
+
+	public long getPlanCacheHits() {
+		return planCache == null ? 0 : planCache.getHits();
+	}
+
+	public long getPlanCacheMisses() {
+		return planCache == null ? 0 : planCache.getMisses();
+	}
+
+	/**
+	 * Plan cache hits per plan lookup since the warm-up began, warm-up
+	 * included
+	 */
+	public double getPlanCacheHitRatio() {
+		long hits = getPlanCacheHits();
+		long lookups = hits + getPlanCacheMisses();
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	public String toString() {
+		return "warmupMillis=" + warmupMillis + ", plans=" + plansCompiled
+				+ ", statements=" + statementsPrepared + ", connections="
+				+ connectionsWarmed + ", failures=" + failures
+				+ ", planCacheHitRatio=" + getPlanCacheHitRatio();
+	}
+
+	/**
+	 * Swaps in a counting plan cache. Hibernate creates the cache in the
+	 * factory's constructor and offers no way to plug another in.
+	 */
+	private void countPlans(SessionFactoryImplementor factory) {
+		if (factory.getQueryPlanCache() instanceof CountingQueryPlanCache) {
+			planCache = (CountingQueryPlanCache) factory.getQueryPlanCache();
+			return;
+		}
+		try {
+			Field field = SessionFactoryImpl.class.getDeclaredField("queryPlanCache");
+			field.setAccessible(true);
+			CountingQueryPlanCache counting = new CountingQueryPlanCache(factory);
+			field.set(factory, counting);
+			planCache = counting;
+		} catch (Exception e) {
+			logger.warn("cannot count query plan cache hits", e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void compile(SessionFactoryImplementor factory,
+			Map<String, String> hqlQueries, Set<String> statements) {
+		Set<String> filterNames = factory.getDefinedFilterNames();
+		for (Map.Entry<String, String> query : hqlQueries.entrySet()) {
+			try {
+				HQLQueryPlan plan = factory.getQueryPlanCache().getHQLQueryPlan(
+						query.getValue(), false, Collections.EMPTY_MAP);
+				plansCompiled++;
+				Collections.addAll(statements, plan.getSqlStrings());
+				for (String filterName : filterNames) {
+					Map<String, FilterImpl> filters = Collections.singletonMap(
+							filterName, new FilterImpl(factory
+									.getFilterDefinition(filterName)));
+					plan = factory.getQueryPlanCache().getHQLQueryPlan(
+							query.getValue(), false, filters);
+					plansCompiled++;
+					Collections.addAll(statements, plan.getSqlStrings());
+				}
+			} catch (HibernateException e) {
+				failures++;
+				logger.warn("cannot compile " + query.getKey(), e);
+			}
+		}
+	}
+
+	/**
+	 * Prepares the statements on as many connections as the pool keeps idle,
+	 * borrowed together so that each is a different one
+	 */
+	private void prepare(SessionFactoryImplementor factory, Set<String> statements) {
+		ConnectionProvider provider = factory.getConnectionProvider();
+		int count = 1;
+		if (provider instanceof PooledConnectionProvider) {
+			count = Math.max(1, ((PooledConnectionProvider) provider)
+					.getStatistics().getIdle());
+		}
+		List<Connection> connections = new ArrayList<Connection>();
+		try {
+			for (int i = 0; i < count; i++) {
+				connections.add(provider.getConnection());
+			}
+			for (Connection connection : connections) {
+				for (String sql : statements) {
+					try {
+						connection.prepareStatement(sql).close();
+						statementsPrepared++;
+					} catch (SQLException e) {
+						failures++;
+						logger.warn("cannot prepare " + sql, e);
+					}
+				}
+				connectionsWarmed++;
+			}
+		} catch (SQLException e) {
+			failures++;
+			logger.warn("cannot borrow a connection to prepare statements on", e);
+		} finally {
+			for (Connection connection : connections) {
+				try {
+					provider.closeConnection(connection);
+				} catch (SQLException e) {
+					logger.warn("cannot return a connection", e);
+				}
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void load(SessionFactoryImplementor factory,
+			Map<String, String> hqlQueries, Map<String, String> sqlQueries,
+			boolean report) {
+		Session session = factory.openSession();
+		session.setCacheMode(CacheMode.IGNORE);
+		session.setFlushMode(FlushMode.MANUAL);
+		try {
+			session.beginTransaction();
+			for (String entityName : (Set<String>) factory.getAllClassMetadata()
+					.keySet()) {
+				try {
+					session.createCriteria(entityName).setMaxResults(
+							SYNTHETIC_ROWS).list();
+				} catch (HibernateException e) {
+					failed(report, entityName, e);
+				}
+			}
+			for (Map.Entry<String, String> query : hqlQueries.entrySet()) {
+				// ad-hoc queries are registered under their HQL
+				boolean named = !query.getKey().equals(query.getValue());
+				run(named ? session.getNamedQuery(query.getKey()) : session
+						.createQuery(query.getValue()), factory.getQueryPlanCache()
+						.getHQLQueryPlan(query.getValue(), false,
+								Collections.EMPTY_MAP).getParameterMetadata(), report);
+			}
+			for (Map.Entry<String, String> query : sqlQueries.entrySet()) {
+				run(session.getNamedQuery(query.getKey()), factory
+						.getQueryPlanCache().getSQLParameterMetadata(
+								query.getValue()), report);
+			}
+			session.clear();
+		} finally {
+			if (session.getTransaction().isActive()) {
+				session.getTransaction().rollback();
+			}
+			session.close();
+		}
+	}
+
+	/**
+	 * Runs the query with its parameters null, which reads little but goes
+	 * through the same code. Queries with parameters of unknown type (native
+	 * SQL ones) are left out, null cannot be bound to them.
+	 */
+	private void run(Query query, ParameterMetadata metadata, boolean report) {
+		String[] parameters = query.getNamedParameters();
+		Type[] types = new Type[parameters.length];
+		for (int i = 0; i < parameters.length; i++) {
+			types[i] = metadata.getNamedParameterExpectedType(parameters[i]);
+			if (types[i] == null) {
+				return;
+			}
+		}
+		try {
+			for (int i = 0; i < parameters.length; i++) {
+				query.setParameter(parameters[i], null, types[i]);
+			}
+			query.setMaxResults(SYNTHETIC_ROWS).list();
+		} catch (HibernateException e) {
+			failed(report, query.getQueryString(), e);
+		}
+	}
+
+	private void failed(boolean report, String what, HibernateException e) {
+		if (report) {
+			failures++;
+			logger.warn("synthetic load failed on " + what, e);
+		}
+	}
+}
@@ -1,13 +1,12 @@
 package org.integrallis.bookstore;
 
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 
 import org.apache.log4j.Logger;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
-import org.hibernate.cfg.Configuration;
+import org.integrallis.hibernate.bootstrap.SessionFactoryRegistry;
 import org.junit.After;
 import org.junit.Before;
 
@@ -25,19 +24,12 @@ public abstract class BaseHibernateTestCase {
 	@SuppressWarnings("unchecked")
 	protected List<Class> persistentClasses = new ArrayList<Class>();
 	
-	@SuppressWarnings("unchecked")
+	// JUnit makes an instance per test method, they all share one factory
 	protected BaseHibernateTestCase() {
-		final Configuration  configuration = new Configuration()
-		    .configure(BaseHibernateTestCase.class.getResource("/hibernate-no-mappings.cfg.xml"));
-		
         addPersistentClasses();
         
-        for (final Iterator i = persistentClasses.iterator(); i.hasNext();) {
-			final Class clazz = (Class) i.next();
-			configuration.addClass(clazz);
-		}
-        
-        factory = configuration.buildSessionFactory();	
+        factory = SessionFactoryRegistry.getSessionFactory(BaseHibernateTestCase.class
+				.getResource("/hibernate-no-mappings.cfg.xml"), persistentClasses);
         logger.info("[BaseHibernateTestCase] hibernate initialized");		
 	}
 	
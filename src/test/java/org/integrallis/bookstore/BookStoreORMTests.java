@@ -25,8 +25,11 @@ import org.hibernate.criterion.Restrictions;
 import org.integrallis.bookstore.domain.Book;
 import org.integrallis.bookstore.domain.ElectronicBook;
 import org.integrallis.bookstore.domain.Inventory;
+import org.integrallis.bookstore.domain.Money;
 import org.integrallis.bookstore.domain.Store;
 import org.integrallis.hibernate.HibernateUtil;
+import org.integrallis.hibernate.cache.BoundedCache;
+import org.integrallis.hibernate.cache.BoundedCacheProvider;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -206,7 +209,7 @@ public class BookStoreORMTests {
 		for (Book book : booksOver30) {
 			logger.info("Book: " + book.getTitle() + " cost $"
 					+ book.getPrice());
-			assertTrue(book.getPrice() > 30);
+			assertTrue(book.getPrice().getCents() > 3000);
 		}
 		assertEquals(4, booksOver30.size());
 	}
@@ -338,22 +341,22 @@ public class BookStoreORMTests {
 	 */
 	@Test
 	public void testPricesQuery() {
-		Double expectedMininum = 23.07;
-		Double expectedMaximum = 39.99; 
+		Money expectedMininum = Money.valueOf(23.07);
+		Money expectedMaximum = Money.valueOf(39.99);
 		Double expectedAverage = 30.016;
 		
 		Query query = session
 				.createQuery("SELECT min(b.price), max(b.price), avg(b.price) FROM Book b");
 		Object[] prices = (Object[]) query.uniqueResult();
 		
-		Double actualMininum = (Double)prices[0];
-		Double actualMaximum = (Double)prices[1]; 
+		Money actualMininum = (Money)prices[0];
+		Money actualMaximum = (Money)prices[1];
 		Double actualAverage = (Double)prices[2];
 		
 		logger.info("Book Prices: Mininum=" + actualMininum + ", Maximum="
 				+ actualMaximum + ", Average=" + actualAverage);
-		assertEquals(expectedMininum, actualMininum, 0.001);
-		assertEquals(expectedMaximum, actualMaximum, 0.001);
+		assertEquals(expectedMininum, actualMininum);
+		assertEquals(expectedMaximum, actualMaximum);
 		assertEquals(expectedAverage , actualAverage , 0.001);
 		
 	}
@@ -406,9 +409,9 @@ public class BookStoreORMTests {
 	public void testPolymorphicQuery() {
 		// create two new related Books on regular, one electronic
 		Book hibernateBook = new Book("8675309000", "Hibernate for Bears",
-				new Date(), 19.99);
+				new Date(), Money.valueOf(19.99));
 		ElectronicBook hibernateEBook = new ElectronicBook("8675309001",
-				"Hibernate for Bears", new Date(), 19.99,
+				"Hibernate for Bears", new Date(), Money.valueOf(19.99),
 				"http://winterplug.com", "PDF");
 		// save the new Books in a transaction
 		Transaction tx = session.beginTransaction();
@@ -574,6 +577,24 @@ public class BookStoreORMTests {
 		assertEquals(5, booksPublishedIn2008.size());
 	}
 
+	@Test
+	public void testSecondLevelCache() {
+		BoundedCache bookRegion = BoundedCacheProvider.getRegion(Book.class.getName());
+		assertNotNull(bookRegion);
+
+		// first load populates the Book region
+		Book book = (Book) session.get(Book.class, 4L);
+		assertNotNull(book);
+		session.close();
+
+		// a new session should be served from the cache
+		long hitsBefore = bookRegion.getHitCount();
+		session = HibernateUtil.getSessionFactory().openSession();
+		Book cached = (Book) session.get(Book.class, 4L);
+		assertEquals(book.getIsbn(), cached.getIsbn());
+		assertTrue(bookRegion.getHitCount() > hitsBefore);
+	}
+
 	/**
 	 * Private Utility Methods
 	 */
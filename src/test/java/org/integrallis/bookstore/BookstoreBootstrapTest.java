@@ -0,0 +1,43 @@
+package org.integrallis.bookstore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.hibernate.cfg.Configuration;
+import org.hibernate.event.PostInsertEventListener;
+import org.integrallis.bookstore.search.BookSearchListener;
+import org.integrallis.bookstore.valuation.StoreValuationListener;
+import org.junit.Test;
+
+public class BookstoreBootstrapTest {
+
+	@Test
+	public void testFeaturesAreOffByDefault() {
+		Configuration configuration = new Configuration();
+		PostInsertEventListener[] before = configuration.getEventListeners()
+				.getPostInsertEventListeners();
+		new BookstoreBootstrap().configure(configuration);
+		assertEquals(before.length, configuration.getEventListeners()
+				.getPostInsertEventListeners().length);
+	}
+
+	@Test
+	public void testValuationRegistersItsListener() {
+		Configuration configuration = new Configuration();
+		configuration.setProperty(BookstoreBootstrap.VALUATION_ENABLED, "true");
+		new BookstoreBootstrap().configure(configuration);
+		PostInsertEventListener[] listeners = configuration.getEventListeners()
+				.getPostInsertEventListeners();
+		assertTrue(listeners[listeners.length - 1] instanceof StoreValuationListener);
+	}
+
+	@Test
+	public void testSearchRegistersItsListener() {
+		Configuration configuration = new Configuration();
+		configuration.setProperty(BookstoreBootstrap.SEARCH_ENABLED, "true");
+		new BookstoreBootstrap().configure(configuration);
+		PostInsertEventListener[] listeners = configuration.getEventListeners()
+				.getPostInsertEventListeners();
+		assertTrue(listeners[listeners.length - 1] instanceof BookSearchListener);
+	}
+}
@@ -3,7 +3,6 @@ package org.integrallis.bookstore;
 import static org.junit.Assert.assertEquals;
 
 import java.io.IOException;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 
 import org.apache.log4j.Logger;
@@ -43,21 +42,23 @@ public class DbUnitTest {
 		session.close();
 	}
 	
+    @SuppressWarnings("deprecation")
     @BeforeClass
-    public static void seedDatabase() throws DatabaseUnitException, SQLException, ClassNotFoundException, IOException {
+    public static void seedDatabase() throws DatabaseUnitException, SQLException, IOException {
     	logger.info("seeding the database...");
-    	// load the driver
-    	Class.forName("org.apache.derby.jdbc.ClientDriver");
-    	final IDatabaseConnection connection = new DatabaseConnection(DriverManager.
-    	    getConnection("jdbc:derby://localhost:1527/BookStore",
-    	      "guest", "password"));
+    	// borrow a connection from hibernate so the data lands in whichever
+    	// database (network, embedded or in-memory) it is configured for
+    	Session session = HibernateUtil.getSessionFactory().openSession();
+    	Transaction tx = session.beginTransaction();
+    	final IDatabaseConnection connection = new DatabaseConnection(session.connection());
     	final IDataSet data = new FlatXmlDataSet(DbUnitTest.class.getResourceAsStream("/lab-2-5-dataset.xml"));
     	
     	try {
             DatabaseOperation.INSERT.execute(connection, data);
+            tx.commit();
         }
     	finally{
-            connection.close();
+            session.close();
         } 	
     }
     
@@ -7,6 +7,7 @@ import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.Transaction;
 import org.hibernate.cfg.Configuration;
+import org.integrallis.hibernate.DatabaseMode;
 import org.junit.Test;
 
 public class SampleTest {
@@ -15,6 +16,7 @@ public class SampleTest {
 	public void connectionTest() {
 		// 1. Create a Configuration Object
 		Configuration configuration = new Configuration().configure();
+		DatabaseMode.configure(configuration);
 		// 2. Build a SessionFactory
 		SessionFactory factory = configuration.buildSessionFactory();
 		// 3. Retrieve a Session
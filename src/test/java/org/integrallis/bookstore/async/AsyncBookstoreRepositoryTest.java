@@ -0,0 +1,228 @@
+package org.integrallis.bookstore.async;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.transaction.Synchronization;
+
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.integrallis.bookstore.domain.Book;
+import org.integrallis.bookstore.domain.Inventory;
+import org.integrallis.bookstore.domain.Store;
+import org.integrallis.hibernate.HibernateUtil;
+import org.integrallis.hibernate.paging.Page;
+import org.integrallis.hibernate.retry.UnitOfWork;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AsyncBookstoreRepositoryTest {
+
+	private SessionFactory sessionFactory;
+	private AsyncBookstoreRepository repository;
+
+	@Before
+	public void before() {
+		sessionFactory = HibernateUtil.getSessionFactory();
+		repository = new AsyncBookstoreRepository(sessionFactory);
+		repository.setNaturalIdLookup(HibernateUtil.getNaturalIdLookup());
+	}
+
+	@After
+	public void after() {
+		repository.close();
+	}
+
+	@AfterClass
+	public static void afterClass() {
+		HibernateUtil.closeFactory();
+	}
+
+	@Test
+	public void testFinders() throws Exception {
+		assertEquals(20, repository.getThreadCount());
+		Book book = repository.findByIsbn("0596519788").get();
+		assertEquals("The Productive Programmer", book.getTitle());
+		assertTrue(Hibernate.isInitialized(book.getAuthors()));
+		assertNull(repository.findByIsbn("0000000000").get());
+		Store store = repository.findStore(1L).get();
+		assertEquals("B&N Desert Ridge", store.getNickName());
+		assertEquals(3, repository.getCompletedCount());
+	}
+
+	@Test
+	public void testAdjustInventory() throws Exception {
+		Inventory inventory = repository.adjustInventory(5L, 1L, -3).get();
+		assertEquals(5, inventory.getQuantity());
+		try {
+			repository.adjustInventory(5L, 1L, -6).get();
+			throw new AssertionError("oversold");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalArgumentException);
+		}
+		assertEquals(8, repository.adjustInventory(5L, 1L, 3).get().getQuantity());
+		assertEquals(1, repository.getFailedCount());
+	}
+
+	@Test
+	public void testPagedListing() throws Exception {
+		Page<Book> first = repository.listBooks("title", false, 5).get();
+		assertEquals(5, first.getItems().size());
+		assertEquals("Beginning JBoss Seam", first.getItems().get(0).getTitle());
+		assertTrue(Hibernate.isInitialized(first.getItems().get(0).getAuthors()));
+		Page<Book> second = repository.nextBooks(first.getNextToken(), 5).get();
+		assertEquals(3, second.getItems().size());
+		assertFalse(second.hasNext());
+	}
+
+	/**
+	 * A call still running at the timeout fails and its changes roll back
+	 */
+	@Test
+	public void testTimeout() throws Exception {
+		AsyncBookstoreRepository hurried = new AsyncBookstoreRepository(
+				sessionFactory, 1, 10, 100);
+		final CountDownLatch finished = new CountDownLatch(1);
+		try {
+			CompletableFuture<Void> slow = hurried.submit(new UnitOfWork<Void>() {
+				public Void execute(Session session) {
+					((Store) session.get(Store.class, 2L)).setNickName("renamed");
+					pause(400);
+					finished.countDown();
+					return null;
+				}
+			});
+			try {
+				slow.get();
+				throw new AssertionError("did not time out");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof TimeoutException);
+			}
+			assertTrue(finished.await(1, TimeUnit.SECONDS));
+		} finally {
+			hurried.close();
+		}
+		assertEquals(1, hurried.getTimedOutCount());
+		assertEquals(0, hurried.getCompletedCount());
+		assertEquals("B&N Pima & Shea", repository.findStore(2L).get().getNickName());
+	}
+
+	/**
+	 * A timeout or cancellation arriving while the call commits loses: the
+	 * call completes with what it committed instead of failing after it
+	 */
+	@Test
+	public void testTimeoutDuringCommit() throws Exception {
+		AsyncBookstoreRepository hurried = new AsyncBookstoreRepository(
+				sessionFactory, 1, 10, 1000);
+		final CountDownLatch committing = new CountDownLatch(1);
+		try {
+			CompletableFuture<Store> late = hurried.submit(new UnitOfWork<Store>() {
+				public Store execute(Session session) {
+					Store store = (Store) session.get(Store.class, 2L);
+					store.setNickName("renamed");
+					session.getTransaction().registerSynchronization(
+							new Synchronization() {
+								public void beforeCompletion() {
+									committing.countDown();
+									// past the timeout, with time to spare for the work
+									pause(1500);
+								}
+
+								public void afterCompletion(int status) {
+								}
+							});
+					return store;
+				}
+			});
+			assertTrue(committing.await(5, TimeUnit.SECONDS));
+			assertFalse(late.cancel(false));
+			assertEquals("renamed", late.get().getNickName());
+		} finally {
+			hurried.close();
+		}
+		assertEquals(0, hurried.getTimedOutCount());
+		assertEquals(0, hurried.getCancelledCount());
+		assertEquals(1, hurried.getCompletedCount());
+		assertEquals("renamed", repository.findStore(2L).get().getNickName());
+		repository.submit(new UnitOfWork<Void>() {
+			public Void execute(Session session) {
+				((Store) session.get(Store.class, 2L)).setNickName("B&N Pima & Shea");
+				return null;
+			}
+		}).get();
+	}
+
+	/**
+	 * A call cancelled while queued never runs, one that finds the queue
+	 * full is rejected
+	 */
+	@Test
+	public void testCancellationAndRejection() throws Exception {
+		AsyncBookstoreRepository narrow = new AsyncBookstoreRepository(
+				sessionFactory, 1, 1, 5000);
+		final CountDownLatch running = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicBoolean ran = new AtomicBoolean();
+		try {
+			CompletableFuture<Void> blocking = narrow.read(new UnitOfWork<Void>() {
+				public Void execute(Session session) {
+					running.countDown();
+					try {
+						release.await(5, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					return null;
+				}
+			});
+			assertTrue(running.await(5, TimeUnit.SECONDS));
+			CompletableFuture<Void> queued = narrow.read(new UnitOfWork<Void>() {
+				public Void execute(Session session) {
+					ran.set(true);
+					return null;
+				}
+			});
+			assertEquals(1, narrow.getQueueDepth());
+			CompletableFuture<Store> refused = narrow.findStore(1L);
+			assertTrue(refused.isCompletedExceptionally());
+			try {
+				refused.get();
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof RejectedExecutionException);
+			}
+			assertTrue(queued.cancel(false));
+			release.countDown();
+			blocking.get();
+			assertEquals(Store.class, narrow.findStore(1L).get().getClass());
+		} finally {
+			narrow.close();
+		}
+		assertFalse(ran.get());
+		assertEquals(1, narrow.getCancelledCount());
+		assertEquals(1, narrow.getRejectedCount());
+		assertEquals(1, narrow.getMaxQueueDepth());
+		assertEquals(2, narrow.getCompletedCount());
+	}
+
+	private static void pause(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
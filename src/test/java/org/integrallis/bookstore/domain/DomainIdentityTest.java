@@ -0,0 +1,159 @@
+package org.integrallis.bookstore.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
+import org.integrallis.hibernate.HibernateUtil;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Business key identity of the entities: Book by ISBN, Store by nick name,
+ * Inventory by its (book, store) pair
+ */
+public class DomainIdentityTest {
+
+	private static final int CALLS = 100000;
+
+	private final Book book = new Book("1590595963", "Beginning POJOs",
+			new Date(), Money.valueOf(32.57));
+	private final Store store = new Store("B&N Desert Ridge", "21001 N. Tatum Blvd.",
+			"Phoenix", "AZ", "85050");
+
+	@AfterClass
+	public static void afterClass() {
+		HibernateUtil.closeFactory();
+	}
+
+	@Test
+	public void testBusinessKeys() {
+		Book sameIsbn = new ElectronicBook("1590595963", "Another Title", null,
+				null, "http://www.apress.com/resource/bookfile/2713", "PDF");
+		assertEquals(book, sameIsbn);
+		assertEquals(book.hashCode(), sameIsbn.hashCode());
+		assertFalse(book.equals(new Book("0596519788", "Beginning POJOs", null, null)));
+		assertEquals(new Book(), new Book());
+
+		Store sameNickName = new Store("B&N Desert Ridge", null, null, null, null);
+		assertEquals(store, sameNickName);
+		assertEquals(store.hashCode(), sameNickName.hashCode());
+		assertFalse(store.equals(new Store("B&N Pima & Shea", null, null, null, null)));
+	}
+
+	/**
+	 * Two records for the same book and store are one element of
+	 * Book.inventoryRecords
+	 */
+	@Test
+	public void testInventoryRecordsDeduplicate() {
+		book.addInventoryRecord(store, 5);
+		book.addInventoryRecord(new Store("B&N Desert Ridge", null, null, null,
+				null), 7);
+		book.addInventoryRecord(new Store("B&N Pima & Shea", null, null, null,
+				null), 25);
+		assertEquals(2, book.getInventoryRecords().size());
+
+		Inventory other = new Inventory(store, 1);
+		other.setBook(new Book("1590595963", null, null, null));
+		assertTrue(book.getInventoryRecords().contains(other));
+		assertTrue(other.toString().startsWith("Inventory[id=null,book=null,store=null"));
+	}
+
+	/**
+	 * Book 2 is stocked in stores 1 and 2 of db_populate.sql: its records are
+	 * hashed into the set without loading the stores behind their proxies
+	 */
+	@Test
+	public void testInventoryRecordsLeaveStoresUninitialized() {
+		Session session = HibernateUtil.getSessionFactory().openSession();
+		try {
+			Book stocked = (Book) session.get(Book.class, 2L);
+			Set<Inventory> records = stocked.getInventoryRecords();
+			assertEquals(2, records.size());
+			for (Inventory record : records) {
+				assertTrue(records.contains(record));
+				assertFalse(Hibernate.isInitialized(record.getStore()));
+			}
+			Inventory same = new Inventory((Store) session.get(Store.class, 1L), 0);
+			same.setBook(stocked);
+			assertTrue(records.contains(same));
+		} finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * Saving a store neither changes the hash of its records nor tells them
+	 * apart from records of the same store not saved yet
+	 */
+	@Test
+	public void testSavingTheStoreKeepsTheRecord() {
+		Session session = HibernateUtil.getSessionFactory().openSession();
+		try {
+			session.beginTransaction();
+			Store opened = new Store("B&N Scottsdale", "7014 E. Camelback Rd.",
+					"Scottsdale", "AZ", "85251");
+			book.addInventoryRecord(opened, 3);
+			Inventory record = book.getInventoryRecords().iterator().next();
+			session.save(opened);
+			assertNotNull(opened.getId());
+			assertTrue(book.getInventoryRecords().contains(record));
+			Inventory unsaved = new Inventory(new Store("B&N Scottsdale", null,
+					null, null, null), 1);
+			unsaved.setBook(book);
+			assertTrue(book.getInventoryRecords().contains(unsaved));
+			assertEquals(record.hashCode(), unsaved.hashCode());
+		} finally {
+			session.getTransaction().rollback();
+			session.close();
+		}
+	}
+
+	@Test
+	public void testIdentityDoesNotAllocate() {
+		Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+		Inventory inventory = new Inventory(store, 5);
+		inventory.setBook(book);
+		Inventory same = new Inventory(new Store("B&N Desert Ridge", null, null,
+				null, null), 1);
+		same.setBook(new Book("1590595963", null, null, null));
+		Set<Inventory> records = new HashSet<Inventory>();
+		records.add(inventory);
+
+		identity(inventory, same, records);
+		long before = allocatedBytes();
+		int matches = identity(inventory, same, records);
+		long allocated = allocatedBytes() - before;
+		assertEquals(CALLS, matches);
+		// a builder per call would be several MB
+		assertTrue("allocated " + allocated + " bytes", allocated < 10000);
+	}
+
+	private static int identity(Inventory inventory, Inventory same,
+			Set<Inventory> records) {
+		int matches = 0;
+		for (int i = 0; i < CALLS; i++) {
+			if (inventory.equals(same) && inventory.hashCode() == same.hashCode()
+					&& records.contains(same)) {
+				matches++;
+			}
+		}
+		return matches;
+	}
+
+	private static long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread()
+				.getId());
+	}
+}
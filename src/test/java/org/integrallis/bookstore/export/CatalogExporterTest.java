@@ -0,0 +1,121 @@
+package org.integrallis.bookstore.export;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.integrallis.bookstore.domain.Book;
+import org.integrallis.bookstore.importer.BookRecord;
+import org.integrallis.bookstore.importer.BookRecordSource;
+import org.integrallis.bookstore.importer.CsvBookRecordSource;
+import org.integrallis.hibernate.HibernateUtil;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CatalogExporterTest {
+
+	private CatalogExporter exporter;
+
+	@Before
+	public void before() {
+		exporter = new CatalogExporter(HibernateUtil.getSessionFactory());
+		// several session clears and buffer drains even for the fixtures
+		exporter.setFetchSize(3);
+		exporter.setBufferSize(64);
+	}
+
+	@AfterClass
+	public static void afterClass() {
+		HibernateUtil.closeFactory();
+	}
+
+	@Test
+	public void testNdjsonExport() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		assertEquals(8, exporter.export(new NdjsonCatalogFormat(), Channels
+				.newChannel(bytes)));
+
+		String[] lines = bytes.toString("UTF-8").split("\n");
+		assertEquals(8, lines.length);
+		assertEquals("{\"id\":1,\"isbn\":\"1590595963\",\"title\":\"Beginning POJOs\","
+				+ "\"publishedOn\":\"2006-03-24\",\"price\":32.57,\"authors\":[\"Brian Sam-Bodden\"],"
+				+ "\"url\":\"http://www.apress.com/resource/bookfile/2713\",\"fileType\":\"PDF\","
+				+ "\"stock\":[{\"storeId\":1,\"quantity\":5},{\"storeId\":2,\"quantity\":25}]}",
+				lines[0]);
+		// a printed book with several authors
+		assertTrue(lines[7].startsWith("{\"id\":8,"));
+		assertTrue(lines[7].contains("\"authors\":[\""));
+		assertEquals(4, lines[7].split("\"authors\":\\[")[1].split("\\]")[0]
+				.split(",").length);
+		assertTrue(!lines[7].contains("\"url\""));
+	}
+
+	/**
+	 * Titles are written a char at a time: a character outside the BMP must
+	 * not lose its surrogate pair between two writes
+	 */
+	@Test
+	public void testSupplementaryCharacters() throws Exception {
+		String title = "Grinning \ud83d\ude00 and \ud840\udc00";
+		String original = retitle(1L, title);
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			exporter.export(new NdjsonCatalogFormat(), Channels.newChannel(bytes));
+			String first = bytes.toString("UTF-8").split("\n")[0];
+			assertTrue(first, first.contains("\"title\":\"" + title + "\""));
+		} finally {
+			retitle(1L, original);
+		}
+	}
+
+	@Test
+	public void testCsvExportReadsBackAsFeed() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		assertEquals(8, exporter.export(new CsvCatalogFormat(), Channels
+				.newChannel(bytes)));
+
+		final List<BookRecord> records = new ArrayList<BookRecord>();
+		new CsvBookRecordSource(new InputStreamReader(new ByteArrayInputStream(
+				bytes.toByteArray()), "UTF-8")).read(new BookRecordSource.Handler() {
+			public void record(BookRecord record) {
+				records.add(record);
+			}
+		});
+		// one line per inventory row
+		assertEquals(13, records.size());
+		for (BookRecord record : records) {
+			assertEquals(null, record.getError());
+		}
+		assertEquals("1590595963", records.get(0).getIsbn());
+		assertEquals("Beginning POJOs", records.get(0).getTitle());
+		assertEquals("1590595963", records.get(1).getIsbn());
+		assertEquals(null, records.get(1).getTitle());
+	}
+
+	private static String retitle(Long bookId, String title) {
+		SessionFactory sessionFactory = HibernateUtil.getSessionFactory();
+		Session session = sessionFactory.openSession();
+		try {
+			session.beginTransaction();
+			String original = (String) session.createSQLQuery(
+					"SELECT Title FROM Book WHERE BOOK_ID = ?").setLong(0, bookId)
+					.uniqueResult();
+			session.createSQLQuery("UPDATE Book SET Title = ? WHERE BOOK_ID = ?")
+					.setString(0, title).setLong(1, bookId).executeUpdate();
+			session.getTransaction().commit();
+			sessionFactory.evict(Book.class);
+			return original;
+		} finally {
+			session.close();
+		}
+	}
+}
@@ -0,0 +1,192 @@
+package org.integrallis.bookstore.importer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStreamReader;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.hibernate.Session;
+import org.integrallis.bookstore.domain.Book;
+import org.integrallis.bookstore.domain.ElectronicBook;
+import org.integrallis.bookstore.domain.Inventory;
+import org.integrallis.bookstore.domain.Money;
+import org.integrallis.hibernate.HibernateUtil;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BookImporterTest {
+
+	private BookImporter importer;
+
+	@Before
+	public void before() {
+		importer = new BookImporter(HibernateUtil.getSessionFactory());
+	}
+
+	@AfterClass
+	public static void afterClass() {
+		HibernateUtil.closeFactory();
+	}
+
+	@Test
+	public void testCsvImport() throws Exception {
+		ImportResult result = importer.importBooks(new CsvBookRecordSource(
+				new InputStreamReader(BookImporterTest.class
+						.getResourceAsStream("/import-books.csv"), "UTF-8")));
+
+		assertEquals(10, result.getRecords());
+		assertEquals(1, result.getDuplicates());
+		assertEquals(3, result.getBooksInserted());
+		assertEquals(1, result.getBooksUpdated());
+		assertEquals(5, result.getAuthorRows());
+		assertEquals(4, result.getInventoryInserted());
+		assertEquals(2, result.getInventoryUpdated());
+		assertEquals(4, result.getRejected());
+		Set<String> rejected = new HashSet<String>();
+		for (ImportResult.Reject reject : result.getRejects()) {
+			rejected.add(reject.getPosition());
+		}
+		assertTrue(rejected.contains("line 7"));
+		assertTrue(rejected.contains("line 8"));
+		assertTrue(rejected.contains("line 9"));
+		// Groovy Recipes is already in the catalog as a printed book
+		assertTrue(rejected.contains("line 11"));
+		assertTrue(result.getRecordsPerSecond() > 0);
+
+		Session session = HibernateUtil.getSessionFactory().openSession();
+		try {
+			Book jpwh = findByIsbn(session, "1617290459");
+			assertEquals("Java Persistence with Hibernate", jpwh.getTitle());
+			assertEquals(3, jpwh.getAuthors().size());
+			assertTrue(jpwh.getAuthors().contains("Gregory"));
+			assertEquals(2, jpwh.getInventoryRecords().size());
+
+			Book grails = findByIsbn(session, "1934356379");
+			assertTrue(grails instanceof ElectronicBook);
+			assertEquals("PDF", ((ElectronicBook) grails).getFileType());
+
+			Book effectiveJava = findByIsbn(session, "0321356683");
+			assertEquals("Effective Java, Second Edition", effectiveJava.getTitle());
+
+			// updated in place, authors left alone
+			Book pojos = (Book) session.get(Book.class, 1L);
+			assertEquals(29.99, pojos.getPrice().doubleValue(), 0.001);
+			assertEquals(2, pojos.getVersion());
+			assertEquals(1, pojos.getAuthors().size());
+			assertEquals(12, quantity(pojos, 1L));
+
+			// a line without a title only sets the quantity
+			Book programmer = (Book) session.get(Book.class, 3L);
+			assertEquals("The Productive Programmer", programmer.getTitle());
+			assertEquals(6, quantity(programmer, 1L));
+		} finally {
+			session.close();
+		}
+	}
+
+	@Test
+	public void testFlatXmlImport() throws Exception {
+		ImportResult result = importer.importBooks(new FlatXmlBookRecordSource(
+				BookImporterTest.class.getResourceAsStream("/import-books.xml")));
+
+		assertEquals(4, result.getRecords());
+		assertEquals(1, result.getBooksInserted());
+		assertEquals(2, result.getAuthorRows());
+		assertEquals(1, result.getInventoryInserted());
+		assertEquals(1, result.getInventoryUpdated());
+		assertEquals(2, result.getRejected());
+
+		Session session = HibernateUtil.getSessionFactory().openSession();
+		try {
+			Book book = findByIsbn(session, "1933988177");
+			assertTrue(book instanceof ElectronicBook);
+			assertEquals(2, book.getAuthors().size());
+			assertEquals(3, quantity(book, 1L));
+
+			Calendar publishedOn = Calendar.getInstance();
+			publishedOn.setTime(book.getPublishedOn());
+			assertEquals(2004, publishedOn.get(Calendar.YEAR));
+
+			assertEquals(50, quantity((Book) session.get(Book.class, 8L), 2L));
+		} finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * Rows referencing a book by BOOK_ID only, like the lab 2.5 data set
+	 */
+	@Test
+	public void testDbUnitDataSetImport() throws Exception {
+		ImportResult result = importer.importBooks(new FlatXmlBookRecordSource(
+				BookImporterTest.class.getResourceAsStream("/lab-2-5-dataset.xml")));
+
+		assertEquals(1, result.getRecords());
+		assertEquals(1, result.getInventoryInserted());
+		assertEquals(0, result.getRejected());
+
+		Session session = HibernateUtil.getSessionFactory().openSession();
+		try {
+			Book book = (Book) session.get(Book.class, 3L);
+			assertEquals(2, book.getInventoryRecords().size());
+			assertEquals(5, quantity(book, 2L));
+		} finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * A feed much larger than the queue and the chunks still goes through
+	 */
+	@Test
+	public void testBoundedPipeline() throws Exception {
+		importer.setQueueCapacity(4);
+		importer.setChunkSize(64);
+		final int books = 1000;
+		ImportResult result = importer.importBooks(new BookRecordSource() {
+			public void read(Handler handler) throws InterruptedException {
+				for (int i = 0; i < books; i++) {
+					BookRecord record = new BookRecord("record " + i);
+					record.setIsbn(Long.toString(5000000000L + i));
+					record.setDetails("Generated " + i, null, Money.ofCents(1000));
+					record.addAuthor("Some", "Author");
+					record.setQuantity(Long.valueOf(1 + i % 2), Integer.valueOf(i % 7));
+					handler.record(record);
+				}
+			}
+		});
+
+		assertEquals(books, result.getRecords());
+		assertEquals(books, result.getBooksInserted());
+		assertEquals(books, result.getAuthorRows());
+		assertEquals(books, result.getInventoryInserted());
+		assertEquals(0, result.getRejected());
+
+		Session session = HibernateUtil.getSessionFactory().openSession();
+		try {
+			assertEquals(Long.valueOf(books), session.createQuery(
+					"SELECT count(b) FROM Book b WHERE b.title LIKE 'Generated %'")
+					.uniqueResult());
+		} finally {
+			session.close();
+		}
+	}
+
+	private static Book findByIsbn(Session session, String isbn) {
+		return (Book) session.getNamedQuery("Book.findByISBN").setString("isbn",
+				isbn).uniqueResult();
+	}
+
+	private static int quantity(Book book, Long storeId) {
+		for (Inventory inventory : book.getInventoryRecords()) {
+			if (inventory.getStore().getId().equals(storeId)) {
+				return inventory.getQuantity();
+			}
+		}
+		return -1;
+	}
+}
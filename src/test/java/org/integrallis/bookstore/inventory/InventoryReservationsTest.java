@@ -0,0 +1,304 @@
+package org.integrallis.bookstore.inventory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.StaleStateException;
+import org.integrallis.bookstore.BookstoreBootstrap;
+import org.integrallis.bookstore.domain.Inventory;
+import org.integrallis.hibernate.HibernateUtil;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Reservations against the inventory of db_populate.sql: book 7 has 99 in
+ * store 1, book 2 has 32 in store 1 and 11 in store 2
+ */
+public class InventoryReservationsTest {
+
+	private static final int THREADS = 16;
+
+	private SessionFactory sessionFactory;
+	private InventoryWriteBehind writeBehind;
+	private InventoryReservations reservations;
+
+	@Before
+	public void before() {
+		sessionFactory = HibernateUtil.getSessionFactory();
+		writeBehind = new InventoryWriteBehind(sessionFactory, 4, 5,
+				InventoryWriteBehind.DEFAULT_MAX_PENDING,
+				InventoryWriteBehind.DEFAULT_MAX_WAIT);
+		writeBehind.setStoreValuation(BookstoreBootstrap.getStoreValuation());
+		writeBehind.start();
+		reservations = new InventoryReservations(sessionFactory, writeBehind);
+	}
+
+	@After
+	public void after() {
+		writeBehind.close();
+	}
+
+	@AfterClass
+	public static void afterClass() {
+		HibernateUtil.closeFactory();
+	}
+
+	@Test
+	public void testReserveAndRelease() {
+		assertEquals(11, reservations.getAvailable(2L, 2L));
+		assertTrue(reservations.reserve(2L, 2L, 10));
+		assertFalse(reservations.reserve(2L, 2L, 2));
+		assertEquals(1, reservations.getAvailable(2L, 2L));
+		reservations.release(2L, 2L, 10);
+		assertFalse(reservations.reserve(3L, 2L, 1));
+		assertEquals(0, reservations.getAvailable(3L, 2L));
+		reservations.flush();
+		assertEquals(11, quantity(2L, 2L));
+		assertEquals(2, reservations.getRejectionCount());
+	}
+
+	/**
+	 * Threads race for the 99 copies of book 7 in store 1 until none is left:
+	 * exactly 99 are reserved and the row ends at 0, one version per write
+	 */
+	@Test
+	public void testNoOversellUnderContention() throws Exception {
+		int before = version(7L, 1L);
+		List<Integer> reserved = race(new Task() {
+			public int run(Random random) {
+				int count = 0;
+				while (true) {
+					int quantity = 1 + random.nextInt(2);
+					if (reservations.reserve(7L, 1L, quantity)) {
+						count += quantity;
+					} else if (reservations.reserve(7L, 1L, 1)) {
+						count++;
+					} else {
+						return count;
+					}
+				}
+			}
+		});
+		int total = 0;
+		for (int count : reserved) {
+			total += count;
+		}
+		assertEquals(99, total);
+		assertEquals(0, reservations.getAvailable(7L, 1L));
+		reservations.flush();
+		assertEquals(0, quantity(7L, 1L));
+		assertTrue(version(7L, 1L) > before);
+		restore(7L, 1L, 99);
+	}
+
+	/**
+	 * Reserves and releases interleaved on two hot rows: what is written is
+	 * exactly what the threads kept, no update is lost
+	 */
+	@Test
+	public void testNoLostUpdates() throws Exception {
+		final long[][] pairs = { { 2L, 1L }, { 2L, 2L } };
+		List<Integer> kept = race(new Task() {
+			public int run(Random random) {
+				int kept = 0;
+				for (int i = 0; i < 2000; i++) {
+					long[] pair = pairs[i % 2];
+					int quantity = 1 + random.nextInt(3);
+					if (reservations.reserve(pair[0], pair[1], quantity)) {
+						if (random.nextBoolean()) {
+							reservations.release(pair[0], pair[1], quantity);
+						} else if (pair[1] == 1L) {
+							kept += quantity;
+						} else {
+							kept += quantity * 1000;
+						}
+					}
+				}
+				return kept;
+			}
+		});
+		int keptInStore1 = 0;
+		int keptInStore2 = 0;
+		for (int count : kept) {
+			keptInStore1 += count % 1000;
+			keptInStore2 += count / 1000;
+		}
+		BigDecimal value = BookstoreBootstrap.getStoreValuation().getValue(1L);
+		writeBehind.close();
+		assertEquals(32 - keptInStore1, quantity(2L, 1L));
+		assertEquals(11 - keptInStore2, quantity(2L, 2L));
+		assertEquals(reservations.getAvailable(2L, 1L), quantity(2L, 1L));
+		// the valuation heard about the written stock
+		assertEquals(storeValue(1L), BookstoreBootstrap.getStoreValuation().getValue(1L));
+		assertTrue(value.compareTo(BigDecimal.ZERO) > 0);
+		restore(2L, 1L, 32);
+		restore(2L, 2L, 11);
+	}
+
+	/**
+	 * A reservation made while clear() is between its flush and forgetting
+	 * the quantities must not be missing from the quantity read again
+	 */
+	@Test
+	public void testClearDoesNotLoseReservations() throws Exception {
+		final CountDownLatch flushed = new CountDownLatch(1);
+		final CountDownLatch proceed = new CountDownLatch(1);
+		final Thread clearing = new Thread() {
+			public void run() {
+				reservations.clear();
+			}
+		};
+		writeBehind.close();
+		writeBehind = new InventoryWriteBehind(sessionFactory, 4, 5,
+				InventoryWriteBehind.DEFAULT_MAX_PENDING,
+				InventoryWriteBehind.DEFAULT_MAX_WAIT) {
+			public void flush() {
+				super.flush();
+				if (Thread.currentThread() == clearing) {
+					flushed.countDown();
+					try {
+						proceed.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+		};
+		writeBehind.start();
+		reservations = new InventoryReservations(sessionFactory, writeBehind);
+		assertEquals(32, reservations.getAvailable(2L, 1L));
+		clearing.start();
+		flushed.await();
+		Thread reserving = new Thread() {
+			public void run() {
+				reservations.reserve(2L, 1L, 1);
+			}
+		};
+		reserving.start();
+		// give it the chance to slip in before the quantities are forgotten
+		reserving.join(200);
+		proceed.countDown();
+		clearing.join();
+		reserving.join();
+		assertEquals(31, reservations.getAvailable(2L, 1L));
+		reservations.flush();
+		assertEquals(31, quantity(2L, 1L));
+		restore(2L, 1L, 32);
+	}
+
+	/**
+	 * With a version, the second of two concurrent edits of a row fails
+	 */
+	@Test(expected = StaleStateException.class)
+	public void testConcurrentSessionEditsConflict() {
+		Session first = sessionFactory.openSession();
+		Session second = sessionFactory.openSession();
+		try {
+			first.beginTransaction();
+			second.beginTransaction();
+			Inventory one = (Inventory) first.get(Inventory.class, 9L);
+			Inventory other = (Inventory) second.get(Inventory.class, 9L);
+			one.setQuantity(one.getQuantity() - 1);
+			other.setQuantity(other.getQuantity() - 2);
+			first.getTransaction().commit();
+			second.getTransaction().commit();
+		} finally {
+			if (second.getTransaction().isActive()) {
+				second.getTransaction().rollback();
+			}
+			first.close();
+			second.close();
+			restore(6L, 1L, 10);
+		}
+	}
+
+	private interface Task {
+		int run(Random random);
+	}
+
+	private List<Integer> race(final Task task) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		final CountDownLatch start = new CountDownLatch(1);
+		try {
+			List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+			for (int i = 0; i < THREADS; i++) {
+				final long seed = i;
+				futures.add(executor.submit(new Callable<Integer>() {
+					public Integer call() throws Exception {
+						start.await();
+						return task.run(new Random(seed));
+					}
+				}));
+			}
+			start.countDown();
+			List<Integer> results = new ArrayList<Integer>();
+			for (Future<Integer> future : futures) {
+				results.add(future.get());
+			}
+			return results;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private int quantity(Long bookId, Long storeId) {
+		return ((Number) query(bookId, storeId, "Quantity")).intValue();
+	}
+
+	private int version(Long bookId, Long storeId) {
+		return ((Number) query(bookId, storeId, "Version")).intValue();
+	}
+
+	private Object query(Long bookId, Long storeId, String column) {
+		Session session = sessionFactory.openSession();
+		try {
+			return session.createSQLQuery(
+					"SELECT " + column + " FROM Inventory WHERE BOOK_ID = ? AND STORE_ID = ?")
+					.setLong(0, bookId).setLong(1, storeId).uniqueResult();
+		} finally {
+			session.close();
+		}
+	}
+
+	private BigDecimal storeValue(Long storeId) {
+		Session session = sessionFactory.openSession();
+		try {
+			return ((BigDecimal) session.getNamedQuery(
+					"Store.findTotalValueOfBookForStore").setLong("store_id",
+					storeId).uniqueResult()).setScale(2);
+		} finally {
+			session.close();
+		}
+	}
+
+	private void restore(Long bookId, Long storeId, int quantity) {
+		Session session = sessionFactory.openSession();
+		try {
+			session.beginTransaction();
+			session.createSQLQuery(
+					"UPDATE Inventory SET Quantity = ? WHERE BOOK_ID = ? AND STORE_ID = ?")
+					.setInteger(0, quantity).setLong(1, bookId).setLong(2, storeId)
+					.executeUpdate();
+			session.getTransaction().commit();
+		} finally {
+			session.close();
+		}
+		sessionFactory.evict(Inventory.class);
+		BookstoreBootstrap.getStoreValuation().invalidate();
+	}
+}
@@ -0,0 +1,242 @@
+package org.integrallis.bookstore.inventory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.integrallis.bookstore.domain.Inventory;
+import org.integrallis.hibernate.HibernateUtil;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Quantity changes against the inventory of db_populate.sql: book 5 has 8 in
+ * store 1 and 18 in store 2, book 6 has 10 in each
+ */
+public class InventoryWriteBehindTest {
+
+	private SessionFactory sessionFactory;
+
+	@Before
+	public void before() {
+		sessionFactory = HibernateUtil.getSessionFactory();
+	}
+
+	@AfterClass
+	public static void afterClass() {
+		HibernateUtil.closeFactory();
+	}
+
+	/**
+	 * Thousands of deltas on two rows become two UPDATEs per flush
+	 */
+	@Test
+	public void testDeltasAreCoalesced() throws Exception {
+		final InventoryWriteBehind writeBehind = new InventoryWriteBehind(
+				sessionFactory);
+		int version = version(5L, 1L);
+		run(8, new Callable<Void>() {
+			public Void call() {
+				for (int i = 0; i < 500; i++) {
+					writeBehind.add(5L, 1L, 1);
+					writeBehind.add(5L, 2L, -1);
+					writeBehind.add(5L, 2L, 1);
+				}
+				return null;
+			}
+		});
+		assertEquals(2, writeBehind.getPendingCount());
+		writeBehind.flush();
+		assertEquals(0, writeBehind.getPendingCount());
+		assertEquals(8 + 4000, quantity(5L, 1L));
+		assertEquals(version + 1, version(5L, 1L));
+		// the deltas of book 5 in store 2 cancelled out, nothing to write
+		assertEquals(18, quantity(5L, 2L));
+		assertEquals(12000, writeBehind.getDeltasReceived());
+		assertEquals(1, writeBehind.getRowsWritten());
+		assertEquals(12000.0, writeBehind.getCoalescingRatio(), 0.0);
+		assertEquals(1, writeBehind.getFlushLatency().getCount());
+		writeBehind.close();
+		restore(5L, 1L, 8);
+		restore(5L, 2L, 18);
+	}
+
+	/**
+	 * With no flusher running and no room for a second row, adding one waits
+	 * for a flush, and gives up after maxWait
+	 */
+	@Test
+	public void testBackpressure() throws Exception {
+		final InventoryWriteBehind writeBehind = new InventoryWriteBehind(
+				sessionFactory, 10, 60000, 1, 200);
+		writeBehind.add(6L, 1L, -1);
+		// merging into a waiting row needs no room
+		writeBehind.add(6L, 1L, -1);
+		try {
+			writeBehind.add(6L, 2L, -1);
+			throw new AssertionError("added without room");
+		} catch (HibernateException expected) {
+		}
+		final CountDownLatch added = new CountDownLatch(1);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			executor.submit(new Callable<Void>() {
+				public Void call() {
+					writeBehind.add(6L, 2L, -1);
+					added.countDown();
+					return null;
+				}
+			});
+			assertTrue(!added.await(50, TimeUnit.MILLISECONDS));
+			writeBehind.flush();
+			assertTrue(added.await(1, TimeUnit.SECONDS));
+		} finally {
+			executor.shutdown();
+		}
+		writeBehind.close();
+		assertEquals(8, quantity(6L, 1L));
+		assertEquals(9, quantity(6L, 2L));
+		restore(6L, 1L, 10);
+		restore(6L, 2L, 10);
+	}
+
+	/**
+	 * Rows waiting when the queue is closed are written before close returns,
+	 * and the queue takes no more
+	 */
+	@Test
+	public void testCloseIsDurable() {
+		InventoryWriteBehind writeBehind = new InventoryWriteBehind(
+				sessionFactory, 100, 60000, 100, 1000);
+		writeBehind.start();
+		writeBehind.add(5L, 2L, -3);
+		writeBehind.add(6L, 1L, 2);
+		writeBehind.add(99L, 1L, 1);
+		writeBehind.close();
+		assertEquals(15, quantity(5L, 2L));
+		assertEquals(12, quantity(6L, 1L));
+		assertEquals(1, writeBehind.getUnknownRowCount());
+		assertEquals(0, writeBehind.getPendingCount());
+		try {
+			writeBehind.add(5L, 2L, 1);
+			throw new AssertionError("added after close");
+		} catch (IllegalStateException expected) {
+		}
+		restore(5L, 2L, 18);
+		restore(6L, 1L, 10);
+	}
+
+	/**
+	 * A started queue is closed when the JVM exits, so what the daemon flusher
+	 * had not written yet is not lost; closing it first unregisters the hook
+	 */
+	@Test
+	public void testShutdownHookCloses() {
+		InventoryWriteBehind writeBehind = new InventoryWriteBehind(
+				sessionFactory, 100, 60000, 100, 1000);
+		assertNull(writeBehind.getShutdownHook());
+		writeBehind.start();
+		Thread hook = writeBehind.getShutdownHook();
+		// registered, run it here the way the JVM would on exit
+		assertTrue(Runtime.getRuntime().removeShutdownHook(hook));
+		writeBehind.add(5L, 2L, -3);
+		hook.run();
+		assertEquals(15, quantity(5L, 2L));
+		assertEquals(0, writeBehind.getPendingCount());
+		assertNull(writeBehind.getShutdownHook());
+		restore(5L, 2L, 18);
+
+		writeBehind = new InventoryWriteBehind(sessionFactory, 100, 60000, 100,
+				1000);
+		writeBehind.start();
+		hook = writeBehind.getShutdownHook();
+		writeBehind.close();
+		assertFalse(Runtime.getRuntime().removeShutdownHook(hook));
+	}
+
+	/**
+	 * A full batch is written without waiting for the flush interval
+	 */
+	@Test
+	public void testSizeTrigger() throws Exception {
+		InventoryWriteBehind writeBehind = new InventoryWriteBehind(
+				sessionFactory, 2, 60000, 100, 1000);
+		writeBehind.start();
+		try {
+			writeBehind.add(5L, 1L, 1);
+			writeBehind.add(5L, 2L, 1);
+			for (int i = 0; i < 100 && writeBehind.getRowsWritten() < 2; i++) {
+				Thread.sleep(10);
+			}
+			assertEquals(2, writeBehind.getRowsWritten());
+			assertEquals(9, quantity(5L, 1L));
+		} finally {
+			writeBehind.close();
+			restore(5L, 1L, 8);
+			restore(5L, 2L, 18);
+		}
+	}
+
+	private void run(int threads, Callable<Void> task) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (int i = 0; i < threads; i++) {
+				futures.add(executor.submit(task));
+			}
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private int quantity(Long bookId, Long storeId) {
+		return ((Number) query(bookId, storeId, "Quantity")).intValue();
+	}
+
+	private int version(Long bookId, Long storeId) {
+		return ((Number) query(bookId, storeId, "Version")).intValue();
+	}
+
+	private Object query(Long bookId, Long storeId, String column) {
+		Session session = sessionFactory.openSession();
+		try {
+			return session.createSQLQuery(
+					"SELECT " + column + " FROM Inventory WHERE BOOK_ID = ? AND STORE_ID = ?")
+					.setLong(0, bookId).setLong(1, storeId).uniqueResult();
+		} finally {
+			session.close();
+		}
+	}
+
+	private void restore(Long bookId, Long storeId, int quantity) {
+		Session session = sessionFactory.openSession();
+		try {
+			session.beginTransaction();
+			session.createSQLQuery(
+					"UPDATE Inventory SET Quantity = ? WHERE BOOK_ID = ? AND STORE_ID = ?")
+					.setInteger(0, quantity).setLong(1, bookId).setLong(2, storeId)
+					.executeUpdate();
+			session.getTransaction().commit();
+		} finally {
+			session.close();
+		}
+		sessionFactory.evict(Inventory.class);
+	}
+}
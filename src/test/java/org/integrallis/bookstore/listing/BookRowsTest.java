@@ -0,0 +1,130 @@
+package org.integrallis.bookstore.listing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.criterion.Restrictions;
+import org.integrallis.bookstore.domain.Book;
+import org.integrallis.bookstore.domain.Money;
+import org.integrallis.hibernate.HibernateUtil;
+import org.integrallis.hibernate.paging.Page;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Rows must list what the entity queries list, without the entities
+ */
+public class BookRowsTest {
+
+	private SessionFactory sessionFactory;
+	private Session session;
+
+	@Before
+	public void before() {
+		sessionFactory = HibernateUtil.getSessionFactory();
+		session = sessionFactory.openSession();
+	}
+
+	@After
+	public void after() {
+		session.close();
+	}
+
+	@AfterClass
+	public static void afterClass() {
+		HibernateUtil.closeFactory();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testPagesMatchEntities() {
+		for (String orderBy : BookRows.ORDERINGS) {
+			List<Book> books = session.createQuery(
+					"FROM Book b ORDER BY b." + orderBy + " DESC, b.id DESC").list();
+			List<BookRow> rows = new ArrayList<BookRow>();
+			for (int first = 0; first < books.size(); first += 3) {
+				rows.addAll(BookRows.page(session, orderBy, true, first, 3));
+			}
+			assertEquals(books.size(), rows.size());
+			for (int i = 0; i < books.size(); i++) {
+				Book book = books.get(i);
+				BookRow row = rows.get(i);
+				assertEquals(orderBy, book.getId().longValue(), row.getId());
+				assertEquals(book.getIsbn(), row.getIsbn());
+				assertEquals(book.getTitle(), row.getTitle());
+				assertEquals(book.getPrice(), row.getPrice());
+				assertEquals(book.getPublishedOn().getTime(), row.getPublishedOn()
+						.getTime());
+			}
+			session.clear();
+		}
+	}
+
+	/**
+	 * Walking a listing by keyset gives the rows offset paging gives, and a
+	 * token of the entity listing continues as rows
+	 */
+	@Test
+	public void testKeysetPagesMatchOffsetPages() {
+		for (String orderBy : BookRows.ORDERINGS) {
+			for (boolean descending : new boolean[] { false, true }) {
+				List<BookRow> rows = new ArrayList<BookRow>();
+				Page<BookRow> page = BookRows.first(session, orderBy, descending, 3);
+				rows.addAll(page.getItems());
+				while (page.hasNext()) {
+					page = BookRows.next(session, page.getNextToken(), 3);
+					rows.addAll(page.getItems());
+				}
+				assertEquals(orderBy, BookRows.page(session, orderBy, descending,
+						0, 20), rows);
+			}
+		}
+		assertEquals(0, session.getStatistics().getEntityCount());
+
+		Page<Book> books = Listings.BOOKS.first(session, "price", false, 3);
+		assertEquals(BookRows.page(session, "price", false, 3, 20), BookRows
+				.next(session, books.getNextToken(), 20).getItems());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testRowsAreNotEntities() {
+		assertEquals(8, BookRows.page(session, "title", false, 0, 20).size());
+		List<BookRow> rows = BookRows.order(BookRows.createCriteria(session).add(
+				Restrictions.lt("price", Money.parse("30.00"))), "price", false)
+				.list();
+		assertEquals(4, rows.size());
+		assertEquals(Money.parse("23.07"), rows.get(0).getPrice());
+		assertTrue(rows.get(0).getId() < rows.get(1).getId());
+		assertEquals(0, session.getStatistics().getEntityCount());
+		assertEquals(0, session.getStatistics().getCollectionCount());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testPublishedBetweenFilter() throws Exception {
+		SimpleDateFormat dates = new SimpleDateFormat("yyyy-MM-dd");
+		session.enableFilter("publishedBetweenFilter").setParameter("startDate",
+				dates.parse("2008-01-01")).setParameter("endDate",
+				dates.parse("2008-12-31"));
+		List<Book> books = session.createQuery("FROM Book").list();
+		session.clear();
+		assertEquals(books.size(), BookRows.page(session, "id", false, 0, 20)
+				.size());
+		assertEquals(books.size(), BookRows.createCriteria(session).list().size());
+		assertTrue(books.size() < 8);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownOrdering() {
+		BookRows.page(session, "authors", false, 0, 20);
+	}
+}
@@ -0,0 +1,121 @@
+package org.integrallis.bookstore.listing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.hibernate.CacheMode;
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Restrictions;
+import org.hibernate.stat.Statistics;
+import org.integrallis.bookstore.domain.Book;
+import org.integrallis.bookstore.domain.Inventory;
+import org.integrallis.hibernate.HibernateUtil;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Statements run by each plan for the 8 books, 13 inventory records and 2
+ * stores of db_populate.sql, with the second-level cache out of the way
+ */
+public class FetchPlanTest {
+
+	private SessionFactory sessionFactory;
+	private Statistics statistics;
+	private Session session;
+
+	@Before
+	public void before() {
+		sessionFactory = HibernateUtil.getSessionFactory();
+		statistics = sessionFactory.getStatistics();
+		statistics.setStatisticsEnabled(true);
+		session = sessionFactory.openSession();
+		session.setCacheMode(CacheMode.IGNORE);
+		statistics.clear();
+	}
+
+	@After
+	public void after() {
+		session.close();
+		statistics.setStatisticsEnabled(false);
+	}
+
+	@AfterClass
+	public static void afterClass() {
+		HibernateUtil.closeFactory();
+	}
+
+	@Test
+	public void testCatalogList() {
+		FetchPlan plan = FetchPlan.forName("catalog-list");
+		List<Book> books = plan.list(plan.createCriteria(session).addOrder(
+				Order.asc("id")));
+		assertEquals(8, books.size());
+		for (Book book : books) {
+			assertTrue(Hibernate.isInitialized(book.getAuthors()));
+			assertTrue(!Hibernate.isInitialized(book.getInventoryRecords()));
+		}
+		assertEquals(4, books.get(7).getAuthors().size());
+		// the books, then every authors collection at once
+		assertEquals(2, statistics.getPrepareStatementCount());
+	}
+
+	@Test
+	public void testBookDetail() {
+		FetchPlan plan = FetchPlan.forName("book-detail");
+		List<Book> books = plan.list(plan.createCriteria(session).add(
+				Restrictions.in("id", new Long[] { 1L, 6L })));
+		assertEquals(2, books.size());
+		for (Book book : books) {
+			assertTrue(Hibernate.isInitialized(book.getAuthors()));
+			assertTrue(Hibernate.isInitialized(book.getInventoryRecords()));
+			assertEquals(2, book.getInventoryRecords().size());
+			for (Inventory inventory : book.getInventoryRecords()) {
+				assertTrue(Hibernate.isInitialized(inventory.getStore()));
+			}
+		}
+		// books joined to inventory and stores, then the authors
+		assertEquals(2, statistics.getPrepareStatementCount());
+	}
+
+	@Test
+	public void testInventoryReport() {
+		FetchPlan plan = FetchPlan.forName("inventory-report");
+		List<Inventory> inventory = plan.list(plan.createCriteria(session));
+		assertEquals(13, inventory.size());
+		for (Inventory record : inventory) {
+			assertTrue(Hibernate.isInitialized(record.getBook()));
+			assertTrue(Hibernate.isInitialized(record.getStore()));
+			record.getStore().getNickName();
+		}
+		assertEquals(1, statistics.getPrepareStatementCount());
+	}
+
+	/**
+	 * Without a plan, lazy navigation is batched instead of a select per book
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testLazyNavigationIsBatched() {
+		List<Book> books = session.createQuery("FROM Book").list();
+		for (Book book : books) {
+			for (Inventory inventory : book.getInventoryRecords()) {
+				inventory.getStore().getNickName();
+			}
+			book.getAuthors().size();
+		}
+		// books, inventory, the stores behind its proxies and authors
+		assertEquals(4, statistics.getPrepareStatementCount());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownPlan() {
+		FetchPlan.forName("everything");
+	}
+}
@@ -0,0 +1,174 @@
+package org.integrallis.bookstore.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
+import org.integrallis.bookstore.BookstoreBootstrap;
+import org.integrallis.bookstore.domain.Book;
+import org.integrallis.bookstore.domain.Money;
+import org.integrallis.hibernate.HibernateUtil;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Searches over the 8 books of db_populate.sql
+ */
+public class BookSearchIndexTest {
+
+	private BookSearchIndex index;
+	private Session session;
+
+	@Before
+	public void before() {
+		index = BookstoreBootstrap.getBookSearchIndex();
+		session = HibernateUtil.getSessionFactory().openSession();
+	}
+
+	@After
+	public void after() {
+		if (session.getTransaction().isActive()) {
+			session.getTransaction().rollback();
+		}
+		session.close();
+	}
+
+	@AfterClass
+	public static void afterClass() {
+		HibernateUtil.closeFactory();
+	}
+
+	@Test
+	public void testTitleWordsAndPrefixes() {
+		assertIds("groovy", 4L, 5L, 8L);
+		assertIds("GROO", 4L, 5L, 8L);
+		assertIds("beginning", 1L, 2L);
+		assertIds("prog", 3L, 4L);
+		assertIds("groovy action", 8L);
+		assertIds("groovy pojos");
+		assertIds("   ");
+	}
+
+	@Test
+	public void testAuthorsAndIsbn() {
+		assertIds("ford", 3L);
+		assertIds("sam bodden", 1L);
+		assertIds("groovy koenig", 8L);
+		assertIds("0596519788", 3L);
+		assertIds("1590", 1L, 2L, 6L);
+	}
+
+	@Test
+	public void testPageIsHydratedInRankedOrder() {
+		SearchResult result = index.search("groovy");
+		assertEquals(3, result.getTotal());
+		List<Book> page = result.page(session, 1, 2);
+		assertEquals(2, page.size());
+		assertEquals(Long.valueOf(5L), page.get(0).getId());
+		assertEquals(Long.valueOf(8L), page.get(1).getId());
+		assertTrue(Hibernate.isInitialized(page.get(1).getAuthors()));
+		assertTrue(result.page(session, 3, 2).isEmpty());
+	}
+
+	/**
+	 * An ISBN word outranks a title word, which outranks an author, and whole
+	 * words outrank prefixes
+	 */
+	@Test
+	public void testRanking() {
+		BookSearchIndex ranked = new BookSearchIndex();
+		ranked.index(1L, "1111111111", "Ford Trucks", Arrays.asList("Smith"));
+		ranked.index(2L, "2222222222", "Cars", Arrays.asList("Ford"));
+		ranked.index(3L, "3333333333", "Fordson Tractors", Arrays.asList("Jones"));
+		ranked.index(4L, "4444444444", "2222222222 Ways", Arrays.asList("Brown"));
+		assertIds(ranked, "ford", 1L, 2L, 3L);
+		assertIds(ranked, "2222222222", 2L, 4L);
+		assertIds(ranked, "tractors ford", 3L);
+	}
+
+	@Test
+	public void testListenerKeepsTheIndexCurrent() {
+		session.beginTransaction();
+		Book book = new Book("3456789012", "Ford Mustang Manual", new Date(),
+				Money.valueOf(19.99));
+		session.save(book);
+		session.getTransaction().commit();
+		try {
+			assertIds("ford", book.getId(), 3L);
+			assertIds("mustang", book.getId());
+
+			session.beginTransaction();
+			book.setTitle("Mustang Manual");
+			session.getTransaction().commit();
+			assertIds("ford", 3L);
+			assertIds("manual", book.getId());
+
+			session.beginTransaction();
+			book.setTitle("Rolled Back");
+			session.getTransaction().rollback();
+			assertIds("rolled");
+			assertIds("mustang", book.getId());
+		} finally {
+			session.clear();
+			session.beginTransaction();
+			session.delete(session.get(Book.class, book.getId()));
+			session.getTransaction().commit();
+		}
+		assertIds("mustang");
+	}
+
+	@Test
+	public void testRebuild() {
+		int size = index.size();
+		index.rebuild();
+		assertEquals(size, index.size());
+		assertIds("groovy", 4L, 5L, 8L);
+	}
+
+	/**
+	 * Books indexed and removed while a rebuild scans are not lost when the
+	 * new index replaces the old one
+	 */
+	@Test
+	public void testChangesDuringRebuildAreKept() {
+		BookSearchIndex rebuilt = new BookSearchIndex() {
+			@Override
+			void scan(TreeMap<String, Map<Long, Integer>> builtPostings,
+					Map<Long, Document> builtDocuments) {
+				super.scan(builtPostings, builtDocuments);
+				index(99L, "9999999999", "Concurrent Changes", Arrays
+						.asList("Writer"));
+				remove(8L);
+			}
+		};
+		rebuilt.attach(HibernateUtil.getSessionFactory());
+		assertIds(rebuilt, "concurrent writer", 99L);
+		assertIds(rebuilt, "groovy", 4L, 5L);
+		assertEquals(8, rebuilt.size());
+	}
+
+	@Test
+	public void testTokenize() {
+		assertEquals(Arrays.asList("sam", "bodden", "j2ee", "1"), BookSearchIndex
+				.tokenize(" Sam-Bodden, J2EE (1)"));
+	}
+
+	private void assertIds(String query, Long... expected) {
+		assertIds(index, query, expected);
+	}
+
+	private static void assertIds(BookSearchIndex index, String query,
+			Long... expected) {
+		SearchResult result = index.search(query);
+		assertEquals(query, Arrays.asList(expected), result.getIds(0, 100));
+	}
+}
@@ -0,0 +1,83 @@
+package org.integrallis.bookstore.type;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Date;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.integrallis.bookstore.domain.Book;
+import org.integrallis.bookstore.domain.Inventory;
+import org.integrallis.bookstore.domain.Money;
+import org.integrallis.bookstore.domain.Store;
+import org.integrallis.hibernate.HibernateUtil;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MoneyTypeTest {
+
+	private SessionFactory sessionFactory;
+	private Session session;
+
+	@Before
+	public void before() {
+		sessionFactory = HibernateUtil.getSessionFactory();
+		session = sessionFactory.openSession();
+	}
+
+	@After
+	public void after() {
+		if (session.getTransaction().isActive()) {
+			session.getTransaction().rollback();
+		}
+		session.close();
+	}
+
+	@AfterClass
+	public static void afterClass() {
+		HibernateUtil.closeFactory();
+	}
+
+	@Test
+	public void testMoney() {
+		assertEquals(3257, Money.parse("32.57").getCents());
+		assertEquals(Money.parse("0.10"), Money.valueOf(0.1));
+		assertEquals(Money.ofCents(30), Money.valueOf(0.1).plus(Money.valueOf(0.2)));
+		assertEquals("-0.05", Money.ofCents(-5).toString());
+		assertEquals("20.00", Money.valueOf(20).toString());
+		assertSame(Money.ZERO, Money.parse("0.001"));
+	}
+
+	@Test
+	public void testRoundTrip() {
+		session.beginTransaction();
+		Book book = new Book("3333333333", "Cents", new Date(), Money.parse("999.99"));
+		book.addInventoryRecord((Store) session.get(Store.class, 1L), 5000);
+		Book free = new Book("4444444444", "No Price", new Date(), null);
+		session.save(book);
+		session.save(free);
+		session.flush();
+		session.clear();
+
+		Book loaded = (Book) session.get(Book.class, book.getId());
+		assertEquals(99999, loaded.getPrice().getCents());
+		Inventory inventory = loaded.getInventoryRecords().iterator().next();
+		assertEquals(5000, inventory.getQuantity());
+		assertNull(((Book) session.get(Book.class, free.getId())).getPrice());
+	}
+
+	@Test
+	public void testPriceStatistics() {
+		Object[] prices = (Object[]) session.createQuery(
+				"SELECT min(b.price), max(b.price), sum(b.price) FROM Book b")
+				.uniqueResult();
+		assertEquals(Money.parse("23.07"), prices[0]);
+		assertEquals(Money.parse("39.99"), prices[1]);
+		// Hibernate sums decimals as a double
+		assertEquals(Money.parse("240.13"), Money.valueOf((Double) prices[2]));
+	}
+}
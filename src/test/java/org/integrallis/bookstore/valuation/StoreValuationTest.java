@@ -0,0 +1,183 @@
+package org.integrallis.bookstore.valuation;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.integrallis.bookstore.BookstoreBootstrap;
+import org.integrallis.bookstore.domain.Book;
+import org.integrallis.bookstore.domain.Inventory;
+import org.integrallis.bookstore.domain.Money;
+import org.integrallis.bookstore.domain.Store;
+import org.integrallis.hibernate.HibernateUtil;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The valuation must always agree with Store.findTotalValueOfBookForStore
+ */
+public class StoreValuationTest {
+
+	private StoreValuation valuation;
+
+	@Before
+	public void before() {
+		valuation = BookstoreBootstrap.getStoreValuation();
+	}
+
+	@AfterClass
+	public static void afterClass() {
+		HibernateUtil.closeFactory();
+	}
+
+	@Test
+	public void testMatchesQuery() {
+		assertEquals(new BigDecimal("5364.13"), valuation.getValue(1L));
+		assertMatchesQuery();
+	}
+
+	@Test
+	public void testQuantityChanges() {
+		Session session = HibernateUtil.getSessionFactory().openSession();
+		Transaction tx = session.beginTransaction();
+		Inventory inventory = (Inventory) session.get(Inventory.class, 1L);
+		inventory.setQuantity(inventory.getQuantity() + 7);
+		tx.commit();
+		assertMatchesQuery();
+
+		tx = session.beginTransaction();
+		// book 3 is only stocked in store 1
+		Book book = (Book) session.get(Book.class, 3L);
+		Inventory added = new Inventory((Store) session.get(Store.class, 2L), 11);
+		book.addInventoryRecord(added);
+		session.save(added);
+		tx.commit();
+		assertMatchesQuery();
+
+		tx = session.beginTransaction();
+		book.getInventoryRecords().remove(added);
+		session.delete(added);
+		tx.commit();
+		session.close();
+		assertMatchesQuery();
+	}
+
+	@Test
+	public void testPriceChanges() {
+		Session session = HibernateUtil.getSessionFactory().openSession();
+		Transaction tx = session.beginTransaction();
+		for (long id = 1; id <= 8; id++) {
+			Book book = (Book) session.get(Book.class, id);
+			book.setPrice(book.getPrice().plus(Money.ofCents(id * 100)));
+			// stock changes of the same book in the same flush
+			for (Inventory inventory : book.getInventoryRecords()) {
+				inventory.setQuantity(inventory.getQuantity() + 1);
+			}
+		}
+		tx.commit();
+		session.close();
+		assertMatchesQuery();
+	}
+
+	@Test
+	public void testNewBook() {
+		Session session = HibernateUtil.getSessionFactory().openSession();
+		Transaction tx = session.beginTransaction();
+		Book book = new Book("1111111111", "Valuation", new Date(), Money.valueOf(12.34));
+		book.addInventoryRecord((Store) session.get(Store.class, 1L), 3);
+		book.addInventoryRecord((Store) session.get(Store.class, 2L), 4);
+		session.save(book);
+		tx.commit();
+		assertMatchesQuery();
+
+		tx = session.beginTransaction();
+		book.setPrice(Money.valueOf(20.0));
+		tx.commit();
+		session.close();
+		assertMatchesQuery();
+	}
+
+	@Test
+	public void testInventoryMovesToAnotherStore() {
+		Session session = HibernateUtil.getSessionFactory().openSession();
+		Transaction tx = session.beginTransaction();
+		// book 7 is only stocked in store 1
+		Inventory inventory = (Inventory) session.get(Inventory.class, 11L);
+		assertEquals(Long.valueOf(1), inventory.getStore().getId());
+		inventory.setStore((Store) session.get(Store.class, 2L));
+		tx.commit();
+		session.close();
+		assertMatchesQuery();
+	}
+
+	@Test
+	public void testRollback() {
+		Map<Long, BigDecimal> before = valuation.getValues();
+		Session session = HibernateUtil.getSessionFactory().openSession();
+		Transaction tx = session.beginTransaction();
+		Book book = (Book) session.get(Book.class, 3L);
+		book.setPrice(book.getPrice().times(2));
+		Inventory inventory = (Inventory) session.get(Inventory.class, 3L);
+		inventory.setQuantity(inventory.getQuantity() + 100);
+		session.flush();
+		tx.rollback();
+		session.close();
+
+		assertEquals(before, valuation.getValues());
+		assertMatchesQuery();
+	}
+
+	@Test
+	public void testDetachedUpdate() {
+		Session session = HibernateUtil.getSessionFactory().openSession();
+		Inventory inventory = (Inventory) session.get(Inventory.class, 4L);
+		session.close();
+
+		inventory.setQuantity(inventory.getQuantity() + 9);
+		session = HibernateUtil.getSessionFactory().openSession();
+		Transaction tx = session.beginTransaction();
+		session.update(inventory);
+		tx.commit();
+		session.close();
+		assertMatchesQuery();
+	}
+
+	@Test
+	public void testRebuildAfterBulkUpdate() {
+		Session session = HibernateUtil.getSessionFactory().openSession();
+		Transaction tx = session.beginTransaction();
+		session.createQuery("UPDATE Inventory SET quantity = quantity + 1")
+				.executeUpdate();
+		tx.commit();
+		session.close();
+
+		valuation.rebuild();
+		assertMatchesQuery();
+	}
+
+	@SuppressWarnings("unchecked")
+	private void assertMatchesQuery() {
+		Session session = HibernateUtil.getSessionFactory().openSession();
+		try {
+			List<Long> stores = session.createQuery("SELECT s.id FROM Store s")
+					.list();
+			for (Long storeId : stores) {
+				BigDecimal expected = (BigDecimal) session.getNamedQuery(
+						"Store.findTotalValueOfBookForStore").setLong("store_id",
+						storeId).uniqueResult();
+				BigDecimal actual = valuation.getValue(storeId);
+				assertEquals("store " + storeId + " valued at " + actual
+						+ " instead of " + expected, 0, (expected == null ? BigDecimal.ZERO
+						: expected).compareTo(actual));
+			}
+		} finally {
+			session.close();
+		}
+	}
+}
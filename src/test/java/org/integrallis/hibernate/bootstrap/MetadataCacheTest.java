@@ -0,0 +1,138 @@
+package org.integrallis.hibernate.bootstrap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+import org.integrallis.bookstore.domain.Book;
+import org.integrallis.bookstore.domain.Inventory;
+import org.integrallis.bookstore.domain.Store;
+import org.integrallis.hibernate.DatabaseMode;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MetadataCacheTest {
+
+	private static final URL CONFIG = MetadataCacheTest.class
+			.getResource("/hibernate.cfg.xml");
+	private static final URL NO_MAPPINGS = MetadataCacheTest.class
+			.getResource("/hibernate-no-mappings.cfg.xml");
+
+	private File directory;
+
+	@Before
+	public void before() throws Exception {
+		directory = File.createTempFile("metadata", "");
+		directory.delete();
+	}
+
+	@AfterClass
+	public static void afterClass() {
+		SessionFactoryRegistry.closeAll();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testKeyFollowsTheMappings() {
+		List<Class> none = Collections.emptyList();
+		List<Class> store = new ArrayList<Class>(Arrays.asList(Store.class));
+		assertEquals(MetadataCache.key(CONFIG, none), MetadataCache.key(CONFIG, none));
+		assertFalse(MetadataCache.key(CONFIG, none).equals(
+				MetadataCache.key(NO_MAPPINGS, none)));
+		assertFalse(MetadataCache.key(NO_MAPPINGS, store).equals(
+				MetadataCache.key(NO_MAPPINGS, none)));
+	}
+
+	/**
+	 * The second load reads the file written by the first, and a factory
+	 * built on it works like one built from the XML
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testLoadsWhatItCached() {
+		MetadataCache cache = new MetadataCache(directory);
+		List<Class> none = Collections.emptyList();
+		Configuration bound = cache.load(CONFIG, none);
+		Configuration cached = cache.load(CONFIG, none);
+		assertEquals(1, cache.getMissCount());
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, directory.list().length);
+		assertNotNull(cached.getClassMapping(Book.class.getName()));
+		assertEquals(bound.getNamedQueries().keySet(), cached.getNamedQueries()
+				.keySet());
+		// the configuration file's settings over the global ones
+		assertEquals("org.hibernate.dialect.DerbyDialect", cached
+				.getProperty(Environment.DIALECT));
+		assertEquals(System.getProperty(DatabaseMode.SEED), cached
+				.getProperty(DatabaseMode.SEED));
+
+		DatabaseMode.configure(cached);
+		SessionFactory factory = cached.buildSessionFactory();
+		try {
+			Session session = factory.openSession();
+			try {
+				Book book = (Book) session.getNamedQuery("Book.findByISBN")
+						.setString("isbn", "1590595963").uniqueResult();
+				assertEquals("Beginning POJOs", book.getTitle());
+			} finally {
+				session.close();
+			}
+		} finally {
+			factory.close();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testRebuildsAnUnreadableFile() throws Exception {
+		List<Class> store = Arrays.asList((Class) Store.class);
+		directory.mkdirs();
+		FileWriter writer = new FileWriter(new File(directory, "metadata-"
+				+ MetadataCache.key(NO_MAPPINGS, store) + ".ser"));
+		writer.write("not a configuration");
+		writer.close();
+		MetadataCache cache = new MetadataCache(directory);
+		assertNotNull(cache.load(NO_MAPPINGS, store).getClassMapping(
+				Store.class.getName()));
+		assertEquals(1, cache.getMissCount());
+		cache.load(NO_MAPPINGS, store);
+		assertEquals(1, cache.getHitCount());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testRegistryReusesFactories() {
+		List<Class> store = Arrays.asList((Class) Store.class);
+		List<Class> all = Arrays.asList((Class) Store.class, Book.class,
+				Inventory.class);
+		int builds = SessionFactoryRegistry.getBuildCount();
+		SessionFactory factory = SessionFactoryRegistry.getSessionFactory(
+				NO_MAPPINGS, store);
+		assertSame(factory, SessionFactoryRegistry.getSessionFactory(NO_MAPPINGS,
+				new ArrayList<Class>(store)));
+		assertEquals(builds + 1, SessionFactoryRegistry.getBuildCount());
+		Collections.reverse(all);
+		assertTrue(factory != SessionFactoryRegistry.getSessionFactory(
+				NO_MAPPINGS, all));
+		factory.close();
+		SessionFactory rebuilt = SessionFactoryRegistry.getSessionFactory(
+				NO_MAPPINGS, store);
+		assertFalse(rebuilt.isClosed());
+		assertEquals(builds + 3, SessionFactoryRegistry.getBuildCount());
+	}
+}
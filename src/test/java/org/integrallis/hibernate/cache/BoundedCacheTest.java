@@ -0,0 +1,114 @@
+package org.integrallis.hibernate.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Properties;
+
+import org.hibernate.cfg.Environment;
+import org.junit.Test;
+
+public class BoundedCacheTest {
+
+	@Test
+	public void testRegionNeverGrowsPastItsBound() {
+		BoundedCache cache = new BoundedCache("test", 100);
+		for (int i = 0; i < 1000; i++) {
+			cache.get(i);
+			cache.get(i);
+			cache.put(i, "value" + i);
+		}
+		assertEquals(100, cache.getElementCountInMemory());
+	}
+
+	@Test
+	public void testHotEntriesSurviveAScan() {
+		BoundedCache cache = new BoundedCache("test", 10);
+		for (int i = 0; i < 10; i++) {
+			cache.put(i, "hot" + i);
+		}
+		// make the first ten keys popular
+		for (int round = 0; round < 5; round++) {
+			for (int i = 0; i < 10; i++) {
+				cache.get(i);
+			}
+		}
+		// a one-off scan over cold keys
+		for (int i = 100; i < 200; i++) {
+			cache.get(i);
+			cache.put(i, "cold" + i);
+		}
+		for (int i = 0; i < 10; i++) {
+			assertNotNull(cache.get(i));
+		}
+		assertNull(cache.get(150));
+		assertEquals(100, cache.getRejectionCount());
+		assertEquals(0, cache.getEvictionCount());
+	}
+
+	@Test
+	public void testFrequentNewcomerEvictsLeastRecentlyUsed() {
+		BoundedCache cache = new BoundedCache("test", 2);
+		cache.put("a", "A");
+		cache.put("b", "B");
+		for (int i = 0; i < 3; i++) {
+			cache.get("c");
+		}
+		cache.put("c", "C");
+		assertEquals(1, cache.getEvictionCount());
+		assertNull(cache.get("a"));
+		assertEquals("C", cache.get("c"));
+	}
+
+	@Test
+	public void testCounters() {
+		BoundedCache cache = new BoundedCache("test", 10);
+		cache.get("a");
+		cache.put("a", "A");
+		cache.get("a");
+		cache.get("a");
+		cache.update("a", "AA");
+		assertEquals(1, cache.getMissCount());
+		assertEquals(2, cache.getHitCount());
+		assertEquals(2, cache.getPutCount());
+		assertEquals("AA", cache.read("a"));
+	}
+
+	@Test
+	public void testPrefixedRegionsUseTheirSettings() {
+		Properties properties = new Properties();
+		properties.setProperty(Environment.CACHE_REGION_PREFIX, "replica0");
+		properties.setProperty(BoundedCacheProvider.REGION_PREFIX + "test.Book"
+				+ BoundedCacheProvider.REGION_MAX_ENTRIES_SUFFIX, "42");
+		BoundedCacheProvider provider = new BoundedCacheProvider();
+		provider.start(properties);
+		try {
+			BoundedCache cache = (BoundedCache) provider.buildCache(
+					"replica0.test.Book", properties);
+			assertEquals(42, cache.getMaxEntries());
+		} finally {
+			provider.stop();
+		}
+	}
+
+	@Test
+	public void testStopUnregistersOnlyItsOwnRegions() {
+		Properties properties = new Properties();
+		BoundedCacheProvider closed = new BoundedCacheProvider();
+		BoundedCacheProvider open = new BoundedCacheProvider();
+		closed.buildCache("test.Stopped", properties);
+		closed.buildCache("test.Shared", properties);
+		BoundedCache shared = (BoundedCache) open.buildCache("test.Shared",
+				properties);
+		closed.stop();
+		try {
+			assertNull(BoundedCacheProvider.getRegion("test.Stopped"));
+			assertSame(shared, BoundedCacheProvider.getRegion("test.Shared"));
+		} finally {
+			open.stop();
+		}
+		assertNull(BoundedCacheProvider.getRegion("test.Shared"));
+	}
+}
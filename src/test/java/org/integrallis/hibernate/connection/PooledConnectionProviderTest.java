@@ -0,0 +1,107 @@
+package org.integrallis.hibernate.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Properties;
+
+import org.hibernate.cfg.Configuration;
+import org.integrallis.hibernate.DatabaseMode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PooledConnectionProviderTest {
+
+	private PooledConnectionProvider provider;
+
+	@Before
+	public void before() {
+		// connect to whichever database the tests are configured for
+		Configuration configuration = new Configuration().configure();
+		DatabaseMode.configure(configuration);
+		Properties properties = new Properties();
+		properties.putAll(configuration.getProperties());
+		properties.setProperty(PooledConnectionProvider.MIN_SIZE, "1");
+		properties.setProperty(PooledConnectionProvider.MAX_SIZE, "2");
+		properties.setProperty(PooledConnectionProvider.MAX_WAIT, "200");
+		properties.setProperty(PooledConnectionProvider.VALIDATION_QUERY, "VALUES 1");
+		provider = new PooledConnectionProvider();
+		provider.configure(properties);
+	}
+
+	@After
+	public void after() {
+		provider.close();
+	}
+
+	@Test
+	public void testBorrowAndReturn() throws SQLException {
+		assertEquals(1, provider.getStatistics().getIdle());
+
+		Connection connection = provider.getConnection();
+		assertEquals(1, provider.getStatistics().getActive());
+		assertEquals(0, provider.getStatistics().getIdle());
+
+		provider.closeConnection(connection);
+		assertTrue(connection.isClosed());
+		assertEquals(0, provider.getStatistics().getActive());
+		assertEquals(1, provider.getStatistics().getIdle());
+
+		// closing twice must not return the connection twice
+		connection.close();
+		assertEquals(1, provider.getStatistics().getIdle());
+	}
+
+	@Test
+	public void testWaitingForAConnectionTimesOut() throws SQLException {
+		Connection first = provider.getConnection();
+		Connection second = provider.getConnection();
+		try {
+			provider.getConnection();
+			fail("the pool only holds two connections");
+		} catch (SQLException expected) {
+			assertEquals(1, provider.getStatistics().getTimeoutCount());
+		} finally {
+			first.close();
+			second.close();
+		}
+		Connection third = provider.getConnection();
+		assertFalse(third.isClosed());
+		third.close();
+	}
+
+	@Test
+	public void testPreparedStatementsAreCachedPerConnection() throws SQLException {
+		String sql = "SELECT NickName FROM Store WHERE STORE_ID = ?";
+		Connection connection = provider.getConnection();
+		try {
+			for (int i = 0; i < 3; i++) {
+				PreparedStatement statement = connection.prepareStatement(sql);
+				statement.setLong(1, 1L);
+				ResultSet resultSet = statement.executeQuery();
+				assertTrue(resultSet.next());
+				assertEquals("B&N Desert Ridge", resultSet.getString(1));
+				resultSet.close();
+				statement.close();
+			}
+		} finally {
+			connection.close();
+		}
+		assertEquals(1, provider.getStatistics().getStatementCacheMisses());
+		assertEquals(2, provider.getStatistics().getStatementCacheHits());
+	}
+
+	@Test(expected = SQLException.class)
+	public void testReturnedConnectionCannotBeUsed() throws SQLException {
+		Connection connection = provider.getConnection();
+		connection.close();
+		connection.prepareStatement("VALUES 1");
+	}
+}
@@ -0,0 +1,70 @@
+package org.integrallis.hibernate.id;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.stat.Statistics;
+import org.integrallis.bookstore.domain.Store;
+import org.integrallis.hibernate.HibernateUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PooledTableGeneratorTest {
+
+	private SessionFactory sessionFactory;
+	private List<Long> storeIds = new ArrayList<Long>();
+
+	@Before
+	public void before() {
+		sessionFactory = HibernateUtil.getSessionFactory();
+		sessionFactory.getStatistics().setStatisticsEnabled(true);
+	}
+
+	@After
+	public void after() {
+		Session session = sessionFactory.openSession();
+		Transaction tx = session.beginTransaction();
+		for (Long id : storeIds) {
+			session.delete(session.get(Store.class, id));
+		}
+		tx.commit();
+		session.close();
+		sessionFactory.getStatistics().setStatisticsEnabled(false);
+	}
+
+	@Test
+	public void testIdsAreAssignedWithoutInserting() {
+		Statistics statistics = sessionFactory.getStatistics();
+		statistics.clear();
+
+		Session session = sessionFactory.openSession();
+		Transaction tx = session.beginTransaction();
+		for (int i = 0; i < 10; i++) {
+			storeIds.add((Long) session.save(new Store("Pooled " + i,
+					i + " Camelback Rd.", "Phoenix", "AZ", "85016")));
+		}
+		// the ids are known but nothing has been sent to the database yet
+		assertEquals(0, statistics.getEntityInsertCount());
+
+		tx.commit();
+		session.close();
+
+		assertEquals(10, statistics.getEntityInsertCount());
+		// all ten inserts went out as one JDBC batch
+		assertEquals(1, statistics.getPrepareStatementCount());
+
+		// consecutive and above the range db_populate.sql assigns by hand
+		assertTrue(storeIds.get(0).longValue() >= 101L);
+		for (int i = 1; i < storeIds.size(); i++) {
+			assertEquals(storeIds.get(i - 1).longValue() + 1, storeIds.get(i)
+					.longValue());
+		}
+	}
+}
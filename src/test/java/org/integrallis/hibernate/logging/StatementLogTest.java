@@ -0,0 +1,159 @@
+package org.integrallis.hibernate.logging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.hibernate.Session;
+import org.integrallis.hibernate.HibernateUtil;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StatementLogTest {
+
+	private static final long MILLIS = 1000000L;
+
+	private RecordingAppender appender;
+
+	@Before
+	public void before() {
+		appender = new RecordingAppender();
+		Logger.getLogger(StatementLog.CATEGORY).addAppender(appender);
+	}
+
+	@After
+	public void after() {
+		Logger.getLogger(StatementLog.CATEGORY).removeAppender(appender);
+	}
+
+	@AfterClass
+	public static void afterClass() {
+		HibernateUtil.closeFactory();
+	}
+
+	@Test
+	public void testOnlySlowAndFailedStatementsInProduction() {
+		StatementLog log = new StatementLog(false, 50, 16);
+		log.start();
+		log.executed(1, "SELECT 1", new Object[] { "fast" }, 1, 2 * MILLIS, false);
+		log.executed(2, "SELECT 2", new Object[] { "it's slow", 42, null }, 3,
+				80 * MILLIS, false);
+		log.executed(3, "SELECT 3", null, 0, MILLIS, true);
+		log.close();
+
+		assertEquals(2, log.getWrittenCount());
+		assertEquals(2, appender.messages.size());
+		assertEquals(Level.WARN, appender.levels.get(0));
+		String slow = appender.messages.get(0);
+		assertTrue(slow, slow.indexOf(" conn 2 80.0 ms SLOW: SELECT 2 ['it''s slow', 42, null]") > 0);
+		assertTrue(appender.messages.get(1).indexOf(" conn 3 1.0 ms FAILED: SELECT 3") > 0);
+	}
+
+	@Test
+	public void testDropsInsteadOfBlockingWhenFull() {
+		StatementLog log = new StatementLog(true, 100, 3);
+		// rounded up to 4, nothing drains it until the writer starts
+		for (int i = 0; i < 10; i++) {
+			log.executed(1, "SELECT " + i, null, 0, MILLIS, false);
+		}
+		assertEquals(4, log.getPendingCount());
+		assertEquals(6, log.getDroppedCount());
+
+		log.start();
+		log.close();
+		assertEquals(0, log.getPendingCount());
+		assertEquals(4, log.getWrittenCount());
+		assertEquals(Level.INFO, appender.levels.get(0));
+		assertTrue(appender.messages.get(3).endsWith(": SELECT 3"));
+	}
+
+	/**
+	 * The idle writer sleeps for 100 ms at a time; a statement must not wait
+	 * for the sleep to end
+	 */
+	@Test
+	public void testIdleWriterIsWokenByTheNextStatement() throws Exception {
+		StatementLog log = new StatementLog(true, 100, 16);
+		log.start();
+		try {
+			Thread.sleep(250);
+			long start = System.nanoTime();
+			log.executed(1, "SELECT 1", null, 0, MILLIS, false);
+			while (log.getWrittenCount() == 0
+					&& System.nanoTime() - start < 1000 * MILLIS) {
+				Thread.yield();
+			}
+			long waited = System.nanoTime() - start;
+			assertEquals(1, log.getWrittenCount());
+			assertTrue("waited " + waited / MILLIS + " ms", waited < 50 * MILLIS);
+		} finally {
+			log.close();
+		}
+	}
+
+	@Test
+	public void testParametersAreKeptPerSlot() {
+		StatementLog log = new StatementLog(true, 100, 8);
+		Object[] parameters = new Object[StatementLog.MAX_PARAMETERS + 8];
+		for (int i = 0; i < parameters.length; i++) {
+			parameters[i] = Integer.valueOf(i);
+		}
+		log.executed(1, "INSERT", parameters, parameters.length, MILLIS, false);
+		// the caller reuses its array
+		parameters[0] = "changed";
+		log.start();
+		log.close();
+		String message = appender.messages.get(0);
+		assertTrue(message, message.indexOf("[0, 1, 2,") > 0);
+		assertTrue(message, message.endsWith(", 31, ... 8 more]"));
+	}
+
+	@Test
+	public void testFactoryStatementsAreLogged() throws Exception {
+		StatementLog log = HibernateUtil.getStatementLog();
+		assertNotNull(log);
+		Session session = HibernateUtil.getSessionFactory().openSession();
+		try {
+			session.getNamedQuery("Book.findByISBN").setString("isbn",
+					"1590597923").uniqueResult();
+		} finally {
+			session.close();
+		}
+		long deadline = System.currentTimeMillis() + 5000;
+		while (log.getPendingCount() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		boolean found = false;
+		for (String message : appender.messages) {
+			found |= message.indexOf("['1590597923']") > 0
+					&& message.indexOf(" conn ") > 0;
+		}
+		assertTrue(appender.messages.toString(), found);
+	}
+
+	private static class RecordingAppender extends AppenderSkeleton {
+		private final List<String> messages = new ArrayList<String>();
+		private final List<Level> levels = new ArrayList<Level>();
+
+		protected synchronized void append(LoggingEvent event) {
+			messages.add(event.getRenderedMessage());
+			levels.add(event.getLevel());
+		}
+
+		public void close() {
+		}
+
+		public boolean requiresLayout() {
+			return false;
+		}
+	}
+}
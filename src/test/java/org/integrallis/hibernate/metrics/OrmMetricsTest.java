@@ -0,0 +1,146 @@
+package org.integrallis.hibernate.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import javax.management.MBeanServer;
+
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
+import org.hibernate.criterion.Restrictions;
+import org.integrallis.bookstore.domain.Book;
+import org.integrallis.bookstore.domain.Store;
+import org.integrallis.hibernate.HibernateUtil;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OrmMetricsTest {
+
+	private OrmMetrics metrics;
+
+	@Before
+	public void before() {
+		metrics = HibernateUtil.getMetrics();
+		assertNotNull(metrics);
+		metrics.reset();
+	}
+
+	@AfterClass
+	public static void afterClass() {
+		HibernateUtil.closeFactory();
+	}
+
+	@Test
+	public void testNamedQueries() {
+		Session session = HibernateUtil.getSessionFactory().openSession();
+		try {
+			session.setCacheMode(CacheMode.IGNORE);
+			for (int i = 0; i < 3; i++) {
+				Book book = (Book) session.getNamedQuery("Book.findByISBN")
+						.setString("isbn", "1590595963").uniqueResult();
+				assertEquals(Long.valueOf(1L), book.getId());
+			}
+			session.getNamedQuery("Store.findTotalValueOfBookForStore")
+					.setLong("store_id", 1L).uniqueResult();
+		} finally {
+			session.close();
+		}
+
+		QueryMetrics byIsbn = metrics.getQuery("Book.findByISBN");
+		assertNotNull(byIsbn);
+		assertEquals(3, byIsbn.getCalls());
+		assertEquals(3, byIsbn.getRows());
+		assertEquals(0, byIsbn.getFailures());
+		assertTrue(byIsbn.getLatency().getP50Nanos() > 0);
+		assertTrue(byIsbn.getP999Millis() <= byIsbn.getMaxMillis());
+
+		QueryMetrics totalValue = metrics.getQuery("Store.findTotalValueOfBookForStore");
+		assertNotNull(totalValue);
+		assertEquals(1, totalValue.getCalls());
+		assertEquals(1, totalValue.getRows());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testCriteriaAndEntityCounters() {
+		Session session = HibernateUtil.getSessionFactory().openSession();
+		try {
+			session.setCacheMode(CacheMode.IGNORE);
+			session.beginTransaction();
+			List<Store> stores = session.createCriteria(Store.class).add(
+					Restrictions.eq("nickName", "B&N Desert Ridge")).list();
+			session.createCriteria(Store.class).add(
+					Restrictions.eq("nickName", "B&N Pima & Shea")).list();
+			((Book) session.load(Book.class, 3L)).getTitle();
+			session.getTransaction().commit();
+			assertEquals(1, stores.size());
+		} finally {
+			session.close();
+		}
+
+		MetricsSnapshot snapshot = metrics.snapshot();
+		MetricsSnapshot.QuerySnapshot criteria = null;
+		for (MetricsSnapshot.QuerySnapshot query : snapshot.getQueries()) {
+			if (query.getName().startsWith("criteria: ")) {
+				criteria = query;
+			}
+		}
+		assertNotNull(criteria);
+		// both restrictions share one label
+		assertEquals(2, criteria.getCalls());
+		assertEquals(Long.valueOf(1), snapshot.getEntityFetches().get(
+				Book.class.getName()));
+		assertTrue(snapshot.getEntityLoads().get(Book.class.getName()) >= 1);
+		assertEquals(1, snapshot.getFlushes());
+		assertTrue(snapshot.getConnectionWait().getCount() >= 1);
+		assertTrue(snapshot.getConnectionHold().getCount() >= 1);
+		assertTrue(metrics.dump().indexOf("criteria: ") >= 0);
+	}
+
+	@Test
+	public void testMBeans() throws Exception {
+		Session session = HibernateUtil.getSessionFactory().openSession();
+		try {
+			session.getNamedQuery("Store.findByNickName").setString("nickName",
+					"B&N Desert Ridge").list();
+		} finally {
+			session.close();
+		}
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		assertTrue(server.isRegistered(OrmMetrics.objectName("type=OrmMetrics")));
+		assertEquals(Long.valueOf(1), server.getAttribute(OrmMetrics
+				.queryName("Store.findByNickName"), "Calls"));
+		assertTrue(((Long) server.getAttribute(OrmMetrics
+				.objectName("type=OrmMetrics"), "StatementCount")) >= 1);
+		assertTrue(((String) server.invoke(OrmMetrics
+				.objectName("type=OrmMetrics"), "dump", null, null))
+				.indexOf("Store.findByNickName") >= 0);
+	}
+
+	@Test
+	public void testHistogramPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long nanos = 1; nanos <= 100000; nanos++) {
+			histogram.record(nanos * 1000);
+		}
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		assertEquals(100000, snapshot.getCount());
+		assertEquals(100000000L, snapshot.getMaxNanos());
+		assertWithin(50000000L, snapshot.getP50Nanos());
+		assertWithin(99000000L, snapshot.getP99Nanos());
+		assertWithin(99900000L, snapshot.getP999Nanos());
+		for (int i = 0; i < 600; i++) {
+			assertTrue(LatencyHistogram.index(LatencyHistogram.upperBound(i)) == i);
+		}
+	}
+
+	private static void assertWithin(long expected, long actual) {
+		assertTrue(actual + " for " + expected, Math.abs(actual - expected) <= expected / 16);
+	}
+}
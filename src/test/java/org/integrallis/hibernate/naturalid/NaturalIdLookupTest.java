@@ -0,0 +1,165 @@
+package org.integrallis.hibernate.naturalid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.integrallis.bookstore.domain.Book;
+import org.integrallis.bookstore.domain.ElectronicBook;
+import org.integrallis.bookstore.domain.Inventory;
+import org.integrallis.bookstore.domain.Money;
+import org.integrallis.bookstore.domain.Store;
+import org.integrallis.hibernate.HibernateUtil;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NaturalIdLookupTest {
+
+	private SessionFactory sessionFactory;
+	private NaturalIdLookup lookup;
+	private Session session;
+
+	@Before
+	public void before() {
+		sessionFactory = HibernateUtil.getSessionFactory();
+		lookup = HibernateUtil.getNaturalIdLookup();
+		session = sessionFactory.openSession();
+	}
+
+	@After
+	public void after() {
+		if (session.getTransaction().isActive()) {
+			session.getTransaction().rollback();
+		}
+		session.close();
+	}
+
+	@AfterClass
+	public static void afterClass() {
+		HibernateUtil.closeFactory();
+	}
+
+	@Test
+	public void testWarmLookupDoesNotTouchJdbc() {
+		Book book = lookup.load(session, Book.class, "0596519788");
+		assertEquals(Long.valueOf(3L), book.getId());
+		assertSame(book, lookup.load(session, Book.class, "0596519788"));
+
+		Statistics statistics = sessionFactory.getStatistics();
+		statistics.setStatisticsEnabled(true);
+		Session other = sessionFactory.openSession();
+		try {
+			statistics.clear();
+			long hits = lookup.getHitCount(Book.class);
+			Book warm = lookup.load(other, Book.class, "0596519788");
+			assertEquals(book.getTitle(), warm.getTitle());
+			assertEquals(0, statistics.getPrepareStatementCount());
+			assertEquals(hits + 1, lookup.getHitCount(Book.class));
+		} finally {
+			other.close();
+			statistics.setStatisticsEnabled(false);
+		}
+	}
+
+	@Test
+	public void testUnknownNaturalId() {
+		assertNull(lookup.load(session, Book.class, "0000000000"));
+		assertNull(lookup.load(session, Store.class, "nowhere"));
+	}
+
+	@Test
+	public void testSubclassLookup() {
+		ElectronicBook electronic = lookup.load(session, ElectronicBook.class,
+				"1590595963");
+		assertEquals(Long.valueOf(1L), electronic.getId());
+		assertNull(lookup.load(session, ElectronicBook.class, "0596519788"));
+		assertEquals(Long.valueOf(1L), lookup.load(session, Book.class,
+				"1590595963").getId());
+	}
+
+	@Test
+	public void testRenamedStoreIsEvicted() {
+		Store store = lookup.load(session, Store.class, "B&N Pima & Shea");
+		assertEquals(Long.valueOf(2L), store.getId());
+
+		session.beginTransaction();
+		store.setNickName("B&N Pima");
+		session.getTransaction().commit();
+		session.clear();
+		try {
+			assertNull(lookup.load(session, Store.class, "B&N Pima & Shea"));
+			assertEquals(Long.valueOf(2L), lookup.load(session, Store.class,
+					"B&N Pima").getId());
+		} finally {
+			session.clear();
+			session.beginTransaction();
+			((Store) session.get(Store.class, 2L)).setNickName("B&N Pima & Shea");
+			session.getTransaction().commit();
+		}
+	}
+
+	/**
+	 * Bulk HQL bypasses the listener, the stale entry is caught on lookup
+	 */
+	@Test
+	public void testStaleEntryAfterBulkUpdate() {
+		assertEquals(Long.valueOf(1L), lookup.load(session, Store.class,
+				"B&N Desert Ridge").getId());
+		session.clear();
+
+		session.beginTransaction();
+		session.createQuery("UPDATE Store SET nickName = :name WHERE id = 1")
+				.setString("name", "B&N Ridge").executeUpdate();
+		session.getTransaction().commit();
+		try {
+			assertNull(lookup.load(session, Store.class, "B&N Desert Ridge"));
+		} finally {
+			session.beginTransaction();
+			session.createQuery("UPDATE Store SET nickName = :name WHERE id = 1")
+					.setString("name", "B&N Desert Ridge").executeUpdate();
+			session.getTransaction().commit();
+		}
+	}
+
+	@Test
+	public void testDeletedBookIsEvicted() {
+		session.beginTransaction();
+		session.save(new Book("2222222222", "Deleted", new Date(), Money.valueOf(9.99)));
+		session.getTransaction().commit();
+		session.clear();
+
+		Book book = lookup.load(session, Book.class, "2222222222");
+		session.beginTransaction();
+		session.delete(book);
+		session.getTransaction().commit();
+		assertNull(lookup.load(session, Book.class, "2222222222"));
+	}
+
+	@Test(expected = HibernateException.class)
+	public void testIsbnIsImmutable() {
+		Book book = lookup.load(session, Book.class, "1934356093");
+		session.beginTransaction();
+		book.setIsbn("1934356094");
+		session.flush();
+	}
+
+	@Test
+	public void testEntityWithoutNaturalId() {
+		try {
+			lookup.load(session, Inventory.class, 1L);
+		} catch (HibernateException e) {
+			assertTrue(e.getMessage().indexOf("natural-id") > 0);
+			return;
+		}
+		throw new AssertionError("Inventory has no natural id");
+	}
+}
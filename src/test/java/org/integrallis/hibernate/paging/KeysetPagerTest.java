@@ -0,0 +1,168 @@
+package org.integrallis.hibernate.paging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.integrallis.bookstore.domain.Book;
+import org.integrallis.bookstore.domain.Money;
+import org.integrallis.bookstore.domain.Store;
+import org.integrallis.bookstore.listing.Listings;
+import org.integrallis.hibernate.HibernateUtil;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class KeysetPagerTest {
+
+	@BeforeClass
+	public static void beforeClass() throws Exception {
+		// ties and nulls for every ordering
+		SimpleDateFormat dates = new SimpleDateFormat("yyyy-MM-dd");
+		Session session = HibernateUtil.getSessionFactory().openSession();
+		Transaction tx = session.beginTransaction();
+		session.save(new Book("1000000001", "Groovy in Action", dates
+				.parse("2008-07-09"), Money.valueOf(23.07)));
+		session.save(new Book("1000000002", null, null, null));
+		session.save(new Book("1000000003", "Beginning POJOs", dates
+				.parse("2007-01-17"), null));
+		session.save(new Book("1000000004", null, dates.parse("2008-07-09"), Money.valueOf(31.49)));
+		session.save(new Book("1000000005", "Groovy in Action", null, Money.valueOf(23.07)));
+		tx.commit();
+		session.close();
+	}
+
+	@AfterClass
+	public static void afterClass() {
+		HibernateUtil.closeFactory();
+	}
+
+	@Test
+	public void testEveryOrderingMatchesOffsetPaging() {
+		Session session = HibernateUtil.getSessionFactory().openSession();
+		try {
+			for (String orderBy : Listings.BOOKS.getOrderings()) {
+				for (boolean descending : new boolean[] { false, true }) {
+					for (int size = 1; size <= 4; size++) {
+						assertEquals(orderBy + (descending ? " desc" : "")
+								+ " by " + size, ids(expected(session, "Book",
+								orderBy, descending)), ids(all(session,
+								Listings.BOOKS, orderBy, descending, size)));
+					}
+				}
+			}
+		} finally {
+			session.close();
+		}
+	}
+
+	@Test
+	public void testFilterApplies() throws Exception {
+		SimpleDateFormat dates = new SimpleDateFormat("yyyy-MM-dd");
+		Session session = HibernateUtil.getSessionFactory().openSession();
+		try {
+			session.enableFilter("publishedBetweenFilter").setParameter(
+					"startDate", dates.parse("2008-01-01")).setParameter(
+					"endDate", dates.parse("2008-12-31"));
+			List<Book> expected = expected(session, "Book", "price", false);
+			assertEquals(7, expected.size());
+			assertEquals(ids(expected), ids(all(session, Listings.BOOKS,
+					"price", false, 2)));
+		} finally {
+			session.close();
+		}
+	}
+
+	@Test
+	public void testStores() {
+		Session session = HibernateUtil.getSessionFactory().openSession();
+		try {
+			Page<Store> page = Listings.STORES.first(session, "nickName", false, 1);
+			assertEquals(1, page.getItems().size());
+			assertTrue(page.hasNext());
+			List<Store> stores = all(session, Listings.STORES, "nickName", true, 1);
+			assertEquals(ids(expected(session, "Store", "nickName", true)),
+					ids(stores));
+		} finally {
+			session.close();
+		}
+	}
+
+	@Test
+	public void testLastPageHasNoToken() {
+		Session session = HibernateUtil.getSessionFactory().openSession();
+		try {
+			Page<Book> page = Listings.BOOKS.first(session, "id", false, 100);
+			assertEquals(13, page.getItems().size());
+			assertFalse(page.hasNext());
+		} finally {
+			session.close();
+		}
+	}
+
+	@Test
+	public void testInvalidTokens() {
+		Session session = HibernateUtil.getSessionFactory().openSession();
+		try {
+			String bookToken = Listings.BOOKS.first(session, "title", false, 1)
+					.getNextToken();
+			for (String token : new String[] { "zz", "abc", "", bookToken.substring(2) }) {
+				try {
+					Listings.BOOKS.next(session, token, 1);
+					fail(token);
+				} catch (IllegalArgumentException expected) {
+				}
+			}
+			try {
+				Listings.STORES.next(session, bookToken, 1);
+				fail();
+			} catch (IllegalArgumentException expected) {
+			}
+			try {
+				Listings.BOOKS.first(session, "isbn", false, 1);
+				fail();
+			} catch (IllegalArgumentException expected) {
+			}
+		} finally {
+			session.close();
+		}
+	}
+
+	private static <T> List<T> all(Session session, KeysetPager<T> pager,
+			String orderBy, boolean descending, int size) {
+		List<T> all = new ArrayList<T>();
+		Page<T> page = pager.first(session, orderBy, descending, size);
+		all.addAll(page.getItems());
+		while (page.hasNext()) {
+			assertEquals(size, page.getItems().size());
+			page = pager.next(session, page.getNextToken(), size);
+			all.addAll(page.getItems());
+		}
+		return all;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> List<T> expected(Session session, String entity,
+			String orderBy, boolean descending) {
+		String direction = descending ? " DESC" : " ASC";
+		return session.createQuery(
+				"FROM " + entity + " e ORDER BY e." + orderBy + direction
+						+ ", e.id" + direction).list();
+	}
+
+	private static List<Long> ids(List<?> entities) {
+		List<Long> ids = new ArrayList<Long>();
+		for (Object entity : entities) {
+			ids.add(entity instanceof Book ? ((Book) entity).getId()
+					: ((Store) entity).getId());
+		}
+		return ids;
+	}
+}
@@ -0,0 +1,169 @@
+package org.integrallis.hibernate.retry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.StaleStateException;
+import org.integrallis.bookstore.domain.Book;
+import org.integrallis.bookstore.domain.Money;
+import org.integrallis.hibernate.HibernateUtil;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OptimisticRetryExecutorTest {
+
+	private static final int THREADS = 8;
+	private static final int UPDATES = 10;
+
+	private SessionFactory sessionFactory;
+
+	@Before
+	public void before() {
+		sessionFactory = HibernateUtil.getSessionFactory();
+	}
+
+	@AfterClass
+	public static void afterClass() {
+		HibernateUtil.closeFactory();
+	}
+
+	/**
+	 * Threads keep raising the price of one book: every raise lands, the
+	 * losers of a conflict reload and raise again
+	 */
+	@Test
+	public void testNoUpdateLostUnderContention() throws Exception {
+		final OptimisticRetryExecutor executor = new OptimisticRetryExecutor(
+				sessionFactory, 100, 1, 20);
+		Book before = book(3L);
+		ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+		final CountDownLatch start = new CountDownLatch(1);
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (int i = 0; i < THREADS; i++) {
+				futures.add(threads.submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						start.await();
+						for (int i = 0; i < UPDATES; i++) {
+							executor.update(Book.class, 3L, new Mutation<Book>() {
+								public void apply(Book book) {
+									book.setPrice(book.getPrice().plus(Money.ofCents(100)));
+									Thread.yield();
+								}
+							});
+						}
+						return null;
+					}
+				}));
+			}
+			start.countDown();
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} finally {
+			threads.shutdown();
+		}
+		Book after = book(3L);
+		assertEquals(before.getPrice().plus(Money.ofCents(THREADS * UPDATES * 100)),
+				after.getPrice());
+		assertEquals(before.getVersion() + THREADS * UPDATES, after.getVersion());
+		long conflicts = executor.getConflictCount();
+		assertTrue(conflicts > 0);
+		assertEquals(THREADS * UPDATES + conflicts, executor.getAttemptCount());
+		assertEquals(0, executor.getExhaustedCount());
+		assertTrue(executor.getRetriedCommitCount() > 0);
+		RowConflicts hottest = executor.getHotRows(10).get(0);
+		assertEquals(Book.class.getName(), hottest.getEntityName());
+		assertEquals(3L, hottest.getId());
+		assertEquals(conflicts, hottest.getConflicts());
+		executor.update(Book.class, 3L, new Mutation<Book>() {
+			public void apply(Book book) {
+				book.setPrice(book.getPrice().plus(Money.ofCents(-THREADS * UPDATES * 100)));
+			}
+		});
+	}
+
+	/**
+	 * A row changed behind every attempt's back is given up on after
+	 * maxAttempts
+	 */
+	@Test
+	public void testGivesUpAfterMaxAttempts() {
+		OptimisticRetryExecutor executor = new OptimisticRetryExecutor(
+				sessionFactory, 3, 1, 5);
+		final String title = book(4L).getTitle();
+		final int[] edits = { 0 };
+		try {
+			executor.update(Book.class, 4L, new Mutation<Book>() {
+				public void apply(Book book) {
+					book.setTitle(title + "!");
+					retitle(4L, title + " (" + ++edits[0] + ")");
+				}
+			});
+			throw new AssertionError("no conflict");
+		} catch (StaleStateException expected) {
+		}
+		assertEquals(3, executor.getAttemptCount());
+		assertEquals(3, executor.getConflicts(Book.class.getName(), 4L));
+		assertEquals(1, executor.getExhaustedCount());
+		assertEquals(title + " (3)", book(4L).getTitle());
+		retitle(4L, title);
+	}
+
+	/**
+	 * Only version conflicts are retried
+	 */
+	@Test
+	public void testOtherFailuresAreNotRetried() {
+		OptimisticRetryExecutor executor = new OptimisticRetryExecutor(sessionFactory);
+		try {
+			executor.execute(new UnitOfWork<Void>() {
+				public Void execute(Session session) {
+					throw new IllegalStateException("broken");
+				}
+			});
+			throw new AssertionError("not thrown");
+		} catch (IllegalStateException expected) {
+		}
+		assertEquals(1, executor.getAttemptCount());
+		assertEquals(0, executor.getConflictCount());
+		assertEquals(Integer.valueOf(8), executor.execute(new UnitOfWork<Integer>() {
+			public Integer execute(Session session) {
+				return ((Number) session.createQuery("SELECT COUNT(b) FROM Book b")
+						.uniqueResult()).intValue();
+			}
+		}));
+	}
+
+	private Book book(Long id) {
+		Session session = sessionFactory.openSession();
+		try {
+			return (Book) session.get(Book.class, id);
+		} finally {
+			session.close();
+		}
+	}
+
+	private void retitle(Long id, String title) {
+		Session session = sessionFactory.openSession();
+		try {
+			session.beginTransaction();
+			Book book = (Book) session.get(Book.class, id);
+			book.setTitle(title);
+			session.getTransaction().commit();
+		} finally {
+			session.close();
+		}
+	}
+}
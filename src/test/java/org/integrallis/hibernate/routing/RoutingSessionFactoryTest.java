@@ -0,0 +1,227 @@
+package org.integrallis.hibernate.routing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+import org.integrallis.bookstore.domain.Book;
+import org.integrallis.bookstore.domain.Store;
+import org.integrallis.hibernate.DatabaseMode;
+import org.integrallis.hibernate.HibernateUtil;
+import org.integrallis.hibernate.cache.BoundedCache;
+import org.integrallis.hibernate.cache.BoundedCacheProvider;
+import org.integrallis.hibernate.retry.UnitOfWork;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Routing between the in-memory BookStore database and two more in-memory
+ * databases standing in for its replicas, all filled from db_populate.sql.
+ * Nothing replicates between them, which shows where a read ran.
+ */
+public class RoutingSessionFactoryTest {
+
+	private static SessionFactory primary;
+	private static SessionFactory replicaOne;
+	private static SessionFactory replicaTwo;
+
+	private static final UnitOfWork<SessionFactory> WHERE = new UnitOfWork<SessionFactory>() {
+		public SessionFactory execute(Session session) {
+			return session.getSessionFactory();
+		}
+	};
+
+	@BeforeClass
+	public static void beforeClass() {
+		primary = HibernateUtil.getSessionFactory();
+		replicaOne = replica("BookStoreReplica1").buildSessionFactory();
+		replicaTwo = replica("BookStoreReplica2").buildSessionFactory();
+	}
+
+	@AfterClass
+	public static void afterClass() {
+		replicaOne.close();
+		replicaTwo.close();
+		HibernateUtil.closeFactory();
+	}
+
+	@Test
+	public void testRoundRobin() {
+		RoutingSessionFactory router = router(ReplicaStrategy.ROUND_ROBIN, 1000);
+		assertSame(replicaOne, router.read(WHERE));
+		assertSame(replicaTwo, router.read(WHERE));
+		assertSame(replicaOne, router.read(WHERE));
+		assertSame(primary, router.write(WHERE));
+		assertEquals(2, router.getReplicaReadCounts()[0]);
+		assertEquals(1, router.getReplicaReadCounts()[1]);
+		assertEquals(0, router.getPrimaryReadCount());
+		assertEquals(1, router.getWriteCount());
+	}
+
+	/**
+	 * While a read holds the first replica, reads go to the second
+	 */
+	@Test
+	public void testLeastBusy() throws Exception {
+		final RoutingSessionFactory router = router(ReplicaStrategy.LEAST_BUSY, 1000);
+		final CountDownLatch reading = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(1);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<SessionFactory> slow = executor.submit(new Callable<SessionFactory>() {
+				public SessionFactory call() {
+					return router.read(new UnitOfWork<SessionFactory>() {
+						public SessionFactory execute(Session session) {
+							reading.countDown();
+							try {
+								done.await(5, TimeUnit.SECONDS);
+							} catch (InterruptedException e) {
+								Thread.currentThread().interrupt();
+							}
+							return session.getSessionFactory();
+						}
+					});
+				}
+			});
+			assertTrue(reading.await(5, TimeUnit.SECONDS));
+			for (int i = 0; i < 3; i++) {
+				assertSame(replicaTwo, router.read(WHERE));
+			}
+			done.countDown();
+			assertSame(replicaOne, slow.get());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * A thread reads its own write from the primary until the sticky window
+	 * ends, other threads read the replicas meanwhile
+	 */
+	@Test
+	public void testReadsStickToThePrimaryAfterAWrite() throws Exception {
+		final RoutingSessionFactory router = router(ReplicaStrategy.ROUND_ROBIN, 300);
+		final UnitOfWork<String> nickName = new UnitOfWork<String>() {
+			public String execute(Session session) {
+				return ((Store) session.get(Store.class, 2L)).getNickName();
+			}
+		};
+		router.write(new UnitOfWork<Void>() {
+			public Void execute(Session session) {
+				((Store) session.get(Store.class, 2L)).setNickName("B&N Pima");
+				return null;
+			}
+		});
+		try {
+			assertEquals("B&N Pima", router.read(nickName));
+			assertSame(primary, router.read(WHERE));
+			ExecutorService executor = Executors.newSingleThreadExecutor();
+			try {
+				assertEquals("B&N Pima & Shea", executor.submit(
+						new Callable<String>() {
+							public String call() {
+								return router.read(nickName);
+							}
+						}).get());
+			} finally {
+				executor.shutdown();
+			}
+			assertEquals(2, router.getStickyReadCount());
+			Thread.sleep(400);
+			assertEquals("B&N Pima & Shea", router.read(nickName));
+		} finally {
+			router.write(new UnitOfWork<Void>() {
+				public Void execute(Session session) {
+					((Store) session.get(Store.class, 2L))
+							.setNickName("B&N Pima & Shea");
+					return null;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Read sessions do not flush what the work changed
+	 */
+	@Test
+	public void testReadsDoNotWrite() {
+		RoutingSessionFactory router = new RoutingSessionFactory(primary,
+				new ArrayList<SessionFactory>(), ReplicaStrategy.ROUND_ROBIN);
+		router.read(new UnitOfWork<Void>() {
+			public Void execute(Session session) {
+				((Store) session.get(Store.class, 1L)).setNickName("changed");
+				return null;
+			}
+		});
+		assertEquals("B&N Desert Ridge", router.read(new UnitOfWork<String>() {
+			public String execute(Session session) {
+				return (String) session.createSQLQuery(
+						"SELECT NickName FROM Store WHERE STORE_ID = 1")
+						.uniqueResult();
+			}
+		}));
+		assertEquals(2, router.getPrimaryReadCount());
+	}
+
+	@Test
+	public void testConfigure() {
+		Configuration configuration = replica("BookStore");
+		configuration.setProperty(RoutingSessionFactory.REPLICAS,
+				"jdbc:derby:memory:BookStoreReplica1, jdbc:derby:memory:BookStoreReplica2");
+		configuration.setProperty(RoutingSessionFactory.STRATEGY, "least_busy");
+		RoutingSessionFactory router = RoutingSessionFactory.configure(
+				configuration, primary);
+		try {
+			assertEquals(ReplicaStrategy.LEAST_BUSY, router.getStrategy());
+			assertEquals(Integer.valueOf(8), router.read(new UnitOfWork<Integer>() {
+				public Integer execute(Session session) {
+					return ((Number) session.createQuery("SELECT COUNT(b) FROM Book b")
+							.uniqueResult()).intValue();
+				}
+			}));
+			assertEquals(2, router.getReplicaReadCounts().length);
+			// the replicas are built from the primary's configuration, which
+			// is left as it was
+			assertEquals("jdbc:derby:memory:BookStore;create=true", configuration
+					.getProperty(Environment.URL));
+			assertEquals("BookStore", configuration
+					.getProperty(Environment.CACHE_REGION_PREFIX));
+			BoundedCache books = BoundedCacheProvider.getRegion("replica1."
+					+ Book.class.getName());
+			assertNotNull(books);
+			assertEquals(5000, books.getMaxEntries());
+		} finally {
+			router.close();
+		}
+	}
+
+	private static RoutingSessionFactory router(ReplicaStrategy strategy,
+			long stickyWindow) {
+		return new RoutingSessionFactory(primary, Arrays.asList(replicaOne,
+				replicaTwo), strategy, stickyWindow);
+	}
+
+	private static Configuration replica(String name) {
+		Configuration configuration = new Configuration().configure();
+		configuration.setProperty(DatabaseMode.NAME, name);
+		configuration.setProperty(Environment.CACHE_REGION_PREFIX, name);
+		DatabaseMode.MEMORY.apply(configuration);
+		return configuration;
+	}
+}
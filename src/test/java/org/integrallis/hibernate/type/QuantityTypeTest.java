@@ -0,0 +1,17 @@
+package org.integrallis.hibernate.type;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class QuantityTypeTest {
+
+	@Test
+	public void testCommonQuantitiesAreShared() {
+		assertSame(QuantityType.valueOf(0), QuantityType.valueOf(0));
+		assertSame(QuantityType.valueOf(QuantityType.CACHED - 1), QuantityType
+				.valueOf(QuantityType.CACHED - 1));
+		assertEquals(Integer.valueOf(-1), QuantityType.valueOf(-1));
+	}
+}
@@ -0,0 +1,95 @@
+package org.integrallis.hibernate.warmup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.Configuration;
+import org.integrallis.hibernate.DatabaseMode;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.integrallis.hibernate.connection.ConnectionPoolStatistics;
+import org.integrallis.hibernate.connection.PooledConnectionProvider;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class QueryWarmupTest {
+
+	private static Configuration configuration;
+	private static SessionFactory sessionFactory;
+	private static QueryWarmup warmup;
+
+	@BeforeClass
+	public static void beforeClass() {
+		configuration = new Configuration().configure();
+		configuration.setProperty(QueryWarmup.ENABLED, "true");
+		configuration.setProperty(QueryWarmup.ITERATIONS, "2");
+		DatabaseMode.configure(configuration);
+		sessionFactory = configuration.buildSessionFactory();
+		warmup = QueryWarmup.configure(configuration);
+		warmup.warmUp(sessionFactory, configuration);
+	}
+
+	@AfterClass
+	public static void afterClass() {
+		sessionFactory.close();
+	}
+
+	@Test
+	public void testDisabledByDefault() {
+		assertEquals(null, QueryWarmup.configure(new Configuration()));
+	}
+
+	/**
+	 * The two named HQL queries and the three listed in hibernate.cfg.xml,
+	 * each plain and with publishedBetweenFilter. Only Book.findByISBN reads
+	 * Book, so with Store.findTotalValueOfBookForStore there are 7 distinct
+	 * statements to prepare on every idle connection.
+	 */
+	@Test
+	public void testWarmUp() {
+		assertEquals(10, warmup.getPlansCompiled());
+		assertEquals(0, warmup.getFailures());
+		assertTrue(warmup.getConnectionsWarmed() >= 2);
+		assertEquals(7 * warmup.getConnectionsWarmed(), warmup.getStatementsPrepared());
+		assertTrue(warmup.getWarmupMillis() >= 0);
+	}
+
+	/**
+	 * Once warm, the queries the application runs hit the plan cache and the
+	 * statement cache
+	 */
+	@Test
+	public void testQueriesHitTheCaches() {
+		long misses = warmup.getPlanCacheMisses();
+		ConnectionPoolStatistics before = poolStatistics();
+		Session session = sessionFactory.openSession();
+		try {
+			session.getNamedQuery("Book.findByISBN").setString("isbn", "1590595963")
+					.list();
+			session.enableFilter("publishedBetweenFilter").setParameter(
+					"startDate", new Date(0)).setParameter("endDate", new Date());
+			session.getNamedQuery("Book.findByISBN").setString("isbn", "1590595963")
+					.list();
+			session.getNamedQuery("Store.findByNickName").setString("nickName",
+					"B&N Desert Ridge").list();
+			session.createQuery(
+					"SELECT i.quantity FROM Inventory i WHERE i.book.id = :book AND i.store.id = :store")
+					.setLong("book", 1L).setLong("store", 1L).uniqueResult();
+		} finally {
+			session.close();
+		}
+		assertEquals(misses, warmup.getPlanCacheMisses());
+		assertTrue(warmup.getPlanCacheHitRatio() > 0);
+		ConnectionPoolStatistics after = poolStatistics();
+		assertEquals(before.getStatementCacheMisses(), after.getStatementCacheMisses());
+	}
+
+	private static ConnectionPoolStatistics poolStatistics() {
+		return ((PooledConnectionProvider) ((SessionFactoryImplementor) sessionFactory)
+				.getConnectionProvider()).getStatistics();
+	}
+}